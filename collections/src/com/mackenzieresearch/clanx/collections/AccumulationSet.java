@@ -28,11 +28,23 @@
 
 package com.mackenzieresearch.clanx.collections;
 
-import java.util.HashMap;
-import java.util.Map;
-
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * AccumulationSet totals a score for each item, such as a count of the votes it has been given.
+ * <p/>
+ * The totals live in an open-addressing table of items with a column of float totals alongside, so adding to an
+ * item takes a single probe and boxes nothing.  Sets filled on separate threads can be merged once they are done,
+ * and getRankings() hands the totals to a RankedSet as columns that it sorts in one go.
+ *
+ * @param <T>
+ */
 public class AccumulationSet<T> {
-  private Map<T, Float> _index = new HashMap<T, Float>();
+  private static final int INITIAL_CAPACITY = 16;
+
+  private Object[] _items = new Object[INITIAL_CAPACITY];
+  private float[] _scores = new float[INITIAL_CAPACITY];
+  private int _size = 0;
   private float _itemWeight = 1.0F;
 
 
@@ -43,34 +55,101 @@ public class AccumulationSet<T> {
     _itemWeight = weight;
   }
 
+  public int size() {
+    return _size;
+  }
+
   public void add(T item) {
-    float score = 0F;
+    _accumulate(item, _itemWeight);
+  }
 
-    if (_index.containsKey(item)) {
-      score = _index.get(item);
-    }
+  public void add(T item, float qty) {
+    _accumulate(item, _itemWeight * qty);
+  }
+
+  /**
+   * The item's total, or 0 if it has never been added.
+   */
+  public float getScore(T item) {
+    checkNotNull(item);
 
-    score = score + _itemWeight;
-    _index.put(item, score);
+    int mask = _items.length - 1;
+    for (int slot = _hash(item) & mask; _items[slot] != null; slot = (slot + 1) & mask)
+      if (_items[slot].equals(item))
+        return _scores[slot];
+
+    return 0F;
   }
 
-  public void add(T item, float qty) {
-    float score = 0F;
+  /**
+   * Adds other's totals to this set's as they stand, without applying this set's weight to them again.
+   */
+  public void merge(AccumulationSet<? extends T> other) {
+    checkNotNull(other);
+
+    Object[] items = other._items;
+    float[] scores = other._scores;
+    for (int slot = 0; slot < items.length; slot++)
+      if (items[slot] != null)
+        _accumulate(items[slot], scores[slot]);
+  }
+
+  public RankedSet<T> getRankings() {
+    float[] scores = new float[_size];
+    Object[] items = new Object[_size];
+    int n = 0;
+    for (int slot = 0; slot < _items.length; slot++)
+      if (_items[slot] != null) {
+        scores[n] = _scores[slot];
+        items[n++] = _items[slot];
+      }
+
+    return RankedSet.ofColumns(scores, items, n);
+  }
 
-    if (_index.containsKey(item)) {
-      score = _index.get(item);
+  private void _accumulate(Object item, float score) {
+    checkNotNull(item);
+
+    int mask = _items.length - 1;
+    int slot = _hash(item) & mask;
+    for (Object slotItem = _items[slot]; slotItem != null; slotItem = _items[slot]) {
+      if (slotItem.equals(item)) {
+        _scores[slot] += score;
+        return;
+      }
+      slot = (slot + 1) & mask;
     }
 
-    score = score + _itemWeight * qty;
-    _index.put(item, score);
+    _items[slot] = item;
+    _scores[slot] = score;
+    //  Keep the table at most three quarters full, so that probe sequences stay short...
+    if (++_size * 4 > _items.length * 3)
+      _grow();
   }
 
-  public RankedSet<T> getRankings() {
-    RankedSet<T> results = new RankedSet<T>();
-    for (T key : _index.keySet()) {
-      results.add(_index.get(key), key);
+  private void _grow() {
+    Object[] items = _items;
+    float[] scores = _scores;
+    _items = new Object[items.length * 2];
+    _scores = new float[items.length * 2];
+
+    int mask = _items.length - 1;
+    for (int i = 0; i < items.length; i++) {
+      if (items[i] == null)
+        continue;
+      int slot = _hash(items[i]) & mask;
+      while (_items[slot] != null)
+        slot = (slot + 1) & mask;
+      _items[slot] = items[i];
+      _scores[slot] = scores[i];
     }
+  }
 
-    return results;
+  /**
+   * Spreads the hash code's bits, since linear probing suffers from hash codes that differ only in their high bits.
+   */
+  private static int _hash(Object item) {
+    int hash = item.hashCode() * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
   }
 }
@@ -0,0 +1,153 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * ConcurrentAccumulationSet is an AccumulationSet that any number of threads can add to at once.
+ * <p/>
+ * Each item has a cell of its own holding its total as the bits of a float, and adding to it is a compare-and-set
+ * on those bits, so threads adding to different items never wait for each other and threads adding to the same one
+ * only retry.  The cells are found through a ConcurrentHashMap, whose own striping means that only the first add of
+ * an item takes a lock, and only on its segment of the map.
+ * <p/>
+ * snapshot() can be taken while threads are still adding.  It holds each item's total at some moment during the
+ * snapshot, but not all of them at the same moment; taken once the adding is done it holds the final totals.
+ * <p/>
+ * The compare-and-sets land in whatever order the threads get to them, and float addition isn't associative, so
+ * unless the quantities are exact in binary the totals can differ in their last bits from run to run and from an
+ * AccumulationSet given the same adds.
+ *
+ * @param <T>
+ */
+public class ConcurrentAccumulationSet<T> {
+  public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+  private final ConcurrentMap<T, Cell> _cells;
+  private final float _itemWeight;
+
+
+  public ConcurrentAccumulationSet() {
+    this(1.0F);
+  }
+
+  public ConcurrentAccumulationSet(float weight) {
+    this(weight, DEFAULT_CONCURRENCY_LEVEL);
+  }
+
+  /**
+   * concurrencyLevel is the number of threads expected to add new items at the same time.
+   */
+  public ConcurrentAccumulationSet(float weight, int concurrencyLevel) {
+    checkArgument(concurrencyLevel > 0);
+    _itemWeight = weight;
+    _cells = new ConcurrentHashMap<T, Cell>(16, 0.75f, concurrencyLevel);
+  }
+
+  public int size() {
+    return _cells.size();
+  }
+
+  public void add(T item) {
+    _cell(item).add(_itemWeight);
+  }
+
+  public void add(T item, float qty) {
+    _cell(item).add(_itemWeight * qty);
+  }
+
+  /**
+   * The item's total, or 0 if it has never been added.
+   */
+  public float getScore(T item) {
+    checkNotNull(item);
+
+    Cell cell = _cells.get(item);
+    return cell == null ? 0F : cell.get();
+  }
+
+  /**
+   * The totals so far, as AccumulationSet.getRankings() would rank them.
+   */
+  public RankedSet<T> snapshot() {
+    //  The map may grow while it's read, so the columns grow with it...
+    float[] scores = new float[Math.max(16, _cells.size())];
+    Object[] items = new Object[scores.length];
+    int n = 0;
+    for (Map.Entry<T, Cell> entry : _cells.entrySet()) {
+      if (n == scores.length) {
+        scores = Arrays.copyOf(scores, n * 2);
+        items = Arrays.copyOf(items, n * 2);
+      }
+      scores[n] = entry.getValue().get();
+      items[n++] = entry.getKey();
+    }
+
+    return RankedSet.ofColumns(scores, items, n);
+  }
+
+  private Cell _cell(T item) {
+    checkNotNull(item);
+
+    Cell cell = _cells.get(item);
+    if (cell != null)
+      return cell;
+
+    Cell newCell = new Cell();
+    cell = _cells.putIfAbsent(item, newCell);
+    return cell != null ? cell : newCell;
+  }
+
+
+  private static final class Cell {
+    private static final AtomicIntegerFieldUpdater<Cell> BITS = AtomicIntegerFieldUpdater.newUpdater(Cell.class, "_bits");
+
+    private volatile int _bits = Float.floatToRawIntBits(0F);
+
+    float get() {
+      return Float.intBitsToFloat(_bits);
+    }
+
+    void add(float score) {
+      while (true) {
+        int bits = _bits;
+        if (BITS.compareAndSet(this, bits, Float.floatToRawIntBits(Float.intBitsToFloat(bits) + score)))
+          return;
+      }
+    }
+  }
+}
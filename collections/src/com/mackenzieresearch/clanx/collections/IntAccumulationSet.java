@@ -0,0 +1,151 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * IntAccumulationSet is an AccumulationSet of int items, such as fact or candidate ids, kept in an open-addressing
+ * table of ints so that adding to an item neither boxes it nor its total.  Only getRankings() boxes, once per item.
+ */
+public class IntAccumulationSet {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private int[] _items = new int[INITIAL_CAPACITY];
+  private float[] _scores = new float[INITIAL_CAPACITY];
+  private boolean[] _used = new boolean[INITIAL_CAPACITY];
+  private int _size = 0;
+  private float _itemWeight = 1.0F;
+
+
+  public IntAccumulationSet() {
+  }
+
+  public IntAccumulationSet(float weight) {
+    _itemWeight = weight;
+  }
+
+  public int size() {
+    return _size;
+  }
+
+  public void add(int item) {
+    _accumulate(item, _itemWeight);
+  }
+
+  public void add(int item, float qty) {
+    _accumulate(item, _itemWeight * qty);
+  }
+
+  /**
+   * The item's total, or 0 if it has never been added.
+   */
+  public float getScore(int item) {
+    int mask = _items.length - 1;
+    for (int slot = _hash(item) & mask; _used[slot]; slot = (slot + 1) & mask)
+      if (_items[slot] == item)
+        return _scores[slot];
+
+    return 0F;
+  }
+
+  /**
+   * Adds other's totals to this set's as they stand, without applying this set's weight to them again.
+   */
+  public void merge(IntAccumulationSet other) {
+    checkNotNull(other);
+
+    int[] items = other._items;
+    float[] scores = other._scores;
+    boolean[] used = other._used;
+    for (int slot = 0; slot < items.length; slot++)
+      if (used[slot])
+        _accumulate(items[slot], scores[slot]);
+  }
+
+  public RankedSet<Integer> getRankings() {
+    float[] scores = new float[_size];
+    Object[] items = new Object[_size];
+    int n = 0;
+    for (int slot = 0; slot < _items.length; slot++)
+      if (_used[slot]) {
+        scores[n] = _scores[slot];
+        items[n++] = _items[slot];
+      }
+
+    return RankedSet.ofColumns(scores, items, n);
+  }
+
+  private void _accumulate(int item, float score) {
+    int mask = _items.length - 1;
+    int slot = _hash(item) & mask;
+    while (_used[slot]) {
+      if (_items[slot] == item) {
+        _scores[slot] += score;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    _items[slot] = item;
+    _scores[slot] = score;
+    _used[slot] = true;
+    if (++_size * 4 > _items.length * 3)
+      _grow();
+  }
+
+  private void _grow() {
+    int[] items = _items;
+    float[] scores = _scores;
+    boolean[] used = _used;
+    _items = new int[items.length * 2];
+    _scores = new float[items.length * 2];
+    _used = new boolean[items.length * 2];
+
+    int mask = _items.length - 1;
+    for (int i = 0; i < items.length; i++) {
+      if (!used[i])
+        continue;
+      int slot = _hash(items[i]) & mask;
+      while (_used[slot])
+        slot = (slot + 1) & mask;
+      _items[slot] = items[i];
+      _scores[slot] = scores[i];
+      _used[slot] = true;
+    }
+  }
+
+  /**
+   * Dense ids would otherwise fill runs of neighbouring slots, which linear probing handles badly.
+   */
+  private static int _hash(int item) {
+    int hash = item * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+}
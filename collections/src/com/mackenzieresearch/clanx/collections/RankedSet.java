@@ -30,6 +30,8 @@ package com.mackenzieresearch.clanx.collections;
 
 import com.google.common.collect.BoundType;
 import com.google.common.collect.Multiset;
+import com.google.common.collect.Multisets;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.SortedMultiset;
 import com.google.common.collect.TreeMultiset;
 
@@ -37,26 +39,54 @@ import java.util.*;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
-
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * RankedSet is a multiset of ScoredItems in score order.
+ * <p/>
+ * An ascending set starts out as a column of scores and a column of items, appended to in the order they are added
+ * and sorted the first time the set is read in order, since most sets are built, read from the top once and thrown
+ * away.  Adding, sizing, iterating and the first and last entries work on the columns; anything else (counts,
+ * removals, views) moves the set into a TreeMultiset, adding the items in the order they were added, and the set
+ * stays there.  So does a set whose scores are so close together that ScoredItem.compareTo() would order them by when
+ * they were added, which only the tree can reproduce.
+ * <p/>
+ * A bounded set, of either order, keeps only the best capacity items added to it.  Its columns are a heap with the
+ * worst item on top, so an item that can't beat it is turned away at once, and getWorstScore() tells producers what a
+ * candidate has to beat to be worth scoring at all.
+ *
+ * @param <T>
+ */
 public class RankedSet<T> extends AbstractCollection<ScoredItem<T>> implements Multiset<ScoredItem<T>>, SortedMultiset<ScoredItem<T>> {
   public enum Order {ASCENDING, DESCENDING}
 
   private static float MAX_SCORE = Float.MAX_VALUE;
   private static float MIN_SCORE = Float.MIN_VALUE;
+  private static final float[] NO_SCORES = new float[0];
+  private static final Object[] NO_ITEMS = new Object[0];
 
-  private final SortedMultiset<ScoredItem<T>> _elements;
+  private volatile SortedMultiset<ScoredItem<T>> _elements;
   private final Order _order;
+  private final int _capacity;
+
+  //  The columns of a set that isn't in _elements yet, and the order of their rows by ascending score once sorted...
+  private float[] _scores = NO_SCORES;
+  private Object[] _items = NO_ITEMS;
+  private int _size = 0;
+  private volatile int[] _sorted = null;
 
   public RankedSet() {
     _order = Order.ASCENDING;
-    _elements = TreeMultiset.create();
+    _elements = null;
+    _capacity = Integer.MAX_VALUE;
   }
 
   public RankedSet(Order direction) {
+    _capacity = Integer.MAX_VALUE;
     switch (direction) {
       case ASCENDING:
         _order = Order.ASCENDING;
-        _elements = TreeMultiset.create();
+        _elements = null;
         break;
       case DESCENDING:
         _order = Order.DESCENDING;
@@ -67,9 +97,40 @@ public class RankedSet<T> extends AbstractCollection<ScoredItem<T>> implements M
     }
   }
 
+  /**
+   * A set that keeps only the best capacity items added to it.
+   */
+  public RankedSet(Order direction, int capacity) {
+    checkNotNull(direction);
+    checkArgument(capacity > 0);
+
+    _order = direction;
+    _elements = null;
+    _capacity = capacity;
+  }
+
   private RankedSet(Order order, SortedMultiset<ScoredItem<T>> elements) {
     _order = order;
     _elements = elements;
+    _capacity = Integer.MAX_VALUE;
+  }
+
+  /**
+   * An ascending set of the first size scores and items, which are taken over as its columns and sorted once when
+   * the set is first read, instead of being added one at a time.  The caller mustn't touch the arrays afterwards.
+   */
+  static <T> RankedSet<T> ofColumns(float[] scores, Object[] items, int size) {
+    checkArgument(size >= 0 && size <= scores.length && size <= items.length);
+    for (int i = 0; i < size; i++) {
+      checkArgument(scores[i] >= 0);
+      checkNotNull(items[i]);
+    }
+
+    RankedSet<T> results = new RankedSet<T>();
+    results._scores = scores;
+    results._items = items;
+    results._size = size;
+    return results;
   }
 
   public Order getOrder() {
@@ -90,76 +151,180 @@ public class RankedSet<T> extends AbstractCollection<ScoredItem<T>> implements M
     return MIN_SCORE;
   }
 
+  /**
+   * The most items a bounded set keeps, or Integer.MAX_VALUE.
+   */
+  public int getCapacity() {
+    return _capacity;
+  }
+
+  /**
+   * The score an item has to beat to get into the set: the worst score in a bounded set that is full, and otherwise
+   * the worst score there is.
+   */
+  public float getWorstScore() {
+    SortedMultiset<ScoredItem<T>> elements = _elements;
+    if (elements != null) {
+      if (elements.size() >= _capacity)
+        return elements.lastEntry().getElement().getScore();
+    } else if (_size >= _capacity)
+      return _scores[0];
+
+    return _order == Order.ASCENDING ? getMaxScore() : getMinScore();
+  }
+
   public boolean add(float score, T entity) {
     checkArgument(score >= 0);
     checkNotNull(entity);
 
-    return _elements.add(new ScoredItem<T>(score, entity));
+    SortedMultiset<ScoredItem<T>> elements = _elements;
+    if (elements != null) {
+      if (elements.size() >= _capacity) {
+        ScoredItem<T> worst = elements.lastEntry().getElement();
+        if (!_isBetter(score, worst.getScore()))
+          return false;
+        elements.remove(worst, 1);
+      }
+      return elements.add(new ScoredItem<T>(score, entity));
+    }
+
+    if (_size == _capacity) {
+      if (!_isBetter(score, _scores[0]))
+        return false;
+      _scores[0] = score;
+      _items[0] = entity;
+      _siftDown();
+      _sorted = null;
+      return true;
+    }
+
+    if (_size == _scores.length) {
+      _scores = Arrays.copyOf(_scores, Math.max(8, Math.min(_capacity, _size * 2)));
+      _items = Arrays.copyOf(_items, _scores.length);
+    }
+    _scores[_size] = score;
+    _items[_size++] = entity;
+    if (_capacity != Integer.MAX_VALUE)
+      _siftUp(_size - 1);
+    _sorted = null;
+    return true;
   }
 
   @Override
   public Comparator<? super ScoredItem<T>> comparator() {
-    return _elements.comparator();
+    if (_elements != null)
+      return _elements.comparator();
+    return _order == Order.ASCENDING ? Ordering.<ScoredItem<T>>natural() : Ordering.<ScoredItem<T>>natural().reverse();
   }
 
   @Override
   public Entry<ScoredItem<T>> firstEntry() {
-    return _elements.firstEntry();
+    int[] sorted = _elements == null ? _sort() : null;
+    if (sorted == null)
+      return _elements().firstEntry();
+    if (_size == 0)
+      return null;
+    return _order == Order.ASCENDING ? _entry(sorted, 0, 1) : _entry(sorted, _size - 1, -1);
   }
 
   @Override
   public Entry<ScoredItem<T>> lastEntry() {
-    return _elements.lastEntry();
+    int[] sorted = _elements == null ? _sort() : null;
+    if (sorted == null)
+      return _elements().lastEntry();
+    if (_size == 0)
+      return null;
+    return _order == Order.ASCENDING ? _entry(sorted, _size - 1, -1) : _entry(sorted, 0, 1);
   }
 
   @Override
   public Entry<ScoredItem<T>> pollFirstEntry() {
-    return _elements.pollFirstEntry();
+    return _elements().pollFirstEntry();
   }
 
   @Override
   public Entry<ScoredItem<T>> pollLastEntry() {
-    return _elements.pollLastEntry();
+    return _elements().pollLastEntry();
   }
 
   @Override
   public int count(Object o) {
-    return _elements.count(o);
+    return _elements().count(o);
   }
 
   @Override
   public int add(ScoredItem<T> tScoredItem, int i) {
-    return _elements.add(tScoredItem, i);
+    int count = _elements().add(tScoredItem, i);
+    _trim();
+    return count;
   }
 
   @Override
   public int remove(Object o, int i) {
-    return _elements.remove(o, i);
+    return _elements().remove(o, i);
   }
 
   @Override
   public int setCount(ScoredItem<T> tScoredItem, int i) {
-    return _elements.setCount(tScoredItem, i);
+    int count = _elements().setCount(tScoredItem, i);
+    _trim();
+    return count;
   }
 
   @Override
   public boolean setCount(ScoredItem<T> tScoredItem, int i, int i1) {
-    return _elements.setCount(tScoredItem, i, i1);
+    boolean set = _elements().setCount(tScoredItem, i, i1);
+    _trim();
+    return set;
   }
 
   @Override
   public SortedSet<ScoredItem<T>> elementSet() {
-    return _elements.elementSet();
+    return _elements().elementSet();
   }
 
   @Override
   public Set<Entry<ScoredItem<T>>> entrySet() {
-    return _elements.entrySet();
+    return _elements().entrySet();
   }
 
   @Override
   public Iterator<ScoredItem<T>> iterator() {
-    return _elements.iterator();
+    final int[] sorted = _elements == null ? _sort() : null;
+    if (sorted == null)
+      return _elements().iterator();
+
+    final float[] scores = _scores;
+    final Object[] items = _items;
+    final int size = _size;
+    final boolean descending = _order == Order.DESCENDING;
+    return new Iterator<ScoredItem<T>>() {
+      private int _next = 0;
+      private ScoredItem<T> _last = null;
+
+      @Override
+      public boolean hasNext() {
+        return _next < size;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public ScoredItem<T> next() {
+        if (_next == size)
+          throw new NoSuchElementException();
+        int row = sorted[descending ? size - 1 - _next : _next];
+        _next++;
+        _last = new ScoredItem<T>(scores[row], (T) items[row]);
+        return _last;
+      }
+
+      @Override
+      public void remove() {
+        checkState(_last != null);
+        _elements().remove(_last, 1);
+        _last = null;
+      }
+    };
   }
 
   @Override
@@ -169,22 +334,23 @@ public class RankedSet<T> extends AbstractCollection<ScoredItem<T>> implements M
 
   @Override
   public SortedMultiset<ScoredItem<T>> headMultiset(ScoredItem<T> tScoredItem, BoundType boundType) {
-    return new RankedSet<T>(_order, _elements.headMultiset(tScoredItem, boundType));
+    return new RankedSet<T>(_order, _elements().headMultiset(tScoredItem, boundType));
   }
 
   @Override
   public SortedMultiset<ScoredItem<T>> subMultiset(ScoredItem<T> tScoredItem, BoundType boundType, ScoredItem<T> tScoredItem1, BoundType boundType1) {
-    return new RankedSet<T>(_order, _elements.subMultiset(tScoredItem, boundType, tScoredItem1, boundType1));
+    return new RankedSet<T>(_order, _elements().subMultiset(tScoredItem, boundType, tScoredItem1, boundType1));
   }
 
   @Override
   public SortedMultiset<ScoredItem<T>> tailMultiset(ScoredItem<T> tScoredItem, BoundType boundType) {
-    return new RankedSet<T>(_order, _elements.tailMultiset(tScoredItem, boundType));
+    return new RankedSet<T>(_order, _elements().tailMultiset(tScoredItem, boundType));
   }
 
   @Override
   public int size() {
-    return _elements.size();
+    SortedMultiset<ScoredItem<T>> elements = _elements;
+    return elements != null ? elements.size() : _size;
   }
 
   /**
@@ -212,7 +378,7 @@ public class RankedSet<T> extends AbstractCollection<ScoredItem<T>> implements M
       joinIndex.put(rTuple, rTuple);
 
     //  Now pass thru the lefthand tuples, doing index probes for each one to see if there is a match...
-    for (ScoredItem<T> lTuple : _elements) {
+    for (ScoredItem<T> lTuple : this) {
       ScoredItem<T> probeResult = joinIndex.get(lTuple);
       if (probeResult != null)
         results.add((((lTuple.getScore() * lWeight) + (probeResult.getScore() * rWeight)) / 2), lTuple.getItem());
@@ -251,7 +417,7 @@ public class RankedSet<T> extends AbstractCollection<ScoredItem<T>> implements M
       joinIndex.put(rTuple, rTuple);
 
     //  Now pass thru the lefthand tuples, doing index probes for each one to see if there is a match...
-    for (ScoredItem<T> lTuple : _elements) {
+    for (ScoredItem<T> lTuple : this) {
       float lTupleScore = (lTuple.getScore() * lWeight);
 
       //  See if this tuple is present in the righthand set.  If not, adjust score accordingly...
@@ -280,4 +446,172 @@ public class RankedSet<T> extends AbstractCollection<ScoredItem<T>> implements M
 
     return results;
   }
-}
+
+  /**
+   * The TreeMultiset of the set, moving the columns into it if they are still in use.
+   */
+  @SuppressWarnings("unchecked")
+  private SortedMultiset<ScoredItem<T>> _elements() {
+    SortedMultiset<ScoredItem<T>> elements = _elements;
+    if (elements == null) {
+      synchronized (this) {
+        elements = _elements;
+        if (elements == null) {
+          elements = _order == Order.ASCENDING ? TreeMultiset.<ScoredItem<T>>create()
+                  : TreeMultiset.<ScoredItem<T>>create().descendingMultiset();
+          for (int i = 0; i < _size; i++)
+            elements.add(new ScoredItem<T>(_scores[i], (T) _items[i]));
+          _elements = elements;
+        }
+      }
+    }
+    return elements;
+  }
+
+  private boolean _isBetter(float score, float than) {
+    return _order == Order.ASCENDING ? score < than : score > than;
+  }
+
+  /**
+   * Drops the worst items from a bounded set that has more than its capacity in its tree.
+   */
+  private void _trim() {
+    if (_capacity == Integer.MAX_VALUE)
+      return;
+
+    SortedMultiset<ScoredItem<T>> elements = _elements();
+    while (elements.size() > _capacity)
+      elements.remove(elements.lastEntry().getElement(), 1);
+  }
+
+  /**
+   * Moves row up the heap of a bounded set's columns, which has the worst score on top, to where it belongs.
+   */
+  private void _siftUp(int row) {
+    float score = _scores[row];
+    Object item = _items[row];
+    while (row > 0) {
+      int parent = (row - 1) >>> 1;
+      if (!_isBetter(_scores[parent], score))
+        break;
+      _scores[row] = _scores[parent];
+      _items[row] = _items[parent];
+      row = parent;
+    }
+    _scores[row] = score;
+    _items[row] = item;
+  }
+
+  /**
+   * Moves the top of the heap of a bounded set's columns down to where it belongs.
+   */
+  private void _siftDown() {
+    float score = _scores[0];
+    Object item = _items[0];
+    int row = 0;
+    while (true) {
+      int child = 2 * row + 1;
+      if (child >= _size)
+        break;
+      if (child + 1 < _size && _isBetter(_scores[child], _scores[child + 1]))
+        child++;
+      if (!_isBetter(score, _scores[child]))
+        break;
+      _scores[row] = _scores[child];
+      _items[row] = _items[child];
+      row = child;
+    }
+    _scores[row] = score;
+    _items[row] = item;
+  }
+
+  /**
+   * The rows of the columns in score order, with ties in score in item order, or null if ScoredItem.compareTo() would
+   * order them otherwise: when two scores are different but within its threshold, when tied items aren't Comparable,
+   * or when they compare as equal without being so.
+   */
+  @SuppressWarnings("unchecked")
+  private int[] _sort() {
+    int[] sorted = _sorted;
+    if (sorted != null)
+      return sorted;
+
+    //  Scores are never negative, so their bits sort like they do...
+    long[] packed = new long[_size];
+    for (int i = 0; i < _size; i++) {
+      if (Float.isInfinite(_scores[i]))
+        return null;
+      packed[i] = ((long) Float.floatToIntBits(_scores[i] + 0.0f) << 32) | i;
+    }
+    Arrays.sort(packed);
+
+    sorted = new int[_size];
+    for (int i = 0; i < _size; i++)
+      sorted[i] = (int) packed[i];
+
+    int[] scratch = null;
+    for (int from = 0, to; from < _size; from = to) {
+      float score = _scores[sorted[from]];
+      for (to = from + 1; to < _size && _scores[sorted[to]] == score; to++)
+        if (!(_items[sorted[to]] instanceof Comparable) || !(_items[sorted[from]] instanceof Comparable))
+          return null;
+
+      if (to - from > 1) {
+        if (scratch == null)
+          scratch = new int[_size];
+        _sortByItem(sorted, from, to, scratch);
+        for (int i = from + 1; i < to; i++) {
+          Object item = _items[sorted[i]];
+          Object previous = _items[sorted[i - 1]];
+          if (((Comparable<Object>) previous).compareTo(item) == 0 && !previous.equals(item))
+            return null;
+        }
+      }
+
+      if (to < _size && Math.abs(score - _scores[sorted[to]]) < ScoredItem.DEFAULT_COMPARISON_THRESHOLD)
+        return null;
+    }
+
+    _sorted = sorted;
+    return sorted;
+  }
+
+  /**
+   * Merge sorts rows [from, to) by their items.
+   */
+  @SuppressWarnings("unchecked")
+  private void _sortByItem(int[] rows, int from, int to, int[] scratch) {
+    if (to - from < 2)
+      return;
+
+    int middle = (from + to) >>> 1;
+    _sortByItem(rows, from, middle, scratch);
+    _sortByItem(rows, middle, to, scratch);
+    if (((Comparable<Object>) _items[rows[middle - 1]]).compareTo(_items[rows[middle]]) <= 0)
+      return;
+
+    System.arraycopy(rows, from, scratch, from, to - from);
+    for (int i = from, l = from, r = middle; i < to; i++) {
+      if (r == to || (l < middle && ((Comparable<Object>) _items[scratch[l]]).compareTo(_items[scratch[r]]) <= 0))
+        rows[i] = scratch[l++];
+      else
+        rows[i] = scratch[r++];
+    }
+  }
+
+  /**
+   * The entry of the item at position in sorted, counting the equal items next to it in direction as the tree would.
+   */
+  @SuppressWarnings("unchecked")
+  private Entry<ScoredItem<T>> _entry(int[] sorted, int position, int direction) {
+    int row = sorted[position];
+    int count = 1;
+    for (int i = position + direction; i >= 0 && i < _size; i += direction) {
+      int other = sorted[i];
+      if (_scores[other] != _scores[row] || !_items[other].equals(_items[row]))
+        break;
+      count++;
+    }
+    return Multisets.immutableEntry(new ScoredItem<T>(_scores[row], (T) _items[row]), count);
+  }
+}
\ No newline at end of file
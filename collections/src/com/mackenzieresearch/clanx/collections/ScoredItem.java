@@ -32,9 +32,11 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class ScoredItem<T> implements Comparable<ScoredItem<T>> {
+  static final float DEFAULT_COMPARISON_THRESHOLD = 0.0004f;
+
   private float _score = 0;
   private T _entity = null;
-  private float _threshold = 0.0004f;
+  private float _threshold = DEFAULT_COMPARISON_THRESHOLD;
 
   public ScoredItem(float score, T entity) {
     checkArgument(score >= 0);
@@ -0,0 +1,182 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.collections.index.normalize.KeyNormalizer;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.queryable.Query;
+import com.mackenzieresearch.clanx.collections.queryable.ResultCursor;
+import com.mackenzieresearch.clanx.collections.queryable.ResumeToken;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * AbstractIndex holds what the MutableIndex implementations have in common: the dimension weight, the optional
+ * key normalizer and the unpacking of Match queries.
+ * <p/>
+ * Keys are normalized exactly once on the way in, both when they are added and when they are looked up, and the
+ * subclass only ever sees normalized keys.  Keys taken from a Match reuse the normalized value cached on the
+ * Match, so a query that is replayed against the same index doesn't pay for normalization again.
+ *
+ * @param <V>
+ */
+public abstract class AbstractIndex<V> implements MutableIndex<V> {
+  public static final int DEFAULT_RANKING = 1;
+
+  private float _weight = 1.0f;
+  private KeyNormalizer _normalizer = null;
+  private boolean _hasEntries = false;
+
+
+  public void setWeight(float weight) {
+    _weight = weight;
+  }
+
+  @Override
+  public float getWeight() {
+    return _weight;
+  }
+
+  /**
+   * Setting a null normalizer leaves keys exactly as given, which is the default.
+   */
+  @Override
+  public void setNormalizer(KeyNormalizer normalizer) {
+    checkState(!_hasEntries, "The normalizer must be set before any entries are added.");
+    _normalizer = normalizer;
+  }
+
+  @Override
+  public KeyNormalizer getNormalizer() {
+    return _normalizer;
+  }
+
+  @Override
+  public void addEntry(String key, V entry) {
+    checkNotNull(key);
+    checkNotNull(entry);
+
+    _hasEntries = true;
+    addNormalizedEntry(normalizeKey(key), entry);
+  }
+
+  @Override
+  public V getExactMatch(String key) {
+    checkNotNull(key);
+    return exactMatch(normalizeKey(key));
+  }
+
+  @Override
+  public V getNearestMatch(String key) {
+    checkNotNull(key);
+    return nearestMatch(normalizeKey(key));
+  }
+
+  @Override
+  public RankedSet<V> getExactMatches(String key) {
+    checkNotNull(key);
+    return exactMatches(normalizeKey(key));
+  }
+
+  @Override
+  public RankedSet<V> getRankedMatches(String key) {
+    checkNotNull(key);
+    return rankedMatches(normalizeKey(key));
+  }
+
+  @Override
+  public RankedSet<V> getExactMatches(Query query) {
+    return exactMatches(queryKey(query));
+  }
+
+  @Override
+  public RankedSet<V> getNearestMatches(Query query) {
+    V result = nearestMatch(queryKey(query));
+    RankedSet<V> resultSet = new RankedSet<V>();
+    if (result != null)
+      resultSet.add(DEFAULT_RANKING, result);
+    return resultSet;
+  }
+
+  @Override
+  public RankedSet<V> getRankedMatches(float scoreThreshold, Query query) {
+    return rankedMatches(queryKey(query));
+  }
+
+  @Override
+  public ResultCursor<V> getRankedCursor(float scoreThreshold, Query query) {
+    return getRankedCursor(scoreThreshold, query, ResumeToken.START);
+  }
+
+  /**
+   * Indexes that are SortedAccessIndexes stream their matches from rankedCursor(), so that reading the first few
+   * costs only what finding them does.  Others compute all of their matches up front.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public ResultCursor<V> getRankedCursor(float scoreThreshold, Query query, ResumeToken resumeFrom) {
+    checkNotNull(resumeFrom);
+
+    if (this instanceof SortedAccessIndex)
+      return new MatchResultCursor<V>(((SortedAccessIndex<V>) this).rankedCursor(query), resumeFrom);
+    else
+      return new MatchResultCursor<V>(new RankedSetCursor<V>(getRankedMatches(scoreThreshold, query)), resumeFrom);
+  }
+
+
+  protected abstract void addNormalizedEntry(String key, V entry);
+
+  protected abstract V exactMatch(String key);
+
+  protected abstract V nearestMatch(String key);
+
+  protected abstract RankedSet<V> exactMatches(String key);
+
+  protected abstract RankedSet<V> rankedMatches(String key);
+
+  protected String normalizeKey(String key) {
+    return _normalizer == null ? key : _normalizer.normalize(key);
+  }
+
+  /**
+   * Returns the normalized key of a Match query.
+   *
+   * @throws IllegalArgumentException if the query isn't a Match.
+   */
+  @SuppressWarnings("unchecked")
+  protected String queryKey(Query query) {
+    if (!(query instanceof Match))
+      throw new IllegalArgumentException("Expected a Match query.  Actually got: " + query.getClass().getSimpleName());
+
+    Match<String> match = (Match<String>) query;
+    checkNotNull(match.value());
+    return _normalizer == null ? match.value() : match.normalizedValue(_normalizer);
+  }
+}
@@ -0,0 +1,305 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.metrix.Levenshtein;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A Burkhard-Keller tree over Levenshtein distance.  Each node holds one distinct key along with the values filed
+ * under it, and each child hangs off its distance from its parent's key.  Because Levenshtein is a metric, a search
+ * for keys within tolerance t of a probe only has to descend into the children whose edge lies within t of the
+ * probe's distance to the node, which lets it answer in sublinear time on large key sets.
+ * <p/>
+ * Values are held in PostingLists, which may be shared with the caller: values added to a list after it has been
+ * handed to add(PostingList) are visible through the tree.
+ *
+ * @param <V>
+ */
+public class BKTree<V> {
+  private Node<V> _root = null;
+  private int _keyCount = 0;
+
+
+  public void add(String key, V value) {
+    checkNotNull(key);
+    checkNotNull(value);
+
+    _insert(key).add(value);
+  }
+
+  /**
+   * Files a whole posting list under its key.  If the key is already in the tree the values are copied into the
+   * existing list, otherwise the list itself becomes the node's list.
+   */
+  public void add(PostingList<V> postings) {
+    checkNotNull(postings);
+
+    if (_root == null) {
+      _root = new Node<V>(postings);
+      _keyCount++;
+      return;
+    }
+
+    Node<V> node = _root;
+    while (true) {
+      int distance = Levenshtein.scanLine(postings.getKey(), node.key);
+      if (distance == 0) {
+        for (V value : postings.getValues())
+          node.postings.add(value);
+        return;
+      }
+
+      Node<V> child = node.getChild(distance);
+      if (child == null) {
+        node.addChild(distance, new Node<V>(postings));
+        _keyCount++;
+        return;
+      }
+      node = child;
+    }
+  }
+
+  /**
+   * Number of values in the tree.  Since posting lists may grow outside the tree this walks every node.
+   */
+  public int size() {
+    if (_root == null)
+      return 0;
+
+    int size = 0;
+    List<Node<V>> stack = new ArrayList<Node<V>>();
+    stack.add(_root);
+    while (!stack.isEmpty()) {
+      Node<V> node = stack.remove(stack.size() - 1);
+      size += node.postings.size();
+      for (int i = 0; i < node.childCount; i++)
+        stack.add(node.children[i]);
+    }
+
+    return size;
+  }
+
+  /**
+   * Number of distinct keys in the tree.
+   */
+  public int keyCount() {
+    return _keyCount;
+  }
+
+  /**
+   * Returns the values filed under exactly this key.
+   */
+  public List<V> getExactMatches(String key) {
+    checkNotNull(key);
+
+    Node<V> node = _root;
+    while (node != null) {
+      int distance = Levenshtein.scanLine(key, node.key);
+      if (distance == 0)
+        return node.postings.getValues();
+      node = node.getChild(distance);
+    }
+
+    return Collections.emptyList();
+  }
+
+  /**
+   * Returns the values filed under the key nearest to this one, or an empty list if the tree is empty.
+   */
+  public List<V> getNearestMatches(String key) {
+    checkNotNull(key);
+
+    if (_root == null)
+      return Collections.emptyList();
+
+    Node<V> best = null;
+    int bestDistance = Integer.MAX_VALUE;
+
+    List<Node<V>> stack = new ArrayList<Node<V>>();
+    stack.add(_root);
+    while (!stack.isEmpty() && bestDistance > 0) {
+      Node<V> node = stack.remove(stack.size() - 1);
+      int distance = Levenshtein.scanLine(key, node.key);
+      if (distance < bestDistance) {
+        best = node;
+        bestDistance = distance;
+      }
+
+      //  Only children whose edge is closer than our best so far to <distance> can hold a nearer key...
+      for (int i = 0; i < node.childCount; i++) {
+        if (Math.abs(node.edges[i] - distance) < bestDistance)
+          stack.add(node.children[i]);
+      }
+    }
+
+    return best.postings.getValues();
+  }
+
+  /**
+   * Adds every value whose key is within tolerance of this one to results, scored by its distance.
+   */
+  public void search(String key, int tolerance, RankedSet<V> results) {
+    checkNotNull(key);
+    checkArgument(tolerance >= 0);
+    checkNotNull(results);
+
+    if (_root == null)
+      return;
+
+    List<Node<V>> stack = new ArrayList<Node<V>>();
+    stack.add(_root);
+    while (!stack.isEmpty()) {
+      Node<V> node = stack.remove(stack.size() - 1);
+      int distance = Levenshtein.scanLine(key, node.key);
+      if (distance <= tolerance)
+        node.postings.addTo(distance, results);
+
+      for (int i = 0; i < node.childCount; i++) {
+        if (Math.abs(node.edges[i] - distance) <= tolerance)
+          stack.add(node.children[i]);
+      }
+    }
+  }
+
+  /**
+   * Adds every key within the cursor's tolerance of its key to the cursor.
+   */
+  void collect(DistanceCursor<V> cursor) {
+    if (_root == null)
+      return;
+
+    String key = cursor.key();
+    int tolerance = cursor.tolerance();
+    List<Node<V>> stack = new ArrayList<Node<V>>();
+    stack.add(_root);
+    while (!stack.isEmpty()) {
+      Node<V> node = stack.remove(stack.size() - 1);
+      int distance = Levenshtein.scanLine(key, node.key);
+      if (distance <= tolerance)
+        cursor.add(node.postings, distance);
+
+      for (int i = 0; i < node.childCount; i++) {
+        if (Math.abs(node.edges[i] - distance) <= tolerance)
+          stack.add(node.children[i]);
+      }
+    }
+  }
+
+  /**
+   * Adds every value in the tree to results with the given score.
+   */
+  public void addAll(float score, RankedSet<V> results) {
+    checkNotNull(results);
+
+    if (_root == null)
+      return;
+
+    List<Node<V>> stack = new ArrayList<Node<V>>();
+    stack.add(_root);
+    while (!stack.isEmpty()) {
+      Node<V> node = stack.remove(stack.size() - 1);
+      node.postings.addTo(score, results);
+      for (int i = 0; i < node.childCount; i++)
+        stack.add(node.children[i]);
+    }
+  }
+
+
+  private PostingList<V> _insert(String key) {
+    if (_root == null) {
+      _root = new Node<V>(new PostingList<V>(key));
+      _keyCount++;
+      return _root.postings;
+    }
+
+    Node<V> node = _root;
+    while (true) {
+      int distance = Levenshtein.scanLine(key, node.key);
+      if (distance == 0)
+        return node.postings;
+
+      Node<V> child = node.getChild(distance);
+      if (child == null) {
+        child = new Node<V>(new PostingList<V>(key));
+        node.addChild(distance, child);
+        _keyCount++;
+        return child.postings;
+      }
+      node = child;
+    }
+  }
+
+
+  private static final class Node<V> {
+    final String key;
+    final PostingList<V> postings;
+    int[] edges = null;
+    Node<V>[] children = null;
+    int childCount = 0;
+
+    Node(PostingList<V> postings) {
+      this.key = postings.getKey();
+      this.postings = postings;
+    }
+
+    Node<V> getChild(int distance) {
+      for (int i = 0; i < childCount; i++) {
+        if (edges[i] == distance)
+          return children[i];
+      }
+
+      return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    void addChild(int distance, Node<V> child) {
+      if (children == null) {
+        edges = new int[2];
+        children = (Node<V>[]) new Node<?>[2];
+      } else if (childCount == children.length) {
+        edges = Arrays.copyOf(edges, childCount * 2);
+        children = Arrays.copyOf(children, childCount * 2);
+      }
+
+      edges[childCount] = distance;
+      children[childCount] = child;
+      childCount++;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.index;
+
+/**
+ * An open-addressing table from int band hashes to the KeyIdLists of the keys sharing them, so that adding and probing
+ * a MinHashIndex's bands boxes nothing.
+ */
+final class BandTable {
+  private int[] _hashes = new int[16];
+  private KeyIdList[] _postings = new KeyIdList[16];
+  private int _size = 0;
+
+
+  /**
+   * The keys with this band hash, or null if there are none.
+   */
+  KeyIdList get(int hash) {
+    int mask = _hashes.length - 1;
+    for (int slot = _spread(hash) & mask; _postings[slot] != null; slot = (slot + 1) & mask)
+      if (_hashes[slot] == hash)
+        return _postings[slot];
+
+    return null;
+  }
+
+  /**
+   * The keys with this band hash, starting an empty list for it if there are none.
+   */
+  KeyIdList getOrAdd(int hash) {
+    int mask = _hashes.length - 1;
+    int slot = _spread(hash) & mask;
+    for (; _postings[slot] != null; slot = (slot + 1) & mask)
+      if (_hashes[slot] == hash)
+        return _postings[slot];
+
+    KeyIdList postings = new KeyIdList();
+    _hashes[slot] = hash;
+    _postings[slot] = postings;
+    if (++_size * 4 > _hashes.length * 3)
+      _grow();
+    return postings;
+  }
+
+  private void _grow() {
+    int[] hashes = _hashes;
+    KeyIdList[] postings = _postings;
+    _hashes = new int[hashes.length * 2];
+    _postings = new KeyIdList[hashes.length * 2];
+
+    int mask = _hashes.length - 1;
+    for (int i = 0; i < hashes.length; i++) {
+      if (postings[i] == null)
+        continue;
+      int slot = _spread(hashes[i]) & mask;
+      while (_postings[slot] != null)
+        slot = (slot + 1) & mask;
+      _hashes[slot] = hashes[i];
+      _postings[slot] = postings[i];
+    }
+  }
+
+  /**
+   * Band hashes are already mixed, but their low bits alone pick the slot, so fold the high bits in too.
+   */
+  private static int _spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.mackenzieresearch.clanx.collections.index;
+
+/**
+ * A snapshot of how the entries of a bucketed index are spread over its buckets.  The histogram counts buckets by
+ * size in powers of two: entry k is the number of buckets holding between 2^k and 2^(k+1) - 1 entries.
+ */
+public class BucketStatistics {
+  private final int _bucketCount;
+  private final int _entryCount;
+  private final int _largestBucketSize;
+  private final int _promotedBucketCount;
+  private final int _promotedEntryCount;
+  private final int[] _sizeHistogram;
+
+
+  public BucketStatistics(int bucketCount, int entryCount, int largestBucketSize, int promotedBucketCount,
+                          int promotedEntryCount, int[] sizeHistogram) {
+    _bucketCount = bucketCount;
+    _entryCount = entryCount;
+    _largestBucketSize = largestBucketSize;
+    _promotedBucketCount = promotedBucketCount;
+    _promotedEntryCount = promotedEntryCount;
+    _sizeHistogram = sizeHistogram.clone();
+  }
+
+  public int getBucketCount() {
+    return _bucketCount;
+  }
+
+  public int getEntryCount() {
+    return _entryCount;
+  }
+
+  public int getLargestBucketSize() {
+    return _largestBucketSize;
+  }
+
+  public float getAverageBucketSize() {
+    return _bucketCount > 0 ? (float) _entryCount / _bucketCount : 0;
+  }
+
+  /**
+   * Number of buckets that have outgrown the plain list and been promoted to a sub-index.
+   */
+  public int getPromotedBucketCount() {
+    return _promotedBucketCount;
+  }
+
+  public int getPromotedEntryCount() {
+    return _promotedEntryCount;
+  }
+
+  public int[] getSizeHistogram() {
+    return _sizeHistogram.clone();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buf = new StringBuilder();
+    buf.append(_bucketCount).append(" buckets, ").append(_entryCount).append(" entries, largest bucket ")
+            .append(_largestBucketSize).append(", ").append(_promotedBucketCount).append(" promoted buckets (")
+            .append(_promotedEntryCount).append(" entries), size histogram [");
+    for (int i = 0; i < _sizeHistogram.length; i++) {
+      if (i > 0)
+        buf.append(", ");
+      buf.append(1 << i).append("+: ").append(_sizeHistogram[i]);
+    }
+
+    return buf.append("]").toString();
+  }
+}
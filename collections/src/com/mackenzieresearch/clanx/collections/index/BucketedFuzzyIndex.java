@@ -29,32 +29,71 @@
 package com.mackenzieresearch.clanx.collections.index;
 
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-import com.mackenzieresearch.clanx.collections.KVPair;
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.mackenzieresearch.clanx.collections.RankedSet;
-import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.ScoredItem;
+import com.mackenzieresearch.clanx.collections.index.phonetic.AbstractCharEncoder;
+import com.mackenzieresearch.clanx.collections.index.phonetic.FastCaverphone2;
 import com.mackenzieresearch.clanx.collections.queryable.Query;
-import com.mackenzieresearch.clanx.collections.queryable.Queryable;
+import com.mackenzieresearch.clanx.metrix.CharacterSignature;
 import com.mackenzieresearch.clanx.metrix.Levenshtein;
 import org.apache.commons.codec.EncoderException;
 import org.apache.commons.codec.StringEncoder;
-import org.apache.commons.codec.language.Caverphone2;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-public class BucketedFuzzyIndex<V> implements MutableIndex<V> {
-  public static final int DEFAULT_RANKING = 1;
-
-  private Multimap<String, KVPair<V>> _index = HashMultimap.create();
+/**
+ * BucketedFuzzyIndex files each key in a bucket according to its phonetic code, and ranks the members of the
+ * probe's bucket by Levenshtein distance.
+ * <p/>
+ * Each distinct key is stored once, with a PostingList of the values filed under it, so a key shared by many
+ * values costs one distance computation per probe.  A side table from key to PostingList answers exact lookups
+ * without encoding the key or touching its bucket.  Buckets keep each key's CharacterSignature and length in
+ * arrays alongside the keys, and only keys that survive the signature lower bound are compared by Levenshtein.
+ * <p/>
+ * Common codes can collect very large buckets.  Once a bucket grows past the promotion threshold its members are
+ * moved out of the plain list into a BKTree, which answers nearest, exact and within-tolerance lookups inside the
+ * bucket in sublinear time.  Small buckets keep the plain list, which is cheaper to scan than a tree is to walk.
+ * <p/>
+ * Probes through SinkIndex allocate nothing as long as the encoder is an AbstractCharEncoder and the bucket hasn't
+ * been promoted: the key is encoded into the ProbeContext's buffers, and the bucket looked up without building the
+ * code as a String.
+ *
+ * @param <V>
+ */
+public class BucketedFuzzyIndex<V> extends AbstractIndex<V> implements ScoringIndex<V>, SortedAccessIndex<V>, SinkIndex<V> {
+  public static final int DEFAULT_PROMOTION_THRESHOLD = 1024;
+
+  //  Stands in for a null code in the encoding cache, which can't hold nulls...
+  private static final String NO_CODE = new String();
+
+  private Map<String, PostingColumn<V>> _index = new HashMap<String, PostingColumn<V>>();
+  private Map<String, PostingList<V>> _postings = new HashMap<String, PostingList<V>>();
+  private Map<String, BKTree<V>> _promotedBuckets = new HashMap<String, BKTree<V>>();
+  private int _promotionThreshold = DEFAULT_PROMOTION_THRESHOLD;
+  private int _tolerance = Integer.MAX_VALUE;
   private StringEncoder _encoder = null;
-  private float _weight = 1.0f;
+  private volatile LoadingCache<String, String> _encodingCache = null;
 
 
+  /**
+   * Buckets keys by Caverphone 2.0.  FastCaverphone2 produces the same codes as commons-codec's Caverphone2 at a
+   * small fraction of the cost, so indexes built with either one are interchangeable.
+   */
   public BucketedFuzzyIndex() {
-    _encoder = new Caverphone2();
+    _encoder = new FastCaverphone2();
   }
 
   public BucketedFuzzyIndex(StringEncoder encoder) {
@@ -62,38 +101,266 @@ public class BucketedFuzzyIndex<V> implements MutableIndex<V> {
     _encoder = encoder;
   }
 
-  public void setWeight(float weight) {
-    _weight = weight;
+  /**
+   * Sets up a bounded cache of raw key -> encoded key in front of the encoder, for query streams (and bulk loads)
+   * where the same keys keep recurring.  The cache is safe for concurrent access, and evicts the least recently
+   * used keys once it holds maximumSize of them.  Setting a size of zero turns the cache off.
+   *
+   * @param maximumSize
+   */
+  public void setEncodingCacheSize(long maximumSize) {
+    checkArgument(maximumSize >= 0);
+
+    if (maximumSize == 0) {
+      _encodingCache = null;
+      return;
+    }
+
+    _encodingCache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .build(new CacheLoader<String, String>() {
+              @Override
+              public String load(String key) {
+                String encodedKey = _encode(key);
+                return encodedKey != null ? encodedKey : NO_CODE;
+              }
+            });
+  }
+
+  /**
+   * Buckets holding more than this many distinct keys are promoted to a BKTree.  Lowering the threshold promotes any
+   * existing buckets that are now over it.
+   *
+   * @param promotionThreshold
+   */
+  public void setBucketPromotionThreshold(int promotionThreshold) {
+    checkArgument(promotionThreshold > 0);
+
+    _promotionThreshold = promotionThreshold;
+    for (String encodedKey : new ArrayList<String>(_index.keySet())) {
+      if (_index.get(encodedKey).size > promotionThreshold)
+        _promoteBucket(encodedKey);
+    }
+  }
+
+  /**
+   * Limits getRankedMatches() to bucket members within this Levenshtein distance of the key.  This is what lets
+   * promoted buckets prune their search; the default is no limit.
+   *
+   * @param tolerance
+   */
+  public void setTolerance(int tolerance) {
+    checkArgument(tolerance >= 0);
+    _tolerance = tolerance;
+  }
+
+  public BucketStatistics getBucketStatistics() {
+    int[] histogram = new int[32];
+    int entryCount = 0;
+    int largestBucketSize = 0;
+    int promotedEntryCount = 0;
+
+    for (PostingColumn<V> bucket : _index.values()) {
+      int size = 0;
+      for (int i = 0; i < bucket.size; i++)
+        size += bucket.postings[i].size();
+      entryCount += size;
+      largestBucketSize = Math.max(largestBucketSize, size);
+      histogram[31 - Integer.numberOfLeadingZeros(size)]++;
+    }
+    for (BKTree<V> bucket : _promotedBuckets.values()) {
+      int size = bucket.size();
+      entryCount += size;
+      promotedEntryCount += size;
+      largestBucketSize = Math.max(largestBucketSize, size);
+      histogram[31 - Integer.numberOfLeadingZeros(size)]++;
+    }
+
+    //  Trim the histogram back to the largest bucket...
+    int[] sizeHistogram = new int[largestBucketSize > 0 ? 32 - Integer.numberOfLeadingZeros(largestBucketSize) : 0];
+    System.arraycopy(histogram, 0, sizeHistogram, 0, sizeHistogram.length);
+
+    return new BucketStatistics(_index.keySet().size() + _promotedBuckets.size(), entryCount, largestBucketSize,
+            _promotedBuckets.size(), promotedEntryCount, sizeHistogram);
+  }
+
+  /**
+   * Hit, miss and eviction counts for the encoding cache, which are all zero if the cache is turned off.
+   */
+  public CacheStats getEncodingCacheStats() {
+    if (_encodingCache != null)
+      return _encodingCache.stats();
+    else
+      return new CacheStats(0, 0, 0, 0, 0, 0);
+  }
+
+  /**
+   * Values filed under the query key itself come first, without encoding the key or scanning its bucket.
+   */
+  @Override
+  public MatchCursor<V> rankedCursor(Query query) {
+    final String key = queryKey(query);
+    return new DistanceCursor<V>(key, _postings.get(key), _tolerance, new DistanceCursor.Scanner<V>() {
+      @Override
+      public void scan(DistanceCursor<V> cursor) {
+        String encodedKey = _encodeKey(key);
+        BKTree<V> promotedBucket = _promotedBuckets.get(encodedKey);
+        if (promotedBucket != null) {
+          promotedBucket.collect(cursor);
+          return;
+        }
+
+        PostingColumn<V> bucket = _index.get(encodedKey);
+        if (bucket != null)
+          cursor.scan(bucket);
+      }
+    });
   }
 
   @Override
-  public float getWeight() {
-    return _weight;
+  public void getExactMatches(Query query, ProbeContext context, MatchSink<? super V> sink) {
+    checkNotNull(context);
+    checkNotNull(sink);
+
+    Object encodedKey = _encodeKey(queryKey(query), context);
+    BKTree<V> promotedBucket = _promotedBuckets.get(encodedKey);
+    if (promotedBucket != null) {
+      RankedSet<V> results = new RankedSet<V>();
+      promotedBucket.addAll(DEFAULT_RANKING, results);
+      _addTo(results, sink);
+      return;
+    }
+
+    PostingColumn<V> bucket = _index.get(encodedKey);
+    if (bucket != null) {
+      for (int i = 0; i < bucket.size; i++)
+        bucket.postings[i].addTo(DEFAULT_RANKING, sink);
+    }
   }
 
   @Override
-  public void addEntry(String key, V entry) {
-    checkNotNull(key);
-    checkNotNull(entry);
+  public void getRankedMatches(float scoreThreshold, Query query, ProbeContext context, MatchSink<? super V> sink) {
+    checkNotNull(context);
+    checkNotNull(sink);
+
+    String key = queryKey(query);
+    Object encodedKey = _encodeKey(key, context);
+    BKTree<V> promotedBucket = _promotedBuckets.get(encodedKey);
+    if (promotedBucket != null) {
+      RankedSet<V> results = new RankedSet<V>();
+      promotedBucket.search(key, _tolerance, results);
+      _addTo(results, sink);
+      return;
+    }
 
-    String encodedKey = _encodeKey(key);
-    _index.put(encodedKey, new KVPair<V>(key, entry));
+    PostingColumn<V> bucket = _index.get(encodedKey);
+    if (bucket == null)
+      return;
+
+    if (_tolerance == Integer.MAX_VALUE) {
+      for (int i = 0; i < bucket.size; i++) {
+        PostingList<V> postings = bucket.postings[i];
+        postings.addTo(_distance(key, postings.getKey(), context), sink);
+      }
+      return;
+    }
+
+    long signature = CharacterSignature.signature(key);
+    for (int from = 0; from < bucket.size; from += PostingColumn.BLOCK_SIZE) {
+      int survivorCount = bucket.filterBlock(signature, key.length(), from, _tolerance, context.survivors);
+      for (int i = 0; i < survivorCount; i++) {
+        PostingList<V> postings = bucket.postings[context.survivors[i]];
+        int distance = _distance(key, postings.getKey(), context);
+        if (distance <= _tolerance)
+          postings.addTo(distance, sink);
+      }
+    }
+  }
+
+  /**
+   * The bucket code of the key, since exact matches are the whole of the key's bucket.
+   */
+  @Override
+  public String blockingKey(String key) {
+    checkNotNull(key);
+    return _encodeKey(normalizeKey(key));
   }
 
   @Override
-  public V getExactMatch(String key) {
+  public float rankedScore(String queryKey, String key) {
+    checkNotNull(queryKey);
     checkNotNull(key);
 
-    Collection<KVPair<V>> results = _index.get(_encodeKey(key));
+    String normalizedQueryKey = normalizeKey(queryKey);
+    String normalizedKey = normalizeKey(key);
 
-    //  Go thru the close matches and see if one of them exactly matches and return it...
-    for (KVPair<V> result : results) {
-      if (key.equals(result.getKey()))
-        return result.getValue();
+    //  A key the encoder gives no code to has no bucket to share...
+    String queryCode = _encodeKey(normalizedQueryKey);
+    if (queryCode == null || !Objects.equal(queryCode, _encodeKey(normalizedKey)))
+      return -1;
+
+    int distance = Levenshtein.scanLine(normalizedQueryKey, normalizedKey);
+    return distance <= _tolerance ? distance : -1;
+  }
+
+  @Override
+  public boolean ranksWithinBlock() {
+    return true;
+  }
+
+  /**
+   * The number of distinct keys in the query's bucket, which is a lower bound when keys are shared.
+   */
+  @Override
+  public int estimateExactMatches(String queryKey) {
+    String encodedKey = blockingKey(queryKey);
+    BKTree<V> promotedBucket = _promotedBuckets.get(encodedKey);
+    if (promotedBucket != null)
+      return promotedBucket.keyCount();
+
+    PostingColumn<V> bucket = _index.get(encodedKey);
+    return bucket == null ? 0 : bucket.size;
+  }
+
+  @Override
+  public int estimateRankedMatches(String queryKey) {
+    return estimateExactMatches(queryKey);
+  }
+
+  @Override
+  protected void addNormalizedEntry(String key, V entry) {
+    //  A key we have already seen is already in its bucket, so there is no need to encode it again...
+    PostingList<V> postings = _postings.get(key);
+    if (postings != null) {
+      postings.add(entry);
+      return;
+    }
+
+    postings = new PostingList<V>(key);
+    postings.add(entry);
+    _postings.put(key, postings);
+
+    String encodedKey = _encodeKey(key);
+    BKTree<V> promotedBucket = _promotedBuckets.get(encodedKey);
+    if (promotedBucket != null) {
+      promotedBucket.add(postings);
+      return;
+    }
+
+    PostingColumn<V> bucket = _index.get(encodedKey);
+    if (bucket == null) {
+      bucket = new PostingColumn<V>();
+      _index.put(encodedKey, bucket);
     }
+    bucket.add(postings);
+    if (bucket.size > _promotionThreshold)
+      _promoteBucket(encodedKey);
+  }
 
-    //  There was no exact match:
-    return null;
+  @Override
+  protected V exactMatch(String key) {
+    PostingList<V> postings = _postings.get(key);
+    return postings == null ? null : postings.getFirstValue();
   }
 
   /**
@@ -105,28 +372,51 @@ public class BucketedFuzzyIndex<V> implements MutableIndex<V> {
    * @throws EncoderException
    */
   @Override
-  public V getNearestMatch(String key) {
-    checkNotNull(key);
-
-    Collection<KVPair<V>> results = _index.get(_encodeKey(key));
+  protected V nearestMatch(String key) {
+    String encodedKey = _encodeKey(key);
+    BKTree<V> promotedBucket = _promotedBuckets.get(encodedKey);
+    if (promotedBucket != null) {
+      List<V> matches = promotedBucket.getNearestMatches(key);
+      return matches.isEmpty() ? null : matches.get(0);
+    }
 
-    if (results.size() > 0)
-      return _rankMatches(key, results).firstEntry().getElement().getItem();
-    else
+    PostingColumn<V> bucket = _index.get(encodedKey);
+    if (bucket == null)
       return null;
-  }
 
-  @Override
-  public RankedSet<V> getExactMatches(String key) {
-    checkNotNull(key);
+    PostingList<V> nearest = null;
+    int nearestDistance = Integer.MAX_VALUE;
+    long signature = CharacterSignature.signature(key);
+    for (int i = 0; i < bucket.size && nearestDistance > 0; i++) {
+      //  Skip keys that can't beat the nearest so far...
+      if (bucket.lowerBound(signature, key.length(), i) >= nearestDistance)
+        continue;
+
+      int distance = Levenshtein.scanLine(key, bucket.postings[i].getKey());
+      if (distance < nearestDistance) {
+        nearest = bucket.postings[i];
+        nearestDistance = distance;
+      }
+    }
 
-    Collection<KVPair<V>> results = _index.get(_encodeKey(key));
+    return nearest.getFirstValue();
+  }
 
+  @Override
+  protected RankedSet<V> exactMatches(String key) {
+    String encodedKey = _encodeKey(key);
     RankedSet<V> resultSet = new RankedSet<V>();
 
-    if (results.size() > 0) {
-      for (KVPair<V> result : results)
-        resultSet.add(DEFAULT_RANKING, result.getValue());
+    BKTree<V> promotedBucket = _promotedBuckets.get(encodedKey);
+    if (promotedBucket != null) {
+      promotedBucket.addAll(DEFAULT_RANKING, resultSet);
+      return resultSet;
+    }
+
+    PostingColumn<V> bucket = _index.get(encodedKey);
+    if (bucket != null) {
+      for (int i = 0; i < bucket.size; i++)
+        bucket.postings[i].addTo(DEFAULT_RANKING, resultSet);
     }
 
     return resultSet;
@@ -141,55 +431,101 @@ public class BucketedFuzzyIndex<V> implements MutableIndex<V> {
    * @throws EncoderException
    */
   @Override
-  public RankedSet<V> getRankedMatches(String key) {
-    checkNotNull(key);
-
-    Collection<KVPair<V>> results = _index.get(_encodeKey(key));
+  protected RankedSet<V> rankedMatches(String key) {
+    String encodedKey = _encodeKey(key);
+    BKTree<V> promotedBucket = _promotedBuckets.get(encodedKey);
+    if (promotedBucket != null) {
+      RankedSet<V> results = new RankedSet<V>();
+      promotedBucket.search(key, _tolerance, results);
+      return results;
+    }
 
-    if (results.size() > 0)
-      return _rankMatches(key, results);
+    PostingColumn<V> bucket = _index.get(encodedKey);
+    if (bucket != null)
+      return _rankMatches(key, bucket);
     else
       return new RankedSet<V>();
   }
 
-  @Override
-  public RankedSet<V> getExactMatches(Query query) {
-    if (query instanceof Match)
-      return getExactMatches(((Match<String>) query).value());
-    else
-      throw new IllegalArgumentException("Expected a Match query.  Actually got: " + query.getClass().getSimpleName());
-  }
+  private RankedSet<V> _rankMatches(String key, PostingColumn<V> bucket) {
+    RankedSet<V> results = new RankedSet<V>();
 
-  @Override
-  public RankedSet<V> getNearestMatches(Query query) {
-    if (query instanceof Match) {
-      V result = getNearestMatch(((Match<String>) query).value());
-      RankedSet<V> resultSet = new RankedSet<V>();
-      resultSet.add(DEFAULT_RANKING, result);
-      return resultSet;
-    } else
-      throw new IllegalArgumentException("Expected a Match query.  Actually got: " + query.getClass().getSimpleName());
-  }
+    //  With no tolerance set every member is a match, so there is nothing to filter...
+    if (_tolerance == Integer.MAX_VALUE) {
+      for (int i = 0; i < bucket.size; i++) {
+        PostingList<V> postings = bucket.postings[i];
+        postings.addTo(Levenshtein.scanLine(key, postings.getKey()), results);
+      }
+      return results;
+    }
 
-  @Override
-  public RankedSet<V> getRankedMatches(float scoreThreshold, Query query) {
-    if (query instanceof Match)
-      return getRankedMatches(((Match<String>) query).value());
-    else
-      throw new IllegalArgumentException("Expected a Match query.  Actually got: " + query.getClass().getSimpleName());
+    long signature = CharacterSignature.signature(key);
+    int[] survivors = new int[PostingColumn.BLOCK_SIZE];
+    for (int from = 0; from < bucket.size; from += PostingColumn.BLOCK_SIZE) {
+      int survivorCount = bucket.filterBlock(signature, key.length(), from, _tolerance, survivors);
+      for (int i = 0; i < survivorCount; i++) {
+        PostingList<V> postings = bucket.postings[survivors[i]];
+        int distance = Levenshtein.scanLine(key, postings.getKey());
+        if (distance <= _tolerance)
+          postings.addTo(distance, results);
+      }
+    }
+
+    return results;
   }
 
+  private void _promoteBucket(String encodedKey) {
+    BKTree<V> bucket = new BKTree<V>();
+    PostingColumn<V> members = _index.remove(encodedKey);
+    for (int i = 0; i < members.size; i++)
+      bucket.add(members.postings[i]);
 
-  private RankedSet<V> _rankMatches(String key, Collection<KVPair<V>> matches) {
-    RankedSet<V> results = new RankedSet<V>();
+    _promotedBuckets.put(encodedKey, bucket);
+  }
 
-    for (KVPair<V> match : matches)
-      results.add(Levenshtein.scanLine(key, match.getKey()), match.getValue());
+  /**
+   * The key's bucket code as something to look the bucket up by: the context's KeyBuffer if the encoder can write
+   * the code into it, and otherwise the code itself.
+   */
+  private Object _encodeKey(String key, ProbeContext context) {
+    if (!(_encoder instanceof AbstractCharEncoder))
+      return _encodeKey(key);
+
+    AbstractCharEncoder encoder = (AbstractCharEncoder) _encoder;
+    if (context.code.length < encoder.getMaxEncodedLength())
+      context.code = new char[encoder.getMaxEncodedLength()];
+    int length = encoder.encode(context.keyChars(key), key.length(), context.code);
+    if (length < 0)
+      return _encodeKey(key);
+
+    context.encodedKey.set(context.code, length);
+    return context.encodedKey;
+  }
 
-    return results;
+  private static int _distance(String key, String otherKey, ProbeContext context) {
+    context.fitLines(otherKey.length());
+    return Levenshtein.scanLine(key, otherKey, context.previousLine, context.workingLine);
+  }
+
+  private static <V> void _addTo(RankedSet<V> results, MatchSink<? super V> sink) {
+    for (ScoredItem<V> result : results)
+      sink.accept(result.getScore(), result.getItem());
   }
 
   private String _encodeKey(String key) {
+    LoadingCache<String, String> encodingCache = _encodingCache;
+    if (encodingCache != null)
+      try {
+        String encodedKey = encodingCache.getUnchecked(key);
+        return encodedKey != NO_CODE ? encodedKey : null;
+      } catch (UncheckedExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
+    else
+      return _encode(key);
+  }
+
+  private String _encode(String key) {
     if (_encoder != null)
       try {
         return _encoder.encode(key);
@@ -0,0 +1,168 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.metrix.CharacterSignature;
+import com.mackenzieresearch.clanx.metrix.Levenshtein;
+
+import java.util.Arrays;
+
+/**
+ * A MatchCursor over the keys within a tolerance of a query key, by Levenshtein distance.  The values filed under the
+ * query key itself come first, straight from the index's side table, and the scan for the others is only run once the
+ * cursor is advanced past them, so a consumer that is satisfied by the exact matches never pays for a scan.
+ *
+ * @param <V>
+ */
+final class DistanceCursor<V> implements MatchCursor<V> {
+  interface Scanner<V> {
+    /**
+     * Adds every key within tolerance of the query key to the cursor.
+     */
+    void scan(DistanceCursor<V> cursor);
+  }
+
+  private final String _key;
+  private final int _tolerance;
+  private final Scanner<V> _scanner;
+  private boolean _scanned;
+
+  private PostingList<V>[] _found = null;
+  private long[] _order = null;
+  private int _foundCount = 0;
+  private int _position = 0;
+
+  private PostingList<V> _current;
+  private int _currentDistance = 0;
+  private int _valueIndex = 0;
+  private V _item = null;
+
+
+  DistanceCursor(String key, PostingList<V> exactPostings, int tolerance, Scanner<V> scanner) {
+    _key = key;
+    _tolerance = tolerance;
+    _scanner = scanner;
+    _scanned = tolerance == 0;
+    _current = exactPostings;
+  }
+
+  String key() {
+    return _key;
+  }
+
+  int tolerance() {
+    return _tolerance;
+  }
+
+  /**
+   * Called by the scanner.  The exact key has already been returned, so distance 0 is ignored.
+   */
+  @SuppressWarnings("unchecked")
+  void add(PostingList<V> postings, int distance) {
+    if (distance == 0 || distance > _tolerance)
+      return;
+
+    if (_found == null) {
+      _found = (PostingList<V>[]) new PostingList<?>[16];
+      _order = new long[16];
+    } else if (_foundCount == _found.length) {
+      _found = Arrays.copyOf(_found, 2 * _foundCount);
+      _order = Arrays.copyOf(_order, 2 * _foundCount);
+    }
+    _order[_foundCount] = ((long) distance << 32) | _foundCount;
+    _found[_foundCount++] = postings;
+  }
+
+  /**
+   * Adds the members of a column that are within tolerance, skipping those the signature bound rules out.
+   */
+  void scan(PostingColumn<V> column) {
+    if (_tolerance == Integer.MAX_VALUE) {
+      for (int i = 0; i < column.size; i++)
+        add(column.postings[i], Levenshtein.scanLine(_key, column.postings[i].getKey()));
+      return;
+    }
+
+    long signature = CharacterSignature.signature(_key);
+    int[] survivors = new int[PostingColumn.BLOCK_SIZE];
+    for (int from = 0; from < column.size; from += PostingColumn.BLOCK_SIZE) {
+      int survivorCount = column.filterBlock(signature, _key.length(), from, _tolerance, survivors);
+      for (int i = 0; i < survivorCount; i++) {
+        PostingList<V> postings = column.postings[survivors[i]];
+        add(postings, Levenshtein.scanLine(_key, postings.getKey()));
+      }
+    }
+  }
+
+  @Override
+  public boolean next() {
+    while (true) {
+      if (_current != null && _valueIndex < _current.size()) {
+        _item = _current.getValues().get(_valueIndex++);
+        return true;
+      }
+
+      if (_position < _foundCount) {
+        _current = _found[(int) _order[_position]];
+        _currentDistance = (int) (_order[_position] >>> 32);
+        _valueIndex = 0;
+        _position++;
+      } else if (!_scanned) {
+        _scanned = true;
+        _scanner.scan(this);
+        if (_foundCount > 0)
+          Arrays.sort(_order, 0, _foundCount);
+      } else {
+        _current = null;
+        _item = null;
+        return false;
+      }
+    }
+  }
+
+  @Override
+  public V item() {
+    return _item;
+  }
+
+  @Override
+  public float score() {
+    return _currentDistance;
+  }
+
+  @Override
+  public float bound() {
+    if (_current != null && _valueIndex < _current.size())
+      return _currentDistance;
+    if (_position < _foundCount)
+      return (float) (_order[_position] >>> 32);
+    //  Everything the scan can still find is at least one edit away...
+    return _scanned ? Float.POSITIVE_INFINITY : 1;
+  }
+}
@@ -0,0 +1,459 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.collections.RankedSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * FuzzyPrefixIndex is a trie for typeahead: it finds the keys that have a prefix within edit distance tolerance of
+ * what has been typed so far, scored by that distance.
+ * <p/>
+ * Lookups keep the set of active trie nodes (those whose prefix is within tolerance of the text) along with their
+ * distances, following Ji, Li, Li and Feng, "Efficient Interactive Fuzzy Keyword Search" (WWW 2009).  A Session keeps
+ * the active set for every keystroke so far, so typing one more character only extends the last set, and deleting
+ * one just pops it.  The cost of a keystroke therefore depends on the tolerance and the shape of the trie near the
+ * active nodes, not on how much has been typed.  getMatches() walks the subtrees of the active nodes nearest first
+ * and stops at the requested limit.
+ * <p/>
+ * Sessions are not thread safe, and adding a new key to the index makes open sessions recompute their state the
+ * next time they are used.
+ *
+ * @param <V>
+ */
+public class FuzzyPrefixIndex<V> extends AbstractIndex<V> {
+  public static final int DEFAULT_TOLERANCE = 1;
+  public static final int DEFAULT_RANKED_MATCH_LIMIT = 10;
+
+  private static final int ROOT = 0;
+  private static final int NONE = -1;
+
+  private char[] _labels = new char[16];
+  private int[] _depths = new int[16];
+  private int[] _firstChildren = new int[16];
+  private int[] _nextSiblings = new int[16];
+  private PostingList<V>[] _terminals;
+  private int _nodeCount = 1;
+  private int _tolerance = DEFAULT_TOLERANCE;
+  private int _rankedMatchLimit = DEFAULT_RANKED_MATCH_LIMIT;
+  private int _modCount = 0;
+
+
+  @SuppressWarnings("unchecked")
+  public FuzzyPrefixIndex() {
+    _terminals = (PostingList<V>[]) new PostingList<?>[16];
+    _firstChildren[ROOT] = NONE;
+    _nextSiblings[ROOT] = NONE;
+  }
+
+  /**
+   * The largest prefix edit distance matched.  Open sessions start over when it changes.
+   *
+   * @param tolerance
+   */
+  public void setTolerance(int tolerance) {
+    checkArgument(tolerance >= 0);
+    _tolerance = tolerance;
+    _modCount++;
+  }
+
+  /**
+   * The number of matches getRankedMatches() returns.
+   *
+   * @param rankedMatchLimit
+   */
+  public void setRankedMatchLimit(int rankedMatchLimit) {
+    checkArgument(rankedMatchLimit > 0);
+    _rankedMatchLimit = rankedMatchLimit;
+  }
+
+  public Session newSession() {
+    return new Session();
+  }
+
+  @Override
+  protected void addNormalizedEntry(String key, V entry) {
+    int node = ROOT;
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      int child = _child(node, c);
+      if (child == NONE) {
+        child = _addChild(node, c);
+        _modCount++;
+      }
+      node = child;
+    }
+
+    if (_terminals[node] == null)
+      _terminals[node] = new PostingList<V>(key);
+    _terminals[node].add(entry);
+  }
+
+  @Override
+  protected V exactMatch(String key) {
+    int node = _find(key);
+    return node == NONE || _terminals[node] == null ? null : _terminals[node].getFirstValue();
+  }
+
+  @Override
+  protected V nearestMatch(String key) {
+    RankedSet<V> results = rankedMatches(key);
+    return results.isEmpty() ? null : results.firstEntry().getElement().getItem();
+  }
+
+  @Override
+  protected RankedSet<V> exactMatches(String key) {
+    RankedSet<V> results = new RankedSet<V>();
+
+    int node = _find(key);
+    if (node != NONE && _terminals[node] != null)
+      _terminals[node].addTo(DEFAULT_RANKING, results);
+
+    return results;
+  }
+
+  /**
+   * The best rankedMatchLimit keys whose prefix is within tolerance of key.
+   */
+  @Override
+  protected RankedSet<V> rankedMatches(String key) {
+    Session session = new Session();
+    session._update(key);
+    return session.getMatches(_rankedMatchLimit);
+  }
+
+
+  private int _find(String key) {
+    int node = ROOT;
+    for (int i = 0; i < key.length() && node != NONE; i++)
+      node = _child(node, key.charAt(i));
+
+    return node;
+  }
+
+  private int _child(int node, char c) {
+    for (int child = _firstChildren[node]; child != NONE; child = _nextSiblings[child]) {
+      if (_labels[child] == c)
+        return child;
+      if (_labels[child] > c)
+        break;
+    }
+
+    return NONE;
+  }
+
+  /**
+   * Adds a child, keeping siblings in char order so subtrees are walked alphabetically.
+   */
+  private int _addChild(int node, char c) {
+    if (_nodeCount == _labels.length) {
+      int capacity = _nodeCount * 2;
+      _labels = Arrays.copyOf(_labels, capacity);
+      _depths = Arrays.copyOf(_depths, capacity);
+      _firstChildren = Arrays.copyOf(_firstChildren, capacity);
+      _nextSiblings = Arrays.copyOf(_nextSiblings, capacity);
+      _terminals = Arrays.copyOf(_terminals, capacity);
+    }
+
+    int child = _nodeCount++;
+    _labels[child] = c;
+    _depths[child] = _depths[node] + 1;
+    _firstChildren[child] = NONE;
+
+    int previous = NONE;
+    int next = _firstChildren[node];
+    while (next != NONE && _labels[next] < c) {
+      previous = next;
+      next = _nextSiblings[next];
+    }
+    _nextSiblings[child] = next;
+    if (previous == NONE)
+      _firstChildren[node] = child;
+    else
+      _nextSiblings[previous] = child;
+
+    return child;
+  }
+
+
+  /**
+   * One user's typing against the index.  Call setText() (or append() and backspace()) on each keystroke, then
+   * getMatches() for the best matches so far.
+   */
+  public class Session {
+    private final StringBuilder _rawText = new StringBuilder();
+    private final StringBuilder _text = new StringBuilder();
+    private boolean _normalizeWhole = true;
+    private int _modCount = NONE;
+    private final List<ActiveSet> _activeSets = new ArrayList<ActiveSet>();
+
+    private int[] _stamps = new int[0];
+    private int[] _positions = new int[0];
+    private int _stamp = 0;
+    private int[] _stack = new int[16];
+
+
+    private Session() {
+      _update("");
+    }
+
+    public String getText() {
+      return _rawText.toString();
+    }
+
+    /**
+     * Moves the session to this text, reusing the state for whatever prefix it shares with the previous text.
+     */
+    public void setText(String text) {
+      checkNotNull(text);
+
+      _rawText.setLength(0);
+      _rawText.append(text);
+      _update(normalizeKey(text));
+      _normalizeWhole = true;
+    }
+
+    /**
+     * Normalizes just c and extends the active sets by what it becomes.  Collapsing whitespace is the one
+     * normalization that depends on the chars around it, so from a whitespace char up to the next char that
+     * survives normalization the whole text is normalized again instead.
+     */
+    public void append(char c) {
+      _rawText.append(c);
+      if (_normalizeWhole || c == '\u00A0' || Character.isWhitespace(c)) {
+        int length = _text.length();
+        _update(normalizeKey(_rawText.toString()));
+        _normalizeWhole = _text.length() <= length;
+        return;
+      }
+
+      if (_modCount != FuzzyPrefixIndex.this._modCount)
+        _update(_text.toString());
+
+      String appended = normalizeKey(String.valueOf(c));
+      for (int i = 0; i < appended.length(); i++) {
+        _activeSets.add(_extend(_activeSets.get(_activeSets.size() - 1), appended.charAt(i)));
+        _text.append(appended.charAt(i));
+      }
+    }
+
+    public void backspace() {
+      if (_rawText.length() > 0)
+        setText(_rawText.substring(0, _rawText.length() - 1));
+    }
+
+    /**
+     * Returns up to limit values whose keys have a prefix within tolerance of the text, scored by that distance.
+     */
+    public RankedSet<V> getMatches(int limit) {
+      checkArgument(limit > 0);
+
+      if (_modCount != FuzzyPrefixIndex.this._modCount)
+        _update(_text.toString());
+
+      RankedSet<V> results = new RankedSet<V>();
+      ActiveSet active = _activeSets.get(_activeSets.size() - 1);
+      int stamp = _nextStamp();
+
+      //  Nearest active nodes first, so a key under several active nodes is scored by the nearest of them...
+      for (int distance = 0; distance <= _tolerance; distance++) {
+        for (int i = 0; i < active.size; i++) {
+          if (active.distances[i] != distance)
+            continue;
+
+          int stackSize = 0;
+          _stack[stackSize++] = active.nodes[i];
+          while (stackSize > 0) {
+            int node = _stack[--stackSize];
+            if (_stamps[node] == stamp)
+              continue;
+            _stamps[node] = stamp;
+
+            //  Stop adding values at the limit, even part way through a key's PostingList...
+            if (_terminals[node] != null) {
+              List<V> values = _terminals[node].getValues();
+              for (int j = 0; j < values.size(); j++) {
+                results.add(distance, values.get(j));
+                if (results.size() >= limit)
+                  return results;
+              }
+            }
+
+            //  Push children in reverse so they come off the stack in char order...
+            int childCount = 0;
+            for (int child = _firstChildren[node]; child != NONE; child = _nextSiblings[child])
+              childCount++;
+            if (stackSize + childCount > _stack.length)
+              _stack = Arrays.copyOf(_stack, Math.max(_stack.length * 2, stackSize + childCount));
+            int slot = stackSize + childCount;
+            for (int child = _firstChildren[node]; child != NONE; child = _nextSiblings[child])
+              _stack[--slot] = child;
+            stackSize += childCount;
+          }
+        }
+      }
+
+      return results;
+    }
+
+
+    private void _update(String text) {
+      if (_modCount != FuzzyPrefixIndex.this._modCount) {
+        _modCount = FuzzyPrefixIndex.this._modCount;
+        _activeSets.clear();
+        _activeSets.add(_initialActiveSet());
+        _text.setLength(0);
+      }
+
+      //  Keep the active sets for the prefix the new text shares with the old one, and extend from there...
+      int common = 0;
+      int shared = Math.min(_text.length(), text.length());
+      while (common < shared && _text.charAt(common) == text.charAt(common))
+        common++;
+
+      while (_activeSets.size() > common + 1)
+        _activeSets.remove(_activeSets.size() - 1);
+      for (int i = common; i < text.length(); i++)
+        _activeSets.add(_extend(_activeSets.get(i), text.charAt(i)));
+
+      _text.setLength(common);
+      _text.append(text, common, text.length());
+    }
+
+    /**
+     * With nothing typed, every node within tolerance of the root is active at its depth.
+     */
+    private ActiveSet _initialActiveSet() {
+      ActiveSet active = new ActiveSet();
+      active.add(ROOT, 0);
+
+      int stackSize = 0;
+      _stack[stackSize++] = ROOT;
+      while (stackSize > 0) {
+        int node = _stack[--stackSize];
+        if (_depths[node] == _tolerance)
+          continue;
+        for (int child = _firstChildren[node]; child != NONE; child = _nextSiblings[child]) {
+          active.add(child, _depths[child]);
+          if (stackSize == _stack.length)
+            _stack = Arrays.copyOf(_stack, stackSize * 2);
+          _stack[stackSize++] = child;
+        }
+      }
+
+      return active;
+    }
+
+    /**
+     * The active set after typing c, computed from the active set before it.
+     */
+    private ActiveSet _extend(ActiveSet previous, char c) {
+      ActiveSet next = new ActiveSet();
+      int stamp = _nextStamp();
+
+      for (int i = 0; i < previous.size; i++) {
+        int node = previous.nodes[i];
+        int distance = previous.distances[i];
+
+        //  Deleting c from the text leaves the node where it was, one edit further away...
+        _offer(next, stamp, node, distance + 1);
+
+        //  Otherwise c is matched by a descendant, after inserting the chars in between, or substituted for a
+        //  child...
+        int maxDepth = _depths[node] + _tolerance - distance + 1;
+        int stackSize = 0;
+        _stack[stackSize++] = node;
+        while (stackSize > 0) {
+          int ancestor = _stack[--stackSize];
+          for (int child = _firstChildren[ancestor]; child != NONE; child = _nextSiblings[child]) {
+            int gap = _depths[child] - _depths[node];
+            if (_labels[child] == c)
+              _offer(next, stamp, child, distance + gap - 1);
+            else if (gap == 1)
+              _offer(next, stamp, child, distance + 1);
+
+            if (_depths[child] < maxDepth) {
+              if (stackSize == _stack.length)
+                _stack = Arrays.copyOf(_stack, stackSize * 2);
+              _stack[stackSize++] = child;
+            }
+          }
+        }
+      }
+
+      return next;
+    }
+
+    private void _offer(ActiveSet active, int stamp, int node, int distance) {
+      if (distance > _tolerance)
+        return;
+
+      if (_stamps[node] != stamp) {
+        _stamps[node] = stamp;
+        _positions[node] = active.size;
+        active.add(node, distance);
+      } else if (distance < active.distances[_positions[node]])
+        active.distances[_positions[node]] = distance;
+    }
+
+    private int _nextStamp() {
+      if (_stamps.length < _nodeCount) {
+        _stamps = Arrays.copyOf(_stamps, Math.max(_nodeCount, _stamps.length * 2));
+        _positions = new int[_stamps.length];
+      }
+
+      if (++_stamp == 0) {
+        Arrays.fill(_stamps, 0);
+        _stamp = 1;
+      }
+      return _stamp;
+    }
+  }
+
+  private static final class ActiveSet {
+    int[] nodes = new int[8];
+    int[] distances = new int[8];
+    int size = 0;
+
+    void add(int node, int distance) {
+      if (size == nodes.length) {
+        nodes = Arrays.copyOf(nodes, size * 2);
+        distances = Arrays.copyOf(distances, size * 2);
+      }
+      nodes[size] = node;
+      distances[size] = distance;
+      size++;
+    }
+  }
+}
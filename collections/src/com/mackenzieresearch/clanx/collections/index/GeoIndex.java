@@ -0,0 +1,503 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.queryable.Query;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * GeoIndex is an index over latitude/longitude points that matches by great circle distance.  Its scores are the
+ * distance in kilometres divided by the scale (1 unless set), so they join with the string dimensions of a multidex
+ * like any other score: a point a scale away weighs the same as one edit.
+ * <p/>
+ * The globe is cut into a grid of cells cellDegrees on a side, numbered row by row, and the entries live in parallel
+ * primitive arrays sorted by cell.  A circle of a given radius covers a band of rows, and in each row a run of
+ * consecutive cells (two runs where it wraps at the antimeridian), so a radius query is a binary search per run and
+ * an exact distance check of the points in it.  A k-nearest query widens a radius query until it holds k points.
+ * As in NumericIndex, new entries go into a short tail sorted by cell, which adding merges into the main arrays once
+ * it outgrows their square root, and queries search the tail alongside them.  Queries never change the index, so
+ * any number of threads can query it at once while nothing is being added.
+ * <p/>
+ * Keys are GeoPoints, or strings of the form "lat,lon".  getRankedMatches() returns the entries within the radius
+ * set by setRadius(), 1km by default.
+ *
+ * @param <V>
+ */
+public class GeoIndex<V> extends AbstractIndex<V> implements TypedKeyIndex<V>, ScoringIndex<V> {
+  public static final double DEFAULT_CELL_DEGREES = 0.1;
+  public static final double DEFAULT_RADIUS_KM = 1.0;
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int MIN_TAIL_LIMIT = 64;
+  private static final double KM_PER_DEGREE = Math.toRadians(GeoPoint.EARTH_RADIUS_KM);
+
+  private final double _cellDegrees;
+  private final int _rows;
+  private final int _columns;
+
+  private long[] _cells = new long[INITIAL_CAPACITY];
+  private double[] _latitudes = new double[INITIAL_CAPACITY];
+  private double[] _longitudes = new double[INITIAL_CAPACITY];
+  private Object[] _values = new Object[INITIAL_CAPACITY];
+  private int _size = 0;
+
+  private long[] _tailCells = new long[INITIAL_CAPACITY];
+  private double[] _tailLatitudes = new double[INITIAL_CAPACITY];
+  private double[] _tailLongitudes = new double[INITIAL_CAPACITY];
+  private Object[] _tailValues = new Object[INITIAL_CAPACITY];
+  private int _tailSize = 0;
+
+  private double _radiusKm = DEFAULT_RADIUS_KM;
+  private double _scaleKm = 1;
+
+
+  public GeoIndex() {
+    this(DEFAULT_CELL_DEGREES);
+  }
+
+  /**
+   * Cells are best sized near the radius of a typical query: smaller cells mean more runs to search, larger ones
+   * more points to check.
+   */
+  public GeoIndex(double cellDegrees) {
+    checkArgument(cellDegrees >= 0.01 && cellDegrees <= 90, "Cell size out of range: " + cellDegrees);
+
+    _cellDegrees = cellDegrees;
+    _rows = (int) Math.ceil(180 / cellDegrees);
+    _columns = (int) Math.ceil(360 / cellDegrees);
+  }
+
+  public void setRadius(double radiusKm) {
+    checkArgument(radiusKm >= 0);
+    _radiusKm = radiusKm;
+  }
+
+  public double getRadius() {
+    return _radiusKm;
+  }
+
+  /**
+   * The distance in kilometres that scores 1.
+   */
+  public void setScale(double scaleKm) {
+    checkArgument(scaleKm > 0);
+    _scaleKm = scaleKm;
+  }
+
+  public double getScale() {
+    return _scaleKm;
+  }
+
+  @Override
+  public String blockingKey(String key) {
+    checkNotNull(key);
+    return GeoPoint.parse(normalizeKey(key)).toString();
+  }
+
+  @Override
+  public float rankedScore(String queryKey, String key) {
+    double distanceKm = GeoPoint.parse(normalizeKey(queryKey)).distanceKm(GeoPoint.parse(normalizeKey(key)));
+    return distanceKm <= _radiusKm ? _score((float) distanceKm) : -1;
+  }
+
+  @Override
+  public boolean ranksWithinBlock() {
+    return false;
+  }
+
+  /**
+   * Unknown, since the index doesn't keep counts per cell.
+   */
+  @Override
+  public int estimateExactMatches(String queryKey) {
+    return -1;
+  }
+
+  @Override
+  public int estimateRankedMatches(String queryKey) {
+    return -1;
+  }
+
+  public int size() {
+    return _size + _tailSize;
+  }
+
+  public void addEntry(GeoPoint point, V entry) {
+    checkNotNull(point);
+    addEntry(point.latitude(), point.longitude(), entry);
+  }
+
+  public void addEntry(double latitude, double longitude, V entry) {
+    checkArgument(latitude >= -90 && latitude <= 90, "Latitude out of range: " + latitude);
+    checkArgument(longitude >= -180 && longitude <= 180, "Longitude out of range: " + longitude);
+    checkNotNull(entry);
+
+    if (_tailSize == _tailValues.length) {
+      _tailCells = Arrays.copyOf(_tailCells, 2 * _tailSize);
+      _tailLatitudes = Arrays.copyOf(_tailLatitudes, 2 * _tailSize);
+      _tailLongitudes = Arrays.copyOf(_tailLongitudes, 2 * _tailSize);
+      _tailValues = Arrays.copyOf(_tailValues, 2 * _tailSize);
+    }
+
+    //  After any entries in the same cell, so that they keep the order they were added in...
+    long cell = _cell(latitude, longitude);
+    int i = _lowerBound(_tailCells, _tailSize, cell + 1);
+    int moved = _tailSize - i;
+    System.arraycopy(_tailCells, i, _tailCells, i + 1, moved);
+    System.arraycopy(_tailLatitudes, i, _tailLatitudes, i + 1, moved);
+    System.arraycopy(_tailLongitudes, i, _tailLongitudes, i + 1, moved);
+    System.arraycopy(_tailValues, i, _tailValues, i + 1, moved);
+    _tailCells[i] = cell;
+    _tailLatitudes[i] = latitude;
+    _tailLongitudes[i] = longitude;
+    _tailValues[i] = entry;
+    _tailSize++;
+
+    if (_tailSize > Math.max(MIN_TAIL_LIMIT, (int) Math.sqrt(_size)))
+      compact();
+  }
+
+  /**
+   * Merges the tail into the main arrays, back to front so it can be done in place.  Entries in the same cell keep
+   * the order they were added in.  Adding does this as it goes, but calling it once loading is done saves queries
+   * searching the tail.
+   */
+  public void compact() {
+    if (_tailSize == 0)
+      return;
+
+    int size = _size + _tailSize;
+    if (size > _cells.length) {
+      int capacity = Math.max(size, 2 * _cells.length);
+      _cells = Arrays.copyOf(_cells, capacity);
+      _latitudes = Arrays.copyOf(_latitudes, capacity);
+      _longitudes = Arrays.copyOf(_longitudes, capacity);
+      _values = Arrays.copyOf(_values, capacity);
+    }
+
+    int i = _size - 1;
+    int j = _tailSize - 1;
+    for (int k = size - 1; j >= 0; k--) {
+      if (i >= 0 && _cells[i] > _tailCells[j]) {
+        _cells[k] = _cells[i];
+        _latitudes[k] = _latitudes[i];
+        _longitudes[k] = _longitudes[i];
+        _values[k] = _values[i--];
+      } else {
+        _cells[k] = _tailCells[j];
+        _latitudes[k] = _tailLatitudes[j];
+        _longitudes[k] = _tailLongitudes[j];
+        _values[k] = _tailValues[j--];
+      }
+    }
+
+    _size = size;
+    Arrays.fill(_tailValues, 0, _tailSize, null);
+    _tailSize = 0;
+  }
+
+  @Override
+  public void addTypedEntry(Object key, V entry) {
+    checkNotNull(key);
+
+    if (key instanceof GeoPoint)
+      addEntry((GeoPoint) key, entry);
+    else if (key instanceof String)
+      addEntry((String) key, entry);
+    else
+      throw new IllegalArgumentException("Expected a GeoPoint key.  Actually got: " + key.getClass().getSimpleName());
+  }
+
+  /**
+   * Returns every entry at exactly this point, scored DEFAULT_RANKING like the exact matches of the other indexes.
+   */
+  @SuppressWarnings("unchecked")
+  public RankedSet<V> getExactMatches(GeoPoint point) {
+    checkNotNull(point);
+
+    RankedSet<V> results = new RankedSet<V>();
+    long cell = _cell(point.latitude(), point.longitude());
+    for (int i = _lowerBound(_cells, _size, cell); i < _size && _cells[i] == cell; i++) {
+      if (_latitudes[i] == point.latitude() && _longitudes[i] == point.longitude())
+        results.add(DEFAULT_RANKING, (V) _values[i]);
+    }
+    for (int i = _lowerBound(_tailCells, _tailSize, cell); i < _tailSize && _tailCells[i] == cell; i++) {
+      if (_tailLatitudes[i] == point.latitude() && _tailLongitudes[i] == point.longitude())
+        results.add(DEFAULT_RANKING, (V) _tailValues[i]);
+    }
+    return results;
+  }
+
+  public V getNearestMatch(GeoPoint point) {
+    checkNotNull(point);
+
+    RankedSet<V> nearest = getNearest(point.latitude(), point.longitude(), 1);
+    return nearest.size() == 0 ? null : nearest.firstEntry().getElement().getItem();
+  }
+
+  public RankedSet<V> getWithin(GeoPoint center, double radiusKm) {
+    checkNotNull(center);
+    return getWithin(center.latitude(), center.longitude(), radiusKm);
+  }
+
+  /**
+   * Returns every entry within radiusKm of the centre, scored by distance.
+   */
+  public RankedSet<V> getWithin(double latitude, double longitude, double radiusKm) {
+    checkArgument(radiusKm >= 0);
+
+    Hits hits = new Hits();
+    _scan(latitude, longitude, radiusKm, hits);
+
+    RankedSet<V> results = new RankedSet<V>();
+    for (int i = 0; i < hits.size; i++)
+      results.add(_score(hits.distance(i)), _value(hits.index(i)));
+    return results;
+  }
+
+  public RankedSet<V> getNearest(GeoPoint point, int k) {
+    checkNotNull(point);
+    return getNearest(point.latitude(), point.longitude(), k);
+  }
+
+  /**
+   * Returns the k entries nearest to the point, scored by distance.
+   */
+  public RankedSet<V> getNearest(double latitude, double longitude, int k) {
+    checkArgument(k >= 0);
+
+    RankedSet<V> results = new RankedSet<V>();
+    if (k == 0 || size() == 0)
+      return results;
+
+    //  Every point within the radius is found, so once there are k of them the k nearest are among them...
+    Hits hits = new Hits();
+    double maxRadiusKm = Math.PI * GeoPoint.EARTH_RADIUS_KM;
+    double radiusKm = _cellDegrees * KM_PER_DEGREE;
+    while (true) {
+      hits.size = 0;
+      _scan(latitude, longitude, Math.min(radiusKm, maxRadiusKm), hits);
+      if (hits.size >= k || radiusKm >= maxRadiusKm)
+        break;
+      radiusKm *= 2;
+    }
+
+    hits.sort();
+    for (int i = 0; i < Math.min(k, hits.size); i++)
+      results.add(_score(hits.distance(i)), _value(hits.index(i)));
+    return results;
+  }
+
+  @Override
+  public RankedSet<V> getExactMatches(Query query) {
+    return getExactMatches(_queryPoint(query));
+  }
+
+  @Override
+  public RankedSet<V> getNearestMatches(Query query) {
+    V result = getNearestMatch(_queryPoint(query));
+    RankedSet<V> resultSet = new RankedSet<V>();
+    if (result != null)
+      resultSet.add(DEFAULT_RANKING, result);
+    return resultSet;
+  }
+
+  @Override
+  public RankedSet<V> getRankedMatches(float scoreThreshold, Query query) {
+    return getWithin(_queryPoint(query), _radiusKm);
+  }
+
+
+  @Override
+  protected void addNormalizedEntry(String key, V entry) {
+    addEntry(GeoPoint.parse(key), entry);
+  }
+
+  @Override
+  protected V exactMatch(String key) {
+    RankedSet<V> matches = getExactMatches(GeoPoint.parse(key));
+    return matches.size() == 0 ? null : matches.firstEntry().getElement().getItem();
+  }
+
+  @Override
+  protected V nearestMatch(String key) {
+    return getNearestMatch(GeoPoint.parse(key));
+  }
+
+  @Override
+  protected RankedSet<V> exactMatches(String key) {
+    return getExactMatches(GeoPoint.parse(key));
+  }
+
+  @Override
+  protected RankedSet<V> rankedMatches(String key) {
+    return getWithin(GeoPoint.parse(key), _radiusKm);
+  }
+
+  private float _score(float distanceKm) {
+    return (float) (distanceKm / _scaleKm);
+  }
+
+  private GeoPoint _queryPoint(Query query) {
+    checkNotNull(query);
+    if (!(query instanceof Match))
+      throw new IllegalArgumentException("Expected a Match query.  Actually got: " + query.getClass().getSimpleName());
+
+    Object value = ((Match<?>) query).value();
+    checkNotNull(value);
+    if (value instanceof GeoPoint)
+      return (GeoPoint) value;
+    if (value instanceof String)
+      return GeoPoint.parse(queryKey(query));
+    throw new IllegalArgumentException("Expected a GeoPoint Match.  Actually got: " + value.getClass().getSimpleName());
+  }
+
+  private int _row(double latitude) {
+    return Math.min(_rows - 1, (int) ((latitude + 90) / _cellDegrees));
+  }
+
+  private int _column(double longitude) {
+    return Math.min(_columns - 1, (int) ((longitude + 180) / _cellDegrees));
+  }
+
+  private long _cell(double latitude, double longitude) {
+    return (long) _row(latitude) * _columns + _column(longitude);
+  }
+
+  /**
+   * Adds every entry within radiusKm of the point to hits.
+   */
+  private void _scan(double latitude, double longitude, double radiusKm, Hits hits) {
+    double radius = radiusKm / GeoPoint.EARTH_RADIUS_KM;
+    double latitudeDelta = Math.toDegrees(radius);
+    int firstRow = _row(Math.max(-90, latitude - latitudeDelta));
+    int lastRow = _row(Math.min(90, latitude + latitudeDelta));
+
+    //  The widest longitude reached by a circle that doesn't cover a pole is asin(sin(r) / cos(lat))...
+    int firstColumn = 0;
+    int lastColumn = _columns - 1;
+    int wrappedColumn = -1;
+    double sinRadius = Math.sin(radius);
+    double cosLatitude = Math.cos(Math.toRadians(latitude));
+    if (radius < Math.PI / 2 && sinRadius < cosLatitude) {
+      double longitudeDelta = Math.toDegrees(Math.asin(sinRadius / cosLatitude));
+      double west = longitude - longitudeDelta;
+      double east = longitude + longitudeDelta;
+      if (west < -180) {
+        firstColumn = _column(west + 360);
+        wrappedColumn = _column(east);
+      } else if (east > 180) {
+        firstColumn = _column(west);
+        wrappedColumn = _column(east - 360);
+      } else {
+        firstColumn = _column(west);
+        lastColumn = _column(east);
+      }
+    }
+
+    for (int row = firstRow; row <= lastRow; row++) {
+      long rowStart = (long) row * _columns;
+      _scanCells(rowStart + firstColumn, rowStart + lastColumn, latitude, longitude, radiusKm, hits);
+      if (wrappedColumn >= 0)
+        _scanCells(rowStart, rowStart + wrappedColumn, latitude, longitude, radiusKm, hits);
+    }
+  }
+
+  /**
+   * Adds the matching entries of the main arrays by index, and those of the tail by complemented index.
+   */
+  private void _scanCells(long firstCell, long lastCell, double latitude, double longitude, double radiusKm,
+                          Hits hits) {
+    for (int i = _lowerBound(_cells, _size, firstCell); i < _size && _cells[i] <= lastCell; i++) {
+      double distanceKm = GeoPoint.distanceKm(latitude, longitude, _latitudes[i], _longitudes[i]);
+      if (distanceKm <= radiusKm)
+        hits.add((float) distanceKm, i);
+    }
+    for (int i = _lowerBound(_tailCells, _tailSize, firstCell); i < _tailSize && _tailCells[i] <= lastCell; i++) {
+      double distanceKm = GeoPoint.distanceKm(latitude, longitude, _tailLatitudes[i], _tailLongitudes[i]);
+      if (distanceKm <= radiusKm)
+        hits.add((float) distanceKm, ~i);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private V _value(int index) {
+    return (V) (index >= 0 ? _values[index] : _tailValues[~index]);
+  }
+
+  /**
+   * Index of the first of cells[0, size) >= cell, or size if there is none.
+   */
+  private static int _lowerBound(long[] cells, int size, long cell) {
+    int lo = 0;
+    int hi = size;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (cells[mid] < cell)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+
+  /**
+   * Matching entries as (distance, index) pairs packed into longs.  Distances are non-negative floats, whose bits
+   * sort in the same order as their values, so sorting the longs sorts the hits by distance.
+   */
+  private static final class Hits {
+    long[] packed = new long[INITIAL_CAPACITY];
+    int size = 0;
+
+    void add(float distance, int index) {
+      if (size == packed.length)
+        packed = Arrays.copyOf(packed, 2 * size);
+      packed[size++] = ((long) Float.floatToIntBits(distance) << 32) | (index & 0xFFFFFFFFL);
+    }
+
+    float distance(int i) {
+      return Float.intBitsToFloat((int) (packed[i] >>> 32));
+    }
+
+    int index(int i) {
+      return (int) packed[i];
+    }
+
+    void sort() {
+      Arrays.sort(packed, 0, size);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.index;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A latitude/longitude pair in degrees.  The string form, which parse() reads back, is "lat,lon".
+ */
+public final class GeoPoint {
+  public static final double EARTH_RADIUS_KM = 6371.0088;
+
+  private final double _latitude;
+  private final double _longitude;
+
+
+  public GeoPoint(double latitude, double longitude) {
+    checkArgument(latitude >= -90 && latitude <= 90, "Latitude out of range: " + latitude);
+    checkArgument(longitude >= -180 && longitude <= 180, "Longitude out of range: " + longitude);
+
+    //  Adding 0.0 turns -0.0 into 0.0, so that equal points have equal string forms...
+    _latitude = latitude + 0.0;
+    _longitude = longitude + 0.0;
+  }
+
+  /**
+   * @throws IllegalArgumentException if text isn't "lat,lon" with both in range.
+   */
+  public static GeoPoint parse(String text) {
+    checkNotNull(text);
+
+    int comma = text.indexOf(',');
+    checkArgument(comma > 0, "Expected \"lat,lon\".  Actually got: " + text);
+    try {
+      return new GeoPoint(Double.parseDouble(text.substring(0, comma).trim()),
+              Double.parseDouble(text.substring(comma + 1).trim()));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Expected \"lat,lon\".  Actually got: " + text, e);
+    }
+  }
+
+  public double latitude() {
+    return _latitude;
+  }
+
+  public double longitude() {
+    return _longitude;
+  }
+
+  public double distanceKm(GeoPoint other) {
+    return distanceKm(_latitude, _longitude, other._latitude, other._longitude);
+  }
+
+  /**
+   * Great circle distance by the haversine formula.
+   */
+  public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+    double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+    double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+    double a = sinLat * sinLat + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+    return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    GeoPoint that = (GeoPoint) o;
+    return Double.compare(_latitude, that._latitude) == 0 && Double.compare(_longitude, that._longitude) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    long bits = Double.doubleToLongBits(_latitude) * 31 + Double.doubleToLongBits(_longitude);
+    return (int) (bits ^ (bits >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return _latitude + "," + _longitude;
+  }
+}
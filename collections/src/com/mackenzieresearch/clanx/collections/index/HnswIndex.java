@@ -0,0 +1,567 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.metrix.CharacterSignature;
+import com.mackenzieresearch.clanx.metrix.Levenshtein;
+import com.mackenzieresearch.clanx.metrix.StringMetric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * HnswIndex is a hierarchical navigable small world graph (Malkov and Yashunin) over the distinct keys, under
+ * Levenshtein or any other StringMetric.  It is for large dimensions where finding the nearest keys quickly matters
+ * more than finding every key within a tolerance: lookups walk the graph greedily from the top layer down instead
+ * of scanning the keys, and are approximate.  Below a few tens of thousands of keys a LevenshsteinFuzzydex scan,
+ * with its signature filter, is usually as fast.
+ * <p/>
+ * m is the number of links each key keeps per layer (twice that on the bottom layer), efConstruction is the beam
+ * width used to find those links as keys are added, and ef is the beam width used by lookups.  Larger values trade
+ * speed and memory for recall.  The defaults find the true nearest key for over 95% of single-typo probes into
+ * 10000 two-word names.  getRankedMatches() returns the rankedMatchCount nearest keys, scored by distance.
+ * <p/>
+ * Under Levenshtein, keys are only compared once their CharacterSignature lower bound says they could beat the
+ * worst key in the beam, and then only until the distance is sure not to.  The beams, visited marks and Levenshtein
+ * lines are kept per thread and reused, so a lookup allocates little beyond its results.
+ * <p/>
+ * Entries can be added at any time, but not concurrently with each other or with lookups.  Lookups may run
+ * concurrently.
+ *
+ * @param <V>
+ */
+public class HnswIndex<V> extends AbstractIndex<V> {
+  public static final int DEFAULT_M = 16;
+  public static final int DEFAULT_EF_CONSTRUCTION = 32;
+  public static final int DEFAULT_EF = 64;
+  public static final int DEFAULT_RANKED_MATCH_COUNT = 10;
+
+  private static final long SEED = 42L;
+
+  private final StringMetric _metric;
+  private final boolean _levenshtein;
+  private final int _m;
+  private final int _efConstruction;
+  private final double _levelMultiplier;
+  private final Random _random = new Random(SEED);
+
+  private Map<String, Integer> _keyIds = new HashMap<String, Integer>();
+  private PostingColumn<V> _keys = new PostingColumn<V>();
+  private List<Node> _nodes = new ArrayList<Node>();
+  private int _entryPoint = -1;
+  private int _ef = DEFAULT_EF;
+  private int _rankedMatchCount = DEFAULT_RANKED_MATCH_COUNT;
+
+  private final ThreadLocal<Scratch> _scratch = new ThreadLocal<Scratch>() {
+    @Override
+    protected Scratch initialValue() {
+      return new Scratch();
+    }
+  };
+
+
+  public HnswIndex() {
+    this(new Levenshtein(), DEFAULT_M, DEFAULT_EF_CONSTRUCTION);
+  }
+
+  public HnswIndex(StringMetric metric, int m, int efConstruction) {
+    checkNotNull(metric);
+    checkArgument(m >= 2);
+    checkArgument(efConstruction >= m);
+
+    _metric = metric;
+    _levenshtein = metric.getClass() == Levenshtein.class;
+    _m = m;
+    _efConstruction = efConstruction;
+    _levelMultiplier = 1 / Math.log(m);
+  }
+
+  public void setEf(int ef) {
+    checkArgument(ef > 0);
+    _ef = ef;
+  }
+
+  public void setRankedMatchCount(int rankedMatchCount) {
+    checkArgument(rankedMatchCount > 0);
+    _rankedMatchCount = rankedMatchCount;
+  }
+
+  /**
+   * Returns the values of the (approximately) k nearest keys, scored by their distance from key.
+   */
+  public RankedSet<V> getNearestMatches(String key, int k) {
+    checkNotNull(key);
+    checkArgument(k > 0);
+
+    return _nearest(normalizeKey(key), k);
+  }
+
+  @Override
+  protected void addNormalizedEntry(String key, V entry) {
+    Integer keyId = _keyIds.get(key);
+    if (keyId == null) {
+      keyId = _keys.size;
+      _keyIds.put(key, keyId);
+      _keys.add(new PostingList<V>(key));
+      _insert(key, keyId);
+    }
+
+    _keys.postings[keyId].add(entry);
+  }
+
+  @Override
+  protected V exactMatch(String key) {
+    Integer keyId = _keyIds.get(key);
+    return keyId == null ? null : _keys.postings[keyId].getFirstValue();
+  }
+
+  @Override
+  protected V nearestMatch(String key) {
+    Integer keyId = _keyIds.get(key);
+    if (keyId != null)
+      return _keys.postings[keyId].getFirstValue();
+
+    Scratch scratch = _scratch.get();
+    if (_search(key, _ef, scratch) == 0)
+      return null;
+    return _keys.postings[scratch.resultIds[0]].getFirstValue();
+  }
+
+  @Override
+  protected RankedSet<V> exactMatches(String key) {
+    RankedSet<V> results = new RankedSet<V>();
+
+    Integer keyId = _keyIds.get(key);
+    if (keyId != null)
+      _keys.postings[keyId].addTo(DEFAULT_RANKING, results);
+
+    return results;
+  }
+
+  @Override
+  protected RankedSet<V> rankedMatches(String key) {
+    return _nearest(key, _rankedMatchCount);
+  }
+
+
+  private RankedSet<V> _nearest(String key, int k) {
+    RankedSet<V> results = new RankedSet<V>();
+
+    Scratch scratch = _scratch.get();
+    int found = _search(key, Math.max(_ef, k), scratch);
+    for (int i = 0; i < found && i < k; i++)
+      _keys.postings[scratch.resultIds[i]].addTo(scratch.resultDistances[i], results);
+
+    return results;
+  }
+
+  /**
+   * Descends greedily to the bottom layer, then beam searches it.  Leaves up to ef candidates, nearest first, in the
+   * scratch results and returns how many there are.
+   */
+  private int _search(String key, int ef, Scratch scratch) {
+    if (_entryPoint < 0)
+      return 0;
+
+    scratch.setQuery(key, _keys.size);
+    int entryPoint = _entryPoint;
+    float distance = _distance(scratch, entryPoint, Float.MAX_VALUE);
+    for (int layer = _nodes.get(_entryPoint).level; layer > 0; layer--) {
+      entryPoint = _greedyDescent(scratch, entryPoint, distance, layer);
+      distance = scratch.greedyDistance;
+    }
+
+    scratch.resultIds[0] = entryPoint;
+    scratch.resultDistances[0] = distance;
+    return _searchLayer(scratch, 1, ef, 0);
+  }
+
+  private void _insert(String key, int id) {
+    int level = (int) (-Math.log(1 - _random.nextDouble()) * _levelMultiplier);
+    Node node = new Node(level, _m);
+    _nodes.add(node);
+
+    if (_entryPoint < 0) {
+      _entryPoint = id;
+      return;
+    }
+
+    Scratch scratch = _scratch.get();
+    scratch.setQuery(key, _keys.size);
+    int topLevel = _nodes.get(_entryPoint).level;
+    int entryPoint = _entryPoint;
+    float distance = _distance(scratch, entryPoint, Float.MAX_VALUE);
+    for (int layer = topLevel; layer > level; layer--) {
+      entryPoint = _greedyDescent(scratch, entryPoint, distance, layer);
+      distance = scratch.greedyDistance;
+    }
+
+    scratch.resultIds[0] = entryPoint;
+    scratch.resultDistances[0] = distance;
+    int found = 1;
+    for (int layer = Math.min(level, topLevel); layer >= 0; layer--) {
+      found = _searchLayer(scratch, found, _efConstruction, layer);
+      _selectNeighbors(scratch, found, node, layer);
+      for (int i = 0; i < node.linkCounts[layer]; i++)
+        _link(node.links[layer][i], id, node.linkDistances[layer][i], layer);
+    }
+
+    if (level > topLevel)
+      _entryPoint = id;
+  }
+
+  /**
+   * Adds a link from -> to.  If from's links on this layer are full, the new link replaces the farthest of them, if
+   * it is nearer; the link distances are kept alongside the links, so this never recomputes any.
+   */
+  private void _link(int from, int to, float distance, int layer) {
+    Node node = _nodes.get(from);
+    int maxLinks = layer == 0 ? 2 * _m : _m;
+    if (node.linkCounts[layer] < maxLinks) {
+      node.addLink(layer, to, distance);
+      return;
+    }
+
+    float[] distances = node.linkDistances[layer];
+    int farthest = 0;
+    for (int i = 1; i < maxLinks; i++)
+      if (distances[i] > distances[farthest])
+        farthest = i;
+
+    if (distance < distances[farthest]) {
+      node.links[layer][farthest] = to;
+      distances[farthest] = distance;
+    }
+  }
+
+  /**
+   * The neighbour selection heuristic: links node to the scratch results (nearest first) that are closer to the key
+   * than to any neighbour already selected, which keeps links spread across clusters, then tops up with the nearest
+   * of the rest.  Each comparison only has to show that a selected neighbour is nearer, so it is bounded by the
+   * candidate's own distance.
+   */
+  private void _selectNeighbors(Scratch scratch, int found, Node node, int layer) {
+    int[] links = node.links[layer];
+    float[] linkDistances = node.linkDistances[layer];
+    boolean[] discarded = scratch.discarded(found);
+
+    for (int i = 0; i < found && node.linkCounts[layer] < _m; i++) {
+      int candidate = scratch.resultIds[i];
+      float distance = scratch.resultDistances[i];
+
+      boolean diverse = true;
+      for (int j = 0; j < node.linkCounts[layer] && diverse; j++)
+        diverse = _distanceBetween(scratch, candidate, links[j], distance) >= distance;
+
+      if (diverse)
+        node.addLink(layer, candidate, distance);
+      discarded[i] = !diverse;
+    }
+
+    for (int i = 0; i < found && node.linkCounts[layer] < _m; i++)
+      if (discarded[i])
+        node.addLink(layer, scratch.resultIds[i], scratch.resultDistances[i]);
+
+    //  The discarded marks are only meaningful up to where the first loop stopped...
+    Arrays.fill(discarded, 0, found, false);
+  }
+
+  /**
+   * Greedy search of one layer, from entryPoint to the nearest key it can reach.  Leaves that key's distance in the
+   * scratch.
+   */
+  private int _greedyDescent(Scratch scratch, int entryPoint, float distance, int layer) {
+    boolean improved = true;
+    while (improved) {
+      improved = false;
+      Node node = _nodes.get(entryPoint);
+      for (int i = 0; i < node.linkCounts[layer]; i++) {
+        int neighbor = node.links[layer][i];
+        float neighborDistance = _distance(scratch, neighbor, distance);
+        if (neighborDistance < distance) {
+          distance = neighborDistance;
+          entryPoint = neighbor;
+          improved = true;
+        }
+      }
+    }
+
+    scratch.greedyDistance = distance;
+    return entryPoint;
+  }
+
+  /**
+   * Beam search of one layer, starting from the first entryCount scratch results.  Replaces them with up to ef
+   * candidates, nearest first, and returns how many there are.
+   */
+  private int _searchLayer(Scratch scratch, int entryCount, int ef, int layer) {
+    int stamp = scratch.nextStamp(_nodes.size());
+    int[] stamps = scratch.stamps;
+    CandidateHeap frontier = scratch.frontier;
+    CandidateHeap nearest = scratch.nearest;
+    frontier.clear();
+    nearest.clear();
+
+    for (int i = 0; i < entryCount; i++) {
+      int entryPoint = scratch.resultIds[i];
+      float distance = scratch.resultDistances[i];
+      stamps[entryPoint] = stamp;
+      frontier.push(entryPoint, distance);
+      nearest.push(entryPoint, distance);
+      if (nearest.size > ef)
+        nearest.pop();
+    }
+
+    while (frontier.size > 0) {
+      //  Edit distances tie a lot, so stop at the beam's worst distance once it is full rather than walking the
+      //  whole plateau of keys that can only tie with it...
+      float closestDistance = frontier.topDistance();
+      if (closestDistance >= nearest.topDistance() && nearest.size >= ef)
+        break;
+
+      Node node = _nodes.get(frontier.pop());
+      for (int i = 0; i < node.linkCounts[layer]; i++) {
+        int neighbor = node.links[layer][i];
+        if (stamps[neighbor] == stamp)
+          continue;
+        stamps[neighbor] = stamp;
+
+        float bound = nearest.size < ef ? Float.MAX_VALUE : nearest.topDistance();
+        float distance = _distance(scratch, neighbor, bound);
+        if (distance < bound) {
+          frontier.push(neighbor, distance);
+          nearest.push(neighbor, distance);
+          if (nearest.size > ef)
+            nearest.pop();
+        }
+      }
+    }
+
+    int found = nearest.size;
+    scratch.ensureResults(found);
+    for (int i = found - 1; i >= 0; i--) {
+      scratch.resultDistances[i] = nearest.topDistance();
+      scratch.resultIds[i] = nearest.pop();
+    }
+    return found;
+  }
+
+  /**
+   * The distance from the scratch query to key id, or any value no less than bound if it is no less than bound.
+   */
+  private float _distance(Scratch scratch, int id, float bound) {
+    String key = _keys.postings[id].getKey();
+    if (!_levenshtein)
+      return _metric.distance(scratch.query, key);
+
+    if (bound == Float.MAX_VALUE)
+      return Levenshtein.scanLine(scratch.query, key, scratch.lines(key.length()), scratch.workingLine);
+
+    if (_keys.lowerBound(scratch.querySignature, scratch.query.length(), id) >= bound)
+      return bound;
+    return Levenshtein.boundedScanLine(scratch.query, key, (int) Math.ceil(bound) - 1, scratch.lines(key.length()),
+            scratch.workingLine);
+  }
+
+  /**
+   * The distance between keys a and b, or any value no less than bound if it is no less than bound.
+   */
+  private float _distanceBetween(Scratch scratch, int a, int b, float bound) {
+    String aKey = _keys.postings[a].getKey();
+    String bKey = _keys.postings[b].getKey();
+    if (!_levenshtein)
+      return _metric.distance(aKey, bKey);
+
+    if (CharacterSignature.lowerBound(_keys.signatures[a], _keys.lengths[a], _keys.signatures[b],
+            _keys.lengths[b]) >= bound)
+      return bound;
+    return Levenshtein.boundedScanLine(aKey, bKey, (int) Math.ceil(bound) - 1, scratch.lines(bKey.length()),
+            scratch.workingLine);
+  }
+
+
+  private static final class Node {
+    final int level;
+    final int[][] links;
+    final float[][] linkDistances;
+    final int[] linkCounts;
+
+    Node(int level, int m) {
+      this.level = level;
+      links = new int[level + 1][];
+      linkDistances = new float[level + 1][];
+      linkCounts = new int[level + 1];
+      for (int layer = 0; layer <= level; layer++) {
+        links[layer] = new int[layer == 0 ? 2 * m : m];
+        linkDistances[layer] = new float[layer == 0 ? 2 * m : m];
+      }
+    }
+
+    void addLink(int layer, int id, float distance) {
+      links[layer][linkCounts[layer]] = id;
+      linkDistances[layer][linkCounts[layer]++] = distance;
+    }
+  }
+
+  /**
+   * A binary heap of key ids by distance, held in parallel arrays.  A min-heap, or a max-heap with reversed set.
+   */
+  private static final class CandidateHeap {
+    private final float _sign;
+    int[] ids = new int[64];
+    float[] distances = new float[64];
+    int size = 0;
+
+    CandidateHeap(boolean reversed) {
+      _sign = reversed ? -1 : 1;
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    float topDistance() {
+      return _sign * distances[0];
+    }
+
+    void push(int id, float distance) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+        distances = Arrays.copyOf(distances, size * 2);
+      }
+
+      float key = _sign * distance;
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (distances[parent] <= key)
+          break;
+        ids[i] = ids[parent];
+        distances[i] = distances[parent];
+        i = parent;
+      }
+      ids[i] = id;
+      distances[i] = key;
+    }
+
+    int pop() {
+      int top = ids[0];
+      int lastId = ids[--size];
+      float last = distances[size];
+
+      int i = 0;
+      int child;
+      while ((child = 2 * i + 1) < size) {
+        if (child + 1 < size && distances[child + 1] < distances[child])
+          child++;
+        if (last <= distances[child])
+          break;
+        ids[i] = ids[child];
+        distances[i] = distances[child];
+        i = child;
+      }
+      ids[i] = lastId;
+      distances[i] = last;
+      return top;
+    }
+  }
+
+  /**
+   * Per-thread search state: the query, visited marks (stamped so they never need clearing), the two beams, the
+   * results of the last layer searched, and Levenshtein lines.
+   */
+  private static final class Scratch {
+    String query;
+    long querySignature;
+    float greedyDistance;
+
+    int[] stamps = new int[0];
+    int stamp = 0;
+
+    final CandidateHeap frontier = new CandidateHeap(false);
+    final CandidateHeap nearest = new CandidateHeap(true);
+    int[] resultIds = new int[64];
+    float[] resultDistances = new float[64];
+    boolean[] discarded = new boolean[64];
+
+    int[] previousLine = new int[32];
+    int[] workingLine = new int[32];
+
+    void setQuery(String key, int keyCount) {
+      query = key;
+      querySignature = CharacterSignature.signature(key);
+      if (stamps.length < keyCount)
+        stamps = Arrays.copyOf(stamps, Math.max(keyCount, stamps.length * 2));
+    }
+
+    int nextStamp(int nodeCount) {
+      if (stamps.length < nodeCount)
+        stamps = Arrays.copyOf(stamps, Math.max(nodeCount, stamps.length * 2));
+
+      if (++stamp == 0) {
+        Arrays.fill(stamps, 0);
+        stamp = 1;
+      }
+      return stamp;
+    }
+
+    void ensureResults(int count) {
+      if (resultIds.length < count) {
+        resultIds = new int[Math.max(count, resultIds.length * 2)];
+        resultDistances = new float[resultIds.length];
+      }
+    }
+
+    boolean[] discarded(int count) {
+      if (discarded.length < count)
+        discarded = new boolean[Math.max(count, discarded.length * 2)];
+      return discarded;
+    }
+
+    /**
+     * Levenshtein lines long enough for comparisons against a key of the given length, and the query.  Returns the
+     * previous line; the working line is alongside.
+     */
+    int[] lines(int keyLength) {
+      int length = Math.max(keyLength, query.length()) + 1;
+      if (previousLine.length < length) {
+        previousLine = new int[length * 2];
+        workingLine = new int[length * 2];
+      }
+      return previousLine;
+    }
+  }
+}
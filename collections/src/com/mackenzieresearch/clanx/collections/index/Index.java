@@ -29,6 +29,7 @@
 package com.mackenzieresearch.clanx.collections.index;
 
 import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.collections.index.normalize.KeyNormalizer;
 import com.mackenzieresearch.clanx.collections.queryable.Queryable;
 
 /**
@@ -41,6 +42,11 @@ public interface Index<V> extends Queryable<V> {
 
   float getWeight();
 
+  /**
+   * The normalizer applied to keys as they are added and to query keys, or null if keys are used as given.
+   */
+  KeyNormalizer getNormalizer();
+
   V getExactMatch(String key);
 
   V getNearestMatch(String key);
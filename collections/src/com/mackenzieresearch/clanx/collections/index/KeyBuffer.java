@@ -0,0 +1,91 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.index;
+
+/**
+ * A reusable stand-in for a String, for looking a key up in a map keyed by Strings without building the String.  It
+ * hashes like a String with the same characters and is equal to one, which is all Map.get() asks of its argument.  It
+ * is never equal to anything else, so it must never be put into a map itself.
+ */
+final class KeyBuffer implements CharSequence {
+  private char[] _chars = new char[0];
+  private int _length = 0;
+  private int _hash = 0;
+
+
+  void set(char[] chars, int length) {
+    _chars = chars;
+    _length = length;
+
+    int hash = 0;
+    for (int i = 0; i < length; i++)
+      hash = 31 * hash + chars[i];
+    _hash = hash;
+  }
+
+  @Override
+  public int length() {
+    return _length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    return _chars[index];
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return toString().subSequence(start, end);
+  }
+
+  @Override
+  public int hashCode() {
+    return _hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof String))
+      return false;
+
+    String key = (String) o;
+    if (key.length() != _length)
+      return false;
+    for (int i = 0; i < _length; i++)
+      if (key.charAt(i) != _chars[i])
+        return false;
+
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return new String(_chars, 0, _length);
+  }
+}
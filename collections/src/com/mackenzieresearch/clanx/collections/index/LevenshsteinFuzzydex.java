@@ -28,15 +28,13 @@
 
 package com.mackenzieresearch.clanx.collections.index;
 
-import com.mackenzieresearch.clanx.collections.KVPair;
 import com.mackenzieresearch.clanx.collections.RankedSet;
-import com.mackenzieresearch.clanx.collections.queryable.Match;
 import com.mackenzieresearch.clanx.collections.queryable.Query;
-import com.mackenzieresearch.clanx.collections.queryable.Queryable;
+import com.mackenzieresearch.clanx.metrix.CharacterSignature;
 import com.mackenzieresearch.clanx.metrix.Levenshtein;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -45,144 +43,146 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * Note that this is not an efficient implementation of a fuzzy index.  It is used as a placeholder for a more
  * sophisticated index mechanism (such as Lucene) that is capable of efficiently performing approximate matches
  * on a large set of keys...
+ * <p/>
+ * Each distinct key is held once with a PostingList of its values, so the scans compute one distance per distinct
+ * key rather than one per entry, and exact lookups go through a hash table.  Each key's CharacterSignature and
+ * length are kept in arrays alongside, and the scans only run Levenshtein on keys that survive the signature
+ * lower bound.
  *
  * @param <V>
  */
-public class LevenshsteinFuzzydex<V> implements MutableIndex<V> {
-  public static final int DEFAULT_RANKING = 1;
-
-  private List<KVPair<V>> _index = new ArrayList<KVPair<V>>();
-  private float _weight = 1.0f;
+public class LevenshsteinFuzzydex<V> extends AbstractIndex<V> implements ScoringIndex<V>, SortedAccessIndex<V> {
+  private PostingColumn<V> _index = new PostingColumn<V>();
+  private Map<String, PostingList<V>> _postings = new HashMap<String, PostingList<V>>();
   private int _tolerance = 6;
 
 
-  public void setWeight(float weight) {
-    _weight = weight;
-  }
-
   @Override
-  public float getWeight() {
-    return _weight;
-  }
-
-  @Override
-  public void addEntry(String key, V entry) {
-    checkNotNull(key);
-    checkNotNull(entry);
-
-    _index.add(kv(key, entry));
+  protected void addNormalizedEntry(String key, V entry) {
+    PostingList<V> postings = _postings.get(key);
+    if (postings == null) {
+      postings = new PostingList<V>(key);
+      _postings.put(key, postings);
+      _index.add(postings);
+    }
+    postings.add(entry);
   }
 
   @Override
-  public V getExactMatch(String key) {
-    checkNotNull(key);
-
-    for (KVPair<V> kvp : _index) {
-      if (kvp.getKey().equals(key))
-        return kvp.getMeasure();
-    }
-
-    return null;
+  protected V exactMatch(String key) {
+    PostingList<V> postings = _postings.get(key);
+    return postings == null ? null : postings.getFirstValue();
   }
 
   @Override
-  public V getNearestMatch(String key) {
-    checkNotNull(key);
-
+  protected V nearestMatch(String key) {
     int bestMatch = Integer.MAX_VALUE;
-    V matchingEntity = null;
+    PostingList<V> matchingEntities = null;
+
+    long signature = CharacterSignature.signature(key);
+    for (int i = 0; i < _index.size && bestMatch > 0; i++) {
+      //  Skip keys that can't beat the best so far...
+      if (_index.lowerBound(signature, key.length(), i) >= bestMatch)
+        continue;
 
-    for (KVPair<V> kvp : _index) {
-      int match = Levenshtein.scanLine(kvp.getKey(), key);
+      int match = Levenshtein.scanLine(_index.postings[i].getKey(), key);
       if (match < bestMatch) {
         bestMatch = match;
-        matchingEntity = kvp.getMeasure();
+        matchingEntities = _index.postings[i];
       }
     }
 
-    return matchingEntity;
+    return matchingEntities == null ? null : matchingEntities.getFirstValue();
   }
 
   @Override
-  public RankedSet<V> getExactMatches(String key) {
-    checkNotNull(key);
-
+  protected RankedSet<V> exactMatches(String key) {
     RankedSet<V> results = new RankedSet<V>();
 
-    for (KVPair<V> kvp : _index) {
-      if (kvp.getKey().equals(key))
-        results.add(DEFAULT_RANKING, kvp.getMeasure());
-    }
+    PostingList<V> postings = _postings.get(key);
+    if (postings != null)
+      postings.addTo(DEFAULT_RANKING, results);
 
     return results;
   }
 
   @Override
-  public RankedSet<V> getRankedMatches(String key) {
-    checkNotNull(key);
-
-    RankedSet<V> results = new RankedSet<V>();
-
-    for (KVPair<V> kvp : _index) {
-      int match = Levenshtein.scanLine(kvp.getKey(), key);
-      if (match <= _tolerance)
-        results.add(match, kvp.getMeasure());
-    }
-
-    return results;
+  protected RankedSet<V> rankedMatches(String key) {
+    return _rankedMatchesWithinTolerance(key, _tolerance);
   }
 
   public void setTolerance(int tolerance) {
     _tolerance = tolerance;
   }
 
-  public RankedSet<V> getRankedMatchesWithinTolerance(String key, int tolerance) {
+  @Override
+  public String blockingKey(String key) {
     checkNotNull(key);
-    checkArgument(tolerance >= 0);
-
-    RankedSet<V> results = new RankedSet<V>();
-
-    for (KVPair<V> kvp : _index) {
-      int match = Levenshtein.scanLine(kvp.getKey(), key);
-      if (match <= tolerance)
-        results.add(match, kvp.getMeasure());
-    }
+    return normalizeKey(key);
+  }
 
-    return results;
+  @Override
+  public float rankedScore(String queryKey, String key) {
+    int match = Levenshtein.scanLine(blockingKey(key), blockingKey(queryKey));
+    return match <= _tolerance ? match : -1;
   }
 
   @Override
-  public RankedSet<V> getExactMatches(Query query) {
-    if (query instanceof Match)
-      return getExactMatches(((Match<String>) query).value());
-    else
-      throw new IllegalArgumentException("Expected a Match query.  Actually got: " + query.getClass().getSimpleName());
+  public boolean ranksWithinBlock() {
+    return false;
   }
 
   @Override
-  public RankedSet<V> getNearestMatches(Query query) {
-    if (query instanceof Match) {
-      V result = getNearestMatch(((Match<String>) query).value());
-      RankedSet<V> resultSet = new RankedSet<V>();
-      resultSet.add(DEFAULT_RANKING, result);
-      return resultSet;
-    } else
-      throw new IllegalArgumentException("Expected a Match query.  Actually got: " + query.getClass().getSimpleName());
+  public int estimateExactMatches(String queryKey) {
+    PostingList<V> postings = _postings.get(blockingKey(queryKey));
+    return postings == null ? 0 : postings.size();
   }
 
+  /**
+   * Unknown, since a ranked probe compares the key with every key in the index.
+   */
   @Override
-  public RankedSet<V> getRankedMatches(float scoreThreshold, Query query) {
-    if (query instanceof Match)
-      return getRankedMatches(((Match<String>) query).value());
-    else
-      throw new IllegalArgumentException("Expected a Match query.  Actually got: " + query.getClass().getSimpleName());
+  public int estimateRankedMatches(String queryKey) {
+    return -1;
   }
 
+  /**
+   * Values filed under the query key itself come first, without scanning the index.
+   */
+  @Override
+  public MatchCursor<V> rankedCursor(Query query) {
+    String key = queryKey(query);
+    return new DistanceCursor<V>(key, _postings.get(key), _tolerance, new DistanceCursor.Scanner<V>() {
+      @Override
+      public void scan(DistanceCursor<V> cursor) {
+        cursor.scan(_index);
+      }
+    });
+  }
 
-  private KVPair<V> kv(String key, V value) {
+  public RankedSet<V> getRankedMatchesWithinTolerance(String key, int tolerance) {
     checkNotNull(key);
-    checkNotNull(value);
+    checkArgument(tolerance >= 0);
+
+    return _rankedMatchesWithinTolerance(normalizeKey(key), tolerance);
+  }
+
 
-    return new KVPair<V>(key, value);
+  private RankedSet<V> _rankedMatchesWithinTolerance(String key, int tolerance) {
+    RankedSet<V> results = new RankedSet<V>();
+
+    long signature = CharacterSignature.signature(key);
+    int[] survivors = new int[PostingColumn.BLOCK_SIZE];
+    for (int from = 0; from < _index.size; from += PostingColumn.BLOCK_SIZE) {
+      int survivorCount = _index.filterBlock(signature, key.length(), from, tolerance, survivors);
+      for (int i = 0; i < survivorCount; i++) {
+        PostingList<V> postings = _index.postings[survivors[i]];
+        int match = Levenshtein.scanLine(postings.getKey(), key);
+        if (match <= tolerance)
+          postings.addTo(match, results);
+      }
+    }
+
+    return results;
   }
 }
@@ -0,0 +1,123 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.collections.ScoredItem;
+import com.mackenzieresearch.clanx.collections.queryable.ResultCursor;
+import com.mackenzieresearch.clanx.collections.queryable.ResumeToken;
+
+import java.util.NoSuchElementException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A ResultCursor over a MatchCursor, which reads the MatchCursor only as far as its own results are read.  A cursor
+ * resumed from a token skips the matches before it without making ScoredItems of them.
+ *
+ * @param <V>
+ */
+public class MatchResultCursor<V> implements ResultCursor<V> {
+  private final MatchCursor<V> _cursor;
+  private final ResumeToken _resumeFrom;
+  private int _skippedTies = 0;
+  private boolean _resumed = false;
+  private boolean _pending = false;
+  private boolean _exhausted = false;
+
+  private float _lastScore;
+  private int _ties;
+  private int _position;
+
+
+  public MatchResultCursor(MatchCursor<V> cursor, ResumeToken resumeFrom) {
+    checkNotNull(cursor);
+    checkNotNull(resumeFrom);
+
+    _cursor = cursor;
+    _resumeFrom = resumeFrom;
+    _lastScore = resumeFrom.getScore();
+    _ties = resumeFrom.getTies();
+    _position = resumeFrom.getPosition();
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (_pending)
+      return true;
+    if (_exhausted)
+      return false;
+
+    while (_cursor.next()) {
+      if (!_resumed) {
+        float score = _cursor.score();
+        if (score < _resumeFrom.getScore())
+          continue;
+        if (score == _resumeFrom.getScore() && _skippedTies < _resumeFrom.getTies()) {
+          _skippedTies++;
+          continue;
+        }
+        _resumed = true;
+      }
+
+      _pending = true;
+      return true;
+    }
+
+    _exhausted = true;
+    return false;
+  }
+
+  @Override
+  public ScoredItem<V> next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+
+    _pending = false;
+    float score = _cursor.score();
+    if (score == _lastScore)
+      _ties++;
+    else {
+      _lastScore = score;
+      _ties = 1;
+    }
+    _position++;
+
+    return new ScoredItem<V>(score, _cursor.item());
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("ResultCursors are read-only.");
+  }
+
+  @Override
+  public ResumeToken resumeToken() {
+    return new ResumeToken(_lastScore, _ties, _position);
+  }
+}
@@ -0,0 +1,277 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.collections.RankedSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * MinHashIndex is meant for long free-text keys, such as product descriptions, where edit distance is both too
+ * slow and the wrong measure.  Each key is broken into overlapping character shingles, and summarized by a MinHash
+ * signature of bands * rows values.  The fraction of signature values two keys share estimates the Jaccard
+ * similarity of their shingle sets.
+ * <p/>
+ * The signature is cut into bands of rows values, and each band is hashed into its own table.  Keys sharing any
+ * one band with the probe are its candidates, and the candidates are ranked by estimated Jaccard similarity, with a
+ * score of 1 - similarity.  A pair with similarity s becomes a candidate with probability 1 - (1 - s^rows)^bands,
+ * so more bands raise recall and more rows cut the candidates down to the closer keys.  The cost of a probe
+ * depends on the signature length and the number of candidates, not on the number of keys in the index.
+ *
+ * @param <V>
+ */
+public class MinHashIndex<V> extends AbstractIndex<V> {
+  public static final int DEFAULT_SHINGLE_SIZE = 4;
+  public static final int DEFAULT_BANDS = 16;
+  public static final int DEFAULT_ROWS = 4;
+
+  private static final long SEED = 0x5DEECE66DL;
+
+  private final int _shingleSize;
+  private final int _bands;
+  private final int _rows;
+  private final int[] _hashSeeds;
+  private final BandTable[] _bandTables;
+
+  private Map<String, Integer> _keyIds = new HashMap<String, Integer>();
+  private List<PostingList<V>> _keys = new ArrayList<PostingList<V>>();
+  private int[] _signatures;
+  private float _maxScore = 1.0f;
+
+  private final ThreadLocal<Scratch> _scratch = new ThreadLocal<Scratch>() {
+    @Override
+    protected Scratch initialValue() {
+      return new Scratch(_bands * _rows);
+    }
+  };
+
+
+  public MinHashIndex() {
+    this(DEFAULT_SHINGLE_SIZE, DEFAULT_BANDS, DEFAULT_ROWS);
+  }
+
+  public MinHashIndex(int shingleSize, int bands, int rows) {
+    checkArgument(shingleSize > 0);
+    checkArgument(bands > 0);
+    checkArgument(rows > 0);
+
+    _shingleSize = shingleSize;
+    _bands = bands;
+    _rows = rows;
+
+    Random random = new Random(SEED);
+    _hashSeeds = new int[bands * rows];
+    for (int i = 0; i < _hashSeeds.length; i++)
+      _hashSeeds[i] = random.nextInt();
+
+    _bandTables = new BandTable[bands];
+    for (int i = 0; i < bands; i++)
+      _bandTables[i] = new BandTable();
+
+    _signatures = new int[16 * _hashSeeds.length];
+  }
+
+  /**
+   * getRankedMatches() only returns keys scoring at or below this.
+   *
+   * @param maxScore
+   */
+  public void setMaxScore(float maxScore) {
+    checkArgument(maxScore >= 0 && maxScore <= 1);
+    _maxScore = maxScore;
+  }
+
+  /**
+   * The similarity at which a pair has an even chance of becoming a candidate, roughly (1 / bands)^(1 / rows).
+   */
+  public float getSimilarityThreshold() {
+    return (float) Math.pow(1.0 / _bands, 1.0 / _rows);
+  }
+
+  @Override
+  protected void addNormalizedEntry(String key, V entry) {
+    Integer keyId = _keyIds.get(key);
+    if (keyId == null) {
+      keyId = _keys.size();
+      _keyIds.put(key, keyId);
+      _keys.add(new PostingList<V>(key));
+
+      int length = _hashSeeds.length;
+      if ((keyId + 1) * length > _signatures.length)
+        _signatures = Arrays.copyOf(_signatures, _signatures.length * 2);
+      _signature(key, _signatures, keyId * length);
+
+      for (int band = 0; band < _bands; band++)
+        _bandTables[band].getOrAdd(_bandHash(_signatures, keyId * length, band)).add(keyId);
+    }
+
+    _keys.get(keyId).add(entry);
+  }
+
+  @Override
+  protected V exactMatch(String key) {
+    Integer keyId = _keyIds.get(key);
+    return keyId == null ? null : _keys.get(keyId).getFirstValue();
+  }
+
+  @Override
+  protected V nearestMatch(String key) {
+    RankedSet<V> results = rankedMatches(key);
+    return results.isEmpty() ? null : results.firstEntry().getElement().getItem();
+  }
+
+  @Override
+  protected RankedSet<V> exactMatches(String key) {
+    RankedSet<V> results = new RankedSet<V>();
+
+    Integer keyId = _keyIds.get(key);
+    if (keyId != null)
+      _keys.get(keyId).addTo(DEFAULT_RANKING, results);
+
+    return results;
+  }
+
+  @Override
+  protected RankedSet<V> rankedMatches(String key) {
+    RankedSet<V> results = new RankedSet<V>();
+
+    Scratch scratch = _scratch.get();
+    int[] signature = scratch.signature;
+    _signature(key, signature, 0);
+    int stamp = scratch.nextStamp(_keys.size());
+
+    int length = _hashSeeds.length;
+    for (int band = 0; band < _bands; band++) {
+      KeyIdList postings = _bandTables[band].get(_bandHash(signature, 0, band));
+      if (postings == null)
+        continue;
+
+      for (int i = 0; i < postings.size; i++) {
+        int keyId = postings.keyIds[i];
+        if (scratch.stamps[keyId] == stamp)
+          continue;
+        scratch.stamps[keyId] = stamp;
+
+        int offset = keyId * length;
+        int agreements = 0;
+        for (int j = 0; j < length; j++) {
+          if (_signatures[offset + j] == signature[j])
+            agreements++;
+        }
+
+        float score = 1.0f - (float) agreements / length;
+        if (score <= _maxScore)
+          _keys.get(keyId).addTo(score, results);
+      }
+    }
+
+    return results;
+  }
+
+
+  /**
+   * Writes the MinHash signature of key's shingles into signature, starting at offset.  Keys shorter than a shingle
+   * are treated as a single shingle.
+   */
+  private void _signature(String key, int[] signature, int offset) {
+    int length = _hashSeeds.length;
+    Arrays.fill(signature, offset, offset + length, Integer.MAX_VALUE);
+
+    int shingleCount = Math.max(1, key.length() - _shingleSize + 1);
+    for (int start = 0; start < shingleCount; start++) {
+      int end = Math.min(key.length(), start + _shingleSize);
+
+      //  FNV-1a over the shingle's chars, so no substring is needed...
+      int shingleHash = 0x811C9DC5;
+      for (int i = start; i < end; i++) {
+        shingleHash ^= key.charAt(i);
+        shingleHash *= 0x01000193;
+      }
+
+      for (int i = 0; i < length; i++) {
+        int value = _mix(shingleHash ^ _hashSeeds[i]);
+        if (value < signature[offset + i])
+          signature[offset + i] = value;
+      }
+    }
+  }
+
+  private int _bandHash(int[] signature, int offset, int band) {
+    int hash = band;
+    int start = offset + band * _rows;
+    for (int i = start; i < start + _rows; i++)
+      hash = 31 * hash + signature[i];
+
+    return _mix(hash);
+  }
+
+  /**
+   * The MurmurHash3 finalizer.
+   */
+  private static int _mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+
+  /**
+   * Per-thread scratch space for probes: the probe's signature, and a stamp per key id so each candidate is only
+   * scored once without clearing anything between probes.
+   */
+  private static final class Scratch {
+    final int[] signature;
+    int[] stamps = new int[0];
+    int stamp = 0;
+
+    Scratch(int signatureLength) {
+      signature = new int[signatureLength];
+    }
+
+    int nextStamp(int keyCount) {
+      if (stamps.length < keyCount)
+        stamps = Arrays.copyOf(stamps, Math.max(keyCount, stamps.length * 2));
+
+      if (++stamp == 0) {
+        Arrays.fill(stamps, 0);
+        stamp = 1;
+      }
+      return stamp;
+    }
+  }
+}
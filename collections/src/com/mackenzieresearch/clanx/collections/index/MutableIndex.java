@@ -28,8 +28,15 @@
 
 package com.mackenzieresearch.clanx.collections.index;
 
+import com.mackenzieresearch.clanx.collections.index.normalize.KeyNormalizer;
+
 public interface MutableIndex<V> extends Index<V> {
   void setWeight(float weight);
 
+  /**
+   * Must be set before any entries are added, since keys are stored in their normalized form.
+   */
+  void setNormalizer(KeyNormalizer normalizer);
+
   void addEntry(String key, V entry);
 }
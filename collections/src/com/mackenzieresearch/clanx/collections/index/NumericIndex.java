@@ -0,0 +1,474 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.queryable.NumericMatch;
+import com.mackenzieresearch.clanx.collections.queryable.Query;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * NumericIndex is an index over numeric keys (amounts, years, ages...) that matches by numeric proximity rather than
+ * by comparing the keys' digits.  Keys are held as doubles, so longs beyond 2^53 lose precision.
+ * <p/>
+ * Entries live in a pair of parallel arrays sorted by key, so a "within +/- delta" or nearest-k query is a binary
+ * search followed by a walk outwards from the query value.  New entries go into a short sorted tail, which is merged
+ * into the main arrays once it outgrows the square root of their size, so loading costs a short shift per entry
+ * rather than a shift of the whole index, and queries search the tail alongside the main arrays.  Proximity scores are the distance to the query value divided by the scale (1 unless set), while exact
+ * matches score DEFAULT_RANKING like those of the other indexes.
+ * <p/>
+ * String keys, and String valued Match queries, are parsed as numbers after normalization.  A NumericMatch, or the
+ * primitive methods, go through without any boxing.  getRankedMatches() returns the entries within the delta set by
+ * setDelta(), which defaults to 0.
+ * <p/>
+ * Like the other indexes, adding entries isn't thread safe, but queries never change the index, so any number of
+ * threads can query it at once while nothing is being added.
+ *
+ * @param <V>
+ */
+public class NumericIndex<V> extends AbstractIndex<V> implements TypedKeyIndex<V>, ScoringIndex<V>, SortedAccessIndex<V> {
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int MIN_TAIL_LIMIT = 64;
+  private static final int NONE = Integer.MIN_VALUE;
+
+  private double[] _keys = new double[INITIAL_CAPACITY];
+  private Object[] _values = new Object[INITIAL_CAPACITY];
+  private int _size = 0;
+
+  private double[] _tailKeys = new double[INITIAL_CAPACITY];
+  private Object[] _tailValues = new Object[INITIAL_CAPACITY];
+  private int _tailSize = 0;
+
+  private double _delta = 0;
+  private double _scale = 1;
+
+
+  public void setDelta(double delta) {
+    checkArgument(delta >= 0);
+    _delta = delta;
+  }
+
+  public double getDelta() {
+    return _delta;
+  }
+
+  /**
+   * A distance of scale scores 1, the score of a single edit in the fuzzy indexes.
+   */
+  public void setScale(double scale) {
+    checkArgument(scale > 0);
+    _scale = scale;
+  }
+
+  public double getScale() {
+    return _scale;
+  }
+
+  /**
+   * The key in canonical form, so that "7", "7.0" and 7L block together.
+   */
+  @Override
+  public String blockingKey(String key) {
+    checkNotNull(key);
+    return Double.toString(_parse(normalizeKey(key)) + 0.0);
+  }
+
+  @Override
+  public float rankedScore(String queryKey, String key) {
+    double value = _parse(normalizeKey(queryKey));
+    double keyValue = _parse(normalizeKey(key));
+    return Math.abs(keyValue - value) <= _delta ? _score(keyValue, value) : -1;
+  }
+
+  @Override
+  public boolean ranksWithinBlock() {
+    return false;
+  }
+
+  @Override
+  public int estimateExactMatches(String queryKey) {
+    return _count(_parse(normalizeKey(queryKey)), 0);
+  }
+
+  @Override
+  public int estimateRankedMatches(String queryKey) {
+    return _count(_parse(normalizeKey(queryKey)), _delta);
+  }
+
+  public int size() {
+    return _size + _tailSize;
+  }
+
+  public void addEntry(double key, V entry) {
+    checkArgument(!Double.isNaN(key), "NaN can't be indexed.");
+    checkNotNull(entry);
+
+    if (_tailSize == _tailKeys.length) {
+      _tailKeys = Arrays.copyOf(_tailKeys, 2 * _tailSize);
+      _tailValues = Arrays.copyOf(_tailValues, 2 * _tailSize);
+    }
+
+    //  After any equal keys, so that they keep the order they were added in...
+    int i = _upperBound(_tailKeys, _tailSize, key);
+    System.arraycopy(_tailKeys, i, _tailKeys, i + 1, _tailSize - i);
+    System.arraycopy(_tailValues, i, _tailValues, i + 1, _tailSize - i);
+    _tailKeys[i] = key;
+    _tailValues[i] = entry;
+    _tailSize++;
+
+    if (_tailSize > Math.max(MIN_TAIL_LIMIT, (int) Math.sqrt(_size)))
+      compact();
+  }
+
+  /**
+   * Merges the tail into the main arrays, back to front so it can be done in place.  Entries with equal keys keep the
+   * order they were added in.  Adding does this as it goes, but calling it once loading is done saves queries
+   * searching the tail.
+   */
+  public void compact() {
+    if (_tailSize == 0)
+      return;
+
+    int size = _size + _tailSize;
+    if (size > _keys.length) {
+      int capacity = Math.max(size, 2 * _keys.length);
+      _keys = Arrays.copyOf(_keys, capacity);
+      _values = Arrays.copyOf(_values, capacity);
+    }
+
+    int i = _size - 1;
+    int j = _tailSize - 1;
+    for (int k = size - 1; j >= 0; k--) {
+      if (i >= 0 && _keys[i] > _tailKeys[j]) {
+        _keys[k] = _keys[i];
+        _values[k] = _values[i--];
+      } else {
+        _keys[k] = _tailKeys[j];
+        _values[k] = _tailValues[j--];
+      }
+    }
+
+    _size = size;
+    Arrays.fill(_tailValues, 0, _tailSize, null);
+    _tailSize = 0;
+  }
+
+  @Override
+  public void addTypedEntry(Object key, V entry) {
+    checkNotNull(key);
+
+    if (key instanceof Number)
+      addEntry(((Number) key).doubleValue(), entry);
+    else if (key instanceof String)
+      addEntry((String) key, entry);
+    else
+      throw new IllegalArgumentException("Expected a numeric key.  Actually got: " + key.getClass().getSimpleName());
+  }
+
+  /**
+   * Returns the first entry whose key equals value, or null.
+   */
+  @SuppressWarnings("unchecked")
+  public V getExactMatch(double value) {
+    int i = _lowerBound(_keys, _size, value);
+    if (i < _size && _keys[i] == value)
+      return (V) _values[i];
+
+    i = _lowerBound(_tailKeys, _tailSize, value);
+    return i < _tailSize && _tailKeys[i] == value ? (V) _tailValues[i] : null;
+  }
+
+  /**
+   * Returns an entry with the closest key to value, or null if the index is empty.
+   */
+  public V getNearestMatch(double value) {
+    ProximityCursor cursor = new ProximityCursor(value, Double.POSITIVE_INFINITY);
+    return cursor.next() ? cursor.item() : null;
+  }
+
+  @SuppressWarnings("unchecked")
+  public RankedSet<V> getExactMatches(double value) {
+    RankedSet<V> results = new RankedSet<V>();
+    for (int i = _lowerBound(_keys, _size, value); i < _size && _keys[i] == value; i++)
+      results.add(DEFAULT_RANKING, (V) _values[i]);
+    for (int i = _lowerBound(_tailKeys, _tailSize, value); i < _tailSize && _tailKeys[i] == value; i++)
+      results.add(DEFAULT_RANKING, (V) _tailValues[i]);
+    return results;
+  }
+
+  /**
+   * Returns every entry whose key is within +/- delta of value, scored by distance.
+   */
+  @SuppressWarnings("unchecked")
+  public RankedSet<V> getWithin(double value, double delta) {
+    checkArgument(delta >= 0);
+
+    RankedSet<V> results = new RankedSet<V>();
+    for (int i = _lowerBound(_keys, _size, value - delta); i < _size && _keys[i] <= value + delta; i++)
+      results.add(_score(_keys[i], value), (V) _values[i]);
+    for (int i = _lowerBound(_tailKeys, _tailSize, value - delta); i < _tailSize && _tailKeys[i] <= value + delta; i++)
+      results.add(_score(_tailKeys[i], value), (V) _tailValues[i]);
+    return results;
+  }
+
+  /**
+   * Returns the k entries with the closest keys to value, scored by distance.  Ties at the k-th distance are broken
+   * towards smaller keys.
+   */
+  public RankedSet<V> getNearest(double value, int k) {
+    checkArgument(k >= 0);
+
+    RankedSet<V> results = new RankedSet<V>();
+    ProximityCursor cursor = new ProximityCursor(value, Double.POSITIVE_INFINITY);
+    for (int found = 0; found < k && cursor.next(); found++)
+      results.add(cursor.score(), cursor.item());
+    return results;
+  }
+
+  /**
+   * Walks outwards from the query value, so each match costs a comparison rather than a probe.
+   */
+  @Override
+  public MatchCursor<V> rankedCursor(Query query) {
+    return new ProximityCursor(_queryValue(query), _delta);
+  }
+
+  @Override
+  public RankedSet<V> getExactMatches(Query query) {
+    return getExactMatches(_queryValue(query));
+  }
+
+  @Override
+  public RankedSet<V> getNearestMatches(Query query) {
+    V result = getNearestMatch(_queryValue(query));
+    RankedSet<V> resultSet = new RankedSet<V>();
+    if (result != null)
+      resultSet.add(DEFAULT_RANKING, result);
+    return resultSet;
+  }
+
+  @Override
+  public RankedSet<V> getRankedMatches(float scoreThreshold, Query query) {
+    return getWithin(_queryValue(query), _delta);
+  }
+
+
+  @Override
+  protected void addNormalizedEntry(String key, V entry) {
+    addEntry(_parse(key), entry);
+  }
+
+  @Override
+  protected V exactMatch(String key) {
+    return getExactMatch(_parse(key));
+  }
+
+  @Override
+  protected V nearestMatch(String key) {
+    return getNearestMatch(_parse(key));
+  }
+
+  @Override
+  protected RankedSet<V> exactMatches(String key) {
+    return getExactMatches(_parse(key));
+  }
+
+  @Override
+  protected RankedSet<V> rankedMatches(String key) {
+    return getWithin(_parse(key), _delta);
+  }
+
+  private float _score(double key, double value) {
+    return (float) (Math.abs(key - value) / _scale);
+  }
+
+  private double _queryValue(Query query) {
+    checkNotNull(query);
+
+    if (query instanceof NumericMatch)
+      return ((NumericMatch) query).doubleValue();
+    if (!(query instanceof Match))
+      throw new IllegalArgumentException("Expected a Match query.  Actually got: " + query.getClass().getSimpleName());
+
+    Object value = ((Match<?>) query).value();
+    checkNotNull(value);
+    if (value instanceof Number)
+      return ((Number) value).doubleValue();
+    if (value instanceof String)
+      return _parse(queryKey(query));
+    throw new IllegalArgumentException("Expected a numeric Match.  Actually got: " + value.getClass().getSimpleName());
+  }
+
+  private static double _parse(String key) {
+    try {
+      double value = Double.parseDouble(key.trim());
+      checkArgument(!Double.isNaN(value), "NaN can't be indexed.");
+      return value;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Expected a numeric key.  Actually got: " + key, e);
+    }
+  }
+
+  private int _count(double value, double delta) {
+    return _upperBound(_keys, _size, value + delta) - _lowerBound(_keys, _size, value - delta)
+            + _upperBound(_tailKeys, _tailSize, value + delta) - _lowerBound(_tailKeys, _tailSize, value - delta);
+  }
+
+  /**
+   * Index of the first of keys[0, size) >= value, or size if there is none.
+   */
+  private static int _lowerBound(double[] keys, int size, double value) {
+    int lo = 0;
+    int hi = size;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (keys[mid] < value)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  /**
+   * Index of the first of keys[0, size) > value, or size if there is none.
+   */
+  private static int _upperBound(double[] keys, int size, double value) {
+    int lo = 0;
+    int hi = size;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (keys[mid] <= value)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+
+  /**
+   * The entries within delta of a value, nearest first, walking outwards through the main arrays and the tail
+   * together.  Ties go to the smaller key, as in getNearest(), and then to the main arrays.
+   */
+  private class ProximityCursor implements MatchCursor<V> {
+    private final double _value;
+    private final double _cursorDelta;
+    private int _below;
+    private int _above;
+    private int _tailBelow;
+    private int _tailAbove;
+    private V _item = null;
+    private float _score = 0;
+
+    ProximityCursor(double value, double delta) {
+      _value = value;
+      _cursorDelta = delta;
+      _above = _lowerBound(_keys, _size, value);
+      _below = _above - 1;
+      _tailAbove = _lowerBound(_tailKeys, _tailSize, value);
+      _tailBelow = _tailAbove - 1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean next() {
+      int i = _nextIndex();
+      if (i == NONE) {
+        _item = null;
+        return false;
+      }
+
+      if (i >= 0) {
+        if (i == _below)
+          _below--;
+        else
+          _above++;
+        _item = (V) _values[i];
+        _score = _score(_keys[i], _value);
+      } else {
+        i = ~i;
+        if (i == _tailBelow)
+          _tailBelow--;
+        else
+          _tailAbove++;
+        _item = (V) _tailValues[i];
+        _score = _score(_tailKeys[i], _value);
+      }
+      return true;
+    }
+
+    @Override
+    public V item() {
+      return _item;
+    }
+
+    @Override
+    public float score() {
+      return _score;
+    }
+
+    @Override
+    public float bound() {
+      int i = _nextIndex();
+      if (i == NONE)
+        return Float.POSITIVE_INFINITY;
+      return _score(i >= 0 ? _keys[i] : _tailKeys[~i], _value);
+    }
+
+    /**
+     * The next entry's index in the main arrays, or its complemented index in the tail, or NONE.
+     */
+    private int _nextIndex() {
+      int i = _nearer(_keys, _size, _below, _above);
+      int j = _nearer(_tailKeys, _tailSize, _tailBelow, _tailAbove);
+      if (j == NONE)
+        return i;
+      if (i == NONE)
+        return ~j;
+
+      double distance = Math.abs(_keys[i] - _value);
+      double tailDistance = Math.abs(_tailKeys[j] - _value);
+      return tailDistance < distance || (tailDistance == distance && _tailKeys[j] < _keys[i]) ? ~j : i;
+    }
+
+    private int _nearer(double[] keys, int size, int below, int above) {
+      boolean belowInRange = below >= 0 && _value - keys[below] <= _cursorDelta;
+      boolean aboveInRange = above < size && keys[above] - _value <= _cursorDelta;
+      if (belowInRange && (!aboveInRange || _value - keys[below] <= keys[above] - _value))
+        return below;
+      return aboveInRange ? above : NONE;
+    }
+  }
+}
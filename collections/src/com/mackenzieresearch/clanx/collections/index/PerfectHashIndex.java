@@ -0,0 +1,406 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.collections.KVPair;
+import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.collections.index.normalize.KeyNormalizer;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.queryable.Query;
+import com.mackenzieresearch.clanx.collections.queryable.ResultCursor;
+import com.mackenzieresearch.clanx.collections.queryable.ResumeToken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * PerfectHashIndex is an immutable exact-match index for dimensions that are never searched fuzzily.  It is built
+ * once, from a SimpleIndex or from a stream of entries, and doesn't keep the keys at all.
+ * <p/>
+ * Keys are mapped onto slots 0..n-1 by a minimal perfect hash built with hash-and-displace: keys are hashed into
+ * buckets of about two, the buckets are placed largest first by searching for a seed that sends all of their keys to
+ * free slots, and the buckets holding a single key are placed last, straight into whatever slots are left.  Each
+ * slot stores a 32 bit fingerprint of its key next to the offset of its values in one packed array, so a lookup
+ * touches the bucket's seed, the slot and the values: about 8 bytes per key plus 4 per bucket, plus the values.
+ * <p/>
+ * Because the keys aren't kept, a key that was never added is only recognised as absent by its fingerprint, and
+ * will be mistaken for the key in its slot about once in 2^32 lookups.
+ * <p/>
+ * The index is an Index but not a MutableIndex: its keys and normalizer are fixed when it's built.  It joins a multidex
+ * as a read-only dimension, whose values must be the facts themselves; see MutableMultidex.addReadOnlyDimension().
+ *
+ * @param <V>
+ */
+public class PerfectHashIndex<V> implements Index<V> {
+  private static final int MAX_SEED_TRIES = 1 << 20;
+  private static final long DISPLACEMENT = 0x9E3779B97F4A7C15L;
+
+  private final long _hashSeed;
+  private final int _keyCount;
+  private final int[] _bucketSeeds;
+  private final int[] _slots;
+  private final Object[] _values;
+  private final KeyNormalizer _normalizer;
+  private float _weight = 1.0f;
+
+
+  /**
+   * Builds from a SimpleIndex, keeping its normalizer and weight.
+   */
+  public PerfectHashIndex(SimpleIndex<V> source) {
+    this(source.entries(), source.getNormalizer(), false);
+    setWeight(source.getWeight());
+  }
+
+  public PerfectHashIndex(Iterable<KVPair<V>> entries) {
+    this(entries, null);
+  }
+
+  /**
+   * Builds from a stream of entries, normalizing their keys with normalizer (which may be null).
+   */
+  public PerfectHashIndex(Iterable<KVPair<V>> entries, KeyNormalizer normalizer) {
+    this(entries, normalizer, true);
+  }
+
+  private PerfectHashIndex(Iterable<KVPair<V>> entries, KeyNormalizer normalizer, boolean normalizeKeys) {
+    checkNotNull(entries);
+    _normalizer = normalizer;
+
+    //  Group the values by key, keeping the order they arrived in...
+    Map<String, List<V>> postings = new LinkedHashMap<String, List<V>>();
+    int valueCount = 0;
+    for (KVPair<V> entry : entries) {
+      checkNotNull(entry.getKey());
+      checkNotNull(entry.getValue());
+
+      String key = normalizeKeys ? _normalizeKey(entry.getKey()) : entry.getKey();
+      List<V> values = postings.get(key);
+      if (values == null) {
+        values = new ArrayList<V>(1);
+        postings.put(key, values);
+      }
+      values.add(entry.getValue());
+      valueCount++;
+    }
+
+    _keyCount = postings.size();
+    String[] keys = postings.keySet().toArray(new String[_keyCount]);
+
+    long hashSeed = 0;
+    int[] keySlots;
+    int[] bucketSeeds;
+    while (true) {
+      bucketSeeds = new int[Math.max(1, (_keyCount + 1) / 2)];
+      keySlots = _place(keys, hashSeed, bucketSeeds);
+      if (keySlots != null)
+        break;
+      hashSeed += DISPLACEMENT;
+    }
+    _hashSeed = hashSeed;
+    _bucketSeeds = bucketSeeds;
+
+    //  Lay the values out in slot order, each slot's fingerprint next to the offset of its first value...
+    String[] slotKeys = new String[_keyCount];
+    for (int i = 0; i < _keyCount; i++)
+      slotKeys[keySlots[i]] = keys[i];
+
+    _slots = new int[2 * _keyCount + 2];
+    _values = new Object[valueCount];
+    int offset = 0;
+    for (int slot = 0; slot < _keyCount; slot++) {
+      _slots[2 * slot] = _fingerprint(_hash(slotKeys[slot], hashSeed));
+      _slots[2 * slot + 1] = offset;
+      for (V value : postings.get(slotKeys[slot]))
+        _values[offset++] = value;
+    }
+    _slots[2 * _keyCount + 1] = offset;
+  }
+
+  /**
+   * Number of distinct keys.
+   */
+  public int keyCount() {
+    return _keyCount;
+  }
+
+  /**
+   * The weight only affects how the index's scores are joined with other dimensions', so it can change after building.
+   */
+  public void setWeight(float weight) {
+    _weight = weight;
+  }
+
+  @Override
+  public float getWeight() {
+    return _weight;
+  }
+
+  @Override
+  public KeyNormalizer getNormalizer() {
+    return _normalizer;
+  }
+
+  @Override
+  public V getExactMatch(String key) {
+    checkNotNull(key);
+    return _exactMatch(_normalizeKey(key));
+  }
+
+  /**
+   * Should return the same result as getExactMatch(String key)...
+   */
+  @Override
+  public V getNearestMatch(String key) {
+    return getExactMatch(key);
+  }
+
+  @Override
+  public RankedSet<V> getExactMatches(String key) {
+    checkNotNull(key);
+    return _exactMatches(_normalizeKey(key));
+  }
+
+  /**
+   * Return all results that exactly match the key
+   */
+  @Override
+  public RankedSet<V> getRankedMatches(String key) {
+    return getExactMatches(key);
+  }
+
+  @Override
+  public RankedSet<V> getExactMatches(Query query) {
+    return _exactMatches(_queryKey(query));
+  }
+
+  @Override
+  public RankedSet<V> getNearestMatches(Query query) {
+    V result = _exactMatch(_queryKey(query));
+    RankedSet<V> resultSet = new RankedSet<V>();
+    if (result != null)
+      resultSet.add(AbstractIndex.DEFAULT_RANKING, result);
+    return resultSet;
+  }
+
+  @Override
+  public RankedSet<V> getRankedMatches(float scoreThreshold, Query query) {
+    return getExactMatches(query);
+  }
+
+  @Override
+  public ResultCursor<V> getRankedCursor(float scoreThreshold, Query query) {
+    return getRankedCursor(scoreThreshold, query, ResumeToken.START);
+  }
+
+  @Override
+  public ResultCursor<V> getRankedCursor(float scoreThreshold, Query query, ResumeToken resumeFrom) {
+    checkNotNull(resumeFrom);
+    return new MatchResultCursor<V>(new RankedSetCursor<V>(getRankedMatches(scoreThreshold, query)), resumeFrom);
+  }
+
+
+  @SuppressWarnings("unchecked")
+  private V _exactMatch(String key) {
+    int slot = _slot(key);
+    return slot < 0 ? null : (V) _values[_slots[2 * slot + 1]];
+  }
+
+  @SuppressWarnings("unchecked")
+  private RankedSet<V> _exactMatches(String key) {
+    RankedSet<V> results = new RankedSet<V>();
+
+    int slot = _slot(key);
+    if (slot >= 0) {
+      for (int i = _slots[2 * slot + 1], end = _slots[2 * slot + 3]; i < end; i++)
+        results.add(AbstractIndex.DEFAULT_RANKING, (V) _values[i]);
+    }
+
+    return results;
+  }
+
+  private String _normalizeKey(String key) {
+    return _normalizer == null ? key : _normalizer.normalize(key);
+  }
+
+  /**
+   * The normalized key of a Match query, as AbstractIndex.queryKey() finds it.
+   */
+  @SuppressWarnings("unchecked")
+  private String _queryKey(Query query) {
+    if (!(query instanceof Match))
+      throw new IllegalArgumentException("Expected a Match query.  Actually got: " + query.getClass().getSimpleName());
+
+    Match<String> match = (Match<String>) query;
+    checkNotNull(match.value());
+    return _normalizer == null ? match.value() : match.normalizedValue(_normalizer);
+  }
+
+
+  /**
+   * The key's slot, or -1 if its fingerprint shows it isn't in the index.
+   */
+  private int _slot(String key) {
+    if (_keyCount == 0)
+      return -1;
+
+    long hash = _hash(key, _hashSeed);
+    int seed = _bucketSeeds[_bucket(hash, _bucketSeeds.length)];
+    int slot = seed < 0 ? -seed - 1 : _position(hash, seed, _keyCount);
+
+    return _slots[2 * slot] == _fingerprint(hash) ? slot : -1;
+  }
+
+  /**
+   * Runs the hash-and-displace search.  Fills in bucketSeeds (a seed for buckets of two or more keys, or -(slot + 1)
+   * for a single key) and returns each key's slot, or null if some bucket couldn't be placed under this hashSeed.
+   */
+  private static int[] _place(String[] keys, long hashSeed, int[] bucketSeeds) {
+    int keyCount = keys.length;
+    int bucketCount = bucketSeeds.length;
+
+    long[] hashes = new long[keyCount];
+    int[] bucketSizes = new int[bucketCount + 1];
+    for (int i = 0; i < keyCount; i++) {
+      hashes[i] = _hash(keys[i], hashSeed);
+      bucketSizes[_bucket(hashes[i], bucketCount) + 1]++;
+    }
+
+    //  Counting sort the keys by bucket...
+    int[] bucketStarts = new int[bucketCount + 1];
+    for (int b = 0; b < bucketCount; b++)
+      bucketStarts[b + 1] = bucketStarts[b] + bucketSizes[b + 1];
+    int[] bucketKeys = new int[keyCount];
+    int[] fill = Arrays.copyOf(bucketStarts, bucketCount);
+    for (int i = 0; i < keyCount; i++)
+      bucketKeys[fill[_bucket(hashes[i], bucketCount)]++] = i;
+
+    Integer[] order = new Integer[bucketCount];
+    for (int b = 0; b < bucketCount; b++)
+      order[b] = b;
+    final int[] sizes = bucketSizes;
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return sizes[b + 1] - sizes[a + 1];
+      }
+    });
+
+    boolean[] taken = new boolean[keyCount];
+    int[] keySlots = new int[keyCount];
+    int[] positions = new int[16];
+    int nextFree = 0;
+
+    for (int b : order) {
+      int start = bucketStarts[b];
+      int size = bucketStarts[b + 1] - start;
+
+      if (size == 0)
+        bucketSeeds[b] = 0;
+      else if (size == 1) {
+        //  Singletons go straight into the next free slot...
+        while (taken[nextFree])
+          nextFree++;
+        taken[nextFree] = true;
+        keySlots[bucketKeys[start]] = nextFree;
+        bucketSeeds[b] = -nextFree - 1;
+      } else {
+        if (positions.length < size)
+          positions = new int[size];
+
+        int seed = 0;
+        while (!_fits(hashes, bucketKeys, start, size, seed, keyCount, taken, positions)) {
+          if (++seed == MAX_SEED_TRIES)
+            return null;
+        }
+
+        for (int i = 0; i < size; i++) {
+          taken[positions[i]] = true;
+          keySlots[bucketKeys[start + i]] = positions[i];
+        }
+        bucketSeeds[b] = seed;
+      }
+    }
+
+    return keySlots;
+  }
+
+  private static boolean _fits(long[] hashes, int[] bucketKeys, int start, int size, int seed, int keyCount,
+                               boolean[] taken, int[] positions) {
+    for (int i = 0; i < size; i++) {
+      int position = _position(hashes[bucketKeys[start + i]], seed, keyCount);
+      if (taken[position])
+        return false;
+      for (int j = 0; j < i; j++) {
+        if (positions[j] == position)
+          return false;
+      }
+      positions[i] = position;
+    }
+
+    return true;
+  }
+
+  private static long _hash(String key, long hashSeed) {
+    //  FNV-1a over the chars, then the MurmurHash3 64 bit finalizer...
+    long hash = 0xCBF29CE484222325L ^ hashSeed;
+    for (int i = 0, n = key.length(); i < n; i++) {
+      hash ^= key.charAt(i);
+      hash *= 0x100000001B3L;
+    }
+
+    return _mix(hash);
+  }
+
+  private static long _mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static int _bucket(long hash, int bucketCount) {
+    return (int) (((hash >>> 32) * bucketCount) >>> 32);
+  }
+
+  private static int _position(long hash, int seed, int keyCount) {
+    return (int) (((_mix(hash + seed * DISPLACEMENT) >>> 32) * keyCount) >>> 32);
+  }
+
+  private static int _fingerprint(long hash) {
+    return (int) hash;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.metrix.CharacterSignature;
+
+import java.util.Arrays;
+
+/**
+ * A list of PostingLists with a column of CharacterSignatures and key lengths alongside, so that scans can reject
+ * most keys on a popcount lower bound before running Levenshtein on them.
+ *
+ * @param <V>
+ */
+final class PostingColumn<V> {
+  static final int BLOCK_SIZE = 256;
+
+  PostingList<V>[] postings;
+  long[] signatures = new long[2];
+  int[] lengths = new int[2];
+  int size = 0;
+
+  @SuppressWarnings("unchecked")
+  PostingColumn() {
+    postings = (PostingList<V>[]) new PostingList<?>[2];
+  }
+
+  void add(PostingList<V> postingList) {
+    if (size == postings.length) {
+      postings = Arrays.copyOf(postings, size * 2);
+      signatures = Arrays.copyOf(signatures, size * 2);
+      lengths = Arrays.copyOf(lengths, size * 2);
+    }
+
+    String key = postingList.getKey();
+    postings[size] = postingList;
+    signatures[size] = CharacterSignature.signature(key);
+    lengths[size] = key.length();
+    size++;
+  }
+
+  /**
+   * Writes the indexes in [from, from + BLOCK_SIZE) whose keys might be within maxDistance of the query into
+   * survivors, and returns how many there were.
+   */
+  int filterBlock(long querySignature, int queryLength, int from, int maxDistance, int[] survivors) {
+    return CharacterSignature.filter(querySignature, queryLength, signatures, lengths, from,
+            Math.min(size, from + BLOCK_SIZE), maxDistance, survivors);
+  }
+
+  int lowerBound(long querySignature, int queryLength, int i) {
+    return CharacterSignature.lowerBound(querySignature, queryLength, signatures[i], lengths[i]);
+  }
+}
@@ -0,0 +1,90 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.collections.RankedSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * One distinct key and every value filed under it.  Indexes keep a single PostingList per key so that a key shared
+ * by many values is only compared once per probe.
+ *
+ * @param <V>
+ */
+public class PostingList<V> {
+  private final String _key;
+  private final List<V> _values = new ArrayList<V>(1);
+
+
+  public PostingList(String key) {
+    checkNotNull(key);
+    _key = key;
+  }
+
+  public String getKey() {
+    return _key;
+  }
+
+  /**
+   * The live list of values; callers must not modify it.
+   */
+  public List<V> getValues() {
+    return _values;
+  }
+
+  public V getFirstValue() {
+    return _values.isEmpty() ? null : _values.get(0);
+  }
+
+  public void add(V value) {
+    checkNotNull(value);
+    _values.add(value);
+  }
+
+  public int size() {
+    return _values.size();
+  }
+
+  /**
+   * Adds every value in the list to results with the given score.
+   */
+  public void addTo(float score, RankedSet<V> results) {
+    for (int i = 0, n = _values.size(); i < n; i++)
+      results.add(score, _values.get(i));
+  }
+
+  public void addTo(float score, MatchSink<? super V> sink) {
+    for (int i = 0, n = _values.size(); i < n; i++)
+      sink.accept(score, _values.get(i));
+  }
+}
@@ -0,0 +1,69 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.index;
+
+import java.util.Arrays;
+
+/**
+ * Scratch space for probing a SinkIndex: buffers for encoding the query key and looking up its bucket, the survivors
+ * of the signature filter and Levenshtein's two lines.  Each grows to fit the longest key it has seen and is then
+ * reused, so a context must only be used by one thread at a time.
+ */
+public final class ProbeContext {
+  final KeyBuffer encodedKey = new KeyBuffer();
+  final int[] survivors = new int[PostingColumn.BLOCK_SIZE];
+  char[] code = new char[16];
+  private char[] _keyChars = new char[32];
+  int[] previousLine = new int[32];
+  int[] workingLine = new int[32];
+
+
+  public ProbeContext() {
+  }
+
+  /**
+   * The characters of key, in a buffer that encoders may scribble over.
+   */
+  char[] keyChars(String key) {
+    if (_keyChars.length < key.length())
+      _keyChars = new char[Math.max(key.length(), _keyChars.length * 2)];
+    key.getChars(0, key.length(), _keyChars, 0);
+    return _keyChars;
+  }
+
+  /**
+   * Makes sure Levenshtein's lines will hold a comparison with a key this long.
+   */
+  void fitLines(int keyLength) {
+    if (previousLine.length <= keyLength) {
+      previousLine = Arrays.copyOf(previousLine, Math.max(keyLength + 1, previousLine.length * 2));
+      workingLine = new int[previousLine.length];
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.collections.ScoredItem;
+
+import java.util.Iterator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A MatchCursor over a RankedSet that has already been computed, for indexes that can't stream their matches.
+ *
+ * @param <V>
+ */
+public class RankedSetCursor<V> implements MatchCursor<V> {
+  private final Iterator<ScoredItem<V>> _iterator;
+  private ScoredItem<V> _current = null;
+  private ScoredItem<V> _next = null;
+
+
+  public RankedSetCursor(RankedSet<V> matches) {
+    checkNotNull(matches);
+    _iterator = matches.iterator();
+    _next = _iterator.hasNext() ? _iterator.next() : null;
+  }
+
+  @Override
+  public boolean next() {
+    _current = _next;
+    _next = _iterator.hasNext() ? _iterator.next() : null;
+    return _current != null;
+  }
+
+  @Override
+  public V item() {
+    return _current.getItem();
+  }
+
+  @Override
+  public float score() {
+    return _current.getScore();
+  }
+
+  @Override
+  public float bound() {
+    return _next == null ? Float.POSITIVE_INFINITY : _next.getScore();
+  }
+}
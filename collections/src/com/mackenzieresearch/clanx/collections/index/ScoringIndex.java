@@ -0,0 +1,61 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.index;
+
+/**
+ * An index that can score a single key against a query without being probed, and estimate how many entries a probe
+ * would return.  A multidex's query planner probes the most selective dimension of a query and uses these to check
+ * the candidates it finds against the other dimensions.
+ * <p/>
+ * Keys are given as they would be to addEntry() or getRankedMatches(), before normalization.
+ *
+ * @param <V>
+ */
+public interface ScoringIndex<V> extends BlockingIndex<V> {
+  /**
+   * The score getRankedMatches(queryKey) gives an entry filed under key, or -1 if it doesn't return it.
+   */
+  float rankedScore(String queryKey, String key);
+
+  /**
+   * Whether every entry getRankedMatches(queryKey) returns has the query key's blocking key, so that a key with a
+   * different blocking key can be ruled out without calling rankedScore().
+   */
+  boolean ranksWithinBlock();
+
+  /**
+   * An estimate of the number of entries getExactMatches(queryKey) returns, or -1 if the index can't tell cheaply.
+   */
+  int estimateExactMatches(String queryKey);
+
+  /**
+   * An estimate of the number of entries getRankedMatches(queryKey) returns, or -1 if the index can't tell cheaply.
+   */
+  int estimateRankedMatches(String queryKey);
+}
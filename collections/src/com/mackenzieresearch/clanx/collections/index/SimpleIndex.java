@@ -32,10 +32,11 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import com.mackenzieresearch.clanx.collections.KVPair;
 import com.mackenzieresearch.clanx.collections.RankedSet;
-import com.mackenzieresearch.clanx.collections.queryable.Match;
 import com.mackenzieresearch.clanx.collections.queryable.Query;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -44,37 +45,85 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *
  * @param <V>
  */
-public class SimpleIndex<V> implements MutableIndex<V> {
-  public static final int DEFAULT_RANKING = 1;
-
+public class SimpleIndex<V> extends AbstractIndex<V> implements ScoringIndex<V>, SortedAccessIndex<V> {
   private Multimap<String, KVPair<V>> _index = HashMultimap.create();
-  private float _weight = 1.0f;
 
 
   public SimpleIndex() {
   }
 
-  public void setWeight(float weight) {
-    _weight = weight;
+  /**
+   * A read-only view of every entry, keyed by its normalized key.
+   */
+  public Collection<KVPair<V>> entries() {
+    return Collections.unmodifiableCollection(_index.values());
   }
 
   @Override
-  public float getWeight() {
-    return _weight;
+  public String blockingKey(String key) {
+    checkNotNull(key);
+    return normalizeKey(key);
   }
 
   @Override
-  public void addEntry(String key, V entry) {
-    checkNotNull(key);
-    checkNotNull(entry);
+  public float rankedScore(String queryKey, String key) {
+    return blockingKey(queryKey).equals(blockingKey(key)) ? DEFAULT_RANKING : -1;
+  }
 
-    _index.put(key, new KVPair<V>(key, entry));
+  @Override
+  public boolean ranksWithinBlock() {
+    return true;
   }
 
   @Override
-  public V getExactMatch(String key) {
-    checkNotNull(key);
+  public int estimateExactMatches(String queryKey) {
+    return _index.get(blockingKey(queryKey)).size();
+  }
+
+  @Override
+  public int estimateRankedMatches(String queryKey) {
+    return estimateExactMatches(queryKey);
+  }
+
+  /**
+   * Every match scores DEFAULT_RANKING, so the cursor just walks the key's entries instead of ranking them first.
+   */
+  @Override
+  public MatchCursor<V> rankedCursor(Query query) {
+    final Iterator<KVPair<V>> matches = _index.get(queryKey(query)).iterator();
+    return new MatchCursor<V>() {
+      private V _item = null;
+
+      @Override
+      public boolean next() {
+        _item = matches.hasNext() ? matches.next().getValue() : null;
+        return _item != null;
+      }
+
+      @Override
+      public V item() {
+        return _item;
+      }
+
+      @Override
+      public float score() {
+        return DEFAULT_RANKING;
+      }
+
+      @Override
+      public float bound() {
+        return matches.hasNext() ? DEFAULT_RANKING : Float.POSITIVE_INFINITY;
+      }
+    };
+  }
+
+  @Override
+  protected void addNormalizedEntry(String key, V entry) {
+    _index.put(key, new KVPair<V>(key, entry));
+  }
 
+  @Override
+  protected V exactMatch(String key) {
     Collection<KVPair<V>> results = _index.get(key);
 
     //  Go thru the close matches and return the first one that matches exactly...
@@ -96,9 +145,7 @@ public class SimpleIndex<V> implements MutableIndex<V> {
    *
    */
   @Override
-  public V getNearestMatch(String key) {
-    checkNotNull(key);
-
+  protected V nearestMatch(String key) {
     Collection<KVPair<V>> results = _index.get(key);
 
     if (results.size() > 0)
@@ -108,9 +155,7 @@ public class SimpleIndex<V> implements MutableIndex<V> {
   }
 
   @Override
-  public RankedSet<V> getExactMatches(String key) {
-    checkNotNull(key);
-
+  protected RankedSet<V> exactMatches(String key) {
     Collection<KVPair<V>> results = _index.get(key);
 
     RankedSet<V> resultSet = new RankedSet<V>();
@@ -132,9 +177,7 @@ public class SimpleIndex<V> implements MutableIndex<V> {
    *
    */
   @Override
-  public RankedSet<V> getRankedMatches(String key) {
-    checkNotNull(key);
-
+  protected RankedSet<V> rankedMatches(String key) {
     Collection<KVPair<V>> results = _index.get(key);
 
     if (results.size() > 0)
@@ -143,33 +186,6 @@ public class SimpleIndex<V> implements MutableIndex<V> {
       return new RankedSet<V>();
   }
 
-  @Override
-  public RankedSet<V> getExactMatches(Query query) {
-    if (query instanceof Match)
-      return getExactMatches(((Match<String>) query).value());
-    else
-      throw new IllegalArgumentException("Expected a Match query.  Actually got: " + query.getClass().getSimpleName());
-  }
-
-  @Override
-  public RankedSet<V> getNearestMatches(Query query) {
-    if (query instanceof Match) {
-      V result = getNearestMatch(((Match<String>) query).value());
-      RankedSet<V> resultSet = new RankedSet<V>();
-      resultSet.add(DEFAULT_RANKING, result);
-      return resultSet;
-    } else
-      throw new IllegalArgumentException("Expected a Match query.  Actually got: " + query.getClass().getSimpleName());
-  }
-
-  @Override
-  public RankedSet<V> getRankedMatches(float scoreThreshold, Query query) {
-    if (query instanceof Match)
-      return getRankedMatches(((Match<String>) query).value());
-    else
-      throw new IllegalArgumentException("Expected a Match query.  Actually got: " + query.getClass().getSimpleName());
-  }
-
   private RankedSet<V> _rankMatches(String key, Collection<KVPair<V>> matches) {
     RankedSet<V> results = new RankedSet<V>();
 
@@ -0,0 +1,49 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.collections.queryable.Query;
+
+/**
+ * An index that can hand its matches straight to a caller's sink, taking whatever scratch space the probe needs from
+ * a ProbeContext the caller reuses, so that a probe allocates nothing once the context has grown to fit.
+ *
+ * @param <V>
+ */
+public interface SinkIndex<V> extends Index<V> {
+  /**
+   * The matches getExactMatches(query) returns, in no particular order.
+   */
+  void getExactMatches(Query query, ProbeContext context, MatchSink<? super V> sink);
+
+  /**
+   * The matches getRankedMatches(scoreThreshold, query) returns, in no particular order.
+   */
+  void getRankedMatches(float scoreThreshold, Query query, ProbeContext context, MatchSink<? super V> sink);
+}
@@ -0,0 +1,305 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.index;
+
+import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.collections.ScoredItem;
+import com.mackenzieresearch.clanx.metrix.Levenshtein;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * TokenSetIndex treats each key as the set of words in it, so "Acme Corp Ltd" and "Ltd Acme Corp" are the same
+ * key, and "Acme Corporation" is a close one.
+ * <p/>
+ * Every distinct token is filed in a token-level fuzzy index (by default a LevenshsteinFuzzydex over the token
+ * vocabulary, but any MutableIndex will do) and has a posting list of the keys containing it.  A probe looks up each
+ * of its tokens in the token index, and the keys on the postings of the tokens it finds are the candidates.  Each
+ * candidate is scored by a soft Jaccard similarity: every query token contributes the similarity of its best
+ * matching token in the key (1 - edit distance / length), and the total overlap o gives a similarity of
+ * o / (|query| + |key| - o).  The score is 1 - similarity, so 0 is a perfect match.
+ * <p/>
+ * Overlaps are accumulated in per-thread float arrays indexed by key id rather than in a map of boxed scores, and
+ * only the slots a probe touches are reset afterwards.
+ * <p/>
+ * Keys are split into tokens at anything that isn't a letter or a digit.  Case is left alone, so set a normalizer
+ * if case shouldn't matter.
+ *
+ * @param <V>
+ */
+public class TokenSetIndex<V> extends AbstractIndex<V> {
+  public static final float DEFAULT_MIN_TOKEN_SIMILARITY = 0.6f;
+  public static final int DEFAULT_TOKEN_TOLERANCE = 2;
+
+  private final MutableIndex<String> _tokenIndex;
+  private Map<String, KeyIdList> _tokens = new HashMap<String, KeyIdList>();
+  private Map<String, Integer> _keyIds = new HashMap<String, Integer>();
+  private List<PostingList<V>> _keys = new ArrayList<PostingList<V>>();
+  private int[] _keyTokenCounts = new int[16];
+  private float _minTokenSimilarity = DEFAULT_MIN_TOKEN_SIMILARITY;
+  private float _maxScore = 1.0f;
+
+  private final ThreadLocal<Accumulator> _accumulators = new ThreadLocal<Accumulator>() {
+    @Override
+    protected Accumulator initialValue() {
+      return new Accumulator();
+    }
+  };
+
+
+  public TokenSetIndex() {
+    LevenshsteinFuzzydex<String> tokenIndex = new LevenshsteinFuzzydex<String>();
+    tokenIndex.setTolerance(DEFAULT_TOKEN_TOLERANCE);
+    _tokenIndex = tokenIndex;
+  }
+
+  /**
+   * @param tokenIndex an empty index that will be used to find the vocabulary tokens near each query token.
+   */
+  public TokenSetIndex(MutableIndex<String> tokenIndex) {
+    checkNotNull(tokenIndex);
+    _tokenIndex = tokenIndex;
+  }
+
+  /**
+   * Query tokens only match vocabulary tokens at least this similar to them.
+   *
+   * @param minTokenSimilarity
+   */
+  public void setMinTokenSimilarity(float minTokenSimilarity) {
+    checkArgument(minTokenSimilarity > 0 && minTokenSimilarity <= 1);
+    _minTokenSimilarity = minTokenSimilarity;
+  }
+
+  /**
+   * getRankedMatches() only returns keys scoring at or below this.
+   *
+   * @param maxScore
+   */
+  public void setMaxScore(float maxScore) {
+    checkArgument(maxScore >= 0 && maxScore <= 1);
+    _maxScore = maxScore;
+  }
+
+  @Override
+  protected void addNormalizedEntry(String key, V entry) {
+    String[] tokens = tokenize(key);
+    String canonicalKey = _canonicalKey(tokens);
+
+    Integer keyId = _keyIds.get(canonicalKey);
+    if (keyId == null) {
+      keyId = _keys.size();
+      _keyIds.put(canonicalKey, keyId);
+      _keys.add(new PostingList<V>(canonicalKey));
+      if (keyId == _keyTokenCounts.length)
+        _keyTokenCounts = Arrays.copyOf(_keyTokenCounts, keyId * 2);
+      _keyTokenCounts[keyId] = tokens.length;
+
+      for (String token : tokens) {
+        KeyIdList postings = _tokens.get(token);
+        if (postings == null) {
+          postings = new KeyIdList();
+          _tokens.put(token, postings);
+          _tokenIndex.addEntry(token, token);
+        }
+        postings.add(keyId);
+      }
+    }
+
+    _keys.get(keyId).add(entry);
+  }
+
+  @Override
+  protected V exactMatch(String key) {
+    Integer keyId = _keyIds.get(_canonicalKey(tokenize(key)));
+    return keyId == null ? null : _keys.get(keyId).getFirstValue();
+  }
+
+  @Override
+  protected V nearestMatch(String key) {
+    RankedSet<V> results = rankedMatches(key);
+    return results.isEmpty() ? null : results.firstEntry().getElement().getItem();
+  }
+
+  @Override
+  protected RankedSet<V> exactMatches(String key) {
+    RankedSet<V> results = new RankedSet<V>();
+
+    Integer keyId = _keyIds.get(_canonicalKey(tokenize(key)));
+    if (keyId != null)
+      _keys.get(keyId).addTo(DEFAULT_RANKING, results);
+
+    return results;
+  }
+
+  @Override
+  protected RankedSet<V> rankedMatches(String key) {
+    String[] queryTokens = tokenize(key);
+    RankedSet<V> results = new RankedSet<V>();
+    if (queryTokens.length == 0)
+      return results;
+
+    Accumulator accumulator = _accumulators.get();
+    accumulator.reset(_keys.size());
+
+    for (String queryToken : queryTokens) {
+      //  Each query token contributes its best match within each key...
+      for (ScoredItem<String> match : _tokenIndex.getRankedMatches(queryToken)) {
+        String token = match.getItem();
+        float similarity = tokenSimilarity(queryToken, token);
+        if (similarity < _minTokenSimilarity)
+          continue;
+
+        KeyIdList postings = _tokens.get(token);
+        for (int i = 0; i < postings.size; i++)
+          accumulator.offerTokenMatch(postings.keyIds[i], similarity);
+      }
+      accumulator.endToken();
+    }
+
+    for (int i = 0; i < accumulator.candidateCount; i++) {
+      int keyId = accumulator.candidates[i];
+      float overlap = accumulator.overlaps[keyId];
+      float similarity = overlap / (queryTokens.length + _keyTokenCounts[keyId] - overlap);
+      float score = Math.max(0, 1 - similarity);
+      if (score <= _maxScore)
+        _keys.get(keyId).addTo(score, results);
+    }
+
+    return results;
+  }
+
+  /**
+   * The distinct tokens of a key, in order of first appearance.
+   */
+  public static String[] tokenize(String key) {
+    List<String> tokens = new ArrayList<String>(4);
+
+    int length = key.length();
+    int start = -1;
+    for (int i = 0; i <= length; i++) {
+      boolean tokenChar = i < length && Character.isLetterOrDigit(key.charAt(i));
+      if (tokenChar && start < 0)
+        start = i;
+      else if (!tokenChar && start >= 0) {
+        String token = key.substring(start, i);
+        if (!tokens.contains(token))
+          tokens.add(token);
+        start = -1;
+      }
+    }
+
+    return tokens.toArray(new String[tokens.size()]);
+  }
+
+  /**
+   * 1 - edit distance / length of the longer token.
+   */
+  public static float tokenSimilarity(String queryToken, String token) {
+    if (queryToken.equals(token))
+      return 1.0f;
+
+    int length = Math.max(queryToken.length(), token.length());
+    return 1.0f - (float) Levenshtein.scanLine(queryToken, token) / length;
+  }
+
+
+  private static String _canonicalKey(String[] tokens) {
+    String[] sorted = tokens.clone();
+    Arrays.sort(sorted);
+
+    StringBuilder canonicalKey = new StringBuilder();
+    for (String token : sorted) {
+      if (canonicalKey.length() > 0)
+        canonicalKey.append(' ');
+      canonicalKey.append(token);
+    }
+
+    return canonicalKey.toString();
+  }
+
+
+  /**
+   * Per-thread scratch space for scoring.  overlaps and tokenBest are indexed by key id and kept zeroed between
+   * probes by resetting only the slots that were touched.
+   */
+  private static final class Accumulator {
+    float[] overlaps = new float[0];
+    float[] tokenBest = new float[0];
+    int[] candidates = new int[16];
+    int candidateCount = 0;
+    int[] touched = new int[16];
+    int touchedCount = 0;
+
+    void reset(int keyCount) {
+      for (int i = 0; i < candidateCount; i++)
+        overlaps[candidates[i]] = 0;
+      for (int i = 0; i < touchedCount; i++)
+        tokenBest[touched[i]] = 0;
+      candidateCount = 0;
+      touchedCount = 0;
+
+      if (overlaps.length < keyCount) {
+        overlaps = new float[Math.max(keyCount, overlaps.length * 2)];
+        tokenBest = new float[overlaps.length];
+      }
+    }
+
+    void offerTokenMatch(int keyId, float similarity) {
+      float best = tokenBest[keyId];
+      if (best == 0) {
+        if (touchedCount == touched.length)
+          touched = Arrays.copyOf(touched, touchedCount * 2);
+        touched[touchedCount++] = keyId;
+      }
+      if (similarity > best)
+        tokenBest[keyId] = similarity;
+    }
+
+    void endToken() {
+      for (int i = 0; i < touchedCount; i++) {
+        int keyId = touched[i];
+        if (overlaps[keyId] == 0) {
+          if (candidateCount == candidates.length)
+            candidates = Arrays.copyOf(candidates, candidateCount * 2);
+          candidates[candidateCount++] = keyId;
+        }
+        overlaps[keyId] += tokenBest[keyId];
+        tokenBest[keyId] = 0;
+      }
+      touchedCount = 0;
+    }
+  }
+}
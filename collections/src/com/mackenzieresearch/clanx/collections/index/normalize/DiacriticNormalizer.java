@@ -0,0 +1,77 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.index.normalize;
+
+import java.text.Normalizer;
+
+/**
+ * Strips diacritics from the Latin-1 Supplement and Latin Extended-A letters (e-acute to e, l-stroke to l and so on) and
+ * removes any combining diacritical marks.  The mapping is a table lookup built once from the Unicode canonical
+ * decompositions, plus the handful of letters such as o-slash and l-stroke that have none.  Ligatures and letters
+ * that would need more than one char to spell, such as the ae ligature and sharp s, are left as they are.
+ */
+public class DiacriticNormalizer extends KeyNormalizer {
+  private static final char FIRST_MAPPED = '\u00C0';
+  private static final char LAST_MAPPED = '\u017F';
+  private static final char[] BASE_LETTERS = _buildBaseLetters();
+
+
+  @Override
+  public int normalize(char[] buffer, int length) {
+    int j = 0;
+    for (int i = 0; i < length; i++) {
+      char c = buffer[i];
+      if (c < FIRST_MAPPED)
+        buffer[j++] = c;
+      else if (c <= LAST_MAPPED)
+        buffer[j++] = BASE_LETTERS[c - FIRST_MAPPED];
+      else if (c < '\u0300' || c > '\u036F')
+        buffer[j++] = c;
+    }
+
+    return j;
+  }
+
+
+  private static char[] _buildBaseLetters() {
+    char[] baseLetters = new char[LAST_MAPPED - FIRST_MAPPED + 1];
+    for (char c = FIRST_MAPPED; c <= LAST_MAPPED; c++) {
+      String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+      char base = decomposed.charAt(0);
+      baseLetters[c - FIRST_MAPPED] = base < 0x80 && Character.isLetter(base) ? base : c;
+    }
+
+    //  Letters whose diacritic is part of the glyph, so they have no decomposition...
+    String undecomposed = "\u00D0D\u00F0d\u00D8O\u00F8o\u0110D\u0111d\u0126H\u0127h\u0131i\u0138k\u013FL\u0140l"
+            + "\u0141L\u0142l\u0149n\u014AN\u014Bn\u0166T\u0167t\u017Fs";
+    for (int i = 0; i < undecomposed.length(); i += 2)
+      baseLetters[undecomposed.charAt(i) - FIRST_MAPPED] = undecomposed.charAt(i + 1);
+
+    return baseLetters;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.index.normalize;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A KeyNormalizer rewrites keys into the form in which they are stored and compared: case folded, stripped of
+ * diacritics and so on.  Indexes run their normalizer once per key when it is added, and once per query key.
+ * <p/>
+ * Every stage works in place on a char[] and may only shorten the key, so a chain of stages can share one buffer.
+ * normalize(String) borrows a per-thread buffer and hands back the original String when nothing changed, so an
+ * already normalized key costs one pass and no allocation.
+ * <p/>
+ * Implementations hold no per-call state and are safe to share between threads.
+ */
+public abstract class KeyNormalizer {
+  private static final ThreadLocal<char[]> _buffers = new ThreadLocal<char[]>() {
+    @Override
+    protected char[] initialValue() {
+      return new char[64];
+    }
+  };
+
+
+  /**
+   * Normalizes the first length chars of buffer in place and returns the new length, which is never greater than
+   * length.
+   */
+  public abstract int normalize(char[] buffer, int length);
+
+  public String normalize(String key) {
+    checkNotNull(key);
+
+    int length = key.length();
+    char[] buffer = _buffers.get();
+    if (buffer.length < length) {
+      buffer = new char[Math.max(length, buffer.length * 2)];
+      _buffers.set(buffer);
+    }
+
+    key.getChars(0, length, buffer, 0);
+    int normalizedLength = normalize(buffer, length);
+
+    if (normalizedLength == length) {
+      int i = 0;
+      while (i < length && buffer[i] == key.charAt(i))
+        i++;
+      if (i == length)
+        return key;
+    }
+
+    return new String(buffer, 0, normalizedLength);
+  }
+}
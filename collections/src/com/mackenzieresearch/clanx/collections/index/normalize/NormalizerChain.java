@@ -0,0 +1,64 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.index.normalize;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs a sequence of normalizers over the same buffer, in the order given.
+ */
+public class NormalizerChain extends KeyNormalizer {
+  private final KeyNormalizer[] _stages;
+
+
+  public NormalizerChain(KeyNormalizer... stages) {
+    checkNotNull(stages);
+    checkArgument(stages.length > 0);
+    for (KeyNormalizer stage : stages)
+      checkNotNull(stage);
+
+    _stages = stages.clone();
+  }
+
+  /**
+   * Case folding, diacritic stripping, punctuation removal and whitespace collapsing, in that order.
+   */
+  public static NormalizerChain standard() {
+    return new NormalizerChain(new CaseFoldNormalizer(), new DiacriticNormalizer(), new PunctuationNormalizer(),
+            new WhitespaceNormalizer());
+  }
+
+  @Override
+  public int normalize(char[] buffer, int length) {
+    for (KeyNormalizer stage : _stages)
+      length = stage.normalize(buffer, length);
+
+    return length;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.index.normalize;
+
+/**
+ * Removes everything that is neither a letter, a digit nor whitespace, so "O'Brien" and "OBrien" or "Smith-Jones"
+ * and "SmithJones" normalize to the same key.  Run this ahead of WhitespaceNormalizer if punctuation can sit
+ * between spaces.
+ */
+public class PunctuationNormalizer extends KeyNormalizer {
+
+  @Override
+  public int normalize(char[] buffer, int length) {
+    int j = 0;
+    for (int i = 0; i < length; i++) {
+      char c = buffer[i];
+      if (c < 0x80) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == ' '
+                || (c >= '\t' && c <= '\r'))
+          buffer[j++] = c;
+      } else if (Character.isLetterOrDigit(c) || Character.isWhitespace(c) || c == '\u00A0')
+        buffer[j++] = c;
+    }
+
+    return j;
+  }
+}
@@ -0,0 +1,54 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.index.normalize;
+
+/**
+ * Collapses each run of whitespace (including non-breaking spaces) to a single space and trims both ends.
+ */
+public class WhitespaceNormalizer extends KeyNormalizer {
+
+  @Override
+  public int normalize(char[] buffer, int length) {
+    int j = 0;
+    boolean pendingSpace = false;
+    for (int i = 0; i < length; i++) {
+      char c = buffer[i];
+      if (c == ' ' || c == '\u00A0' || Character.isWhitespace(c))
+        pendingSpace = j > 0;
+      else {
+        if (pendingSpace) {
+          buffer[j++] = ' ';
+          pendingSpace = false;
+        }
+        buffer[j++] = c;
+      }
+    }
+
+    return j;
+  }
+}
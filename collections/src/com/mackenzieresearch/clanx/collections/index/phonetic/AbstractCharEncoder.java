@@ -0,0 +1,122 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.mackenzieresearch.clanx.collections.index.phonetic;
+
+import org.apache.commons.codec.EncoderException;
+import org.apache.commons.codec.StringEncoder;
+
+/**
+ * Base class for the hand-written phonetic encoders in this package.  Each subclass produces exactly the same
+ * codes as its commons-codec counterpart, but does its work directly on a char[] instead of running a chain of
+ * String operations (or, in the case of Caverphone, a chain of regex replaceAll()s) over the key.
+ * <p/>
+ * Callers on a hot path can use encode(char[], int, char[]) with buffers they own, in which case plain ASCII keys
+ * are encoded without allocating anything.  Keys containing characters outside of Latin-1 fall back to the
+ * String-based case conversions the reference encoders use, so that the codes stay identical.
+ * <p/>
+ * Instances hold no per-call state and are safe to share between threads.
+ */
+public abstract class AbstractCharEncoder implements StringEncoder {
+
+  /**
+   * Encodes the first srcLength characters of src into dest and returns the length of the code.  The contents of
+   * src are used as scratch space and are destroyed.  dest must be at least getMaxEncodedLength() long.  A negative
+   * result means that the reference encoder would have returned null for this key.
+   *
+   * @param src
+   * @param srcLength
+   * @param dest
+   * @return length of the code written to dest
+   */
+  public abstract int encode(char[] src, int srcLength, char[] dest);
+
+  /**
+   * The longest code this encoder can produce, which is the minimum size of the dest buffer handed to
+   * encode(char[], int, char[]).
+   */
+  public abstract int getMaxEncodedLength();
+
+  @Override
+  public String encode(String source) {
+    if (source == null)
+      return null;
+
+    char[] src = source.toCharArray();
+    char[] dest = new char[getMaxEncodedLength()];
+    int length = encode(src, src.length, dest);
+
+    return length >= 0 ? new String(dest, 0, length) : null;
+  }
+
+  @Override
+  public Object encode(Object source) throws EncoderException {
+    if (!(source instanceof String))
+      throw new EncoderException("Parameter supplied to " + getClass().getSimpleName() + " encode is not of type java.lang.String");
+
+    return encode((String) source);
+  }
+
+  /**
+   * Upper-cases src in place the way String.toUpperCase(Locale.ENGLISH) would, returning false if the key contains
+   * a character outside of Latin-1 or the German sharp s (whose upper case form is two characters).  In that case
+   * the caller must fall back to String.toUpperCase() on the (partially converted) buffer.
+   */
+  static boolean toUpperCase(char[] src, int srcLength) {
+    for (int i = 0; i < srcLength; i++) {
+      char c = src[i];
+      if (c >= 'a' && c <= 'z')
+        src[i] = (char) (c - ('a' - 'A'));
+      else if (c >= 0x80) {
+        if (c >= 0x100 || c == 0xDF)
+          return false;
+        src[i] = Character.toUpperCase(c);
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns true if the region of value starting at start matches criteria exactly.  Out of range regions never
+   * match.
+   */
+  static boolean regionMatches(char[] value, int length, int start, String criteria) {
+    int criteriaLength = criteria.length();
+    if (start < 0 || start + criteriaLength > length)
+      return false;
+
+    for (int i = 0; i < criteriaLength; i++) {
+      if (value[start + i] != criteria.charAt(i))
+        return false;
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,239 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.mackenzieresearch.clanx.collections.index.phonetic;
+
+/**
+ * Caverphone 2.0, producing the same codes as commons-codec's Caverphone2.
+ * <p/>
+ * The reference implementation applies some fifty regex replaceAll()s in sequence, each of which compiles a
+ * pattern and allocates a new String.  Here the rules are applied in place on a char[], with runs of neighbouring
+ * rules that cannot feed each other folded into a single sweep.  Every rule keeps the reference ordering, so rules
+ * that can create matches for later rules (e.g. "w$" -> "3" creating an "r3") still run in separate sweeps.
+ */
+public class FastCaverphone2 extends AbstractCharEncoder {
+  private static final int CODE_LENGTH = 10;
+
+
+  public FastCaverphone2() {
+  }
+
+  @Override
+  public int getMaxEncodedLength() {
+    return CODE_LENGTH;
+  }
+
+  @Override
+  public int encode(char[] src, int srcLength, char[] dest) {
+    char[] buf = src;
+
+    //  1. Convert to lower case and 2. remove anything not a-z...
+    int n = 0;
+    for (int i = 0; i < srcLength; i++) {
+      char c = buf[i];
+      if (c >= 'A' && c <= 'Z')
+        c = (char) (c + ('a' - 'A'));
+      else if (c >= 0x80)
+        c = Character.toLowerCase(c);
+
+      if (c >= 'a' && c <= 'z')
+        buf[n++] = c;
+    }
+
+    //  2.5. Remove final e...
+    if (n > 0 && buf[n - 1] == 'e')
+      n--;
+
+    //  3. Handle the start options, which are mutually exclusive...
+    if (_startsWith(buf, n, "cough") || _startsWith(buf, n, "rough") || _startsWith(buf, n, "tough")) {
+      buf[3] = '2';
+      buf[4] = 'f';
+    } else if (_startsWith(buf, n, "enough") || _startsWith(buf, n, "trough")) {
+      buf[4] = '2';
+      buf[5] = 'f';
+    }
+    if (n >= 2 && buf[0] == 'g' && buf[1] == 'n')
+      buf[0] = '2';
+    if (n >= 2 && buf[n - 2] == 'm' && buf[n - 1] == 'b')
+      buf[n - 1] = '2';
+
+    //  4. Handle replacements.  cq, ci, ce, cy, tch, then c, q, x -> k and v -> f...
+    for (int i = 0; i < n; i++) {
+      switch (buf[i]) {
+        case 'c':
+          char next = i + 1 < n ? buf[i + 1] : 0;
+          if (next == 'q')
+            buf[i] = '2';
+          else if (next == 'i' || next == 'e' || next == 'y')
+            buf[i] = 's';
+          else
+            buf[i] = 'k';
+          break;
+        case 't':
+          if (i + 2 < n && buf[i + 1] == 'c' && buf[i + 2] == 'h')
+            buf[i] = '2';
+          break;
+        case 'q':
+        case 'x':
+          buf[i] = 'k';
+          break;
+        case 'v':
+          buf[i] = 'f';
+          break;
+      }
+    }
+
+    //  dg, tio, tia, then d -> t...
+    for (int i = 0; i < n; i++) {
+      char c = buf[i];
+      if (c == 'd')
+        buf[i] = (i + 1 < n && buf[i + 1] == 'g') ? '2' : 't';
+      else if (c == 't' && i + 2 < n && buf[i + 1] == 'i' && (buf[i + 2] == 'o' || buf[i + 2] == 'a'))
+        buf[i] = 's';
+    }
+
+    //  ph, b -> p, sh, z -> s...
+    for (int i = 0; i < n; i++) {
+      switch (buf[i]) {
+        case 'p':
+          if (i + 1 < n && buf[i + 1] == 'h')
+            buf[i] = 'f';
+          break;
+        case 'b':
+          buf[i] = 'p';
+          break;
+        case 's':
+          if (i + 1 < n && buf[i + 1] == 'h')
+            buf[++i] = '2';
+          break;
+        case 'z':
+          buf[i] = 's';
+          break;
+      }
+    }
+
+    //  Vowels (a leading one becomes A) and j -> y, then the leading y rules...
+    for (int i = 0; i < n; i++) {
+      char c = buf[i];
+      if (c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u')
+        buf[i] = i == 0 ? 'A' : '3';
+      else if (c == 'j')
+        buf[i] = 'y';
+    }
+    if (n > 0 && buf[0] == 'y')
+      buf[0] = (n > 1 && buf[1] == '3') ? 'Y' : 'A';
+    for (int i = 0; i < n; i++) {
+      if (buf[i] == 'y')
+        buf[i] = '3';
+    }
+
+    //  3gh3 (matches don't overlap), then gh -> 22 and the remaining g -> k...
+    for (int i = 0; i + 3 < n; i++) {
+      if (buf[i] == '3' && buf[i + 1] == 'g' && buf[i + 2] == 'h' && buf[i + 3] == '3') {
+        buf[i + 1] = 'k';
+        i += 3;
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      if (buf[i] == 'g') {
+        if (i + 1 < n && buf[i + 1] == 'h') {
+          buf[i] = '2';
+          buf[++i] = '2';
+        } else
+          buf[i] = 'k';
+      }
+    }
+
+    //  Collapse runs of s, t, p, k, f, m and n into a single upper case letter...
+    int w = 0;
+    char previous = 0;
+    for (int i = 0; i < n; i++) {
+      char c = buf[i];
+      if (c == 's' || c == 't' || c == 'p' || c == 'k' || c == 'f' || c == 'm' || c == 'n') {
+        if (c != previous)
+          buf[w++] = (char) (c - ('a' - 'A'));
+      } else
+        buf[w++] = c;
+      previous = c;
+    }
+    n = w;
+
+    //  w3, wh3, w$, w and the h rules...
+    for (int i = 0; i < n; i++) {
+      char c = buf[i];
+      if (c == 'w') {
+        if ((i + 1 < n && buf[i + 1] == '3') || (i + 2 < n && buf[i + 1] == 'h' && buf[i + 2] == '3'))
+          buf[i] = 'W';
+        else
+          buf[i] = i == n - 1 ? '3' : '2';
+      } else if (c == 'h')
+        buf[i] = i == 0 ? 'A' : '2';
+    }
+
+    //  r and l need a sweep each, since r$ -> 3 can create an l3...
+    _liquid(buf, n, 'r', 'R');
+    _liquid(buf, n, 'l', 'L');
+
+    //  5. Handle removals.  A trailing 3 (once the 2s are gone) becomes A, all other 2s and 3s are dropped...
+    int last = n - 1;
+    while (last >= 0 && buf[last] == '2')
+      last--;
+    if (last >= 0 && buf[last] == '3')
+      buf[last] = 'A';
+
+    w = 0;
+    for (int i = 0; i < n; i++) {
+      char c = buf[i];
+      if (c != '2' && c != '3')
+        buf[w++] = c;
+    }
+    n = w;
+
+    //  6. & 7. Pad with ones and take the first ten characters as the code...
+    for (int i = 0; i < CODE_LENGTH; i++)
+      dest[i] = i < n ? buf[i] : '1';
+
+    return CODE_LENGTH;
+  }
+
+  private static void _liquid(char[] buf, int n, char letter, char upper) {
+    for (int i = 0; i < n; i++) {
+      if (buf[i] == letter) {
+        if (i + 1 < n && buf[i + 1] == '3')
+          buf[i] = upper;
+        else
+          buf[i] = i == n - 1 ? '3' : '2';
+      }
+    }
+  }
+
+  private static boolean _startsWith(char[] buf, int n, String prefix) {
+    return regionMatches(buf, n, 0, prefix);
+  }
+}
@@ -0,0 +1,843 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.mackenzieresearch.clanx.collections.index.phonetic;
+
+/**
+ * Double Metaphone, producing the same primary and alternate codes as commons-codec's DoubleMetaphone.
+ * <p/>
+ * The reference implementation does all of its look-ahead with contains(), which allocates a varargs array and a
+ * substring on every call, and builds both codes in StringBuffers.  Here the rules compare regions of the key's own
+ * char[] in place, and only the requested code is written (the other one is tracked by length alone, which is all
+ * the algorithm needs to know about it).  The working state lives in a per-thread Encoding that is reused from one
+ * call to the next.
+ */
+public class FastDoubleMetaphone extends AbstractCharEncoder {
+  private static final String VOWELS = "AEIOUY";
+
+  private static final String[] SILENT_START = {"GN", "KN", "PN", "WR", "PS"};
+  private static final String[] L_R_N_M_B_H_F_V_W_SPACE = {"L", "R", "N", "M", "B", "H", "F", "V", "W", " "};
+  private static final String[] ES_EP_EB_EL_EY_IB_IL_IN_IE_EI_ER = {"ES", "EP", "EB", "EL", "EY", "IB", "IL", "IN", "IE", "EI", "ER"};
+  private static final String[] L_T_K_S_N_M_B_Z = {"L", "T", "K", "S", "N", "M", "B", "Z"};
+
+  private int _maxCodeLength = 4;
+  private final ThreadLocal<Encoding> _encodings = new ThreadLocal<Encoding>() {
+    @Override
+    protected Encoding initialValue() {
+      return new Encoding();
+    }
+  };
+
+
+  public FastDoubleMetaphone() {
+  }
+
+  public int getMaxCodeLength() {
+    return _maxCodeLength;
+  }
+
+  public void setMaxCodeLength(int maxCodeLength) {
+    _maxCodeLength = maxCodeLength;
+  }
+
+  @Override
+  public int getMaxEncodedLength() {
+    return _maxCodeLength;
+  }
+
+  public String doubleMetaphone(String value, boolean alternate) {
+    if (value == null)
+      return null;
+
+    char[] src = value.toCharArray();
+    char[] dest = new char[getMaxEncodedLength()];
+    int length = encode(src, src.length, dest, alternate);
+
+    return length >= 0 ? new String(dest, 0, length) : null;
+  }
+
+  /**
+   * Encodes the primary code.
+   */
+  @Override
+  public int encode(char[] src, int srcLength, char[] dest) {
+    return encode(src, srcLength, dest, false);
+  }
+
+  /**
+   * Encodes the primary or alternate code.  Returns -1 for keys that are blank once trimmed, for which the
+   * reference implementation returns null.
+   */
+  public int encode(char[] src, int srcLength, char[] dest, boolean alternate) {
+    //  Trim the key the way String.trim() does, and upper case what's left...
+    int start = 0;
+    int end = srcLength;
+    while (start < end && src[start] <= ' ')
+      start++;
+    while (end > start && src[end - 1] <= ' ')
+      end--;
+    if (start == end)
+      return -1;
+
+    char[] value = src;
+    int length = end - start;
+    if (start > 0)
+      System.arraycopy(src, start, value, 0, length);
+    if (!toUpperCase(value, length)) {
+      value = new String(value, 0, length).toUpperCase(java.util.Locale.ENGLISH).toCharArray();
+      length = value.length;
+    }
+
+    Encoding encoding = _encodings.get();
+    encoding.reset(value, length, dest, alternate, _maxCodeLength);
+
+    return encoding.encode();
+  }
+
+  /**
+   * The working state for one key.
+   */
+  private static final class Encoding {
+    private char[] _value;
+    private int _length;
+    private boolean _slavoGermanic;
+
+    //  Only the requested code is written to _code; the other is tracked by length alone...
+    private char[] _code;
+    private boolean _alternate;
+    private int _primaryLength;
+    private int _alternateLength;
+    private int _maxLength;
+
+    void reset(char[] value, int length, char[] code, boolean alternate, int maxLength) {
+      _value = value;
+      _length = length;
+      _code = code;
+      _alternate = alternate;
+      _primaryLength = 0;
+      _alternateLength = 0;
+      _maxLength = maxLength;
+    }
+
+    int encode() {
+      _slavoGermanic = _isSlavoGermanic();
+      int index = _isSilentStart() ? 1 : 0;
+
+      while (!_isComplete() && index <= _length - 1) {
+        switch (_value[index]) {
+          case 'A':
+          case 'E':
+          case 'I':
+          case 'O':
+          case 'U':
+          case 'Y':
+            index = _handleAEIOUY(index);
+            break;
+          case 'B':
+            _append('P');
+            index = _charAt(index + 1) == 'B' ? index + 2 : index + 1;
+            break;
+          case '\u00C7':
+            //  A C with a Cedilla...
+            _append('S');
+            index++;
+            break;
+          case 'C':
+            index = _handleC(index);
+            break;
+          case 'D':
+            index = _handleD(index);
+            break;
+          case 'F':
+            _append('F');
+            index = _charAt(index + 1) == 'F' ? index + 2 : index + 1;
+            break;
+          case 'G':
+            index = _handleG(index);
+            break;
+          case 'H':
+            index = _handleH(index);
+            break;
+          case 'J':
+            index = _handleJ(index);
+            break;
+          case 'K':
+            _append('K');
+            index = _charAt(index + 1) == 'K' ? index + 2 : index + 1;
+            break;
+          case 'L':
+            index = _handleL(index);
+            break;
+          case 'M':
+            _append('M');
+            index = _conditionM0(index) ? index + 2 : index + 1;
+            break;
+          case 'N':
+            _append('N');
+            index = _charAt(index + 1) == 'N' ? index + 2 : index + 1;
+            break;
+          case '\u00D1':
+            //  N with a tilde (spanish ene)...
+            _append('N');
+            index++;
+            break;
+          case 'P':
+            index = _handleP(index);
+            break;
+          case 'Q':
+            _append('K');
+            index = _charAt(index + 1) == 'Q' ? index + 2 : index + 1;
+            break;
+          case 'R':
+            index = _handleR(index);
+            break;
+          case 'S':
+            index = _handleS(index);
+            break;
+          case 'T':
+            index = _handleT(index);
+            break;
+          case 'V':
+            _append('F');
+            index = _charAt(index + 1) == 'V' ? index + 2 : index + 1;
+            break;
+          case 'W':
+            index = _handleW(index);
+            break;
+          case 'X':
+            index = _handleX(index);
+            break;
+          case 'Z':
+            index = _handleZ(index);
+            break;
+          default:
+            index++;
+            break;
+        }
+      }
+
+      return _alternate ? _alternateLength : _primaryLength;
+    }
+
+    //  Handlers...
+
+    private int _handleAEIOUY(int index) {
+      if (index == 0)
+        _append('A');
+
+      return index + 1;
+    }
+
+    private int _handleC(int index) {
+      if (_conditionC0(index)) {
+        _append('K');
+        index += 2;
+      } else if (index == 0 && _contains(index, 6, "CAESAR")) {
+        _append('S');
+        index += 2;
+      } else if (_contains(index, 2, "CH")) {
+        index = _handleCH(index);
+      } else if (_contains(index, 2, "CZ") && !_contains(index - 2, 4, "WICZ")) {
+        //  "Czerny"...
+        _append('S', 'X');
+        index += 2;
+      } else if (_contains(index + 1, 3, "CIA")) {
+        //  "focaccia"...
+        _append('X');
+        index += 3;
+      } else if (_contains(index, 2, "CC") && !(index == 1 && _charAt(0) == 'M')) {
+        //  Double "cc" but not "McClelland"...
+        return _handleCC(index);
+      } else if (_contains(index, 2, "CK", "CG", "CQ")) {
+        _append('K');
+        index += 2;
+      } else if (_contains(index, 2, "CI", "CE", "CY")) {
+        //  Italian vs. English...
+        if (_contains(index, 3, "CIO", "CIE", "CIA"))
+          _append('S', 'X');
+        else
+          _append('S');
+        index += 2;
+      } else {
+        _append('K');
+        if (_contains(index + 1, 2, " C", " Q", " G")) {
+          //  Mac Caffrey, Mac Gregor...
+          index += 3;
+        } else if (_contains(index + 1, 1, "C", "K", "Q") && !_contains(index + 1, 2, "CE", "CI")) {
+          index += 2;
+        } else {
+          index++;
+        }
+      }
+
+      return index;
+    }
+
+    private int _handleCC(int index) {
+      if (_contains(index + 2, 1, "I", "E", "H") && !_contains(index + 2, 2, "HU")) {
+        //  "bellocchio" but not "bacchus"...
+        if ((index == 1 && _charAt(index - 1) == 'A') || _contains(index - 1, 5, "UCCEE", "UCCES")) {
+          //  "accident", "accede", "succeed"...
+          _append("KS");
+        } else {
+          //  "bacci", "bertucci", other Italian...
+          _append('X');
+        }
+        index += 3;
+      } else {
+        //  Pierce's rule...
+        _append('K');
+        index += 2;
+      }
+
+      return index;
+    }
+
+    private int _handleCH(int index) {
+      if (index > 0 && _contains(index, 4, "CHAE")) {
+        //  Michael...
+        _append('K', 'X');
+        return index + 2;
+      } else if (_conditionCH0(index)) {
+        //  Greek roots ("chemistry", "chorus", etc.)...
+        _append('K');
+        return index + 2;
+      } else if (_conditionCH1(index)) {
+        //  Germanic, Greek, or otherwise 'ch' for 'kh' sound...
+        _append('K');
+        return index + 2;
+      } else {
+        if (index > 0) {
+          if (_contains(0, 2, "MC"))
+            _append('K');
+          else
+            _append('X', 'K');
+        } else {
+          _append('X');
+        }
+        return index + 2;
+      }
+    }
+
+    private int _handleD(int index) {
+      if (_contains(index, 2, "DG")) {
+        if (_contains(index + 2, 1, "I", "E", "Y")) {
+          //  "Edge"...
+          _append('J');
+          index += 3;
+        } else {
+          //  "Edgar"...
+          _append("TK");
+          index += 2;
+        }
+      } else if (_contains(index, 2, "DT", "DD")) {
+        _append('T');
+        index += 2;
+      } else {
+        _append('T');
+        index++;
+      }
+
+      return index;
+    }
+
+    private int _handleG(int index) {
+      if (_charAt(index + 1) == 'H') {
+        index = _handleGH(index);
+      } else if (_charAt(index + 1) == 'N') {
+        if (index == 1 && _isVowel(_charAt(0)) && !_slavoGermanic)
+          _append("KN", "N");
+        else if (!_contains(index + 2, 2, "EY") && _charAt(index + 1) != 'Y' && !_slavoGermanic)
+          _append("N", "KN");
+        else
+          _append("KN");
+        index = index + 2;
+      } else if (_contains(index + 1, 2, "LI") && !_slavoGermanic) {
+        _append("KL", "L");
+        index += 2;
+      } else if (index == 0 && (_charAt(index + 1) == 'Y' || _contains(index + 1, 2, ES_EP_EB_EL_EY_IB_IL_IN_IE_EI_ER))) {
+        //  -ges-, -gep-, -gel-, -gie- at beginning...
+        _append('K', 'J');
+        index += 2;
+      } else if ((_contains(index + 1, 2, "ER") || _charAt(index + 1) == 'Y') &&
+              !_contains(0, 6, "DANGER", "RANGER", "MANGER") &&
+              !_contains(index - 1, 1, "E", "I") &&
+              !_contains(index - 1, 3, "RGY", "OGY")) {
+        //  -ger-, -gy-...
+        _append('K', 'J');
+        index += 2;
+      } else if (_contains(index + 1, 1, "E", "I", "Y") || _contains(index - 1, 4, "AGGI", "OGGI")) {
+        //  Italian "biaggi"...
+        if (_contains(0, 4, "VAN ", "VON ") || _contains(0, 3, "SCH") || _contains(index + 1, 2, "ET")) {
+          //  Obvious germanic...
+          _append('K');
+        } else if (_contains(index + 1, 3, "IER")) {
+          _append('J');
+        } else {
+          _append('J', 'K');
+        }
+        index += 2;
+      } else if (_charAt(index + 1) == 'G') {
+        index += 2;
+        _append('K');
+      } else {
+        index++;
+        _append('K');
+      }
+
+      return index;
+    }
+
+    private int _handleGH(int index) {
+      if (index > 0 && !_isVowel(_charAt(index - 1))) {
+        _append('K');
+        index += 2;
+      } else if (index == 0) {
+        if (_charAt(index + 2) == 'I')
+          _append('J');
+        else
+          _append('K');
+        index += 2;
+      } else if ((index > 1 && _contains(index - 2, 1, "B", "H", "D")) ||
+              (index > 2 && _contains(index - 3, 1, "B", "H", "D")) ||
+              (index > 3 && _contains(index - 4, 1, "B", "H"))) {
+        //  Parker's rule (with some further refinements) - "hugh"...
+        index += 2;
+      } else {
+        if (index > 2 && _charAt(index - 1) == 'U' && _contains(index - 3, 1, "C", "G", "L", "R", "T")) {
+          //  "laugh", "McLaughlin", "cough", "gough", "rough", "tough"...
+          _append('F');
+        } else if (index > 0 && _charAt(index - 1) != 'I') {
+          _append('K');
+        }
+        index += 2;
+      }
+
+      return index;
+    }
+
+    private int _handleH(int index) {
+      //  Only keep if first & before vowel or between 2 vowels (also takes care of "HH")...
+      if ((index == 0 || _isVowel(_charAt(index - 1))) && _isVowel(_charAt(index + 1))) {
+        _append('H');
+        index += 2;
+      } else {
+        index++;
+      }
+
+      return index;
+    }
+
+    private int _handleJ(int index) {
+      if (_contains(index, 4, "JOSE") || _contains(0, 4, "SAN ")) {
+        //  Obvious Spanish, "Jose", "San Jacinto"...
+        if ((index == 0 && (_charAt(index + 4) == ' ') || _length == 4) || _contains(0, 4, "SAN "))
+          _append('H');
+        else
+          _append('J', 'H');
+        index++;
+      } else {
+        if (index == 0 && !_contains(index, 4, "JOSE")) {
+          _append('J', 'A');
+        } else if (_isVowel(_charAt(index - 1)) && !_slavoGermanic &&
+                (_charAt(index + 1) == 'A' || _charAt(index + 1) == 'O')) {
+          _append('J', 'H');
+        } else if (index == _length - 1) {
+          _append('J', ' ');
+        } else if (!_contains(index + 1, 1, L_T_K_S_N_M_B_Z) && !_contains(index - 1, 1, "S", "K", "L")) {
+          _append('J');
+        }
+
+        if (_charAt(index + 1) == 'J')
+          index += 2;
+        else
+          index++;
+      }
+
+      return index;
+    }
+
+    private int _handleL(int index) {
+      if (_charAt(index + 1) == 'L') {
+        if (_conditionL0(index))
+          _appendPrimary('L');
+        else
+          _append('L');
+        index += 2;
+      } else {
+        index++;
+        _append('L');
+      }
+
+      return index;
+    }
+
+    private int _handleP(int index) {
+      if (_charAt(index + 1) == 'H') {
+        _append('F');
+        index += 2;
+      } else {
+        _append('P');
+        index = _contains(index + 1, 1, "P", "B") ? index + 2 : index + 1;
+      }
+
+      return index;
+    }
+
+    private int _handleR(int index) {
+      if (index == _length - 1 && !_slavoGermanic && _contains(index - 2, 2, "IE") && !_contains(index - 4, 2, "ME", "MA"))
+        _appendAlternate('R');
+      else
+        _append('R');
+
+      return _charAt(index + 1) == 'R' ? index + 2 : index + 1;
+    }
+
+    private int _handleS(int index) {
+      if (_contains(index - 1, 3, "ISL", "YSL")) {
+        //  Special cases "island", "isle", "carlisle", "carlysle"...
+        index++;
+      } else if (index == 0 && _contains(index, 5, "SUGAR")) {
+        //  Special case "sugar-"...
+        _append('X', 'S');
+        index++;
+      } else if (_contains(index, 2, "SH")) {
+        if (_contains(index + 1, 4, "HEIM", "HOEK", "HOLM", "HOLZ")) {
+          //  Germanic...
+          _append('S');
+        } else {
+          _append('X');
+        }
+        index += 2;
+      } else if (_contains(index, 3, "SIO", "SIA") || _contains(index, 4, "SIAN")) {
+        //  Italian and Armenian...
+        if (_slavoGermanic)
+          _append('S');
+        else
+          _append('S', 'X');
+        index += 3;
+      } else if ((index == 0 && _contains(index + 1, 1, "M", "N", "L", "W")) || _contains(index + 1, 1, "Z")) {
+        //  German & anglicisations, e.g. "smith" match "schmidt", "snider" match "schneider".  Also -sz- in
+        //  slavic languages, although in hungarian it is pronounced "s"...
+        _append('S', 'X');
+        index = _contains(index + 1, 1, "Z") ? index + 2 : index + 1;
+      } else if (_contains(index, 2, "SC")) {
+        index = _handleSC(index);
+      } else {
+        if (index == _length - 1 && _contains(index - 2, 2, "AI", "OI")) {
+          //  French e.g. "resnais", "artois"...
+          _appendAlternate('S');
+        } else {
+          _append('S');
+        }
+        index = _contains(index + 1, 1, "S", "Z") ? index + 2 : index + 1;
+      }
+
+      return index;
+    }
+
+    private int _handleSC(int index) {
+      if (_charAt(index + 2) == 'H') {
+        //  Schlesinger's rule...
+        if (_contains(index + 3, 2, "OO", "ER", "EN", "UY", "ED", "EM")) {
+          //  Dutch origin, e.g. "school", "schooner"...
+          if (_contains(index + 3, 2, "ER", "EN")) {
+            //  "schermerhorn", "schenker"...
+            _append("X", "SK");
+          } else {
+            _append("SK");
+          }
+        } else {
+          if (index == 0 && !_isVowel(_charAt(3)) && _charAt(3) != 'W')
+            _append('X', 'S');
+          else
+            _append('X');
+        }
+      } else if (_contains(index + 2, 1, "I", "E", "Y")) {
+        _append('S');
+      } else {
+        _append("SK");
+      }
+
+      return index + 3;
+    }
+
+    private int _handleT(int index) {
+      if (_contains(index, 4, "TION")) {
+        _append('X');
+        index += 3;
+      } else if (_contains(index, 3, "TIA", "TCH")) {
+        _append('X');
+        index += 3;
+      } else if (_contains(index, 2, "TH") || _contains(index, 3, "TTH")) {
+        if (_contains(index + 2, 2, "OM", "AM") || _contains(0, 4, "VAN ", "VON ") || _contains(0, 3, "SCH")) {
+          //  Special case "thomas", "thames" or germanic...
+          _append('T');
+        } else {
+          _append('0', 'T');
+        }
+        index += 2;
+      } else {
+        _append('T');
+        index = _contains(index + 1, 1, "T", "D") ? index + 2 : index + 1;
+      }
+
+      return index;
+    }
+
+    private int _handleW(int index) {
+      if (_contains(index, 2, "WR")) {
+        //  Can also be in middle of word...
+        _append('R');
+        index += 2;
+      } else {
+        if (index == 0 && (_isVowel(_charAt(index + 1)) || _contains(index, 2, "WH"))) {
+          if (_isVowel(_charAt(index + 1))) {
+            //  Wasserman should match Vasserman...
+            _append('A', 'F');
+          } else {
+            //  Need Uomo to match Womo...
+            _append('A');
+          }
+          index++;
+        } else if ((index == _length - 1 && _isVowel(_charAt(index - 1))) ||
+                _contains(index - 1, 5, "EWSKI", "EWSKY", "OWSKI", "OWSKY") ||
+                _contains(0, 3, "SCH")) {
+          //  Arnow should match Arnoff...
+          _appendAlternate('F');
+          index++;
+        } else if (_contains(index, 4, "WICZ", "WITZ")) {
+          //  Polish e.g. "filipowicz"...
+          _append("TS", "FX");
+          index += 4;
+        } else {
+          index++;
+        }
+      }
+
+      return index;
+    }
+
+    private int _handleX(int index) {
+      if (index == 0) {
+        _append('S');
+        index++;
+      } else {
+        if (!((index == _length - 1) && (_contains(index - 3, 3, "IAU", "EAU") || _contains(index - 2, 2, "AU", "OU")))) {
+          //  French e.g. breaux...
+          _append("KS");
+        }
+        index = _contains(index + 1, 1, "C", "X") ? index + 2 : index + 1;
+      }
+
+      return index;
+    }
+
+    private int _handleZ(int index) {
+      if (_charAt(index + 1) == 'H') {
+        //  Chinese pinyin e.g. "zhao" or Angelina "Zhang"...
+        _append('J');
+        index += 2;
+      } else {
+        if (_contains(index + 1, 2, "ZO", "ZI", "ZA") || (_slavoGermanic && (index > 0 && _charAt(index - 1) != 'T')))
+          _append("S", "TS");
+        else
+          _append('S');
+        index = _charAt(index + 1) == 'Z' ? index + 2 : index + 1;
+      }
+
+      return index;
+    }
+
+    //  Conditions...
+
+    private boolean _conditionC0(int index) {
+      if (_contains(index, 4, "CHIA")) {
+        return true;
+      } else if (index <= 1) {
+        return false;
+      } else if (_isVowel(_charAt(index - 2))) {
+        return false;
+      } else if (!_contains(index - 1, 3, "ACH")) {
+        return false;
+      } else {
+        char c = _charAt(index + 2);
+        return (c != 'I' && c != 'E') || _contains(index - 2, 6, "BACHER", "MACHER");
+      }
+    }
+
+    private boolean _conditionCH0(int index) {
+      if (index != 0)
+        return false;
+      else if (!_contains(index + 1, 5, "HARAC", "HARIS") && !_contains(index + 1, 3, "HOR", "HYM", "HIA", "HEM"))
+        return false;
+      else
+        return !_contains(0, 5, "CHORE");
+    }
+
+    private boolean _conditionCH1(int index) {
+      return ((_contains(0, 4, "VAN ", "VON ") || _contains(0, 3, "SCH")) ||
+              _contains(index - 2, 6, "ORCHES", "ARCHIT", "ORCHID") ||
+              _contains(index + 2, 1, "T", "S") ||
+              ((_contains(index - 1, 1, "A", "O", "U", "E") || index == 0) &&
+                      (_contains(index + 2, 1, L_R_N_M_B_H_F_V_W_SPACE) || index + 1 == _length - 1)));
+    }
+
+    private boolean _conditionL0(int index) {
+      if (index == _length - 3 && _contains(index - 1, 4, "ILLO", "ILLA", "ALLE"))
+        return true;
+      else
+        return (_contains(_length - 2, 2, "AS", "OS") || _contains(_length - 1, 1, "A", "O")) && _contains(index - 1, 4, "ALLE");
+    }
+
+    private boolean _conditionM0(int index) {
+      if (_charAt(index + 1) == 'M')
+        return true;
+
+      return _contains(index - 1, 3, "UMB") && ((index + 1) == _length - 1 || _contains(index + 2, 2, "ER"));
+    }
+
+    //  Helpers...
+
+    private boolean _isSlavoGermanic() {
+      for (int i = 0; i < _length; i++) {
+        char c = _value[i];
+        if (c == 'W' || c == 'K' || (c == 'C' && _charAt(i + 1) == 'Z'))
+          return true;
+      }
+
+      return false;
+    }
+
+    private boolean _isSilentStart() {
+      for (String prefix : SILENT_START) {
+        if (regionMatches(_value, _length, 0, prefix))
+          return true;
+      }
+
+      return false;
+    }
+
+    private static boolean _isVowel(char c) {
+      return VOWELS.indexOf(c) != -1;
+    }
+
+    private char _charAt(int index) {
+      if (index < 0 || index >= _length)
+        return Character.MIN_VALUE;
+
+      return _value[index];
+    }
+
+    private boolean _contains(int start, int length, String criteria) {
+      return criteria.length() == length && regionMatches(_value, _length, start, criteria);
+    }
+
+    private boolean _contains(int start, int length, String criteria1, String criteria2) {
+      return _contains(start, length, criteria1) || _contains(start, length, criteria2);
+    }
+
+    private boolean _contains(int start, int length, String criteria1, String criteria2, String criteria3) {
+      return _contains(start, length, criteria1, criteria2) || _contains(start, length, criteria3);
+    }
+
+    private boolean _contains(int start, int length, String criteria1, String criteria2, String criteria3, String criteria4) {
+      return _contains(start, length, criteria1, criteria2, criteria3) || _contains(start, length, criteria4);
+    }
+
+    private boolean _contains(int start, int length, String criteria1, String criteria2, String criteria3, String criteria4, String criteria5) {
+      return _contains(start, length, criteria1, criteria2, criteria3, criteria4) || _contains(start, length, criteria5);
+    }
+
+    private boolean _contains(int start, int length, String criteria1, String criteria2, String criteria3, String criteria4, String criteria5, String criteria6) {
+      return _contains(start, length, criteria1, criteria2, criteria3, criteria4, criteria5) || _contains(start, length, criteria6);
+    }
+
+    private boolean _contains(int start, int length, String[] criteria) {
+      for (String element : criteria) {
+        if (_contains(start, length, element))
+          return true;
+      }
+
+      return false;
+    }
+
+    //  Result...
+
+    private boolean _isComplete() {
+      return _primaryLength >= _maxLength && _alternateLength >= _maxLength;
+    }
+
+    private void _append(char value) {
+      _appendPrimary(value);
+      _appendAlternate(value);
+    }
+
+    private void _append(char primary, char alternate) {
+      _appendPrimary(primary);
+      _appendAlternate(alternate);
+    }
+
+    private void _append(String value) {
+      _appendPrimary(value);
+      _appendAlternate(value);
+    }
+
+    private void _append(String primary, String alternate) {
+      _appendPrimary(primary);
+      _appendAlternate(alternate);
+    }
+
+    private void _appendPrimary(char value) {
+      if (_primaryLength < _maxLength) {
+        if (!_alternate)
+          _code[_primaryLength] = value;
+        _primaryLength++;
+      }
+    }
+
+    private void _appendAlternate(char value) {
+      if (_alternateLength < _maxLength) {
+        if (_alternate)
+          _code[_alternateLength] = value;
+        _alternateLength++;
+      }
+    }
+
+    private void _appendPrimary(String value) {
+      for (int i = 0; i < value.length(); i++)
+        _appendPrimary(value.charAt(i));
+    }
+
+    private void _appendAlternate(String value) {
+      for (int i = 0; i < value.length(); i++)
+        _appendAlternate(value.charAt(i));
+    }
+  }
+}
@@ -0,0 +1,277 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.mackenzieresearch.clanx.collections.index.phonetic;
+
+/**
+ * Metaphone, producing the same codes as commons-codec's Metaphone.  The reference implementation copies the key
+ * into a StringBuffer and does its look-ahead with substring()s; here the work is done on the key's own char[],
+ * with the silent initial letter (if any) shifted out of the way.
+ */
+public class FastMetaphone extends AbstractCharEncoder {
+  private static final String VOWELS = "AEIOU";
+  private static final String FRONTV = "EIY";
+  private static final String VARSON = "CSPTG";
+
+  private int _maxCodeLength = 4;
+
+
+  public FastMetaphone() {
+  }
+
+  public int getMaxCodeLength() {
+    return _maxCodeLength;
+  }
+
+  public void setMaxCodeLength(int maxCodeLength) {
+    _maxCodeLength = maxCodeLength;
+  }
+
+  /**
+   * A code can briefly run one character past the maximum (X -> KS) before being truncated, and a single
+   * character key is returned upper cased, which can take up to three characters.
+   */
+  @Override
+  public int getMaxEncodedLength() {
+    return Math.max(_maxCodeLength + 1, 3);
+  }
+
+  @Override
+  public int encode(char[] src, int srcLength, char[] dest) {
+    if (srcLength == 0)
+      return 0;
+
+    char[] word = src;
+    int length = srcLength;
+    if (!toUpperCase(src, srcLength)) {
+      word = new String(src, 0, srcLength).toUpperCase(java.util.Locale.ENGLISH).toCharArray();
+      length = word.length;
+    }
+
+    //  A single character is itself...
+    if (srcLength == 1) {
+      System.arraycopy(word, 0, dest, 0, length);
+      return length;
+    }
+
+    //  Handle the initial two character exceptions, dropping the silent first letter from the working word...
+    int start = 0;
+    switch (word[0]) {
+      case 'K':
+      case 'G':
+      case 'P':
+        if (word[1] == 'N')
+          start = 1;
+        break;
+      case 'A':
+        if (word[1] == 'E')
+          start = 1;
+        break;
+      case 'W':
+        if (word[1] == 'R')
+          start = 1;
+        else if (word[1] == 'H') {
+          start = 1;
+          word[1] = 'W';
+        }
+        break;
+      case 'X':
+        word[0] = 'S';
+        break;
+    }
+
+    int wdsz = length - start;
+    if (start > 0)
+      System.arraycopy(word, start, word, 0, wdsz);
+    char[] local = word;
+
+    int maxCodeLength = _maxCodeLength;
+    int code = 0;
+    int n = 0;
+
+    while (code < maxCodeLength && n < wdsz) {
+      char symb = _charAt(local, wdsz, n);
+
+      //  Remove duplicate letters except C...
+      if (symb != 'C' && _isPreviousChar(local, wdsz, n, symb)) {
+        n++;
+        continue;
+      }
+
+      switch (symb) {
+        case 'A':
+        case 'E':
+        case 'I':
+        case 'O':
+        case 'U':
+          //  Only use a vowel if it is the leading character...
+          if (n == 0)
+            dest[code++] = symb;
+          break;
+        case 'B':
+          //  B is silent if the word ends in MB...
+          if (!(_isPreviousChar(local, wdsz, n, 'M') && _isLastChar(wdsz, n)))
+            dest[code++] = symb;
+          break;
+        case 'C':
+          if (_isPreviousChar(local, wdsz, n, 'S') && !_isLastChar(wdsz, n) && FRONTV.indexOf(_charAt(local, wdsz, n + 1)) >= 0)
+            break;
+          if (regionMatches(local, wdsz, n, "CIA")) {
+            dest[code++] = 'X';
+            break;
+          }
+          if (!_isLastChar(wdsz, n) && FRONTV.indexOf(_charAt(local, wdsz, n + 1)) >= 0) {
+            dest[code++] = 'S';
+            break;
+          }
+          if (_isPreviousChar(local, wdsz, n, 'S') && _isNextChar(local, wdsz, n, 'H')) {
+            dest[code++] = 'K';
+            break;
+          }
+          if (_isNextChar(local, wdsz, n, 'H')) {
+            if (n == 0 && wdsz >= 3 && _isVowel(local, wdsz, 2))
+              dest[code++] = 'K';
+            else
+              dest[code++] = 'X';
+          } else
+            dest[code++] = 'K';
+          break;
+        case 'D':
+          if (!_isLastChar(wdsz, n + 1) && _isNextChar(local, wdsz, n, 'G') && FRONTV.indexOf(_charAt(local, wdsz, n + 2)) >= 0) {
+            dest[code++] = 'J';
+            n += 2;
+          } else
+            dest[code++] = 'T';
+          break;
+        case 'G':
+          //  GH is silent at the end or before a consonant, and G is silent in GN and GNED...
+          if (_isLastChar(wdsz, n + 1) && _isNextChar(local, wdsz, n, 'H'))
+            break;
+          if (!_isLastChar(wdsz, n + 1) && _isNextChar(local, wdsz, n, 'H') && !_isVowel(local, wdsz, n + 2))
+            break;
+          if (n > 0 && (regionMatches(local, wdsz, n, "GN") || regionMatches(local, wdsz, n, "GNED")))
+            break;
+
+          boolean hard = _isPreviousChar(local, wdsz, n, 'G');
+          if (!_isLastChar(wdsz, n) && FRONTV.indexOf(_charAt(local, wdsz, n + 1)) >= 0 && !hard)
+            dest[code++] = 'J';
+          else
+            dest[code++] = 'K';
+          break;
+        case 'H':
+          if (_isLastChar(wdsz, n))
+            break;
+          if (n > 0 && VARSON.indexOf(_charAt(local, wdsz, n - 1)) >= 0)
+            break;
+          if (_isVowel(local, wdsz, n + 1))
+            dest[code++] = 'H';
+          break;
+        case 'F':
+        case 'J':
+        case 'L':
+        case 'M':
+        case 'N':
+        case 'R':
+          dest[code++] = symb;
+          break;
+        case 'K':
+          if (n == 0 || !_isPreviousChar(local, wdsz, n, 'C'))
+            dest[code++] = symb;
+          break;
+        case 'P':
+          dest[code++] = _isNextChar(local, wdsz, n, 'H') ? 'F' : symb;
+          break;
+        case 'Q':
+          dest[code++] = 'K';
+          break;
+        case 'S':
+          if (regionMatches(local, wdsz, n, "SH") || regionMatches(local, wdsz, n, "SIO") || regionMatches(local, wdsz, n, "SIA"))
+            dest[code++] = 'X';
+          else
+            dest[code++] = 'S';
+          break;
+        case 'T':
+          if (regionMatches(local, wdsz, n, "TIA") || regionMatches(local, wdsz, n, "TIO")) {
+            dest[code++] = 'X';
+            break;
+          }
+          //  Silent in TCH, and 0 (theta) for TH...
+          if (regionMatches(local, wdsz, n, "TCH"))
+            break;
+          dest[code++] = regionMatches(local, wdsz, n, "TH") ? '0' : 'T';
+          break;
+        case 'V':
+          dest[code++] = 'F';
+          break;
+        case 'W':
+        case 'Y':
+          //  Silent if not followed by a vowel...
+          if (!_isLastChar(wdsz, n) && _isVowel(local, wdsz, n + 1))
+            dest[code++] = symb;
+          break;
+        case 'X':
+          dest[code++] = 'K';
+          dest[code++] = 'S';
+          break;
+        case 'Z':
+          dest[code++] = 'S';
+          break;
+      }
+      n++;
+
+      if (code > maxCodeLength)
+        code = maxCodeLength;
+    }
+
+    return code;
+  }
+
+  private static boolean _isLastChar(int wdsz, int n) {
+    return n + 1 == wdsz;
+  }
+
+  private static char _charAt(char[] word, int wdsz, int index) {
+    if (index < 0 || index >= wdsz)
+      throw new StringIndexOutOfBoundsException(index);
+
+    return word[index];
+  }
+
+  private static boolean _isVowel(char[] word, int wdsz, int index) {
+    return VOWELS.indexOf(_charAt(word, wdsz, index)) >= 0;
+  }
+
+  private static boolean _isPreviousChar(char[] word, int wdsz, int index, char c) {
+    return index > 0 && index < wdsz && word[index - 1] == c;
+  }
+
+  private static boolean _isNextChar(char[] word, int wdsz, int index, char c) {
+    return index >= 0 && index < wdsz - 1 && word[index + 1] == c;
+  }
+}
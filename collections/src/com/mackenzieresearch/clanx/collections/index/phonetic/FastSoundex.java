@@ -0,0 +1,141 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.mackenzieresearch.clanx.collections.index.phonetic;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Soundex, producing the same codes as commons-codec's Soundex (including its H/W rule and the
+ * IllegalArgumentException it raises when it reaches a letter outside of the mapping).
+ */
+public class FastSoundex extends AbstractCharEncoder {
+  public static final String US_ENGLISH_MAPPING = "01230120022455012623010202";
+
+  private static final int CODE_LENGTH = 4;
+
+  private final char[] _mapping;
+
+
+  public FastSoundex() {
+    _mapping = US_ENGLISH_MAPPING.toCharArray();
+  }
+
+  public FastSoundex(String mapping) {
+    checkNotNull(mapping);
+    _mapping = mapping.toCharArray();
+  }
+
+  @Override
+  public int getMaxEncodedLength() {
+    return CODE_LENGTH;
+  }
+
+  @Override
+  public int encode(char[] src, int srcLength, char[] dest) {
+    char[] str = src;
+
+    //  Keep only the letters, upper cased.  Anything outside of ASCII takes the reference String path from there...
+    int n = 0;
+    for (int i = 0; i < srcLength; i++) {
+      char c = src[i];
+      if (c >= 'a' && c <= 'z')
+        str[n++] = (char) (c - ('a' - 'A'));
+      else if (c >= 'A' && c <= 'Z')
+        str[n++] = c;
+      else if (c >= 0x80) {
+        str = _cleanSlowly(src, n, i, srcLength);
+        n = str.length;
+        break;
+      }
+    }
+
+    if (n == 0)
+      return 0;
+
+    dest[0] = str[0];
+    dest[1] = dest[2] = dest[3] = '0';
+
+    int count = 1;
+    char last = _mappingCode(str, 0);
+    for (int in = 1; in < n && count < CODE_LENGTH; in++) {
+      char mapped = _mappingCode(str, in);
+      if (mapped != 0) {
+        if (mapped != '0' && mapped != last)
+          dest[count++] = mapped;
+        last = mapped;
+      }
+    }
+
+    return CODE_LENGTH;
+  }
+
+  /**
+   * Finishes cleaning a key the way SoundexUtils.clean() does, once a non-ASCII character shows up at position
+   * from.  The first cleaned characters of src are already upper case letters.
+   */
+  private static char[] _cleanSlowly(char[] src, int cleaned, int from, int srcLength) {
+    StringBuilder letters = new StringBuilder(srcLength - from);
+    for (int i = from; i < srcLength; i++) {
+      if (Character.isLetter(src[i]))
+        letters.append(src[i]);
+    }
+
+    String tail = letters.toString().toUpperCase(java.util.Locale.ENGLISH);
+    char[] result = new char[cleaned + tail.length()];
+    System.arraycopy(src, 0, result, 0, cleaned);
+    tail.getChars(0, tail.length(), result, cleaned);
+
+    return result;
+  }
+
+  private char _mappingCode(char[] str, int index) {
+    char mapped = _map(str[index]);
+
+    //  H and W are ignored between two letters with the same code...
+    if (index > 1 && mapped != '0') {
+      char hw = str[index - 1];
+      if (hw == 'H' || hw == 'W') {
+        char preHW = str[index - 2];
+        if (_map(preHW) == mapped || preHW == 'H' || preHW == 'W')
+          return 0;
+      }
+    }
+
+    return mapped;
+  }
+
+  private char _map(char c) {
+    int index = c - 'A';
+    if (index < 0 || index >= _mapping.length)
+      throw new IllegalArgumentException("The character is not mapped: " + c);
+
+    return _mapping[index];
+  }
+}
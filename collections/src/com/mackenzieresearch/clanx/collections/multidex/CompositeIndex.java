@@ -0,0 +1,188 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.multidex;
+
+import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.collections.index.AbstractIndex;
+import com.mackenzieresearch.clanx.collections.index.BlockingIndex;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.queryable.NAryQuery;
+import com.mackenzieresearch.clanx.collections.queryable.UnaryQuery;
+import com.mackenzieresearch.clanx.entity.Attribute;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * CompositeIndex files each fact under the combination of its blocking keys in an ordered tuple of dimensions, so
+ * that an exact query over exactly those dimensions is a single lookup rather than a probe of each dimension and a
+ * join of the (often bucket sized) partial results.
+ * <p/>
+ * A fact with several keys in a dimension is filed under every combination.  The blocking keys come from the
+ * multidex's FactKeys, which also holds the keys a fact has been given so far, so keys added later by
+ * addIndexMembersForExistingFact() are combined with them.  Each fact is
+ * returned once, with the score the chain of weightedInsideJoin()s would have given it.
+ * <p/>
+ * An empty block is no answer: when an earlier dimension of the query has no exact match, the join lets the later
+ * dimensions' results through, so getExactMatches() returns null and leaves the query to the join.
+ * <p/>
+ * Composite indexes are declared with SimpleMultidimensionalFuzzydex.addCompositeIndex().
+ *
+ * @param <T>
+ */
+public class CompositeIndex<T> {
+  private static final char SEPARATOR = '\u0000';
+
+  private final String[] _names;
+  private final BlockingIndex<T>[] _dimensions;
+  private final FactKeys _factKeys;
+  private final Map<String, Set<T>> _blocks = new HashMap<String, Set<T>>();
+
+
+  CompositeIndex(String[] names, BlockingIndex<T>[] dimensions, FactKeys factKeys) {
+    _names = names;
+    _dimensions = dimensions;
+    _factKeys = factKeys;
+  }
+
+  public List<String> getDimensions() {
+    return Collections.unmodifiableList(Arrays.asList(_names));
+  }
+
+  public int blockCount() {
+    return _blocks.size();
+  }
+
+  /**
+   * Whether the query is over exactly this index's dimensions, in any order.
+   */
+  boolean covers(NAryQuery query) {
+    boolean[] seen = new boolean[_names.length];
+    int count = 0;
+    for (UnaryQuery subquery : query) {
+      int d = _position(((Match<?>) subquery).name());
+      if (d < 0 || seen[d])
+        return false;
+      seen[d] = true;
+      count++;
+    }
+    return count == _names.length;
+  }
+
+  /**
+   * Files the fact under every combination of its blocking keys, once the multidex has added the attributes' keys
+   * to its FactKeys.
+   */
+  void add(T fact, int factId, Attribute<?>... attributes) {
+    boolean changed = false;
+    for (Attribute<?> attribute : attributes)
+      changed |= _position(attribute.name()) >= 0;
+
+    if (changed) {
+      FactKeys.Column[] columns = new FactKeys.Column[_names.length];
+      for (int d = 0; d < _names.length; d++)
+        columns[d] = _factKeys.column(_names[d]);
+      _file(fact, factId, columns, 0, new StringBuilder());
+    }
+  }
+
+  /**
+   * The facts in the query's block, or null if there are none.
+   */
+  RankedSet<T> getExactMatches(NAryQuery query) {
+    String[] keys = new String[_names.length];
+    float score = 0;
+    float weightOfLastDimension = 1.0f;
+    boolean first = true;
+
+    //  Every fact in the block matched every dimension exactly, so they all get the same score...
+    for (UnaryQuery subquery : query) {
+      Match<?> match = (Match<?>) subquery;
+      int d = _position(match.name());
+      checkNotNull(match.value());
+      keys[d] = _dimensions[d].blockingKey(FactKeys.keyString(match.value()));
+
+      float weight = _dimensions[d].getWeight();
+      score = first ? AbstractIndex.DEFAULT_RANKING
+              : ((score * weightOfLastDimension) + (AbstractIndex.DEFAULT_RANKING * weight)) / 2;
+      weightOfLastDimension = weight;
+      first = false;
+    }
+
+    StringBuilder blockKey = new StringBuilder();
+    for (String key : keys)
+      blockKey.append(key).append(SEPARATOR);
+
+    Set<T> block = _blocks.get(blockKey.toString());
+    if (block == null)
+      return null;
+
+    RankedSet<T> results = new RankedSet<T>();
+    for (T fact : block)
+      results.add(score, fact);
+    return results;
+  }
+
+  private void _file(T fact, int factId, FactKeys.Column[] columns, int d, StringBuilder blockKey) {
+    if (d == _names.length) {
+      String key = blockKey.toString();
+      Set<T> block = _blocks.get(key);
+      if (block == null) {
+        block = new LinkedHashSet<T>();
+        _blocks.put(key, block);
+      }
+      block.add(fact);
+      return;
+    }
+
+    if (columns[d] == null)
+      return;
+
+    int length = blockKey.length();
+    for (int i = 0, count = columns[d].count(factId); i < count; i++) {
+      blockKey.append(columns[d].blockingKey(factId, i)).append(SEPARATOR);
+      _file(fact, factId, columns, d + 1, blockKey);
+      blockKey.setLength(length);
+    }
+  }
+
+  private int _position(String name) {
+    for (int d = 0; d < _names.length; d++)
+      if (_names[d].equals(name))
+        return d;
+    return -1;
+  }
+}
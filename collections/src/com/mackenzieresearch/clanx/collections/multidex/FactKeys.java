@@ -0,0 +1,114 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections.multidex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FactKeys holds the keys each fact has been given in each dimension, by fact id, along with their blocking keys
+ * where the dimension is a BlockingIndex.  The QueryPlanner checks candidates against it and CompositeIndexes file
+ * facts from it, so a multidex keeps one copy of the keys for both, and each blocking key is worked out once, when
+ * its entry is added.
+ */
+final class FactKeys {
+  private final Map<String, Column> _columns = new HashMap<String, Column>();
+
+
+  /**
+   * Returns false if the fact already had the key in the dimension.
+   */
+  boolean add(String dimension, int factId, String key, String blockingKey) {
+    Column column = _columns.get(dimension);
+    if (column == null) {
+      column = new Column();
+      _columns.put(dimension, column);
+    }
+    return column.add(factId, key, blockingKey);
+  }
+
+  /**
+   * The dimension's keys, or null if no fact has been given any.
+   */
+  Column column(String dimension) {
+    return _columns.get(dimension);
+  }
+
+  static String keyString(Object key) {
+    return key instanceof String ? (String) key : key.toString();
+  }
+
+
+  /**
+   * One dimension's keys.  A fact's keys and their blocking keys are interleaved in a single array, so a fact with one
+   * key costs one small array.
+   */
+  static final class Column {
+    private String[][] _keys = new String[16][];
+    private int[] _counts = new int[16];
+
+    private boolean add(int factId, String key, String blockingKey) {
+      if (factId >= _keys.length) {
+        int capacity = Math.max(factId + 1, _keys.length * 2);
+        _keys = Arrays.copyOf(_keys, capacity);
+        _counts = Arrays.copyOf(_counts, capacity);
+      }
+
+      String[] keys = _keys[factId];
+      int count = _counts[factId];
+      for (int i = 0; i < count; i++)
+        if (keys[2 * i].equals(key))
+          return false;
+
+      if (keys == null)
+        keys = _keys[factId] = new String[2];
+      else if (2 * count == keys.length)
+        keys = _keys[factId] = Arrays.copyOf(keys, keys.length * 2);
+      keys[2 * count] = key;
+      keys[2 * count + 1] = blockingKey;
+      _counts[factId]++;
+      return true;
+    }
+
+    /**
+     * The number of keys the fact has, 0 for a fact without an id (-1).
+     */
+    int count(int factId) {
+      return factId >= 0 && factId < _counts.length ? _counts[factId] : 0;
+    }
+
+    String key(int factId, int i) {
+      return _keys[factId][2 * i];
+    }
+
+    String blockingKey(int factId, int i) {
+      return _keys[factId][2 * i + 1];
+    }
+  }
+}
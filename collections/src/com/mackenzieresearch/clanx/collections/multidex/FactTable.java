@@ -0,0 +1,84 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.multidex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * FactTable numbers the facts of a multidex densely from 0 in the order they are first added, so that joins can work
+ * on int ids and look the facts themselves up only for the final results.
+ *
+ * @param <T>
+ */
+final class FactTable<T> {
+  private final Map<T, Integer> _ids = new HashMap<T, Integer>();
+  private Object[] _facts = new Object[16];
+  private int _size = 0;
+
+
+  int size() {
+    return _size;
+  }
+
+  /**
+   * The fact's id, numbering it first if it hasn't got one.
+   */
+  int intern(T fact) {
+    checkNotNull(fact);
+
+    Integer id = _ids.get(fact);
+    if (id != null)
+      return id;
+
+    if (_size == _facts.length)
+      _facts = Arrays.copyOf(_facts, _size * 2);
+    _facts[_size] = fact;
+    _ids.put(fact, _size);
+    return _size++;
+  }
+
+  /**
+   * The fact's id, or -1 if it hasn't got one.
+   */
+  int idOf(Object fact) {
+    Integer id = _ids.get(fact);
+    return id == null ? -1 : id;
+  }
+
+  @SuppressWarnings("unchecked")
+  T get(int id) {
+    checkElementIndex(id, _size);
+    return (T) _facts[id];
+  }
+}
@@ -0,0 +1,390 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.multidex;
+
+import com.google.common.base.Throwables;
+import com.mackenzieresearch.clanx.collections.index.MatchCursor;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A MatchCursor over the chain of left outer joins of several dimensions' ranked matches, read from their cursors best
+ * first and returned as soon as nothing still unread can beat them, the way TopKExecutor stops.
+ * <p/>
+ * A fact is scored once it's been seen, or ruled out, in every dimension: by its cursor, by random access where that's
+ * cheap, or because the cursor has run out without it.  Meanwhile the scores it could still get are bounded by the
+ * cursors' bounds, with a missing score standing in for a dimension it may be missing from; and facts whose bound
+ * already exceeds the threshold are dropped.  Each fact is returned once, with its best score in each dimension, and
+ * ties come in the order the facts were scored in, which is the same every time the query is run.
+ * <p/>
+ * The chain of joins starts over from a later dimension should nothing survive a join, which can't be known until
+ * every fact has been seen.  So no result is returned until some fact has been seen to survive each join, and should
+ * none have by the time the cursors run out, the results come from the fallback instead.
+ *
+ * @param <T>
+ */
+final class LeftOuterJoinCursor<T> implements MatchCursor<T> {
+  private final MatchCursor<T>[] _cursors;
+  private final float[] _weights;
+  private final float _threshold;
+  private final float _missingScore;
+  private final Callable<MatchCursor<T>> _fallback;
+  private TopKExecutor.RandomAccess<T> _randomAccess = null;
+
+  private final boolean[] _cheap;
+  private final boolean[] _exhausted;
+  private final boolean[] _read;
+  private int _exhaustedCount = 0;
+  private int _start = -1;
+  private final boolean[] _survived;
+  private int _survivedCount = 0;
+
+  private final Map<T, Candidate<T>> _partial = new LinkedHashMap<T, Candidate<T>>();
+  private final Set<T> _finished = new HashSet<T>();
+  private final PriorityQueue<Candidate<T>> _ready = new PriorityQueue<Candidate<T>>(16,
+          new Comparator<Candidate<T>>() {
+            @Override
+            public int compare(Candidate<T> a, Candidate<T> b) {
+              int order = Float.compare(a.score, b.score);
+              return order != 0 ? order : (a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1));
+            }
+          });
+  private int _sequence = 0;
+
+  //  No fact still to be scored can score below this...
+  private float _bound = Float.NEGATIVE_INFINITY;
+  private int _round = 0;
+  private int _nextCheck = 1;
+
+  private MatchCursor<T> _joined = null;
+  private T _item = null;
+  private float _score = 0;
+
+
+  @SuppressWarnings("unchecked")
+  LeftOuterJoinCursor(List<MatchCursor<T>> cursors, float[] weights, float threshold, float missingScore,
+                      Callable<MatchCursor<T>> fallback) {
+    checkNotNull(cursors);
+    checkNotNull(weights);
+    checkNotNull(fallback);
+    checkArgument(cursors.size() > 1);
+    checkArgument(cursors.size() == weights.length);
+
+    int n = cursors.size();
+    _cursors = cursors.toArray((MatchCursor<T>[]) new MatchCursor<?>[n]);
+    _weights = weights.clone();
+    _threshold = threshold;
+    _missingScore = missingScore;
+    _fallback = fallback;
+    _cheap = new boolean[n];
+    _exhausted = new boolean[n];
+    _read = new boolean[n];
+    _survived = new boolean[n];
+  }
+
+  void setRandomAccess(TopKExecutor.RandomAccess<T> randomAccess) {
+    _randomAccess = randomAccess;
+    for (int d = 0; d < _cursors.length; d++)
+      _cheap[d] = randomAccess != null && randomAccess.isCheap(d);
+  }
+
+  @Override
+  public boolean next() {
+    if (_joined != null)
+      return _nextJoined();
+
+    while (true) {
+      Candidate<T> head = _ready.peek();
+      boolean survived = _allSurvived();
+      if (head != null && survived && head.score <= _bound) {
+        _ready.poll();
+        _item = head.fact;
+        _score = head.score;
+        return true;
+      }
+
+      if (_exhaustedCount == _cursors.length) {
+        if (survived) {
+          _item = null;
+          return false;
+        }
+
+        //  Some join had no survivors, so the chain would have started over...
+        try {
+          _joined = _fallback.call();
+        } catch (Exception e) {
+          throw Throwables.propagate(e);
+        }
+        return _nextJoined();
+      }
+
+      _readRound();
+      if (_exhaustedCount == _cursors.length)
+        _bound = Float.POSITIVE_INFINITY;
+      else if (!_ready.isEmpty() && _allSurvived() && ++_round >= _nextCheck) {
+        _nextCheck = _round + Math.max(1, _round / 8);
+        _bound = _lowerBound();
+      }
+    }
+  }
+
+  @Override
+  public T item() {
+    return _item;
+  }
+
+  @Override
+  public float score() {
+    return _score;
+  }
+
+  @Override
+  public float bound() {
+    if (_joined != null)
+      return _joined.bound();
+
+    //  Until every join is known to have survivors, the results could still come from the fallback...
+    if (!_allSurvived())
+      return 0;
+    Candidate<T> head = _ready.peek();
+    return Math.max(0, head == null ? _bound : Math.min(head.score, _bound));
+  }
+
+  /**
+   * Whether some fact has been seen to survive each join, so that the chain of joins won't start over.
+   */
+  private boolean _allSurvived() {
+    return _start >= 0 && (_start == _cursors.length || _survivedCount == _cursors.length - 1 - _start);
+  }
+
+  private boolean _nextJoined() {
+    if (!_joined.next()) {
+      _item = null;
+      return false;
+    }
+    _item = _joined.item();
+    _score = _joined.score();
+    return true;
+  }
+
+  /**
+   * Reads one match from each cursor that hasn't run out.
+   */
+  private void _readRound() {
+    int n = _cursors.length;
+    for (int d = 0; d < n; d++) {
+      if (_exhausted[d])
+        continue;
+
+      MatchCursor<T> cursor = _cursors[d];
+      if (!cursor.next()) {
+        _exhausted[d] = true;
+        _exhaustedCount++;
+        if (_start >= 0)
+          _settleAll();
+        continue;
+      }
+      _read[d] = true;
+
+      T fact = cursor.item();
+      if (_finished.contains(fact))
+        continue;
+
+      Candidate<T> candidate = _partial.get(fact);
+      if (candidate == null) {
+        candidate = new Candidate<T>(fact, n);
+        for (int e = 0; e < n; e++) {
+          if (e == d)
+            candidate.scores[e] = cursor.score();
+          else if (_exhausted[e])
+            candidate.scores[e] = -1;
+          else if (_cheap[e])
+            candidate.scores[e] = Math.max(-1, _randomAccess.score(e, fact));
+          else
+            continue;
+          candidate.known++;
+        }
+        _partial.put(fact, candidate);
+      } else if (Float.isNaN(candidate.scores[d])) {
+        //  A fact filed under several keys is scored by the first, and best, of them...
+        candidate.scores[d] = cursor.score();
+        candidate.known++;
+      } else
+        continue;
+
+      if (_start >= 0 && candidate.known == n)
+        _settle(candidate);
+    }
+
+    //  The chain of joins starts from the first dimension with any matches, which the first round tells...
+    if (_start < 0) {
+      _start = 0;
+      while (_start < n && !_read[_start])
+        _start++;
+      _settleAll();
+    }
+  }
+
+  /**
+   * Rules every partly seen fact out of the dimensions whose cursors have run out, and scores those that are then
+   * complete.
+   */
+  private void _settleAll() {
+    for (Iterator<Candidate<T>> candidates = _partial.values().iterator(); candidates.hasNext(); ) {
+      Candidate<T> candidate = candidates.next();
+      for (int d = 0; d < _cursors.length; d++) {
+        if (_exhausted[d] && Float.isNaN(candidate.scores[d])) {
+          candidate.scores[d] = -1;
+          candidate.known++;
+        }
+      }
+
+      if (candidate.known == _cursors.length) {
+        candidates.remove();
+        _finish(candidate);
+      }
+    }
+  }
+
+  private void _settle(Candidate<T> candidate) {
+    _partial.remove(candidate.fact);
+    _finish(candidate);
+  }
+
+  private void _finish(Candidate<T> candidate) {
+    _finished.add(candidate.fact);
+    candidate.score = _joinScore(candidate.scores);
+    if (candidate.score >= 0) {
+      candidate.sequence = _sequence++;
+      _ready.add(candidate);
+    }
+  }
+
+  /**
+   * The least score any fact not yet scored could get.  Partly seen facts that can't come within the threshold are
+   * dropped along the way.
+   */
+  private float _lowerBound() {
+    int n = _cursors.length;
+    float[] bounds = new float[n];
+    boolean anyUnseen = false;
+    for (int d = 0; d < n; d++) {
+      bounds[d] = _cursors[d].bound();
+      if (bounds[d] == Float.POSITIVE_INFINITY)
+        bounds[d] = _missingScore;
+      else
+        anyUnseen = true;
+    }
+
+    float bound = anyUnseen ? _chainBound(bounds, bounds) : Float.POSITIVE_INFINITY;
+    for (Iterator<Candidate<T>> candidates = _partial.values().iterator(); candidates.hasNext(); ) {
+      Candidate<T> candidate = candidates.next();
+      float candidateBound = _chainBound(candidate.scores, bounds);
+      if (_start < n - 1 && candidateBound > _threshold) {
+        candidates.remove();
+        _finished.add(candidate.fact);
+      } else
+        bound = Math.min(bound, candidateBound);
+    }
+    return bound;
+  }
+
+  /**
+   * A lower bound on the score of a fact with these scores, or those bounds where its scores aren't known yet.  A fact
+   * missing from a dimension, or dropped by a join, is taken to have the missing score there, which is no better than
+   * what the chain of joins would give it; and the joins never give a better score for a worse one.
+   */
+  private float _chainBound(float[] scores, float[] bounds) {
+    float score = _boundAt(_start, scores, bounds);
+    for (int d = _start + 1; d < scores.length; d++) {
+      score = ((score * _weights[d - 1]) + (_boundAt(d, scores, bounds) * _weights[d])) / 2;
+      if (d < scores.length - 1 && !(score <= _threshold))
+        score = _missingScore;
+    }
+    return score;
+  }
+
+  private float _boundAt(int d, float[] scores, float[] bounds) {
+    float score = scores[d];
+    if (Float.isNaN(score))
+      return bounds[d];
+    return score < 0 ? _missingScore : score;
+  }
+
+  /**
+   * The score the chain of joins from _start gives a fact with these scores (-1 where it's missing), or -1 if the
+   * chain drops it, noting the joins it survives.  This follows ScoredIdList.leftOuterJoin() step by step, float
+   * arithmetic included.
+   */
+  private float _joinScore(float[] scores) {
+    boolean present = scores[_start] >= 0;
+    float score = present ? scores[_start] : 0;
+    for (int d = _start + 1; d < scores.length; d++) {
+      boolean found = scores[d] >= 0;
+      if (present || found) {
+        float lScore = (present ? score : _missingScore) * _weights[d - 1];
+        float rScore = (found ? scores[d] : _missingScore) * _weights[d];
+        score = (lScore + rScore) / 2;
+        present = score <= _threshold;
+        if (present && !_survived[d]) {
+          _survived[d] = true;
+          _survivedCount++;
+        }
+      }
+    }
+    return present ? score : -1;
+  }
+
+
+  private static final class Candidate<T> {
+    final T fact;
+    final float[] scores;
+    int known = 0;
+    float score;
+    int sequence;
+
+    Candidate(T fact, int dimensions) {
+      this.fact = fact;
+      this.scores = new float[dimensions];
+      Arrays.fill(this.scores, Float.NaN);
+    }
+  }
+}
@@ -30,10 +30,34 @@ package com.mackenzieresearch.clanx.collections.multidex;
 
 import com.mackenzieresearch.clanx.collections.RankedSet;
 import com.mackenzieresearch.clanx.collections.index.Index;
+import com.mackenzieresearch.clanx.collections.queryable.Query;
 import com.mackenzieresearch.clanx.collections.queryable.Queryable;
+import com.mackenzieresearch.clanx.collections.queryable.ScoredSink;
 import com.mackenzieresearch.clanx.entity.Attribute;
 
 public interface Multidex<V> extends Queryable<V>{
 
   Index<V> getIndex(String name);
+
+  /**
+   * The k best facts among those found in the ranked matches of every dimension the query names, with the scores
+   * getRankedMatches() gives them.
+   */
+  RankedSet<V> getTopMatches(int k, Query query);
+
+  /**
+   * The results getExactMatches(query) returns, handed to sink by fact id in no particular order.  Scratch space is
+   * taken from context, which the caller keeps and reuses from one query to the next.
+   */
+  void getExactMatches(Query query, QueryContext context, ScoredSink sink);
+
+  /**
+   * The results getRankedMatches(scoreThreshold, query) returns, handed to sink by fact id in no particular order.
+   */
+  void getRankedMatches(float scoreThreshold, Query query, QueryContext context, ScoredSink sink);
+
+  /**
+   * The fact a ScoredSink was given factId for.
+   */
+  V getFact(int factId);
 }
@@ -28,20 +28,50 @@
 
 package com.mackenzieresearch.clanx.collections.multidex;
 
+import com.mackenzieresearch.clanx.collections.index.Index;
 import com.mackenzieresearch.clanx.collections.index.MutableIndex;
 import com.mackenzieresearch.clanx.entity.Attribute;
 import org.apache.commons.codec.EncoderException;
 
+import java.util.concurrent.ExecutorService;
+
 public interface MutableMultidex<V> extends Multidex<V> {
   void disableMeasureDimensionValidation();
 
-  void addFact(V fact, Attribute<String>... attributes) throws EncoderException;
+  /**
+   * Must be enabled before any facts are added, since the planner keeps every fact's keys.
+   */
+  void enableQueryPlanner();
+
+  /**
+   * Queries over several dimensions probe them concurrently on the executor, or one after another if it's null.
+   */
+  void setExecutor(ExecutorService executor);
 
-  void addIndexMembersForExistingFact(V fact, Attribute<String>... attributes) throws EncoderException;
+  /**
+   * String valued attributes are added to their dimension by key.  Other values, such as numbers, are handed as is
+   * to a dimension that is a TypedKeyIndex, and as their string form to any other.
+   */
+  void addFact(V fact, Attribute<?>... attributes) throws EncoderException;
+
+  void addIndexMembersForExistingFact(V fact, Attribute<?>... attributes) throws EncoderException;
 
   void addIndexDimension(String dimension);
 
   void addIndexDimension(String name, MutableIndex<V> dimension);
 
+  /**
+   * Adds a dimension built elsewhere, such as a PerfectHashIndex, whose values are already the facts.  Facts can't be
+   * given attributes in it, and since the multidex never sees its keys, queries over it aren't answered by the query
+   * planner or by composite indexes.
+   */
+  void addReadOnlyDimension(String name, Index<V> dimension);
+
+  /**
+   * Declares a composite index over existing dimensions, which must all be BlockingIndexes.  Composite indexes must
+   * be declared before any facts are added.
+   */
+  CompositeIndex<V> addCompositeIndex(String... dimensions);
+
 }
 
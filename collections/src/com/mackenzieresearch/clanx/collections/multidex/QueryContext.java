@@ -0,0 +1,113 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.multidex;
+
+import com.mackenzieresearch.clanx.collections.index.MatchSink;
+import com.mackenzieresearch.clanx.collections.index.ProbeContext;
+import com.mackenzieresearch.clanx.collections.queryable.ScoredSink;
+
+import java.util.Arrays;
+
+/**
+ * Scratch space for a multidex's queries into a ScoredSink: a list of fact ids for each dimension's matches, the lists
+ * the joins write into and the ProbeContext for the dimensions themselves.  Everything grows to fit the largest query
+ * it has seen and is then reused, so a context must only be used by one thread at a time.  Reusing one context for
+ * every query a thread makes is what makes those queries allocation-free.
+ */
+public final class QueryContext {
+  final ProbeContext probeContext = new ProbeContext();
+  final ScoredIdList[] joins = {new ScoredIdList(16), new ScoredIdList(16)};
+  final IdCollector collector = new IdCollector();
+  final IdForwarder forwarder = new IdForwarder();
+  private ScoredIdList[][] _lists = new ScoredIdList[4][];
+  private float[][] _weights = new float[4][];
+  int[] positions = new int[4];
+  int[] survivors = new int[4];
+
+
+  public QueryContext() {
+  }
+
+  /**
+   * n empty lists, the same ones every time for the same n.
+   */
+  ScoredIdList[] lists(int n) {
+    if (_lists.length <= n) {
+      _lists = Arrays.copyOf(_lists, n + 1);
+      _weights = Arrays.copyOf(_weights, n + 1);
+      positions = new int[n];
+      survivors = new int[n];
+    }
+    if (_lists[n] == null) {
+      _lists[n] = new ScoredIdList[n];
+      _weights[n] = new float[n];
+      for (int d = 0; d < n; d++)
+        _lists[n][d] = new ScoredIdList(16);
+    }
+
+    for (ScoredIdList list : _lists[n])
+      list.clear();
+    return _lists[n];
+  }
+
+  float[] weights(int n) {
+    return _weights[n];
+  }
+
+
+  /**
+   * Files a dimension's matches in a list by fact id, leaving out any fact the multidex hasn't numbered.
+   */
+  static final class IdCollector implements MatchSink<Object> {
+    FactTable<?> facts = null;
+    ScoredIdList list = null;
+
+    @Override
+    public void accept(float score, Object value) {
+      int id = facts.idOf(value);
+      if (id >= 0)
+        list.add(id, score);
+    }
+  }
+
+  /**
+   * Passes a dimension's matches straight on to the caller's sink by fact id.
+   */
+  static final class IdForwarder implements MatchSink<Object> {
+    FactTable<?> facts = null;
+    ScoredSink sink = null;
+
+    @Override
+    public void accept(float score, Object value) {
+      int id = facts.idOf(value);
+      if (id >= 0)
+        sink.accept(score, id);
+    }
+  }
+}
@@ -0,0 +1,347 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.multidex;
+
+import com.mackenzieresearch.clanx.collections.HyperLogLog;
+import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.collections.ScoredItem;
+import com.mackenzieresearch.clanx.collections.index.AbstractIndex;
+import com.mackenzieresearch.clanx.collections.index.MutableIndex;
+import com.mackenzieresearch.clanx.collections.index.ScoringIndex;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.queryable.NAryQuery;
+import com.mackenzieresearch.clanx.collections.queryable.UnaryQuery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * QueryPlanner answers an NAryQuery by probing only its most selective dimension and checking the candidates found
+ * there against the other dimensions' keys for those facts (a semi-join), rather than probing every dimension in full
+ * and joining the results.
+ * <p/>
+ * Selectivity comes from the dimension's own estimate where it has one (exact counts, bucket sizes, numeric ranges)
+ * and otherwise from statistics kept here: the number of entries in the dimension and a HyperLogLog sketch of its
+ * distinct keys.  Candidates are checked against the keys the multidex keeps for each fact in its FactKeys, exact
+ * subqueries by comparing blocking keys worked out when the entries were added.  A ranked query can only be driven by
+ * a dimension that every result must be found in, which is any dimension whose missing score, weighted, already
+ * exceeds the threshold.
+ * <p/>
+ * Each candidate's score is worked out by replaying the multidex's chain of joins for that fact alone, in the order
+ * the query gives, so the results are those of the unplanned query, except that each fact is returned once, with its
+ * best score in each dimension.  A query the planner finds nothing for is left to the multidex's join, which lets a
+ * later dimension's results through in place of an empty intermediate result.
+ * <p/>
+ * Queries the planner can't take (a single subquery, a dimension that isn't a ScoringIndex, a read-only dimension, a
+ * dimension queried twice) are left to the multidex.
+ *
+ * @param <T>
+ */
+class QueryPlanner<T> {
+  private final Map<String, MutableIndex<T>> _dimensions;
+  private final FactTable<T> _facts;
+  private final FactKeys _factKeys;
+  private final Map<String, DimensionStatistics> _statistics = new HashMap<String, DimensionStatistics>();
+
+
+  QueryPlanner(Map<String, MutableIndex<T>> dimensions, FactTable<T> facts, FactKeys factKeys) {
+    _dimensions = dimensions;
+    _facts = facts;
+    _factKeys = factKeys;
+  }
+
+  void record(String dimension, String key) {
+    DimensionStatistics statistics = _statistics.get(dimension);
+    if (statistics == null) {
+      statistics = new DimensionStatistics();
+      _statistics.put(dimension, statistics);
+    }
+
+    statistics.distinctKeys.offer(key);
+    statistics.entryCount++;
+  }
+
+  /**
+   * Returns null if the planner can't take the query, or finds nothing for it.
+   */
+  RankedSet<T> getExactMatches(NAryQuery query) {
+    return _plannedMatches(query, true, 0);
+  }
+
+  /**
+   * Returns null if the planner can't take the query, or finds nothing for it.
+   */
+  RankedSet<T> getRankedMatches(float scoreThreshold, NAryQuery query) {
+    return _plannedMatches(query, false, scoreThreshold);
+  }
+
+  /**
+   * Random access to each dimension's ranked score for a fact, for a TopKExecutor or a LeftOuterJoinCursor, or null
+   * if the planner can't take the query.  Random access is cheap in the dimensions that rank within a block, since
+   * facts in other blocks are ruled out by comparing the blocking keys recorded with their keys.
+   */
+  TopKExecutor.RandomAccess<T> randomAccess(NAryQuery query) {
+    final Plan<T> plan = _plan(query);
+    if (plan == null)
+      return null;
+
+    final FactKeys.Column[] columns = new FactKeys.Column[plan.keys.length];
+    for (int d = 0; d < columns.length; d++)
+      columns[d] = _factKeys.column(plan.subqueries.get(d).name());
+
+    return new TopKExecutor.RandomAccess<T>() {
+      @Override
+      public float score(int dimension, T fact) {
+        return _bestScore(plan.dimensions[dimension], columns[dimension], _facts.idOf(fact), plan.keys[dimension],
+                plan.blockingKeys[dimension], false);
+      }
+
+      @Override
+      public boolean isCheap(int dimension) {
+        return plan.blockingKeys[dimension] != null;
+      }
+    };
+  }
+
+  private RankedSet<T> _plannedMatches(NAryQuery query, boolean exact, float scoreThreshold) {
+    Plan<T> plan = _plan(query);
+    if (plan == null)
+      return null;
+
+    List<Match<?>> subqueries = plan.subqueries;
+    ScoringIndex<T>[] dimensions = plan.dimensions;
+    String[] keys = plan.keys;
+    float[] weights = plan.weights;
+    int n = subqueries.size();
+
+    RankedSet<T> results = new RankedSet<T>();
+    float missingScore = results.getMaxScore();
+
+    //  Drive the query from the most selective dimension that every result must be found in...
+    int driver = -1;
+    long driverEstimate = Long.MAX_VALUE;
+    for (int d = 0; d < n; d++) {
+      if (!exact && !_isRequired(d, weights, missingScore, scoreThreshold))
+        continue;
+
+      long estimate = _estimate(dimensions[d], subqueries.get(d).name(), keys[d], exact);
+      if (estimate < driverEstimate) {
+        driver = d;
+        driverEstimate = estimate;
+      }
+    }
+    if (driver < 0)
+      return null;
+
+    RankedSet<T> driverResults = exact ? dimensions[driver].getExactMatches(subqueries.get(driver))
+            : dimensions[driver].getRankedMatches(scoreThreshold, subqueries.get(driver));
+    Map<T, Float> candidates = new LinkedHashMap<T, Float>();
+    for (ScoredItem<T> item : driverResults) {
+      Float best = candidates.get(item.getItem());
+      if (best == null || item.getScore() < best)
+        candidates.put(item.getItem(), item.getScore());
+    }
+
+    //  An exact match in the other dimensions is a key in the same block as the query's...
+    String[] blockingKeys = plan.blockingKeys;
+    FactKeys.Column[] columns = new FactKeys.Column[n];
+    for (int d = 0; d < n; d++) {
+      columns[d] = _factKeys.column(subqueries.get(d).name());
+      if (exact && blockingKeys[d] == null)
+        blockingKeys[d] = dimensions[d].blockingKey(keys[d]);
+    }
+
+    float[] scores = new float[n];
+    for (Map.Entry<T, Float> candidate : candidates.entrySet()) {
+      T fact = candidate.getKey();
+      int factId = _facts.idOf(fact);
+      boolean matchesAll = true;
+      for (int d = 0; d < n; d++) {
+        if (d == driver)
+          scores[d] = candidate.getValue();
+        else
+          scores[d] = _bestScore(dimensions[d], columns[d], factId, keys[d], blockingKeys[d], exact);
+        matchesAll &= scores[d] >= 0;
+      }
+
+      if (exact) {
+        if (matchesAll)
+          results.add(_insideJoinScore(scores, weights), fact);
+      } else {
+        float score = _leftOuterJoinScore(scores, weights, missingScore, scoreThreshold);
+        if (score >= 0)
+          results.add(score, fact);
+      }
+    }
+
+    return results.size() > 0 ? results : null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Plan<T> _plan(NAryQuery query) {
+    List<Match<?>> subqueries = new ArrayList<Match<?>>();
+    for (UnaryQuery subquery : query)
+      subqueries.add((Match<?>) subquery);
+
+    int n = subqueries.size();
+    if (n < 2)
+      return null;
+
+    Plan<T> plan = new Plan<T>(subqueries);
+    Set<String> names = new HashSet<String>();
+    for (int d = 0; d < n; d++) {
+      Match<?> subquery = subqueries.get(d);
+      MutableIndex<T> dimension = _dimensions.get(subquery.name());
+      checkNotNull(subquery.value());
+      if (!(dimension instanceof ScoringIndex) || !names.add(subquery.name()))
+        return null;
+
+      plan.dimensions[d] = (ScoringIndex<T>) dimension;
+      plan.keys[d] = FactKeys.keyString(subquery.value());
+      plan.weights[d] = dimension.getWeight();
+      if (plan.dimensions[d].ranksWithinBlock())
+        plan.blockingKeys[d] = plan.dimensions[d].blockingKey(plan.keys[d]);
+    }
+    return plan;
+  }
+
+  /**
+   * Whether a fact missing from dimension d is dropped by the chain of weightedLeftOuterJoin()s: it is dropped at d,
+   * if it got that far, and can't come back as a right hand only tuple in any later dimension.
+   */
+  private static boolean _isRequired(int d, float[] weights, float missingScore, float scoreThreshold) {
+    if (d > 0 && !((missingScore * weights[d]) / 2 > scoreThreshold))
+      return false;
+    for (int j = d; j < weights.length - 1; j++)
+      if (!((missingScore * weights[j]) / 2 > scoreThreshold))
+        return false;
+    return true;
+  }
+
+  private long _estimate(ScoringIndex<T> dimension, String name, String key, boolean exact) {
+    int estimate = exact ? dimension.estimateExactMatches(key) : dimension.estimateRankedMatches(key);
+    if (estimate >= 0)
+      return estimate;
+
+    //  Without an estimate from the index, assume an exact key matches its share of the entries and a ranked probe
+    //  could match them all...
+    DimensionStatistics statistics = _statistics.get(name);
+    if (statistics == null)
+      return 0;
+    if (!exact)
+      return statistics.entryCount;
+    return statistics.entryCount / Math.max(1, statistics.distinctKeys.cardinality());
+  }
+
+  /**
+   * The best score any of the fact's keys gets in the dimension, or -1 if none of them matches.  Given the query key's
+   * blocking key, keys with another blocking key are ruled out by comparing the blocking keys recorded with them, and
+   * an exact match is any key that isn't.  A query key with no blocking key is in no block, so where matches have to
+   * share its block, as exact ones do, nothing matches it.
+   */
+  private static <T> float _bestScore(ScoringIndex<T> dimension, FactKeys.Column factKeys, int factId, String key,
+                                      String blockingKey, boolean exact) {
+    float best = -1;
+    if (factKeys == null || (blockingKey == null && (exact || dimension.ranksWithinBlock())))
+      return best;
+
+    for (int i = 0, count = factKeys.count(factId); i < count; i++) {
+      if (blockingKey != null && !blockingKey.equals(factKeys.blockingKey(factId, i)))
+        continue;
+
+      float score = exact ? AbstractIndex.DEFAULT_RANKING : dimension.rankedScore(key, factKeys.key(factId, i));
+      if (score >= 0 && (best < 0 || score < best))
+        best = score;
+    }
+    return best;
+  }
+
+  /**
+   * The score the chain of weightedInsideJoin()s gives a fact with these scores.
+   */
+  private static float _insideJoinScore(float[] scores, float[] weights) {
+    float score = scores[0];
+    for (int d = 1; d < scores.length; d++)
+      score = (((score * weights[d - 1]) + (scores[d] * weights[d])) / 2);
+    return score;
+  }
+
+  /**
+   * The score the chain of weightedLeftOuterJoin()s gives a fact with these scores (-1 where it's missing), or -1 if
+   * the chain drops it.  This follows RankedSet.weightedLeftOuterJoin() step by step, float arithmetic included.
+   */
+  private static float _leftOuterJoinScore(float[] scores, float[] weights, float missingScore, float threshold) {
+    boolean present = scores[0] >= 0;
+    float score = scores[0];
+    for (int d = 1; d < scores.length; d++) {
+      float lTupleScore;
+      if (present)
+        lTupleScore = score * weights[d - 1];
+      else if (scores[d] >= 0)
+        lTupleScore = missingScore * weights[d - 1];
+      else
+        continue;
+
+      float rTupleScore = scores[d] >= 0 ? (scores[d] * weights[d]) : (missingScore * weights[d]);
+      score = (lTupleScore + rTupleScore) / 2;
+      present = score <= threshold;
+    }
+    return present ? score : -1;
+  }
+
+
+  private static final class Plan<T> {
+    final List<Match<?>> subqueries;
+    final ScoringIndex<T>[] dimensions;
+    final String[] keys;
+    final String[] blockingKeys;
+    final float[] weights;
+
+    @SuppressWarnings("unchecked")
+    Plan(List<Match<?>> subqueries) {
+      this.subqueries = subqueries;
+      this.dimensions = (ScoringIndex<T>[]) new ScoringIndex<?>[subqueries.size()];
+      this.keys = new String[subqueries.size()];
+      this.blockingKeys = new String[subqueries.size()];
+      this.weights = new float[subqueries.size()];
+    }
+  }
+
+  private static final class DimensionStatistics {
+    final HyperLogLog distinctKeys = new HyperLogLog();
+    long entryCount = 0;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.multidex;
+
+import com.mackenzieresearch.clanx.collections.index.MatchCursor;
+
+/**
+ * A MatchCursor over joined results in ascending score order, with ties in order of fact id.  The results are put in
+ * a heap rather than sorted, so reading the first few of a large join costs little more than the join itself.
+ *
+ * @param <T>
+ */
+final class ScoredIdCursor<T> implements MatchCursor<T> {
+  private final ScoredIdList _results;
+  private final FactTable<T> _facts;
+
+  //  Each result's score bits over its position in the list; scores are never negative, so these order like them...
+  private final long[] _heap;
+  private int _heapSize = 0;
+
+  private float _score = 0;
+  private T _item = null;
+
+
+  /**
+   * A cursor over the results scoring at least minScore.
+   */
+  ScoredIdCursor(ScoredIdList results, FactTable<T> facts, float minScore) {
+    _results = results;
+    _facts = facts;
+
+    _heap = new long[results.size];
+    for (int i = 0; i < results.size; i++)
+      if (results.scores[i] >= minScore)
+        _heap[_heapSize++] = ((long) Float.floatToIntBits(results.scores[i]) << 32) | i;
+    for (int i = _heapSize / 2 - 1; i >= 0; i--)
+      _siftDown(i);
+  }
+
+  @Override
+  public boolean next() {
+    if (_heapSize == 0) {
+      _item = null;
+      return false;
+    }
+
+    int position = (int) _heap[0];
+    _heap[0] = _heap[--_heapSize];
+    _siftDown(0);
+
+    _score = _results.scores[position];
+    _item = _facts.get(_results.ids[position]);
+    return true;
+  }
+
+  @Override
+  public T item() {
+    return _item;
+  }
+
+  @Override
+  public float score() {
+    return _score;
+  }
+
+  @Override
+  public float bound() {
+    return _heapSize == 0 ? Float.POSITIVE_INFINITY : Float.intBitsToFloat((int) (_heap[0] >>> 32));
+  }
+
+  private void _siftDown(int i) {
+    long value = _heap[i];
+    for (int child = 2 * i + 1; child < _heapSize; child = 2 * i + 1) {
+      if (child + 1 < _heapSize && _heap[child + 1] < _heap[child])
+        child++;
+      if (_heap[child] >= value)
+        break;
+      _heap[i] = _heap[child];
+      i = child;
+    }
+    _heap[i] = value;
+  }
+}
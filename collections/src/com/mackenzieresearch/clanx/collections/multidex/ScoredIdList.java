@@ -0,0 +1,406 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.multidex;
+
+import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.collections.ScoredItem;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ScoredIdList is a column of fact ids in ascending order with a column of their scores alongside.  A multidex joins
+ * these instead of RankedSets: a join of any number of them is a single merge of their id columns, with no hashing of
+ * facts and nothing built for intermediate results, and gives exactly the scores a chain of RankedSet's joins would.
+ * <p/>
+ * Each fact appears once; one filed under several keys of a dimension keeps its best score.
+ * <p/>
+ * The joins can also write into lists a QueryContext keeps for reuse, which grow to fit and are then overwritten by
+ * each query, so that a steady stream of queries doesn't allocate any.
+ */
+final class ScoredIdList {
+  static final ScoredIdList EMPTY = new ScoredIdList(new int[0], new float[0], 0);
+
+  //  Beyond this ratio of sizes an inside join searches the larger list for the smaller's ids instead of merging...
+  private static final int GALLOP_RATIO = 16;
+
+  int[] ids;
+  float[] scores;
+  int size;
+  private long[] _packed = null;
+
+
+  /**
+   * An empty list to be filled by add() or a join.
+   */
+  ScoredIdList(int capacity) {
+    this(new int[capacity], new float[capacity], 0);
+  }
+
+  private ScoredIdList(int[] ids, float[] scores, int size) {
+    this.ids = ids;
+    this.scores = scores;
+    this.size = size;
+  }
+
+  /**
+   * The results by fact id, or null if any of them isn't in the fact table.
+   */
+  static <T> ScoredIdList of(RankedSet<T> results, FactTable<T> facts) {
+    return of(results, facts, null);
+  }
+
+  /**
+   * The results by fact id, keeping only the ids that are also in filter if it isn't null.  Filtering looks each
+   * result up in filter, or in a map of filter's facts if it's the smaller, but spares sorting the ones it drops.
+   * Without a filter, returns null if any of the results isn't in the fact table.
+   */
+  static <T> ScoredIdList of(RankedSet<T> results, FactTable<T> facts, ScoredIdList filter) {
+    Map<T, Integer> filterIds = null;
+    if (filter != null && filter.size * 2 <= results.size()) {
+      filterIds = new HashMap<T, Integer>(filter.size * 2);
+      for (int i = 0; i < filter.size; i++)
+        filterIds.put(facts.get(filter.ids[i]), filter.ids[i]);
+    }
+
+    //  Scores are never negative, so their bits sort like they do and each fact's best score comes first...
+    long[] packed = new long[filter == null ? results.size() : Math.min(results.size(), 16)];
+    int n = 0;
+    for (ScoredItem<T> item : results) {
+      int id;
+      if (filterIds != null) {
+        Integer filterId = filterIds.get(item.getItem());
+        if (filterId == null)
+          continue;
+        id = filterId;
+      } else {
+        id = facts.idOf(item.getItem());
+        if (id < 0 && filter == null)
+          return null;
+        if (filter != null && (id < 0 || Arrays.binarySearch(filter.ids, 0, filter.size, id) < 0))
+          continue;
+      }
+
+      if (n == packed.length)
+        packed = Arrays.copyOf(packed, Math.min(results.size(), n * 2));
+      packed[n++] = ((long) id << 32) | (Float.floatToIntBits(item.getScore()) & 0xffffffffL);
+    }
+    Arrays.sort(packed, 0, n);
+
+    int[] ids = new int[n];
+    float[] scores = new float[n];
+    int size = 0;
+    for (int i = 0; i < n; i++) {
+      int id = (int) (packed[i] >>> 32);
+      if (size > 0 && ids[size - 1] == id)
+        continue;
+      ids[size] = id;
+      scores[size++] = Float.intBitsToFloat((int) packed[i]);
+    }
+    return new ScoredIdList(ids, scores, size);
+  }
+
+  /**
+   * Appends an id in any order; sortById() then puts the list in order.
+   */
+  void add(int id, float score) {
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, Math.max(16, size * 2));
+      scores = Arrays.copyOf(scores, ids.length);
+    }
+    ids[size] = id;
+    scores[size++] = score;
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  /**
+   * Puts the ids added in order, keeping each one's best score, without allocating once the list has grown to fit.
+   */
+  void sortById() {
+    if (_packed == null || _packed.length < size)
+      _packed = new long[Math.max(16, ids.length)];
+    for (int i = 0; i < size; i++)
+      _packed[i] = ((long) ids[i] << 32) | (Float.floatToIntBits(scores[i]) & 0xffffffffL);
+
+    //  Arrays.sort() can allocate a buffer to merge runs, which ids from a bucket tend to come in...
+    _heapSort(_packed, size);
+
+    int n = size;
+    size = 0;
+    for (int i = 0; i < n; i++) {
+      int id = (int) (_packed[i] >>> 32);
+      if (size > 0 && ids[size - 1] == id)
+        continue;
+      ids[size] = id;
+      scores[size++] = Float.intBitsToFloat((int) _packed[i]);
+    }
+  }
+
+  /**
+   * The ids in both lists, scored like RankedSet.weightedInsideJoin().
+   */
+  ScoredIdList insideJoin(ScoredIdList rList, float lWeight, float rWeight) {
+    return insideJoin(rList, lWeight, rWeight, new ScoredIdList(0));
+  }
+
+  /**
+   * insideJoin() into the list given, which mustn't be either of the lists joined.
+   */
+  ScoredIdList insideJoin(ScoredIdList rList, float lWeight, float rWeight, ScoredIdList into) {
+    into._reset(Math.min(size, rList.size));
+    int[] joinedIds = into.ids;
+    float[] joinedScores = into.scores;
+    int n = 0;
+
+    if (size > rList.size * GALLOP_RATIO || rList.size > size * GALLOP_RATIO) {
+      boolean searchLeft = size > rList.size;
+      ScoredIdList small = searchLeft ? rList : this;
+      ScoredIdList large = searchLeft ? this : rList;
+      int from = 0;
+      for (int i = 0; i < small.size && from < large.size; i++) {
+        int j = Arrays.binarySearch(large.ids, from, large.size, small.ids[i]);
+        if (j < 0) {
+          from = -j - 1;
+          continue;
+        }
+        float lScore = searchLeft ? large.scores[j] : small.scores[i];
+        float rScore = searchLeft ? small.scores[i] : large.scores[j];
+        joinedIds[n] = small.ids[i];
+        joinedScores[n++] = (((lScore * lWeight) + (rScore * rWeight)) / 2);
+        from = j + 1;
+      }
+      into.size = n;
+      return into;
+    }
+
+    for (int i = 0, j = 0; i < size && j < rList.size; ) {
+      if (ids[i] < rList.ids[j])
+        i++;
+      else if (ids[i] > rList.ids[j])
+        j++;
+      else {
+        joinedIds[n] = ids[i];
+        joinedScores[n++] = (((scores[i] * lWeight) + (rList.scores[j] * rWeight)) / 2);
+        i++;
+        j++;
+      }
+    }
+    into.size = n;
+    return into;
+  }
+
+  /**
+   * The ids in every list, scored like a chain of RankedSet.weightedInsideJoin()s of the lists in order, in a single
+   * pass over them all.  The lists must not be empty.
+   */
+  static ScoredIdList insideJoin(ScoredIdList[] lists, float[] weights) {
+    return insideJoin(lists, weights, new int[lists.length], new ScoredIdList(0));
+  }
+
+  /**
+   * insideJoin() into the list given, with positions as scratch space at least as long as lists.
+   */
+  static ScoredIdList insideJoin(ScoredIdList[] lists, float[] weights, int[] positions, ScoredIdList into) {
+    int n = lists.length;
+    Arrays.fill(positions, 0, n, 0);
+    int smallest = Integer.MAX_VALUE;
+    for (ScoredIdList list : lists)
+      smallest = Math.min(smallest, list.size);
+    into._reset(smallest);
+    int[] joinedIds = into.ids;
+    float[] joinedScores = into.scores;
+    int size = 0;
+
+    //  Leapfrog: move every list up to the largest id at their heads until they all agree on one...
+    int target = lists[0].ids[0];
+    while (true) {
+      boolean agreed = true;
+      for (int d = 0; d < n; d++) {
+        ScoredIdList list = lists[d];
+        int position = positions[d];
+        if (list.ids[position] < target) {
+          position = Arrays.binarySearch(list.ids, position, list.size, target);
+          if (position < 0)
+            position = -position - 1;
+          if (position == list.size) {
+            into.size = size;
+            return into;
+          }
+          positions[d] = position;
+        }
+        if (list.ids[position] > target) {
+          target = list.ids[position];
+          agreed = false;
+        }
+      }
+      if (!agreed)
+        continue;
+
+      float score = lists[0].scores[positions[0]];
+      for (int d = 1; d < n; d++)
+        score = (((score * weights[d - 1]) + (lists[d].scores[positions[d]] * weights[d])) / 2);
+      joinedIds[size] = target;
+      joinedScores[size++] = score;
+
+      for (int d = 0; d < n; d++)
+        if (++positions[d] == lists[d].size) {
+          into.size = size;
+          return into;
+        }
+      target = lists[0].ids[positions[0]];
+    }
+  }
+
+  /**
+   * The ids scored like a chain of RankedSet.weightedLeftOuterJoin()s of the lists in order, with missingScore
+   * standing in for a list that lacks an id, in a single pass over them all.  As in the chain the threshold applies at
+   * every join, and if none of the ids survive one the chain starts again from the next list that isn't empty, which
+   * takes another pass over the lists from there on.
+   */
+  static ScoredIdList leftOuterJoin(ScoredIdList[] lists, float[] weights, float threshold, float missingScore) {
+    return leftOuterJoin(lists, weights, threshold, missingScore, new int[lists.length], new int[lists.length],
+            new ScoredIdList(0));
+  }
+
+  /**
+   * leftOuterJoin() into the list given, with positions and survivors as scratch space at least as long as lists.
+   */
+  static ScoredIdList leftOuterJoin(ScoredIdList[] lists, float[] weights, float threshold, float missingScore,
+                                    int[] positions, int[] survivors, ScoredIdList into) {
+    int n = lists.length;
+    int start = _nextNonEmpty(lists, 0);
+    while (start < n) {
+      int total = 0;
+      for (int d = start; d < n; d++)
+        total += lists[d].size;
+      into._reset(total);
+      int[] joinedIds = into.ids;
+      float[] joinedScores = into.scores;
+      int size = 0;
+
+      Arrays.fill(positions, 0, n, 0);
+      Arrays.fill(survivors, 0, n, 0);
+      while (true) {
+        //  The smallest id at the heads of the lists...
+        int id = Integer.MAX_VALUE;
+        for (int d = start; d < n; d++)
+          if (positions[d] < lists[d].size)
+            id = Math.min(id, lists[d].ids[positions[d]]);
+        if (id == Integer.MAX_VALUE)
+          break;
+
+        ScoredIdList first = lists[start];
+        boolean present = positions[start] < first.size && first.ids[positions[start]] == id;
+        float score = present ? first.scores[positions[start]++] : 0;
+
+        for (int d = start + 1; d < n; d++) {
+          ScoredIdList list = lists[d];
+          boolean found = positions[d] < list.size && list.ids[positions[d]] == id;
+          if (present || found) {
+            float lScore = (present ? score : missingScore) * weights[d - 1];
+            float rScore = (found ? list.scores[positions[d]] : missingScore) * weights[d];
+            score = (lScore + rScore) / 2;
+            present = score <= threshold;
+            if (present)
+              survivors[d]++;
+          }
+          if (found)
+            positions[d]++;
+        }
+
+        if (present) {
+          joinedIds[size] = id;
+          joinedScores[size++] = score;
+        }
+      }
+
+      int emptied = start + 1;
+      while (emptied < n && survivors[emptied] > 0)
+        emptied++;
+      if (emptied == n) {
+        into.size = size;
+        return into;
+      }
+      start = _nextNonEmpty(lists, emptied + 1);
+    }
+    return EMPTY;
+  }
+
+  private static int _nextNonEmpty(ScoredIdList[] lists, int from) {
+    while (from < lists.length && lists[from].size == 0)
+      from++;
+    return from;
+  }
+
+  /**
+   * Empties the list, making room for at least capacity ids.
+   */
+  private void _reset(int capacity) {
+    if (ids.length < capacity) {
+      ids = new int[Math.max(capacity, ids.length * 2)];
+      scores = new float[ids.length];
+    }
+    size = 0;
+  }
+
+  private static void _heapSort(long[] a, int n) {
+    for (int i = n / 2 - 1; i >= 0; i--)
+      _siftDown(a, i, n);
+    for (int end = n - 1; end > 0; end--) {
+      long largest = a[0];
+      a[0] = a[end];
+      a[end] = largest;
+      _siftDown(a, 0, end);
+    }
+  }
+
+  private static void _siftDown(long[] a, int i, int n) {
+    long value = a[i];
+    for (int child = 2 * i + 1; child < n; child = 2 * i + 1) {
+      if (child + 1 < n && a[child + 1] > a[child])
+        child++;
+      if (a[child] <= value)
+        break;
+      a[i] = a[child];
+      i = child;
+    }
+    a[i] = value;
+  }
+
+  <T> RankedSet<T> toRankedSet(FactTable<T> facts) {
+    RankedSet<T> results = new RankedSet<T>();
+    for (int i = 0; i < size; i++)
+      results.add(scores[i], facts.get(ids[i]));
+    return results;
+  }
+}
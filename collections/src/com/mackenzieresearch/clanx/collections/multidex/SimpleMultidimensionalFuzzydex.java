@@ -28,27 +28,58 @@
 
 package com.mackenzieresearch.clanx.collections.multidex;
 
+import com.google.common.base.Throwables;
 import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.collections.ScoredItem;
+import com.mackenzieresearch.clanx.collections.index.BlockingIndex;
 import com.mackenzieresearch.clanx.collections.index.Index;
 import com.mackenzieresearch.clanx.collections.index.LevenshsteinFuzzydex;
+import com.mackenzieresearch.clanx.collections.index.MatchCursor;
+import com.mackenzieresearch.clanx.collections.index.MatchResultCursor;
 import com.mackenzieresearch.clanx.collections.index.MutableIndex;
+import com.mackenzieresearch.clanx.collections.index.MatchSink;
+import com.mackenzieresearch.clanx.collections.index.RankedSetCursor;
+import com.mackenzieresearch.clanx.collections.index.SinkIndex;
+import com.mackenzieresearch.clanx.collections.index.SortedAccessIndex;
+import com.mackenzieresearch.clanx.collections.index.TypedKeyIndex;
 import com.mackenzieresearch.clanx.collections.queryable.Match;
 import com.mackenzieresearch.clanx.collections.queryable.NAryQuery;
 import com.mackenzieresearch.clanx.collections.queryable.Query;
+import com.mackenzieresearch.clanx.collections.queryable.ResultCursor;
+import com.mackenzieresearch.clanx.collections.queryable.ResumeToken;
+import com.mackenzieresearch.clanx.collections.queryable.ScoredSink;
 import com.mackenzieresearch.clanx.collections.queryable.UnaryQuery;
 import com.mackenzieresearch.clanx.entity.Attribute;
 import org.apache.commons.codec.EncoderException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 public class SimpleMultidimensionalFuzzydex<T extends Comparable> implements MutableMultidex<T> {
   private TreeSet<T> _measureDimension = new TreeSet<T>();
   private Map<String, MutableIndex<T>> _dimensions = new HashMap<String, MutableIndex<T>>();
+  private Map<String, Index<T>> _readOnlyDimensions = new HashMap<String, Index<T>>();
+  private List<CompositeIndex<T>> _compositeIndexes = new ArrayList<CompositeIndex<T>>();
+  private QueryPlanner<T> _planner = null;
+  private ExecutorService _executor = null;
+  private final FactTable<T> _facts = new FactTable<T>();
+  private final FactKeys _factKeys = new FactKeys();
+  private final float _maxScore = new RankedSet<T>().getMaxScore();
+  private boolean _hasFacts = false;
+
+  private enum Probe {EXACT, NEAREST, RANKED}
 
   /**
    * Invoke this to save memory and speed up performance by discarding the measure dimension.
@@ -60,10 +91,32 @@ public class SimpleMultidimensionalFuzzydex<T extends Comparable> implements Mut
     _measureDimension = null;
   }
 
+  /**
+   * Exact and ranked queries over several dimensions are then planned: only the most selective dimension is probed,
+   * and the facts it finds are checked against the others by their keys.  See QueryPlanner.
+   */
+  @Override
+  public void enableQueryPlanner() {
+    checkState(!_hasFacts, "The query planner must be enabled before any facts are added.");
+    _planner = new QueryPlanner<T>(_dimensions, _facts, _factKeys);
+  }
+
+  /**
+   * The dimensions of a query are then probed concurrently, and their results joined in query order once they are all
+   * in, so a query over many dimensions takes about as long as its slowest probe rather than all of them together.
+   * The executor is shared, not owned: the multidex never shuts it down, and a query runs any probe the executor
+   * hasn't started yet itself, so queries can safely be run on the executor too.
+   */
+  @Override
+  public void setExecutor(ExecutorService executor) {
+    _executor = executor;
+  }
+
   @Override
   public void addIndexDimension(String dimension) {
     checkNotNull(dimension);
 
+    _readOnlyDimensions.remove(dimension);
     _dimensions.put(dimension, new LevenshsteinFuzzydex<T>());
   }
 
@@ -71,17 +124,54 @@ public class SimpleMultidimensionalFuzzydex<T extends Comparable> implements Mut
   public void addIndexDimension(String name, MutableIndex<T> dimension) {
     checkNotNull(name);
     checkNotNull(dimension);
+    _readOnlyDimensions.remove(name);
     _dimensions.put(name, dimension);
   }
 
+  @Override
+  public void addReadOnlyDimension(String name, Index<T> dimension) {
+    checkNotNull(name);
+    checkNotNull(dimension);
+    _dimensions.remove(name);
+    _readOnlyDimensions.put(name, dimension);
+  }
+
+  /**
+   * Exact queries over exactly the composite's dimensions are answered by the composite instead of by joining the
+   * dimensions' results, with the same results.  Queries whose block is empty still go to the join, which lets the
+   * later dimensions' results through when an earlier one has no exact match.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public CompositeIndex<T> addCompositeIndex(String... dimensions) {
+    checkNotNull(dimensions);
+    checkArgument(dimensions.length >= 2, "A composite index needs at least two dimensions.");
+    checkState(!_hasFacts, "Composite indexes must be declared before any facts are added.");
+
+    BlockingIndex<T>[] blockingDimensions = (BlockingIndex<T>[]) new BlockingIndex<?>[dimensions.length];
+    for (int d = 0; d < dimensions.length; d++) {
+      checkArgument(!_readOnlyDimensions.containsKey(dimensions[d]), "Dimension " + dimensions[d] + " is read-only.");
+      MutableIndex<T> dimension = _dimensions.get(dimensions[d]);
+      checkNotNull(dimension, "Dimension " + dimensions[d] + " doesn't exist.");
+      checkArgument(dimension instanceof BlockingIndex, "Dimension " + dimensions[d] + " isn't a BlockingIndex.");
+      checkArgument(!Arrays.asList(dimensions).subList(0, d).contains(dimensions[d]), "Dimension " + dimensions[d] + " is repeated.");
+      blockingDimensions[d] = (BlockingIndex<T>) dimension;
+    }
+
+    CompositeIndex<T> compositeIndex = new CompositeIndex<T>(dimensions.clone(), blockingDimensions, _factKeys);
+    _compositeIndexes.add(compositeIndex);
+    return compositeIndex;
+  }
+
   @Override
   public Index<T> getIndex(String name) {
     checkNotNull(name);
-    return _dimensions.get(name);
+    Index<T> dimension = _dimensions.get(name);
+    return dimension != null ? dimension : _readOnlyDimensions.get(name);
   }
 
   @Override
-  public void addFact(T fact, Attribute<String>... attributes) throws EncoderException {
+  public void addFact(T fact, Attribute<?>... attributes) throws EncoderException {
     checkNotNull(fact);
     checkNotNull(attributes);
 
@@ -91,17 +181,25 @@ public class SimpleMultidimensionalFuzzydex<T extends Comparable> implements Mut
       _measureDimension.add(fact);
     }
 
+    int factId = _facts.intern(fact);
+
     //  Add index members referring to this fact (aliases) to the appropriate index dimensions...
-    for (Attribute<String> attribute : attributes) {
+    for (Attribute<?> attribute : attributes) {
       checkNotNull(attribute);
+      checkArgument(!_readOnlyDimensions.containsKey(attribute.name()), "Dimension " + attribute.name() + " is read-only.");
       MutableIndex<T> dimension = _dimensions.get(attribute.name());
       checkNotNull(dimension, "Attribute " + attribute.name() + " refers to a dimension that doesn't exist.");
-      dimension.addEntry(attribute.value(), fact);
+      _addEntry(dimension, attribute.value(), fact);
+      _recordKey(attribute.name(), dimension, attribute.value(), factId);
     }
+
+    _hasFacts = true;
+    for (CompositeIndex<T> compositeIndex : _compositeIndexes)
+      compositeIndex.add(fact, factId, attributes);
   }
 
   @Override
-  public void addIndexMembersForExistingFact(T fact, Attribute<String>... attributes) throws EncoderException {
+  public void addIndexMembersForExistingFact(T fact, Attribute<?>... attributes) throws EncoderException {
     checkNotNull(fact);
     checkNotNull(attributes);
 
@@ -109,23 +207,27 @@ public class SimpleMultidimensionalFuzzydex<T extends Comparable> implements Mut
     if (_measureDimension != null)
       checkState(_measureDimension.contains(fact));
 
+    int factId = _facts.intern(fact);
+
     //  Add index members referring to this fact (aliases) to the appropriate index dimensions...
-    for (Attribute<String> attribute : attributes) {
+    for (Attribute<?> attribute : attributes) {
       checkNotNull(attribute);
+      checkArgument(!_readOnlyDimensions.containsKey(attribute.name()), "Dimension " + attribute.name() + " is read-only.");
       MutableIndex<T> dimension = _dimensions.get(attribute.name());
       checkNotNull(dimension, "Attribute " + attribute.name() + " refers to a dimension that doesn't exist.");
-      dimension.addEntry(attribute.value(), fact);
+      _addEntry(dimension, attribute.value(), fact);
+      _recordKey(attribute.name(), dimension, attribute.value(), factId);
     }
+
+    _hasFacts = true;
+    for (CompositeIndex<T> compositeIndex : _compositeIndexes)
+      compositeIndex.add(fact, factId, attributes);
   }
 
   @Override
   public RankedSet<T> getExactMatches(Query query) {
     checkNotNull(query);
 
-    RankedSet<T> results = new RankedSet<T>();
-    float weightOfLastDimension = 1.0f;
-
-
     NAryQuery cquery = null;
     if (query instanceof NAryQuery)
       cquery = (NAryQuery) query;
@@ -134,20 +236,23 @@ public class SimpleMultidimensionalFuzzydex<T extends Comparable> implements Mut
     else
       throw new IllegalArgumentException("Expected a Match or Compound query.  Actually got: " + query.getClass().getSimpleName());
 
-    for (UnaryQuery subquery : cquery) {
-      Index<T> dimension = _dimensions.get(((Match) subquery).name());
-      checkNotNull(dimension);
-      RankedSet<T> partialResults = dimension.getExactMatches(subquery);
-      if (results.size() == 0) {
-        results = partialResults;
-        weightOfLastDimension = dimension.getWeight();
-      } else {
-        results = results.weightedInsideJoin(partialResults, weightOfLastDimension, dimension.getWeight());
-        weightOfLastDimension = dimension.getWeight();
+    for (CompositeIndex<T> compositeIndex : _compositeIndexes) {
+      if (compositeIndex.covers(cquery)) {
+        RankedSet<T> compositeResults = compositeIndex.getExactMatches(cquery);
+        if (compositeResults != null)
+          return compositeResults;
+        break;
       }
     }
 
-    return results;
+    if (_planner != null) {
+      RankedSet<T> plannedResults = _planner.getExactMatches(cquery);
+      if (plannedResults != null)
+        return plannedResults;
+    }
+
+    List<Index<T>> dimensions = _getDimensions(cquery);
+    return _join(dimensions, _probe(dimensions, cquery, Probe.EXACT, 0), false, 0);
   }
 
   /**
@@ -163,10 +268,6 @@ public class SimpleMultidimensionalFuzzydex<T extends Comparable> implements Mut
   public RankedSet<T> getNearestMatches(Query query) {
     checkNotNull(query);
 
-    RankedSet<T> results = new RankedSet<T>();
-    float weightOfLastDimension = 1.0f;
-
-
     NAryQuery cquery = null;
     if (query instanceof NAryQuery)
       cquery = (NAryQuery) query;
@@ -175,20 +276,8 @@ public class SimpleMultidimensionalFuzzydex<T extends Comparable> implements Mut
     else
       throw new IllegalArgumentException("Expected a Match or Compound query.  Actually got: " + query.getClass().getSimpleName());
 
-    for (UnaryQuery subquery : cquery) {
-      Index<T> dimension = _dimensions.get(((Match) subquery).name());
-      checkNotNull(dimension);
-      RankedSet<T> partialResults = dimension.getNearestMatches(subquery);
-      if (results.size() == 0) {
-        results = partialResults;
-        weightOfLastDimension = dimension.getWeight();
-      } else {
-        results = results.weightedInsideJoin(partialResults, weightOfLastDimension, dimension.getWeight());
-        weightOfLastDimension = dimension.getWeight();
-      }
-    }
-
-    return results;
+    List<Index<T>> dimensions = _getDimensions(cquery);
+    return _join(dimensions, _probe(dimensions, cquery, Probe.NEAREST, 0), false, 0);
   }
 
   /**
@@ -209,8 +298,76 @@ public class SimpleMultidimensionalFuzzydex<T extends Comparable> implements Mut
   public RankedSet<T> getRankedMatches(float scoreThreshold, Query query) {
     checkNotNull(query);
 
-    RankedSet<T> results = new RankedSet<T>();
-    float weightOfLastDimension = 1.0f;
+    NAryQuery cquery = null;
+    if (query instanceof NAryQuery)
+      cquery = (NAryQuery) query;
+    else if (query instanceof Match)
+      cquery = new NAryQuery((UnaryQuery) query);
+    else
+      throw new IllegalArgumentException("Expected a Match or Compound query.  Actually got: " + query.getClass().getSimpleName());
+
+    if (_planner != null) {
+      RankedSet<T> plannedResults = _planner.getRankedMatches(scoreThreshold, cquery);
+      if (plannedResults != null)
+        return plannedResults;
+    }
+
+    List<Index<T>> dimensions = _getDimensions(cquery);
+    return _join(dimensions, _probe(dimensions, cquery, Probe.RANKED, scoreThreshold), true, scoreThreshold);
+  }
+
+  /**
+   * Reads each dimension's ranked matches best first, from the index itself if it's a SortedAccessIndex, and stops as
+   * soon as the top k are settled; see TopKExecutor.  With the query planner enabled, facts are scored in the other
+   * dimensions by their keys as soon as they are seen.
+   */
+  @Override
+  public RankedSet<T> getTopMatches(int k, Query query) {
+    checkArgument(k >= 0);
+    checkNotNull(query);
+
+    NAryQuery cquery = null;
+    if (query instanceof NAryQuery)
+      cquery = (NAryQuery) query;
+    else if (query instanceof Match)
+      cquery = new NAryQuery((UnaryQuery) query);
+    else
+      throw new IllegalArgumentException("Expected a Match or Compound query.  Actually got: " + query.getClass().getSimpleName());
+
+    List<MatchCursor<T>> cursors = new ArrayList<MatchCursor<T>>();
+    List<Float> weights = new ArrayList<Float>();
+    for (UnaryQuery subquery : cquery) {
+      Index<T> dimension = _getDimension(subquery);
+      cursors.add(_rankedCursor(dimension, subquery, Float.MAX_VALUE));
+      weights.add(dimension.getWeight());
+    }
+
+    float[] dimensionWeights = new float[weights.size()];
+    for (int d = 0; d < dimensionWeights.length; d++)
+      dimensionWeights[d] = weights.get(d);
+
+    TopKExecutor<T> executor = new TopKExecutor<T>(cursors, dimensionWeights);
+    if (_planner != null)
+      executor.setRandomAccess(_planner.randomAccess(cquery));
+    return executor.execute(k);
+  }
+
+  @Override
+  public ResultCursor<T> getRankedCursor(float scoreThreshold, Query query) {
+    return getRankedCursor(scoreThreshold, query, ResumeToken.START);
+  }
+
+  /**
+   * A query of a single dimension streams straight from the dimension's rankedCursor() if it's a SortedAccessIndex, so
+   * reading the first page of results costs little more than finding them.  A query over several dimensions streams
+   * their cursors through a LeftOuterJoinCursor, which returns each fact as soon as no fact still unread can beat it,
+   * scoring facts by their keys in the other dimensions as soon as they are seen where the query planner can.  Each
+   * fact is returned once, with its best score in each dimension, as the planner would return it.
+   */
+  @Override
+  public ResultCursor<T> getRankedCursor(final float scoreThreshold, Query query, final ResumeToken resumeFrom) {
+    checkNotNull(query);
+    checkNotNull(resumeFrom);
 
     NAryQuery cquery = null;
     if (query instanceof NAryQuery)
@@ -220,25 +377,381 @@ public class SimpleMultidimensionalFuzzydex<T extends Comparable> implements Mut
     else
       throw new IllegalArgumentException("Expected a Match or Compound query.  Actually got: " + query.getClass().getSimpleName());
 
+    final List<Index<T>> dimensions = _getDimensions(cquery);
+    if (dimensions.size() == 1)
+      return new MatchResultCursor<T>(_rankedCursor(dimensions.get(0), cquery.get(0), scoreThreshold), resumeFrom);
+
+    List<MatchCursor<T>> cursors = new ArrayList<MatchCursor<T>>();
+    float[] weights = new float[dimensions.size()];
+    int d = 0;
     for (UnaryQuery subquery : cquery) {
-      Index<T> dimension = _dimensions.get(((Match) subquery).name());
-      checkNotNull(dimension);
-      RankedSet<T> partialResults = dimension.getRankedMatches(scoreThreshold, subquery);
+      weights[d] = dimensions.get(d).getWeight();
+      cursors.add(_rankedCursor(dimensions.get(d++), subquery, scoreThreshold));
+    }
+
+    final NAryQuery joinedQuery = cquery;
+    LeftOuterJoinCursor<T> cursor = new LeftOuterJoinCursor<T>(cursors, weights, scoreThreshold, _maxScore,
+            new Callable<MatchCursor<T>>() {
+              @Override
+              public MatchCursor<T> call() {
+                return _joinedCursor(dimensions, joinedQuery, scoreThreshold, resumeFrom);
+              }
+            });
+    if (_planner != null)
+      cursor.setRandomAccess(_planner.randomAccess(cquery));
+    return new MatchResultCursor<T>(cursor, resumeFrom);
+  }
+
+  @Override
+  public void getExactMatches(Query query, QueryContext context, ScoredSink sink) {
+    _query(query, context, sink, false, 0);
+  }
+
+  @Override
+  public void getRankedMatches(float scoreThreshold, Query query, QueryContext context, ScoredSink sink) {
+    _query(query, context, sink, true, scoreThreshold);
+  }
+
+  @Override
+  public T getFact(int factId) {
+    return _facts.get(factId);
+  }
+
+  public void dumpFacts() {
+    for (T fact : _measureDimension) {
+      System.out.println(fact.toString());
+    }
+  }
+
+  /**
+   * Joins the subqueries' results with inside joins, or with left outer joins within scoreThreshold if outer, by fact
+   * id in a single pass over them all.  The scores are those of a chain of RankedSet joins in query order.  Should a
+   * dimension have been given facts behind the multidex's back, which therefore have no id, the results are joined as
+   * RankedSets instead.
+   */
+  private RankedSet<T> _join(List<Index<T>> dimensions, List<RankedSet<T>> probeResults, boolean outer, float scoreThreshold) {
+    int n = probeResults.size();
+    if (n == 1)
+      return probeResults.get(0);
+
+    if (outer) {
+      ScoredIdList results = _leftOuterJoin(dimensions, probeResults, scoreThreshold);
+      return results != null ? results.toRankedSet(_facts) : _joinRankedSets(dimensions, probeResults, outer, scoreThreshold);
+    }
+
+    float[] weights = new float[n];
+    for (int d = 0; d < n; d++)
+      weights[d] = dimensions.get(d).getWeight();
+
+    //  Only facts found in the smallest results can come out of an inside join, so the others need only be looked at
+    //  for those...
+    int smallest = 0;
+    for (int d = 1; d < n; d++)
+      if (probeResults.get(d).size() < probeResults.get(smallest).size())
+        smallest = d;
+
+    if (probeResults.get(smallest).size() > 0) {
+      ScoredIdList[] partialResults = new ScoredIdList[n];
+      partialResults[smallest] = ScoredIdList.of(probeResults.get(smallest), _facts);
+      if (partialResults[smallest] == null)
+        return _joinRankedSets(dimensions, probeResults, outer, scoreThreshold);
+
+      boolean empty = false;
+      for (int d = 0; d < n && !empty; d++) {
+        if (d != smallest)
+          partialResults[d] = ScoredIdList.of(probeResults.get(d), _facts, partialResults[smallest]);
+        empty = partialResults[d].size == 0;
+      }
+
+      ScoredIdList results = empty ? ScoredIdList.EMPTY : ScoredIdList.insideJoin(partialResults, weights);
+      if (results.size > 0)
+        return results.toRankedSet(_facts);
+    }
+
+    //  Nothing is in every dimension's results.  The chain of joins would then have let a later dimension's results
+    //  through in place of an empty join, so follow it step by step...
+    RankedSet<T> results = _chainInsideJoins(weights, probeResults);
+    return results != null ? results : _joinRankedSets(dimensions, probeResults, outer, scoreThreshold);
+  }
+
+  /**
+   * Left outer joins by fact id, or null if a fact has no id.
+   */
+  private ScoredIdList _leftOuterJoin(List<Index<T>> dimensions, List<RankedSet<T>> probeResults, float scoreThreshold) {
+    int n = probeResults.size();
+    float[] weights = new float[n];
+    ScoredIdList[] partialResults = new ScoredIdList[n];
+    for (int d = 0; d < n; d++) {
+      weights[d] = dimensions.get(d).getWeight();
+      partialResults[d] = ScoredIdList.of(probeResults.get(d), _facts);
+      if (partialResults[d] == null)
+        return null;
+    }
+    return ScoredIdList.leftOuterJoin(partialResults, weights, scoreThreshold, _maxScore);
+  }
+
+  /**
+   * Inside joins by fact id one dimension at a time, or null if a fact has no id.
+   */
+  private RankedSet<T> _chainInsideJoins(float[] weights, List<RankedSet<T>> probeResults) {
+    ScoredIdList results = ScoredIdList.EMPTY;
+    float weightOfLastDimension = 1.0f;
+    for (int d = 0; d < weights.length; d++) {
+      ScoredIdList partialResults = ScoredIdList.of(probeResults.get(d), _facts, results.size == 0 ? null : results);
+      if (partialResults == null)
+        return null;
+
+      if (results.size == 0)
+        results = partialResults;
+      else
+        results = results.insideJoin(partialResults, weightOfLastDimension, weights[d]);
+      weightOfLastDimension = weights[d];
+    }
+
+    return results.toRankedSet(_facts);
+  }
+
+  private RankedSet<T> _joinRankedSets(List<Index<T>> dimensions, List<RankedSet<T>> probeResults, boolean outer, float scoreThreshold) {
+    RankedSet<T> results = new RankedSet<T>();
+    float weightOfLastDimension = 1.0f;
+
+    for (int d = 0; d < dimensions.size(); d++) {
+      Index<T> dimension = dimensions.get(d);
+      RankedSet<T> partialResults = probeResults.get(d);
       if (results.size() == 0) {
         results = partialResults;
         weightOfLastDimension = dimension.getWeight();
-      } else {
+      } else if (outer) {
         results = results.weightedLeftOuterJoin(partialResults, weightOfLastDimension, dimension.getWeight(), scoreThreshold);
         weightOfLastDimension = dimension.getWeight();
+      } else {
+        results = results.weightedInsideJoin(partialResults, weightOfLastDimension, dimension.getWeight());
+        weightOfLastDimension = dimension.getWeight();
       }
     }
 
     return results;
   }
 
-  public void dumpFacts() {
-    for (T fact : _measureDimension) {
-      System.out.println(fact.toString());
+  /**
+   * Answers a query into a sink the way getExactMatches() or getRankedMatches() would, without allocating when every
+   * dimension is a SinkIndex that can probe without allocating.  Dimensions are probed one after another, with or
+   * without an executor, and the planner and composite indexes answer queries as RankedSets as they always do.  Facts
+   * that were given to a dimension behind the multidex's back have no id, so they are left out.
+   */
+  private void _query(Query query, QueryContext context, ScoredSink sink, boolean ranked, float scoreThreshold) {
+    checkNotNull(query);
+    checkNotNull(context);
+    checkNotNull(sink);
+
+    if (!(query instanceof NAryQuery) && !(query instanceof Match))
+      throw new IllegalArgumentException("Expected a Match or Compound query.  Actually got: " + query.getClass().getSimpleName());
+
+    if (_planner != null || (!ranked && !_compositeIndexes.isEmpty())) {
+      RankedSet<T> results = ranked ? getRankedMatches(scoreThreshold, query) : getExactMatches(query);
+      for (ScoredItem<T> result : results) {
+        int id = _facts.idOf(result.getItem());
+        if (id >= 0)
+          sink.accept(result.getScore(), id);
+      }
+      return;
+    }
+
+    NAryQuery cquery = query instanceof NAryQuery ? (NAryQuery) query : null;
+    int n = cquery != null ? cquery.size() : 1;
+    if (n == 1) {
+      context.forwarder.facts = _facts;
+      context.forwarder.sink = sink;
+      UnaryQuery subquery = cquery != null ? cquery.get(0) : (UnaryQuery) query;
+      _probe(_getDimension(subquery), subquery, ranked, scoreThreshold, context, context.forwarder);
+      return;
     }
+
+    ScoredIdList[] lists = context.lists(n);
+    float[] weights = context.weights(n);
+    context.collector.facts = _facts;
+    for (int d = 0; d < n; d++) {
+      Index<T> dimension = _getDimension(cquery.get(d));
+      weights[d] = dimension.getWeight();
+      context.collector.list = lists[d];
+      _probe(dimension, cquery.get(d), ranked, scoreThreshold, context, context.collector);
+      lists[d].sortById();
+    }
+
+    ScoredIdList results = ranked ? _outerJoin(lists, weights, scoreThreshold, context) : _insideJoin(lists, weights, context);
+    for (int i = 0; i < results.size; i++)
+      sink.accept(results.scores[i], results.ids[i]);
+  }
+
+  /**
+   * _join()'s left outer joins, into the context's lists.
+   */
+  private ScoredIdList _outerJoin(ScoredIdList[] lists, float[] weights, float scoreThreshold, QueryContext context) {
+    return ScoredIdList.leftOuterJoin(lists, weights, scoreThreshold, _maxScore, context.positions, context.survivors,
+            context.joins[0]);
+  }
+
+  /**
+   * _join()'s inside joins, into the context's lists: all of the lists at once, and if nothing is in all of them the
+   * chain of joins one list at a time.
+   */
+  private ScoredIdList _insideJoin(ScoredIdList[] lists, float[] weights, QueryContext context) {
+    boolean empty = false;
+    for (ScoredIdList list : lists)
+      empty |= list.size == 0;
+
+    if (!empty) {
+      ScoredIdList results = ScoredIdList.insideJoin(lists, weights, context.positions, context.joins[0]);
+      if (results.size > 0)
+        return results;
+    }
+
+    ScoredIdList results = ScoredIdList.EMPTY;
+    for (int d = 0; d < lists.length; d++) {
+      if (results.size == 0)
+        results = lists[d];
+      else {
+        ScoredIdList into = results == context.joins[0] ? context.joins[1] : context.joins[0];
+        results = results.insideJoin(lists[d], weights[d - 1], weights[d], into);
+      }
+    }
+    return results;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void _probe(Index<T> dimension, UnaryQuery subquery, boolean ranked, float scoreThreshold, QueryContext context,
+                      MatchSink<Object> sink) {
+    if (dimension instanceof SinkIndex) {
+      SinkIndex<T> sinkIndex = (SinkIndex<T>) dimension;
+      if (ranked)
+        sinkIndex.getRankedMatches(scoreThreshold, subquery, context.probeContext, sink);
+      else
+        sinkIndex.getExactMatches(subquery, context.probeContext, sink);
+      return;
+    }
+
+    RankedSet<T> results = ranked ? dimension.getRankedMatches(scoreThreshold, subquery) : dimension.getExactMatches(subquery);
+    for (ScoredItem<T> result : results)
+      sink.accept(result.getScore(), result.getItem());
+  }
+
+  /**
+   * The query's results found and joined by fact id up front, as getRankedMatches() would join them, for a
+   * LeftOuterJoinCursor that finds the chain of joins starting over.  They are only put in order as they are read.
+   */
+  private MatchCursor<T> _joinedCursor(List<Index<T>> dimensions, NAryQuery query, float scoreThreshold,
+                                       ResumeToken resumeFrom) {
+    List<RankedSet<T>> probeResults = _probe(dimensions, query, Probe.RANKED, scoreThreshold);
+    ScoredIdList results = _leftOuterJoin(dimensions, probeResults, scoreThreshold);
+    if (results == null)
+      return new RankedSetCursor<T>(_joinRankedSets(dimensions, probeResults, true, scoreThreshold));
+
+    //  Nothing below the token's score can be wanted, so it needn't go into the heap...
+    return new ScoredIdCursor<T>(results, _facts, resumeFrom.getScore());
+  }
+
+  /**
+   * The dimension's ranked matches as a cursor, streamed if it's a SortedAccessIndex.
+   */
+  @SuppressWarnings("unchecked")
+  private MatchCursor<T> _rankedCursor(Index<T> dimension, UnaryQuery subquery, float scoreThreshold) {
+    if (dimension instanceof SortedAccessIndex)
+      return ((SortedAccessIndex<T>) dimension).rankedCursor(subquery);
+    else
+      return new RankedSetCursor<T>(dimension.getRankedMatches(scoreThreshold, subquery));
+  }
+
+  private Index<T> _getDimension(UnaryQuery subquery) {
+    Index<T> dimension = getIndex(((Match) subquery).name());
+    checkNotNull(dimension);
+    return dimension;
+  }
+
+  private List<Index<T>> _getDimensions(NAryQuery query) {
+    List<Index<T>> dimensions = new ArrayList<Index<T>>();
+    for (UnaryQuery subquery : query)
+      dimensions.add(_getDimension(subquery));
+    return dimensions;
+  }
+
+  /**
+   * Each subquery's results from its dimension, in query order.  With an executor, every probe but the first is handed
+   * to it, and this thread then runs the first and any the executor hasn't got round to.
+   */
+  private List<RankedSet<T>> _probe(List<Index<T>> dimensions, NAryQuery query, final Probe probe, final float scoreThreshold) {
+    List<RankedSet<T>> results = new ArrayList<RankedSet<T>>();
+    if (_executor == null || dimensions.size() < 2) {
+      int d = 0;
+      for (UnaryQuery subquery : query)
+        results.add(_probe(dimensions.get(d++), subquery, probe, scoreThreshold));
+      return results;
+    }
+
+    List<FutureTask<RankedSet<T>>> tasks = new ArrayList<FutureTask<RankedSet<T>>>();
+    for (UnaryQuery subquery : query) {
+      final Index<T> dimension = dimensions.get(tasks.size());
+      final UnaryQuery dimensionQuery = subquery;
+      FutureTask<RankedSet<T>> task = new FutureTask<RankedSet<T>>(new Callable<RankedSet<T>>() {
+        @Override
+        public RankedSet<T> call() {
+          return _probe(dimension, dimensionQuery, probe, scoreThreshold);
+        }
+      });
+      if (!tasks.isEmpty())
+        _executor.execute(task);
+      tasks.add(task);
+    }
+
+    try {
+      for (FutureTask<RankedSet<T>> task : tasks) {
+        //  Does nothing if the executor has already started it...
+        task.run();
+        results.add(task.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+    return results;
+  }
+
+  private RankedSet<T> _probe(Index<T> dimension, UnaryQuery subquery, Probe probe, float scoreThreshold) {
+    switch (probe) {
+      case EXACT:
+        return dimension.getExactMatches(subquery);
+      case NEAREST:
+        return dimension.getNearestMatches(subquery);
+      default:
+        return dimension.getRankedMatches(scoreThreshold, subquery);
+    }
+  }
+
+  /**
+   * Keeps the key, and its blocking key, for the planner and the composite indexes, if there are any.
+   */
+  @SuppressWarnings("unchecked")
+  private void _recordKey(String name, MutableIndex<T> dimension, Object key, int factId) {
+    if (_planner == null && _compositeIndexes.isEmpty())
+      return;
+
+    String keyString = FactKeys.keyString(key);
+    String blockingKey = dimension instanceof BlockingIndex ? ((BlockingIndex<T>) dimension).blockingKey(keyString)
+            : null;
+    _factKeys.add(name, factId, keyString, blockingKey);
+    if (_planner != null)
+      _planner.record(name, keyString);
+  }
+
+  private void _addEntry(MutableIndex<T> dimension, Object key, T fact) {
+    checkNotNull(key);
+
+    if (key instanceof String)
+      dimension.addEntry((String) key, fact);
+    else if (dimension instanceof TypedKeyIndex)
+      ((TypedKeyIndex<T>) dimension).addTypedEntry(key, fact);
+    else
+      dimension.addEntry(key.toString(), fact);
   }
 }
@@ -0,0 +1,271 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.multidex;
+
+import com.mackenzieresearch.clanx.collections.RankedSet;
+import com.mackenzieresearch.clanx.collections.index.MatchCursor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * TopKExecutor finds the k best facts across several dimensions from their ranked matches, read best first, stopping
+ * as soon as the facts it has can't be beaten (Fagin's threshold algorithms).
+ * <p/>
+ * A fact's score is the one the multidex's chain of weightedInsideJoin()s gives it, and only facts found in every
+ * dimension qualify.  The cursors are read round robin.  A newly seen fact is scored by random access in the
+ * dimensions where that's cheap (TA), and in the rest as it turns up in their cursors, bounded by the cursors' bounds
+ * meanwhile (NRA); with no random access at all it's plain NRA.  Once a cursor runs out no unseen fact can qualify,
+ * so the partly seen ones are finished off by random access where there is any.  Either way the executor stops when
+ * the kth best score is no worse than the best any unseen or partly seen fact could still get, so the work done
+ * depends on k and on how quickly the dimensions agree rather than on how many candidates they have.
+ *
+ * @param <T>
+ */
+public class TopKExecutor<T> {
+  /**
+   * Random access to a fact's score in one of the dimensions.
+   */
+  public interface RandomAccess<T> {
+    /**
+     * The score the dimension's cursor gives the fact, or -1 if the cursor doesn't return it.
+     */
+    float score(int dimension, T fact);
+
+    /**
+     * Whether a score in the dimension costs less than reading on through its cursor, so that it's worth asking for
+     * every newly seen fact.
+     */
+    boolean isCheap(int dimension);
+  }
+
+  private final MatchCursor<T>[] _cursors;
+  private final float[] _weights;
+  private RandomAccess<T> _randomAccess = null;
+  private int _sortedAccessCount = 0;
+
+
+  @SuppressWarnings("unchecked")
+  public TopKExecutor(List<MatchCursor<T>> cursors, float[] weights) {
+    checkNotNull(cursors);
+    checkNotNull(weights);
+    checkArgument(!cursors.isEmpty());
+    checkArgument(cursors.size() == weights.length);
+
+    _cursors = cursors.toArray((MatchCursor<T>[]) new MatchCursor<?>[cursors.size()]);
+    _weights = weights.clone();
+  }
+
+  public void setRandomAccess(RandomAccess<T> randomAccess) {
+    _randomAccess = randomAccess;
+  }
+
+  /**
+   * The number of matches read from the cursors so far.
+   */
+  public int getSortedAccessCount() {
+    return _sortedAccessCount;
+  }
+
+  public RankedSet<T> execute(int k) {
+    checkArgument(k >= 0);
+
+    if (k == 0)
+      return new RankedSet<T>();
+
+    int n = _cursors.length;
+    boolean[] cheap = new boolean[n];
+    for (int d = 0; d < n; d++)
+      cheap[d] = _randomAccess != null && _randomAccess.isCheap(d);
+
+    RankedSet<T> top = new RankedSet<T>(RankedSet.Order.ASCENDING, k);
+    Map<T, Candidate<T>> partial = new HashMap<T, Candidate<T>>();
+    Set<T> finished = new HashSet<T>();
+    float[] bounds = new float[n];
+
+    int round = 0;
+    int nextCheck = 1;
+    boolean reading = true;
+    boolean anyExhausted = false;
+    while (reading) {
+      reading = false;
+      for (int d = 0; d < n; d++) {
+        MatchCursor<T> cursor = _cursors[d];
+        if (!cursor.next()) {
+          anyExhausted = true;
+          continue;
+        }
+        reading = true;
+        _sortedAccessCount++;
+
+        T fact = cursor.item();
+        if (finished.contains(fact))
+          continue;
+
+        Candidate<T> candidate = partial.get(fact);
+        if (candidate == null) {
+          //  A fact a finished cursor never returned can't qualify...
+          if (anyExhausted)
+            continue;
+
+          candidate = new Candidate<T>(fact, n);
+          candidate.scores[d] = cursor.score();
+          candidate.known = 1;
+          if (!_resolve(candidate, cheap)) {
+            finished.add(fact);
+            continue;
+          }
+          _settle(candidate, partial, finished, top);
+          continue;
+        }
+
+        //  A fact filed under several keys is scored by the first, and best, of them...
+        if (Float.isNaN(candidate.scores[d])) {
+          candidate.scores[d] = cursor.score();
+          candidate.known++;
+          _settle(candidate, partial, finished, top);
+        }
+      }
+
+      //  With nothing new to come, what's partly seen can be finished off by random access...
+      if (anyExhausted && _randomAccess != null) {
+        Arrays.fill(cheap, true);
+        for (Candidate<T> candidate : partial.values())
+          if (_resolve(candidate, cheap))
+            top.add(_joinScore(candidate.scores), candidate.fact);
+        partial.clear();
+        break;
+      }
+
+      if (reading && (top.size() == k || anyExhausted) && ++round >= nextCheck) {
+        nextCheck = round + Math.max(1, round / 8);
+        float kthScore = top.size() == k ? top.getWorstScore() : Float.POSITIVE_INFINITY;
+        if (_isFinal(kthScore, partial, bounds))
+          break;
+      }
+    }
+
+    return top;
+  }
+
+  /**
+   * Scores the candidate by random access in the given dimensions where it isn't scored yet, returning false if it's
+   * missing from one.
+   */
+  private boolean _resolve(Candidate<T> candidate, boolean[] dimensions) {
+    for (int d = 0; d < _cursors.length; d++) {
+      if (!dimensions[d] || !Float.isNaN(candidate.scores[d]))
+        continue;
+
+      candidate.scores[d] = _randomAccess.score(d, candidate.fact);
+      if (candidate.scores[d] < 0)
+        return false;
+      candidate.known++;
+    }
+    return true;
+  }
+
+  /**
+   * Moves the candidate into the results once it's scored in every dimension, and keeps it with the partly seen
+   * facts until then.
+   */
+  private void _settle(Candidate<T> candidate, Map<T, Candidate<T>> partial, Set<T> finished, RankedSet<T> top) {
+    if (candidate.known < _cursors.length) {
+      partial.put(candidate.fact, candidate);
+      return;
+    }
+    partial.remove(candidate.fact);
+    finished.add(candidate.fact);
+    top.add(_joinScore(candidate.scores), candidate.fact);
+  }
+
+  /**
+   * Whether no fact still unseen or partly seen can score better than kthScore.  Partly seen facts that a finished
+   * cursor never returned can't qualify, and are dropped along the way.
+   */
+  private boolean _isFinal(float kthScore, Map<T, Candidate<T>> partial, float[] bounds) {
+    boolean anyFinished = false;
+    for (int d = 0; d < _cursors.length; d++) {
+      bounds[d] = _cursors[d].bound();
+      anyFinished |= bounds[d] == Float.POSITIVE_INFINITY;
+    }
+
+    //  An unseen fact would have to turn up in every cursor, so once one is finished there are none...
+    if (!anyFinished && _joinScore(bounds) < kthScore)
+      return false;
+
+    float[] scores = new float[_cursors.length];
+    for (Iterator<Candidate<T>> candidates = partial.values().iterator(); candidates.hasNext(); ) {
+      Candidate<T> candidate = candidates.next();
+      boolean missing = false;
+      for (int d = 0; d < scores.length; d++) {
+        scores[d] = Float.isNaN(candidate.scores[d]) ? bounds[d] : candidate.scores[d];
+        missing |= scores[d] == Float.POSITIVE_INFINITY;
+      }
+
+      if (missing)
+        candidates.remove();
+      else if (_joinScore(scores) < kthScore)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * The score the chain of weightedInsideJoin()s gives a fact with these scores, which never improves when any one of
+   * them gets worse.
+   */
+  private float _joinScore(float[] scores) {
+    float score = scores[0];
+    for (int d = 1; d < scores.length; d++)
+      score = (((score * _weights[d - 1]) + (scores[d] * _weights[d])) / 2);
+    return score;
+  }
+
+
+  private static final class Candidate<T> {
+    final T fact;
+    final float[] scores;
+    int known = 0;
+
+    Candidate(T fact, int dimensions) {
+      this.fact = fact;
+      this.scores = new float[dimensions];
+      Arrays.fill(this.scores, Float.NaN);
+    }
+  }
+}
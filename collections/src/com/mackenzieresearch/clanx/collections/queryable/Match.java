@@ -28,11 +28,15 @@
 
 package com.mackenzieresearch.clanx.collections.queryable;
 
+import com.mackenzieresearch.clanx.collections.index.normalize.KeyNormalizer;
 import com.mackenzieresearch.clanx.entity.Attribute;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 public class Match<T> implements UnaryQuery, Attribute<T> {
   protected String _name = null;
   protected T _value = null;
+  private volatile NormalizedValue _normalizedValue = null;
 
   public Match(String name, T value) {
     _name = name;
@@ -54,4 +58,31 @@ public class Match<T> implements UnaryQuery, Attribute<T> {
   public T value() {
     return _value;
   }
+
+  /**
+   * The (String) value as rewritten by this normalizer.  The last result is remembered, so a Match that is reused
+   * across queries against the same index is only normalized once.
+   */
+  public String normalizedValue(KeyNormalizer normalizer) {
+    checkNotNull(normalizer);
+
+    NormalizedValue normalizedValue = _normalizedValue;
+    if (normalizedValue == null || normalizedValue.normalizer != normalizer) {
+      normalizedValue = new NormalizedValue(normalizer, normalizer.normalize((String) _value));
+      _normalizedValue = normalizedValue;
+    }
+
+    return normalizedValue.value;
+  }
+
+
+  private static final class NormalizedValue {
+    final KeyNormalizer normalizer;
+    final String value;
+
+    NormalizedValue(KeyNormalizer normalizer, String value) {
+      this.normalizer = normalizer;
+      this.value = value;
+    }
+  }
 }
@@ -51,6 +51,14 @@ public class NAryQuery implements Query, Iterable<UnaryQuery> {
     _subqueries = subqueries;
   }
 
+  public int size() {
+    return _subqueries.size();
+  }
+
+  public UnaryQuery get(int index) {
+    return _subqueries.get(index);
+  }
+
   @Override
   public Iterator<UnaryQuery> iterator() {
     return _subqueries.iterator();
@@ -36,4 +36,14 @@ public interface Queryable<V> {
   RankedSet<V> getNearestMatches(Query query);
 
   RankedSet<V> getRankedMatches(float scoreThreshold, Query query);
+
+  /**
+   * The results getRankedMatches(scoreThreshold, query) returns, in ascending score order, found as they are read.
+   */
+  ResultCursor<V> getRankedCursor(float scoreThreshold, Query query);
+
+  /**
+   * getRankedCursor(scoreThreshold, query), starting after the results returned by the cursor resumeFrom came from.
+   */
+  ResultCursor<V> getRankedCursor(float scoreThreshold, Query query, ResumeToken resumeFrom);
 }
@@ -0,0 +1,108 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections.queryable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Where a ResultCursor left off: the score of the last result it returned, how many results with exactly that score it
+ * returned, and how many results it returned in all.  A cursor resumed from a token skips every result below its score
+ * and that many at it.  Results with the same score come in the same order every time the same query is run against
+ * the same data, so resuming is exact as long as the data hasn't changed in between.
+ * <p/>
+ * toString() and parse() turn a token into a String and back, for handing it to a client with a page of results.
+ */
+public final class ResumeToken {
+  public static final ResumeToken START = new ResumeToken(Float.NEGATIVE_INFINITY, 0, 0);
+
+  private final float _score;
+  private final int _ties;
+  private final int _position;
+
+
+  public ResumeToken(float score, int ties, int position) {
+    checkArgument(ties >= 0);
+    checkArgument(position >= ties);
+    _score = score;
+    _ties = ties;
+    _position = position;
+  }
+
+  public static ResumeToken parse(String token) {
+    checkNotNull(token);
+
+    String[] fields = token.split(":");
+    checkArgument(fields.length == 3, "Malformed resume token: " + token);
+    try {
+      return new ResumeToken(Float.intBitsToFloat((int) Long.parseLong(fields[0], 16)), Integer.parseInt(fields[1]),
+              Integer.parseInt(fields[2]));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Malformed resume token: " + token, e);
+    }
+  }
+
+  public float getScore() {
+    return _score;
+  }
+
+  /**
+   * The number of results with exactly getScore() that have been returned.
+   */
+  public int getTies() {
+    return _ties;
+  }
+
+  /**
+   * The number of results that have been returned.
+   */
+  public int getPosition() {
+    return _position;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof ResumeToken))
+      return false;
+
+    ResumeToken token = (ResumeToken) o;
+    return Float.floatToIntBits(_score) == Float.floatToIntBits(token._score) && _ties == token._ties
+            && _position == token._position;
+  }
+
+  @Override
+  public int hashCode() {
+    return (Float.floatToIntBits(_score) * 31 + _ties) * 31 + _position;
+  }
+
+  @Override
+  public String toString() {
+    return Integer.toHexString(Float.floatToIntBits(_score)) + ":" + _ties + ":" + _position;
+  }
+}
@@ -0,0 +1,222 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class AccumulationSetTest {
+  private static final int CANDIDATE_COUNT = 200000;
+  private static final int VOTE_COUNT = 2000000;
+
+  private Random random = new Random(1024);
+
+  @Test
+  public void totalsMatchHashMap() throws Exception {
+    int[] votes = _makeVotes();
+
+    String[] candidates = new String[CANDIDATE_COUNT];
+    for (int i = 0; i < candidates.length; i++)
+      candidates[i] = "C" + i;
+
+    //  Whole votes add up exactly in any order, so the merged totals must match to the bit...
+    long start = System.nanoTime();
+    Map<String, Float> expected = new HashMap<String, Float>();
+    for (int vote : votes) {
+      Float score = expected.get(candidates[vote]);
+      expected.put(candidates[vote], (score == null ? 0F : score) + 2.0F * (vote % 3));
+    }
+    long mapNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    AccumulationSet<String> accumulation = new AccumulationSet<String>(2.0F);
+    for (int vote : votes)
+      accumulation.add(candidates[vote], vote % 3);
+    long accumulationNanos = System.nanoTime() - start;
+
+    System.out.println("Nanos to total " + votes.length + " votes in a HashMap: " + mapNanos + ", in an AccumulationSet: "
+            + accumulationNanos);
+
+    assert (accumulation.size() == expected.size());
+    for (Map.Entry<String, Float> entry : expected.entrySet())
+      assert (accumulation.getScore(entry.getKey()) == entry.getValue());
+    assert (accumulation.getScore("nobody") == 0F);
+    assert (_scores(accumulation.getRankings()).equals(_sortedValues(expected)));
+
+    List<AccumulationSet<String>> parts = new ArrayList<AccumulationSet<String>>();
+    for (int p = 0; p < 4; p++)
+      parts.add(new AccumulationSet<String>(2.0F));
+    for (int i = 0; i < votes.length; i++)
+      parts.get(i % 4).add(candidates[votes[i]], votes[i] % 3);
+    AccumulationSet<String> merged = new AccumulationSet<String>();
+    for (AccumulationSet<String> part : parts)
+      merged.merge(part);
+
+    assert (merged.size() == expected.size());
+    for (Map.Entry<String, Float> entry : expected.entrySet())
+      assert (merged.getScore(entry.getKey()) == entry.getValue());
+  }
+
+  @Test
+  public void intTotalsMergeAcrossThreads() throws Exception {
+    final int[] votes = _makeVotes();
+
+    Map<Integer, Float> expected = new HashMap<Integer, Float>();
+    for (int vote : votes) {
+      Float score = expected.get(vote);
+      expected.put(vote, (score == null ? 0F : score) + 1.0F);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      long start = System.nanoTime();
+      List<Future<IntAccumulationSet>> parts = new ArrayList<Future<IntAccumulationSet>>();
+      for (int p = 0; p < 4; p++) {
+        final int part = p;
+        parts.add(executor.submit(new Callable<IntAccumulationSet>() {
+          @Override
+          public IntAccumulationSet call() {
+            IntAccumulationSet accumulation = new IntAccumulationSet();
+            for (int i = part; i < votes.length; i += 4)
+              accumulation.add(votes[i]);
+            return accumulation;
+          }
+        }));
+      }
+      IntAccumulationSet merged = new IntAccumulationSet();
+      for (Future<IntAccumulationSet> part : parts)
+        merged.merge(part.get());
+      RankedSet<Integer> rankings = merged.getRankings();
+      System.out.println("Nanos to total and rank " + votes.length + " votes on 4 threads: " + (System.nanoTime() - start));
+
+      assert (merged.size() == expected.size());
+      for (Map.Entry<Integer, Float> entry : expected.entrySet())
+        assert (merged.getScore(entry.getKey()) == entry.getValue());
+      assert (merged.getScore(-1) == 0F);
+      assert (_scores(rankings).equals(_sortedValues(expected)));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void concurrentTotalsMatchSequential() throws Exception {
+    final int[] votes = _makeVotes();
+    final String[] candidates = new String[CANDIDATE_COUNT];
+    for (int i = 0; i < candidates.length; i++)
+      candidates[i] = "C" + i;
+
+    //  Weights that floats can't hold exactly, so the totals depend on the order the votes are added in...
+    AccumulationSet<String> expected = new AccumulationSet<String>(0.3F);
+    for (int vote : votes)
+      expected.add(candidates[vote], (vote % 7) * 0.1F);
+
+    final int threads = 8;
+    final ConcurrentAccumulationSet<String> accumulation = new ConcurrentAccumulationSet<String>(0.3F, threads);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      long start = System.nanoTime();
+      List<Future<?>> parts = new ArrayList<Future<?>>();
+      for (int p = 0; p < threads; p++) {
+        final int part = p;
+        parts.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            for (int i = part; i < votes.length; i += threads)
+              accumulation.add(candidates[votes[i]], (votes[i] % 7) * 0.1F);
+          }
+        }));
+      }
+
+      //  A snapshot taken while the votes are still coming in can only be short of the final totals...
+      RankedSet<String> partial = accumulation.snapshot();
+      for (ScoredItem<String> item : partial)
+        assert (item.getScore() <= expected.getScore(item.getItem()) || _close(item.getScore(),
+                expected.getScore(item.getItem())));
+
+      for (Future<?> part : parts)
+        part.get();
+      RankedSet<String> rankings = accumulation.snapshot();
+      System.out.println("Nanos to total and rank " + votes.length + " votes on " + threads + " threads at once: "
+              + (System.nanoTime() - start));
+
+      assert (accumulation.size() == expected.size());
+      for (int candidate = 0; candidate < CANDIDATE_COUNT; candidate++)
+        assert (_close(accumulation.getScore(candidates[candidate]), expected.getScore(candidates[candidate])));
+
+      List<Float> rankedScores = _scores(rankings);
+      List<Float> expectedScores = _scores(expected.getRankings());
+      assert (rankedScores.size() == expectedScores.size());
+      for (int i = 0; i < rankedScores.size(); i++)
+        assert (_close(rankedScores.get(i), expectedScores.get(i)));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Candidate numbers, skewed so that a few candidates get most of the votes.
+   */
+  private int[] _makeVotes() {
+    int[] votes = new int[VOTE_COUNT];
+    for (int i = 0; i < votes.length; i++)
+      votes[i] = random.nextBoolean() ? random.nextInt(100) : random.nextInt(CANDIDATE_COUNT);
+    return votes;
+  }
+
+  /**
+   * Whether two totals of the same votes, added in different orders, agree to within float rounding.
+   */
+  private boolean _close(float actual, float expected) {
+    return Math.abs(actual - expected) <= 1e-3F * Math.max(1, Math.abs(expected));
+  }
+
+  private <T> List<Float> _scores(RankedSet<T> rankings) {
+    List<Float> scores = new ArrayList<Float>();
+    for (ScoredItem<T> item : rankings)
+      scores.add(item.getScore());
+    return scores;
+  }
+
+  private List<Float> _sortedValues(Map<?, Float> totals) {
+    List<Float> values = new ArrayList<Float>(totals.values());
+    Collections.sort(values);
+    return values;
+  }
+}
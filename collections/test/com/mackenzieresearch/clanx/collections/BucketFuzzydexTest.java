@@ -28,12 +28,21 @@
 
 package com.mackenzieresearch.clanx.collections;
 
+import com.mackenzieresearch.clanx.collections.index.BucketStatistics;
 import com.mackenzieresearch.clanx.collections.index.BucketedFuzzyIndex;
+import com.mackenzieresearch.clanx.collections.index.LevenshsteinFuzzydex;
+import com.mackenzieresearch.clanx.metrix.CharacterSignature;
+import com.mackenzieresearch.clanx.metrix.Levenshtein;
 import org.apache.commons.codec.EncoderException;
+import org.apache.commons.codec.language.DoubleMetaphone;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
 public class BucketFuzzydexTest {
   private BucketedFuzzyIndex<String> _fuzzydex;
@@ -74,6 +83,124 @@ public class BucketFuzzydexTest {
     iterator.next().getItem().equals("charlie3");
   }
 
+  @Test
+  public void testEncodingCache() throws Exception {
+    BucketedFuzzyIndex<String> fuzzydex = new BucketedFuzzyIndex<String>();
+    fuzzydex.setEncodingCacheSize(4);
+    fuzzydex.addEntry("charlie", "charlie1");
+    fuzzydex.addEntry("charlie", "charlie2");
+    fuzzydex.addEntry("delta", "delta1");
+    //  The second charlie goes straight onto its posting list without being encoded...
+    assert(fuzzydex.getEncodingCacheStats().missCount() == 2);
+    assert(fuzzydex.getEncodingCacheStats().hitCount() == 0);
+
+    assert(fuzzydex.getRankedMatches("charlie").size() == 2);
+    assert(fuzzydex.getNearestMatch("delta").equals("delta1"));
+    assert(fuzzydex.getEncodingCacheStats().hitCount() == 2);
+
+    for (int i = 0; i < 100; i++)
+      fuzzydex.addEntry("key" + i, "value" + i);
+    assert(fuzzydex.getEncodingCacheStats().evictionCount() > 0);
+    assert(fuzzydex.getExactMatch("key99").equals("value99"));
+  }
+
+  @Test
+  public void testEncodingCacheWithNullCodes() throws Exception {
+    //  DoubleMetaphone has no code for an empty key, which must bucket the same with the cache as without...
+    BucketedFuzzyIndex<String> uncached = new BucketedFuzzyIndex<String>(new DoubleMetaphone());
+    BucketedFuzzyIndex<String> cached = new BucketedFuzzyIndex<String>(new DoubleMetaphone());
+    cached.setEncodingCacheSize(4);
+
+    for (BucketedFuzzyIndex<String> fuzzydex : Arrays.asList(uncached, cached)) {
+      fuzzydex.addEntry("", "empty");
+      fuzzydex.addEntry("charlie", "charlie1");
+      assert(fuzzydex.getExactMatches("").size() == 1);
+      assert(fuzzydex.getRankedMatches("").size() == 1);
+      assert(fuzzydex.getNearestMatch("").equals("empty"));
+    }
+  }
+
+  @Test
+  public void testBucketPromotion() throws Exception {
+    BucketedFuzzyIndex<String> listed = new BucketedFuzzyIndex<String>();
+    BucketedFuzzyIndex<String> promoted = new BucketedFuzzyIndex<String>();
+    promoted.setBucketPromotionThreshold(2);
+
+    for (String key : new String[] {"charlie", "charley", "charles", "charlie1", "charlie2", "delta", "alpha"}) {
+      listed.addEntry(key, key);
+      promoted.addEntry(key, key);
+    }
+
+    BucketStatistics statistics = promoted.getBucketStatistics();
+    assert(statistics.getEntryCount() == 7);
+    assert(statistics.getPromotedBucketCount() > 0);
+    assert(listed.getBucketStatistics().getPromotedBucketCount() == 0);
+
+    assert(promoted.getExactMatch("charley").equals("charley"));
+    assert(promoted.getNearestMatch("charlie3").equals(listed.getNearestMatch("charlie3")));
+    assert(promoted.getExactMatches("charlie").size() == listed.getExactMatches("charlie").size());
+    assert(promoted.getRankedMatches("charlie").size() == listed.getRankedMatches("charlie").size());
+
+    promoted.setTolerance(1);
+    listed.setTolerance(1);
+    assert(promoted.getRankedMatches("charlie").size() == listed.getRankedMatches("charlie").size());
+    assert(promoted.getRankedMatches("charlie").size() < promoted.getExactMatches("charlie").size());
+  }
+
+  @Test
+  public void testSharedKeys() throws Exception {
+    BucketedFuzzyIndex<String> fuzzydex = new BucketedFuzzyIndex<String>();
+    LevenshsteinFuzzydex<String> levenshtein = new LevenshsteinFuzzydex<String>();
+    for (int i = 0; i < 1000; i++) {
+      fuzzydex.addEntry("smith", "smith" + i);
+      levenshtein.addEntry("smith", "smith" + i);
+    }
+    fuzzydex.addEntry("smyth", "smyth0");
+    levenshtein.addEntry("smyth", "smyth0");
+
+    assert(fuzzydex.getExactMatch("smith").equals("smith0"));
+    assert(levenshtein.getExactMatch("smith").equals("smith0"));
+    assert(fuzzydex.getExactMatch("smithe") == null);
+    assert(levenshtein.getExactMatch("smithe") == null);
+    assert(levenshtein.getExactMatches("smith").size() == 1000);
+    assert(fuzzydex.getRankedMatches("smyth").size() == 1001);
+    assert(levenshtein.getRankedMatches("smyth").size() == 1001);
+    assert(fuzzydex.getNearestMatch("smyth").equals("smyth0"));
+    assert(levenshtein.getNearestMatch("smythe").equals("smyth0"));
+  }
+
+  @Test
+  public void testSignaturePrefilter() throws Exception {
+    Random random = new Random(3);
+    LevenshsteinFuzzydex<String> levenshtein = new LevenshsteinFuzzydex<String>();
+    List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < 5000; i++) {
+      String key = _randomKey(random);
+      keys.add(key);
+      levenshtein.addEntry(key, key);
+    }
+
+    for (int i = 0; i < 200; i++) {
+      String probe = _randomKey(random);
+      int within = 0;
+      for (String key : keys) {
+        int distance = Levenshtein.scanLine(probe, key);
+        assert(CharacterSignature.lowerBound(CharacterSignature.signature(probe), probe.length(),
+                CharacterSignature.signature(key), key.length()) <= distance);
+        if (distance <= 3)
+          within++;
+      }
+      assert(levenshtein.getRankedMatchesWithinTolerance(probe, 3).size() == within);
+    }
+  }
+
+  private static String _randomKey(Random random) {
+    char[] key = new char[3 + random.nextInt(8)];
+    for (int i = 0; i < key.length; i++)
+      key[i] = "abcdefghijklmnopqrstuvwxyzAE1 -".charAt(random.nextInt(31));
+    return new String(key);
+  }
+
   private void _generateFuzzydexEntries() throws EncoderException {
     _fuzzydex.addEntry("alpha", "alpha1");
     _fuzzydex.addEntry("baker", "baker1");
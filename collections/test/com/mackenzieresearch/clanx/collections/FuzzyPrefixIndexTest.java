@@ -0,0 +1,168 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.index.FuzzyPrefixIndex;
+import com.mackenzieresearch.clanx.collections.index.normalize.NormalizerChain;
+import com.mackenzieresearch.clanx.metrix.Levenshtein;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class FuzzyPrefixIndexTest {
+
+  @Test
+  public void testTypeahead() throws Exception {
+    FuzzyPrefixIndex<String> index = new FuzzyPrefixIndex<String>();
+    index.addEntry("mackenzie", "mackenzie1");
+    index.addEntry("mackintosh", "mackintosh1");
+    index.addEntry("macdonald", "macdonald1");
+    index.addEntry("mcdonald", "mcdonald1");
+    index.addEntry("smith", "smith1");
+
+    FuzzyPrefixIndex<String>.Session session = index.newSession();
+    session.setText("mack");
+    assert(session.getMatches(10).size() == 3);
+    session.append('e');
+    assert(session.getMatches(10).size() == 2);
+    assert(session.getMatches(10).firstEntry().getElement().getItem().equals("mackenzie1"));
+    session.backspace();
+    session.backspace();
+    session.setText("mcd");
+    assert(session.getMatches(10).size() == 2);
+    assert(session.getMatches(1).size() == 1);
+    assert(session.getMatches(1).firstEntry().getElement().getItem().equals("mcdonald1"));
+
+    //  New keys are picked up by open sessions...
+    index.addEntry("mcdougal", "mcdougal1");
+    assert(session.getMatches(10).size() == 3);
+
+    assert(index.getExactMatch("smith").equals("smith1"));
+    assert(index.getNearestMatch("smiht").equals("smith1"));
+  }
+
+  @Test
+  public void testAppendMatchesSetText() throws Exception {
+    FuzzyPrefixIndex<String> index = new FuzzyPrefixIndex<String>();
+    index.setNormalizer(NormalizerChain.standard());
+    index.setTolerance(2);
+    index.addEntry("Mac Donald", "macdonald1");
+    index.addEntry("McDonald", "mcdonald1");
+    index.addEntry("Mac-Intosh", "macintosh1");
+    index.addEntry("O'Brien  Smith", "obrien1");
+
+    String[] texts = {"  Mac  Do", "Mac -Don", "O'Brien Sm", "MC\u00C9 d\u00F6n"};
+    for (String text : texts) {
+      FuzzyPrefixIndex<String>.Session typed = index.newSession();
+      FuzzyPrefixIndex<String>.Session pasted = index.newSession();
+      for (int i = 0; i < text.length(); i++) {
+        typed.append(text.charAt(i));
+        pasted.setText(text.substring(0, i + 1));
+
+        assert(typed.getText().equals(pasted.getText()));
+        assert(_describe(typed.getMatches(10)).equals(_describe(pasted.getMatches(10)))) : text.substring(0, i + 1);
+      }
+    }
+  }
+
+  @Test
+  public void testLimitWithinAKey() throws Exception {
+    FuzzyPrefixIndex<String> index = new FuzzyPrefixIndex<String>();
+    for (int i = 0; i < 5; i++)
+      index.addEntry("smith", "smith" + i);
+    index.addEntry("smyth", "smyth0");
+
+    FuzzyPrefixIndex<String>.Session session = index.newSession();
+    session.setText("smi");
+    assert(session.getMatches(3).size() == 3);
+    assert(session.getMatches(10).size() == 6);
+  }
+
+  @Test
+  public void testAgainstBruteForce() throws Exception {
+    Random random = new Random(11);
+    FuzzyPrefixIndex<String> index = new FuzzyPrefixIndex<String>();
+    index.setTolerance(2);
+    Set<String> keys = new HashSet<String>();
+    while (keys.size() < 2000) {
+      String key = _randomKey(random, 3 + random.nextInt(8));
+      if (keys.add(key))
+        index.addEntry(key, key);
+    }
+
+    long elapsed = 0;
+    int keystrokes = 0;
+    for (int q = 0; q < 50; q++) {
+      String text = _randomKey(random, 1 + random.nextInt(7));
+      FuzzyPrefixIndex<String>.Session session = index.newSession();
+      for (int i = 1; i <= text.length(); i++) {
+        long start = System.nanoTime();
+        session.setText(text.substring(0, i));
+        session.getMatches(10);
+        elapsed += System.nanoTime() - start;
+        keystrokes++;
+
+        RankedSet<String> matches = session.getMatches(Integer.MAX_VALUE);
+
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (String key : keys) {
+          int best = Integer.MAX_VALUE;
+          for (int j = 0; j <= key.length(); j++)
+            best = Math.min(best, Levenshtein.scanLine(text.substring(0, i), key.substring(0, j)));
+          if (best <= 2)
+            expected.put(key, best);
+        }
+
+        assert(matches.size() == expected.size()) : text.substring(0, i) + " " + matches.size() + " " + expected;
+        for (ScoredItem<String> match : matches)
+          assert(expected.get(match.getItem()) == (int) match.getScore()) : match.getItem() + " " + match.getScore();
+      }
+    }
+
+    System.out.println("Average of " + elapsed / keystrokes + " nanos per keystroke for the top 10");
+  }
+
+
+  private static String _describe(RankedSet<String> matches) {
+    StringBuilder description = new StringBuilder();
+    for (ScoredItem<String> match : matches)
+      description.append(match.getItem()).append(':').append(match.getScore()).append(' ');
+    return description.toString();
+  }
+
+  private static String _randomKey(Random random, int length) {
+    char[] key = new char[length];
+    for (int i = 0; i < length; i++)
+      key[i] = (char) ('a' + random.nextInt(6));
+    return new String(key);
+  }
+}
@@ -0,0 +1,229 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.index.GeoIndex;
+import com.mackenzieresearch.clanx.collections.index.GeoPoint;
+import com.mackenzieresearch.clanx.collections.multidex.SimpleMultidimensionalFuzzydex;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.queryable.NAryQuery;
+import com.mackenzieresearch.clanx.collections.queryable.UnaryQuery;
+import com.mackenzieresearch.clanx.entity.GeneralAttribute;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class GeoIndexTest {
+
+  @Test
+  public void testProximity() throws Exception {
+    GeoIndex<String> index = new GeoIndex<String>();
+    index.addEntry(new GeoPoint(51.5007, -0.1246), "big ben");
+    index.addEntry(new GeoPoint(51.5033, -0.1195), "london eye");
+    index.addEntry("51.5081, -0.0759", "tower");
+    index.addTypedEntry(new GeoPoint(48.8584, 2.2945), "eiffel");
+    index.addEntry(-16.5, 179.99, "fiji east");
+    index.addEntry(-16.5, -179.99, "fiji west");
+
+    assert(index.size() == 6);
+    assert(index.getExactMatch("51.5081,-0.0759").equals("tower"));
+    assert(index.getExactMatches(new GeoPoint(51.5, -0.12)).size() == 0);
+    assert(index.getNearestMatch("48.85,2.29").equals("eiffel"));
+
+    RankedSet<String> within = index.getWithin(new GeoPoint(51.5007, -0.1246), 1);
+    assert(within.size() == 2);
+    assert(within.firstEntry().getElement().getItem().equals("big ben"));
+    assert(within.lastEntry().getElement().getScore() > 0.4f);
+    assert(within.lastEntry().getElement().getScore() < 0.5f);
+
+    assert(index.getWithin(-16.5, 180, 5).size() == 2);
+    assert(index.getNearest(new GeoPoint(51.5, -0.1), 4).lastEntry().getElement().getItem().equals("eiffel"));
+
+    index.setRadius(5);
+    index.setScale(10);
+    RankedSet<String> ranked = index.getRankedMatches(1, new Match<GeoPoint>("location", new GeoPoint(51.5, -0.1)));
+    assert(ranked.size() == 3);
+    assert(ranked.lastEntry().getElement().getScore() < 0.5f);
+
+    try {
+      index.addEntry("north pole", "santa");
+      assert(false);
+    } catch (IllegalArgumentException e) {
+      //  Expected, the key isn't a point...
+    }
+  }
+
+  @Test
+  public void testAgainstBruteForce() throws Exception {
+    Random random = new Random(41);
+    int count = 20000;
+    double[] latitudes = new double[count];
+    double[] longitudes = new double[count];
+    GeoIndex<Integer> index = new GeoIndex<Integer>(0.5);
+
+    //  Half spread over the globe, half crowded around the antimeridian and the poles...
+    long start = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      if (i % 2 == 0) {
+        latitudes[i] = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+        longitudes[i] = random.nextDouble() * 360 - 180;
+      } else if (i % 4 == 1) {
+        latitudes[i] = random.nextDouble() * 20 - 10;
+        longitudes[i] = random.nextBoolean() ? 180 - random.nextDouble() * 2 : -180 + random.nextDouble() * 2;
+      } else {
+        latitudes[i] = random.nextBoolean() ? 90 - random.nextDouble() * 3 : -90 + random.nextDouble() * 3;
+        longitudes[i] = random.nextDouble() * 360 - 180;
+      }
+      index.addEntry(latitudes[i], longitudes[i], i);
+      if (i % 5000 == 0)
+        index.getNearest(0, 0, 1);
+    }
+    index.getNearest(0, 0, 1);
+    System.out.println("Loaded " + count + " points in " + (System.nanoTime() - start) / 1000000 + " millis");
+
+    int probes = 200;
+    double[] distances = new double[count];
+    start = System.nanoTime();
+    for (int p = 0; p < probes; p++) {
+      int near = random.nextInt(count);
+      double latitude = Math.max(-90, Math.min(90, latitudes[near] + random.nextGaussian()));
+      double longitude = longitudes[near] + random.nextGaussian();
+      longitude = longitude > 180 ? longitude - 360 : longitude < -180 ? longitude + 360 : longitude;
+      double radiusKm = random.nextInt(4) == 0 ? random.nextDouble() * 3000 : random.nextDouble() * 200;
+
+      int expected = 0;
+      for (int i = 0; i < count; i++) {
+        distances[i] = GeoPoint.distanceKm(latitude, longitude, latitudes[i], longitudes[i]);
+        if (distances[i] <= radiusKm)
+          expected++;
+      }
+      assert(index.getWithin(latitude, longitude, radiusKm).size() == expected);
+
+      int k = 1 + random.nextInt(10);
+      Arrays.sort(distances);
+      RankedSet<Integer> nearest = index.getNearest(latitude, longitude, k);
+      assert(nearest.size() == k);
+      assert(Math.abs(nearest.lastEntry().getElement().getScore() - distances[k - 1]) < 1e-2);
+    }
+    System.out.println(probes + " brute force checked probes in " + (System.nanoTime() - start) / 1000000 + " millis");
+
+    probes = 20000;
+    start = System.nanoTime();
+    for (int p = 0; p < probes; p++)
+      index.getWithin(random.nextDouble() * 160 - 80, random.nextDouble() * 360 - 180, 50);
+    System.out.println(probes + " 50km radius probes in " + (System.nanoTime() - start) / 1000000 + " millis");
+  }
+
+  @Test
+  public void testConcurrentQueries() throws Exception {
+    Random random = new Random(43);
+    final GeoIndex<Integer> index = new GeoIndex<Integer>();
+    GeoIndex<Integer> reference = new GeoIndex<Integer>();
+    final int probes = 200;
+    final double[][] centres = new double[probes][2];
+    final int[] expected = new int[2 * probes];
+
+    //  Each batch of adds leaves a tail, which the threads have to search without changing it...
+    int threads = 4;
+    int count = 0;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      for (int round = 0; round < 20; round++) {
+        for (int i = 0; i < 5000; i++, count++) {
+          double latitude = random.nextDouble() * 10 + 45;
+          double longitude = random.nextDouble() * 10;
+          index.addEntry(latitude, longitude, count);
+          reference.addEntry(latitude, longitude, count);
+        }
+        for (int p = 0; p < probes; p++) {
+          centres[p][0] = random.nextDouble() * 10 + 45;
+          centres[p][1] = random.nextDouble() * 10;
+          expected[2 * p] = reference.getWithin(centres[p][0], centres[p][1], 5).size();
+          expected[2 * p + 1] = reference.getNearest(centres[p][0], centres[p][1], 10).size();
+        }
+
+        final CyclicBarrier start = new CyclicBarrier(threads);
+        List<Future<Integer>> parts = new ArrayList<Future<Integer>>();
+        for (int t = 0; t < threads; t++) {
+          parts.add(executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+              start.await();
+              int wrong = 0;
+              for (int p = 0; p < probes; p++) {
+                if (index.getWithin(centres[p][0], centres[p][1], 5).size() != expected[2 * p])
+                  wrong++;
+                if (index.getNearest(centres[p][0], centres[p][1], 10).size() != expected[2 * p + 1])
+                  wrong++;
+              }
+              return wrong;
+            }
+          }));
+        }
+        for (Future<Integer> part : parts)
+          assert(part.get() == 0);
+        assert(index.size() == count);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testLocationDimension() throws Exception {
+    SimpleMultidimensionalFuzzydex<String> multiIndex = new SimpleMultidimensionalFuzzydex<String>();
+    multiIndex.addIndexDimension("name");
+    GeoIndex<String> locations = new GeoIndex<String>();
+    locations.setRadius(10);
+    multiIndex.addIndexDimension("location", locations);
+
+    multiIndex.addFact("1", new GeneralAttribute<String>("name", "joe's diner"),
+            new GeneralAttribute<GeoPoint>("location", new GeoPoint(40.7128, -74.0060)));
+    multiIndex.addFact("2", new GeneralAttribute<String>("name", "joe's diner"),
+            new GeneralAttribute<GeoPoint>("location", new GeoPoint(34.0522, -118.2437)));
+    multiIndex.addFact("3", new GeneralAttribute<String>("name", "moe's diner"),
+            new GeneralAttribute<String>("location", "40.7306,-73.9352"));
+
+    RankedSet<String> results = multiIndex.getExactMatches(new NAryQuery(new UnaryQuery[]{
+            new Match<String>("name", "joe's diner"), new Match<GeoPoint>("location", new GeoPoint(34.0522, -118.2437))}));
+    assert(results.size() == 1);
+    assert(results.firstEntry().getElement().getItem().equals("2"));
+
+    results = multiIndex.getRankedMatches(10, new Match<String>("location", "40.72,-74.0"));
+    assert(results.size() == 2);
+  }
+}
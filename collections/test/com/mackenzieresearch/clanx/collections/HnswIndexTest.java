@@ -0,0 +1,144 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.index.HnswIndex;
+import com.mackenzieresearch.clanx.collections.index.LevenshsteinFuzzydex;
+import com.mackenzieresearch.clanx.metrix.Levenshtein;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class HnswIndexTest {
+  private static final String[] SYLLABLES = {"ka", "ro", "mi", "sen", "tal", "vo", "ber", "lin", "da", "gor",
+          "ash", "wen", "ti", "mak", "ul", "per", "son", "ell", "qui", "zan"};
+
+  @Test
+  public void testSmallIndex() throws Exception {
+    HnswIndex<String> index = new HnswIndex<String>();
+    index.addEntry("alpha", "alpha1");
+    index.addEntry("baker", "baker1");
+    index.addEntry("charlie", "charlie1");
+    index.addEntry("charlie", "charlie2");
+
+    assert(index.getExactMatch("baker").equals("baker1"));
+    assert(index.getNearestMatch("charly").startsWith("charlie"));
+    assert(index.getNearestMatches("charly", 1).size() == 2);
+    assert(index.getRankedMatches("charly").size() == 4);
+  }
+
+  @Test
+  public void testRecall() throws Exception {
+    Random random = new Random(7);
+    List<String> keys = new ArrayList<String>();
+    HnswIndex<Integer> index = new HnswIndex<Integer>();
+    for (int i = 0; i < 5000; i++) {
+      String key = _randomName(random);
+      keys.add(key);
+      index.addEntry(key, i);
+    }
+
+    int found = 0;
+    int probes = 200;
+    long elapsed = 0;
+    for (int i = 0; i < probes; i++) {
+      String probe = _misspell(keys.get(random.nextInt(keys.size())), random);
+
+      long start = System.nanoTime();
+      Integer nearest = index.getNearestMatch(probe);
+      elapsed += System.nanoTime() - start;
+
+      int best = Integer.MAX_VALUE;
+      for (String key : keys)
+        best = Math.min(best, Levenshtein.scanLine(probe, key));
+      if (Levenshtein.scanLine(probe, keys.get(nearest)) == best)
+        found++;
+    }
+
+    System.out.println("HNSW recall@1 over 5000 keys: " + found + "/" + probes + ", average of "
+            + (elapsed / probes) + " nanos per probe");
+    assert(found >= probes * 0.95);
+  }
+
+  @Test
+  public void testBeatsLinearScan() throws Exception {
+    Random random = new Random(11);
+    List<String> keys = new ArrayList<String>();
+    HnswIndex<Integer> index = new HnswIndex<Integer>();
+    LevenshsteinFuzzydex<Integer> linear = new LevenshsteinFuzzydex<Integer>();
+    for (int i = 0; i < 10000; i++) {
+      String key = _randomName(random) + " " + _randomName(random);
+      keys.add(key);
+      index.addEntry(key, i);
+      linear.addEntry(key, i);
+    }
+
+    int probes = 200;
+    String[] misspellings = new String[probes];
+    for (int i = 0; i < probes; i++)
+      misspellings[i] = _misspell(keys.get(random.nextInt(keys.size())), random);
+
+    int found = 0;
+    long graphElapsed = 0;
+    long linearElapsed = 0;
+    for (String probe : misspellings) {
+      long start = System.nanoTime();
+      Integer nearest = index.getNearestMatch(probe);
+      graphElapsed += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      Integer best = linear.getNearestMatch(probe);
+      linearElapsed += System.nanoTime() - start;
+
+      if (Levenshtein.scanLine(probe, keys.get(nearest)) == Levenshtein.scanLine(probe, keys.get(best)))
+        found++;
+    }
+
+    System.out.println("HNSW over 10000 full names: " + (graphElapsed / probes) + " nanos per probe against "
+            + (linearElapsed / probes) + " for a linear scan, recall@1 " + found + "/" + probes);
+    assert(found >= probes * 0.95);
+    assert(graphElapsed < linearElapsed);
+  }
+
+
+  private static String _randomName(Random random) {
+    StringBuilder name = new StringBuilder();
+    int syllables = 2 + random.nextInt(3);
+    for (int i = 0; i < syllables; i++)
+      name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+    return name.toString();
+  }
+
+  private static String _misspell(String key, Random random) {
+    char[] chars = key.toCharArray();
+    chars[random.nextInt(chars.length)] = (char) ('a' + random.nextInt(26));
+    return new String(chars);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.index.LevenshsteinFuzzydex;
+import com.mackenzieresearch.clanx.collections.index.SimpleIndex;
+import com.mackenzieresearch.clanx.collections.index.normalize.DiacriticNormalizer;
+import com.mackenzieresearch.clanx.collections.index.normalize.KeyNormalizer;
+import com.mackenzieresearch.clanx.collections.index.normalize.NormalizerChain;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import org.junit.Test;
+
+public class KeyNormalizerTest {
+
+  @Test
+  public void testStandardChain() throws Exception {
+    KeyNormalizer normalizer = NormalizerChain.standard();
+
+    assert(normalizer.normalize("  Fran\u00E7ois   O'Brien-\u0141ukasz\t").equals("francois obrienlukasz"));
+    assert(normalizer.normalize("Se\u0301bastien  -  Mu\u0308ller").equals("sebastien muller"));
+    assert(normalizer.normalize("\u00C6sir Stra\u00DFe").equals("\u00E6sir stra\u00DFe"));
+    assert(normalizer.normalize("").equals(""));
+
+    //  An already normalized key comes back as the same instance...
+    String normalized = "already normalized";
+    assert(normalizer.normalize(normalized) == normalized);
+
+    StringBuilder longKey = new StringBuilder();
+    for (int i = 0; i < 100; i++)
+      longKey.append("\u00C9T\u00C9 ");
+    assert(normalizer.normalize(longKey.toString()).length() == 399);
+  }
+
+  @Test
+  public void testDiacriticTable() throws Exception {
+    KeyNormalizer normalizer = new DiacriticNormalizer();
+
+    assert(normalizer.normalize("\u00C0\u00E9\u00EE\u00F5\u00FC\u00FF\u00D8\u0111\u0127\u0131\u017E\u017F").equals("AeiouyOdhizs"));
+    assert(normalizer.normalize("\u00D7\u00F7").equals("\u00D7\u00F7"));
+  }
+
+  @Test
+  public void testNormalizedIndexes() throws Exception {
+    SimpleIndex<String> simpleIndex = new SimpleIndex<String>();
+    LevenshsteinFuzzydex<String> fuzzydex = new LevenshsteinFuzzydex<String>();
+    simpleIndex.setNormalizer(NormalizerChain.standard());
+    fuzzydex.setNormalizer(NormalizerChain.standard());
+
+    simpleIndex.addEntry("Jos\u00E9 Garc\u00EDa", "jose1");
+    fuzzydex.addEntry("Jos\u00E9 Garc\u00EDa", "jose1");
+    fuzzydex.addEntry("jose  garcia", "jose2");
+
+    assert(simpleIndex.getExactMatch("JOSE GARCIA").equals("jose1"));
+    assert(fuzzydex.getExactMatches("Jos\u00C9 GARC\u00CDA").size() == 2);
+
+    Match<String> match = new Match<String>("name", "Jos\u00E9 - Garcia!");
+    assert(fuzzydex.getExactMatches(match).size() == 2);
+    String cached = match.normalizedValue(fuzzydex.getNormalizer());
+    assert(fuzzydex.getRankedMatches(0, match).size() == 2);
+    assert(match.normalizedValue(fuzzydex.getNormalizer()) == cached);
+
+    try {
+      simpleIndex.setNormalizer(null);
+      assert(false);
+    } catch (IllegalStateException e) {
+      //  Expected, the index already has entries...
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.index.MinHashIndex;
+import com.mackenzieresearch.clanx.collections.index.normalize.NormalizerChain;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class MinHashIndexTest {
+  private MinHashIndex<String> _index;
+
+  @Before
+  public void setUp() throws Exception {
+    _index = new MinHashIndex<String>();
+    _index.setNormalizer(NormalizerChain.standard());
+    _index.addEntry("Stainless steel 18/10 saucepan with glass lid, 20cm, induction compatible", "saucepan20");
+    _index.addEntry("Stainless steel 18/10 saucepan with glass lid, 24cm, induction compatible", "saucepan24");
+    _index.addEntry("Cast iron skillet, pre-seasoned, 26cm, suitable for all hobs", "skillet");
+    _index.addEntry("Bamboo cutting board with juice groove, extra large", "board");
+  }
+
+  @Test
+  public void testNearDuplicates() throws Exception {
+    RankedSet<String> results =
+            _index.getRankedMatches("stainless steel saucepan with glass lid 20 cm, induction compatible");
+    assert(results.firstEntry().getElement().getItem().equals("saucepan20"));
+    for (ScoredItem<String> result : results)
+      assert(!result.getItem().equals("board"));
+
+    assert(_index.getExactMatch("bamboo cutting board with juice groove extra large").equals("board"));
+    assert(_index.getNearestMatch("cast iron skillet preseasoned 26cm suitable for all hobs").equals("skillet"));
+  }
+
+  @Test
+  public void testProbeSpeed() throws Exception {
+    MinHashIndex<Integer> index = new MinHashIndex<Integer>();
+    Random random = new Random(1);
+    String[] words = {"red", "blue", "cotton", "shirt", "large", "small", "linen", "wool", "jacket", "slim", "fit",
+            "classic", "summer", "winter", "hooded", "zip", "button", "collar", "sleeve", "pocket"};
+
+    for (int i = 0; i < 20000; i++) {
+      StringBuilder description = new StringBuilder();
+      for (int j = 0; j < 8; j++)
+        description.append(words[random.nextInt(words.length)]).append(' ');
+      index.addEntry(description.append(i).toString(), i);
+    }
+
+    long start = System.nanoTime();
+    int candidates = 0;
+    for (int i = 0; i < 1000; i++)
+      candidates += index.getRankedMatches("red cotton shirt large slim fit classic collar").size();
+    long elapsed = System.nanoTime() - start;
+
+    System.out.println("Elapsed nanos for 1000 probes of a 20000 key MinHash index: " + elapsed);
+    System.out.println("For an average time of " + (elapsed / 1000) + " nanos and " + (candidates / 1000) + " matches");
+  }
+}
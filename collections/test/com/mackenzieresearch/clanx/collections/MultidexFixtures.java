@@ -0,0 +1,84 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.index.BucketedFuzzyIndex;
+import com.mackenzieresearch.clanx.collections.index.LevenshsteinFuzzydex;
+import com.mackenzieresearch.clanx.collections.index.NumericIndex;
+import com.mackenzieresearch.clanx.collections.index.SimpleIndex;
+import com.mackenzieresearch.clanx.collections.multidex.SimpleMultidimensionalFuzzydex;
+import org.apache.commons.codec.language.Soundex;
+
+import java.util.Random;
+
+/**
+ * Word generation and a multidex shared by the multidex tests.
+ */
+final class MultidexFixtures {
+  private MultidexFixtures() {
+  }
+
+  /**
+   * A word of length letters: prefix, then letters drawn from a dozen common ones.
+   */
+  static String makeRandomWord(Random random, String prefix, int length) {
+    StringBuilder buf = new StringBuilder(prefix);
+    for (int x = 1; x < length; x++)
+      buf.append("aeioubdlmrst".charAt(random.nextInt(12)));
+    return buf.toString();
+  }
+
+  /**
+   * A multidex of surnames in Soundex buckets, cities by Levenshtein distance and weighted at 0.8, exact postcodes,
+   * and years within 5 of the query's, each scoring 1 per 2 years.  The query planner is enabled if planned.
+   */
+  static SimpleMultidimensionalFuzzydex<String> createMultidex(boolean planned) {
+    SimpleMultidimensionalFuzzydex<String> multiIndex = new SimpleMultidimensionalFuzzydex<String>();
+    if (planned)
+      multiIndex.enableQueryPlanner();
+
+    BucketedFuzzyIndex<String> surnames = new BucketedFuzzyIndex<String>(new Soundex());
+    surnames.setTolerance(2);
+    multiIndex.addIndexDimension("surname", surnames);
+
+    LevenshsteinFuzzydex<String> cities = new LevenshsteinFuzzydex<String>();
+    cities.setTolerance(3);
+    cities.setWeight(0.8f);
+    multiIndex.addIndexDimension("city", cities);
+
+    multiIndex.addIndexDimension("postcode", new SimpleIndex<String>());
+
+    NumericIndex<String> years = new NumericIndex<String>();
+    years.setDelta(5);
+    years.setScale(2);
+    multiIndex.addIndexDimension("year", years);
+
+    return multiIndex;
+  }
+}
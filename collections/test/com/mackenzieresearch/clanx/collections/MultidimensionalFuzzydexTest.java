@@ -29,15 +29,28 @@
 package com.mackenzieresearch.clanx.collections;
 
 import com.mackenzieresearch.clanx.collections.index.BucketedFuzzyIndex;
+import com.mackenzieresearch.clanx.collections.index.Index;
+import com.mackenzieresearch.clanx.collections.index.LevenshsteinFuzzydex;
+import com.mackenzieresearch.clanx.collections.index.SimpleIndex;
+import com.mackenzieresearch.clanx.collections.multidex.CompositeIndex;
 import com.mackenzieresearch.clanx.collections.multidex.SimpleMultidimensionalFuzzydex;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
 import com.mackenzieresearch.clanx.collections.queryable.NAryQuery;
+import com.mackenzieresearch.clanx.collections.queryable.UnaryQuery;
 import com.mackenzieresearch.clanx.entity.Attribute;
 import com.mackenzieresearch.clanx.entity.GeneralAttribute;
 import org.apache.commons.codec.EncoderException;
+import org.apache.commons.codec.language.Soundex;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MultidimensionalFuzzydexTest {
   private Random random;
@@ -119,6 +132,216 @@ public class MultidimensionalFuzzydexTest {
     System.out.println("For an average time of " + elapsedTime / 1000 + " nanos or " + (1000000000 / (elapsedTime / 1000)) + " per second");
   }
 
+  @Test
+  public void compositeIndexMatchesJoin() throws EncoderException {
+    //  Two identical multidexes, one of them with a composite index over both dimensions...
+    SimpleMultidimensionalFuzzydex<String> joined = new SimpleMultidimensionalFuzzydex<String>();
+    SimpleMultidimensionalFuzzydex<String> composite = new SimpleMultidimensionalFuzzydex<String>();
+    for (SimpleMultidimensionalFuzzydex<String> multiIndex : Arrays.asList(joined, composite)) {
+      multiIndex.addIndexDimension("surname", new BucketedFuzzyIndex<String>(new Soundex()));
+      SimpleIndex<String> postcodes = new SimpleIndex<String>();
+      postcodes.setWeight(0.5f);
+      multiIndex.addIndexDimension("postcode", postcodes);
+    }
+    CompositeIndex<String> compositeIndex = composite.addCompositeIndex("surname", "postcode");
+
+    //  Short surnames from a few letters crowd into a few Soundex buckets...
+    int count = 20000;
+    Attribute<String>[][] master = new Attribute[count][2];
+    for (int i = 0; i < count; i++) {
+      StringBuilder surname = new StringBuilder("B");
+      for (int x = 0; x < 4; x++)
+        surname.append("aeioubdlmr".charAt(random.nextInt(10)));
+      master[i][0] = new GeneralAttribute<String>("surname", surname.toString());
+      master[i][1] = new GeneralAttribute<String>("postcode", "PC" + random.nextInt(200));
+      joined.addFact(Integer.toString(i), master[i]);
+      composite.addFact(Integer.toString(i), master[i]);
+    }
+    System.out.println("Composite index of " + count + " facts has " + compositeIndex.blockCount() + " blocks");
+
+    for (int probeCount = 0; probeCount < 200; probeCount++) {
+      Attribute<String>[] searchTerms = master[random.nextInt(count)];
+      RankedSet<String> expected = joined.getExactMatches(new NAryQuery(searchTerms));
+      RankedSet<String> actual = composite.getExactMatches(new NAryQuery(searchTerms[1], searchTerms[0]));
+      assert (actual.size() > 0);
+      assert (actual.size() == expected.size());
+      assert (actual.elementSet().equals(expected.elementSet()));
+      assert (actual.firstEntry().getElement().getScore() == expected.firstEntry().getElement().getScore());
+    }
+
+    //  A postcode nobody has leaves the block empty, and when it comes first the join lets the surname's bucket
+    //  through...
+    NAryQuery unknownPostcode = new NAryQuery(new GeneralAttribute<String>("postcode", "XX1"), master[3][0]);
+    RankedSet<String> expected = joined.getExactMatches(unknownPostcode);
+    assert (expected.size() > 0);
+    assert (composite.getExactMatches(unknownPostcode).elementSet().equals(expected.elementSet()));
+
+    //  Keys added later are combined with the ones the fact already has...
+    composite.addIndexMembersForExistingFact("7", new GeneralAttribute<String>("surname", "Zzyzx"));
+    assert (composite.getExactMatches(new NAryQuery(new GeneralAttribute<String>("surname", "Zzyzx"), master[7][1]))
+            .elementSet().iterator().next().getItem().equals("7"));
+
+    int probes = 1000;
+    long[] elapsedTimes = new long[2];
+    for (int m = 0; m < 2; m++) {
+      SimpleMultidimensionalFuzzydex<String> multiIndex = m == 0 ? joined : composite;
+      long startTime = System.nanoTime();
+      for (int probeCount = 0; probeCount < probes; probeCount++)
+        multiIndex.getExactMatches(new NAryQuery(master[random.nextInt(count)]));
+      elapsedTimes[m] = System.nanoTime() - startTime;
+    }
+    System.out.println("Average nanos per exact probe, joined: " + elapsedTimes[0] / probes + ", composite: "
+            + elapsedTimes[1] / probes);
+  }
+
+  @Test
+  public void parallelProbesMatchSequential() throws Exception {
+    int count = 2000;
+    int dimensions = 8;
+    SimpleMultidimensionalFuzzydex<String> multiIndex = new SimpleMultidimensionalFuzzydex<String>();
+    for (int d = 0; d < dimensions; d++)
+      multiIndex.addIndexDimension("index" + d);
+    final Attribute<String>[][] master = _populateIndex(count, multiIndex, dimensions);
+
+    NAryQuery[] queries = new NAryQuery[100];
+    for (int q = 0; q < queries.length; q++) {
+      Attribute<String>[] searchTerms = master[random.nextInt(count)].clone();
+      searchTerms[random.nextInt(dimensions)] = new GeneralAttribute<String>("index" + random.nextInt(dimensions), _makeRandomWord(10));
+      queries[q] = new NAryQuery(searchTerms);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      long[] elapsedTimes = new long[2];
+      for (int m = 0; m < 2; m++) {
+        multiIndex.setExecutor(null);
+        List<RankedSet<String>> expected = new ArrayList<RankedSet<String>>();
+        long startTime = System.nanoTime();
+        for (NAryQuery query : queries)
+          expected.add(multiIndex.getRankedMatches(10, query));
+        elapsedTimes[0] += System.nanoTime() - startTime;
+
+        multiIndex.setExecutor(executor);
+        List<RankedSet<String>> actual = new ArrayList<RankedSet<String>>();
+        startTime = System.nanoTime();
+        for (NAryQuery query : queries)
+          actual.add(multiIndex.getRankedMatches(10, query));
+        elapsedTimes[1] += System.nanoTime() - startTime;
+
+        for (int q = 0; q < queries.length; q++)
+          assert (actual.get(q).entrySet().equals(expected.get(q).entrySet()));
+
+        for (NAryQuery query : queries) {
+          multiIndex.setExecutor(null);
+          RankedSet<String> exact = multiIndex.getExactMatches(query);
+          RankedSet<String> nearest = multiIndex.getNearestMatches(query);
+          multiIndex.setExecutor(executor);
+          assert (multiIndex.getExactMatches(query).entrySet().equals(exact.entrySet()));
+          assert (multiIndex.getNearestMatches(query).entrySet().equals(nearest.entrySet()));
+        }
+      }
+      System.out.println("Average nanos per " + dimensions + "-dimension ranked probe, sequential: "
+              + elapsedTimes[0] / (2 * queries.length) + ", parallel: " + elapsedTimes[1] / (2 * queries.length));
+    } finally {
+      executor.shutdown();
+    }
+
+    //  Queries run on the multidex's own executor can't starve their probes...
+    final SimpleMultidimensionalFuzzydex<String> reentrant = multiIndex;
+    ExecutorService singleThread = Executors.newSingleThreadExecutor();
+    try {
+      reentrant.setExecutor(singleThread);
+      RankedSet<String> results = singleThread.submit(new Callable<RankedSet<String>>() {
+        @Override
+        public RankedSet<String> call() {
+          return reentrant.getNearestMatches(new NAryQuery(master[7]));
+        }
+      }).get();
+      assert (results.firstEntry().getElement().getItem().equals("7"));
+    } finally {
+      singleThread.shutdown();
+    }
+  }
+
+  @Test
+  public void idJoinsMatchRankedSetJoins() throws EncoderException {
+    int count = 5000;
+    SimpleMultidimensionalFuzzydex<String> multiIndex = new SimpleMultidimensionalFuzzydex<String>();
+    LevenshsteinFuzzydex<String> lastDimension = null;
+    for (int d = 0; d < 4; d++) {
+      lastDimension = new LevenshsteinFuzzydex<String>();
+      lastDimension.setTolerance(1);
+      lastDimension.setWeight(1.0f - d * 0.1f);
+      multiIndex.addIndexDimension("index" + d, lastDimension);
+    }
+
+    //  Short words from a few letters, so that every dimension finds plenty of candidates to join...
+    Attribute<String>[][] master = new Attribute[count][4];
+    for (int i = 0; i < count; i++) {
+      for (int d = 0; d < 4; d++) {
+        StringBuilder word = new StringBuilder();
+        for (int x = 0; x < 4; x++)
+          word.append("abcd".charAt(random.nextInt(4)));
+        master[i][d] = new GeneralAttribute<String>("index" + d, word.toString());
+      }
+      multiIndex.addFact(Integer.toString(i), master[i]);
+    }
+
+    long[] elapsedTimes = new long[2];
+    for (int pass = 0; pass < 2; pass++) {
+      for (int probeCount = 0; probeCount < 100; probeCount++) {
+        NAryQuery query = new NAryQuery(master[random.nextInt(count)]);
+
+        long startTime = System.nanoTime();
+        RankedSet<String> expectedInside = _joinRankedSets(multiIndex, query, false, 0);
+        RankedSet<String> expectedOuter = _joinRankedSets(multiIndex, query, true, Float.MAX_VALUE);
+        elapsedTimes[0] += System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        RankedSet<String> inside = multiIndex.getExactMatches(query);
+        RankedSet<String> outer = multiIndex.getRankedMatches(Float.MAX_VALUE, query);
+        elapsedTimes[1] += System.nanoTime() - startTime;
+
+        assert (inside.size() > 0 && inside.entrySet().equals(expectedInside.entrySet()));
+        assert (outer.size() > inside.size() && outer.entrySet().equals(expectedOuter.entrySet()));
+
+        //  Keys of different facts rarely meet, and an empty join lets the next dimension's results through...
+        NAryQuery mixed = new NAryQuery(master[random.nextInt(count)][0], master[random.nextInt(count)][1],
+                master[random.nextInt(count)][2], master[random.nextInt(count)][3]);
+        assert (multiIndex.getExactMatches(mixed).entrySet().equals(_joinRankedSets(multiIndex, mixed, false, 0).entrySet()));
+
+        //  As does one that leaves nothing within the threshold...
+        assert (multiIndex.getRankedMatches(1.2f, mixed).entrySet().equals(_joinRankedSets(multiIndex, mixed, true, 1.2f).entrySet()));
+      }
+
+      //  A fact given straight to a dimension has no id, and the results are joined as RankedSets instead...
+      if (pass == 0) {
+        lastDimension.addEntry(master[0][3].value(), "stranger");
+        NAryQuery query = new NAryQuery(master[0]);
+        assert (multiIndex.getRankedMatches(Float.MAX_VALUE, query).entrySet().equals(_joinRankedSets(multiIndex, query, true, Float.MAX_VALUE).entrySet()));
+      }
+    }
+    System.out.println("Average nanos per 4-dimension exact and ranked query, joined as RankedSets: "
+            + elapsedTimes[0] / 200 + ", joined by fact id: " + elapsedTimes[1] / 200);
+  }
+
+  private RankedSet<String> _joinRankedSets(SimpleMultidimensionalFuzzydex<String> multiIndex, NAryQuery query, boolean outer, float threshold) {
+    RankedSet<String> results = new RankedSet<String>();
+    float weightOfLastDimension = 1.0f;
+    for (UnaryQuery subquery : query) {
+      Index<String> dimension = multiIndex.getIndex(((Match) subquery).name());
+      if (results.size() == 0)
+        results = outer ? dimension.getRankedMatches(threshold, subquery) : dimension.getExactMatches(subquery);
+      else if (outer)
+        results = results.weightedLeftOuterJoin(dimension.getRankedMatches(threshold, subquery), weightOfLastDimension,
+                dimension.getWeight(), threshold);
+      else
+        results = results.weightedInsideJoin(dimension.getExactMatches(subquery), weightOfLastDimension, dimension.getWeight());
+      weightOfLastDimension = dimension.getWeight();
+    }
+    return results;
+  }
+
   private Attribute<String>[][] _populateIndex(int count, SimpleMultidimensionalFuzzydex<String> multiIndex, int indices) throws EncoderException {
     Attribute<String>[][] words = new Attribute[count][indices];
 
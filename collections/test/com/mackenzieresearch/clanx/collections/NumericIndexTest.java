@@ -0,0 +1,215 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.index.NumericIndex;
+import com.mackenzieresearch.clanx.collections.multidex.SimpleMultidimensionalFuzzydex;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.queryable.NAryQuery;
+import com.mackenzieresearch.clanx.collections.queryable.NumericMatch;
+import com.mackenzieresearch.clanx.collections.queryable.UnaryQuery;
+import com.mackenzieresearch.clanx.entity.GeneralAttribute;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class NumericIndexTest {
+
+  @Test
+  public void testProximity() throws Exception {
+    NumericIndex<String> index = new NumericIndex<String>();
+    index.addEntry(1999, "a");
+    index.addEntry(2001, "b");
+    index.addEntry("2001", "c");
+    index.addTypedEntry(2005L, "d");
+    index.addEntry(1990.5, "e");
+
+    assert(index.size() == 5);
+    assert(index.getExactMatches(2001).size() == 2);
+    assert(index.getExactMatch(2005).equals("d"));
+    assert(index.getExactMatch(2000) == null);
+    assert(index.getNearestMatch(1991).equals("e"));
+    assert(index.getNearestMatch(1.0e6).equals("d"));
+
+    RankedSet<String> within = index.getWithin(2000, 1);
+    assert(within.size() == 3);
+    assert(within.firstEntry().getElement().getScore() == 1.0f);
+
+    RankedSet<String> nearest = index.getNearest(2004, 2);
+    assert(nearest.size() == 2);
+    assert(nearest.firstEntry().getElement().getItem().equals("d"));
+    assert(nearest.lastEntry().getElement().getScore() == 3.0f);
+
+    index.setScale(10);
+    assert(index.getWithin(2000, 10).lastEntry().getElement().getScore() == 0.95f);
+
+    index.setDelta(1);
+    assert(index.getRankedMatches("2000").size() == 3);
+    assert(index.getRankedMatches(1, new NumericMatch("year", 2000)).size() == 3);
+    assert(index.getExactMatches(new Match<Integer>("year", 2001)).size() == 2);
+    assert(index.getExactMatches(new Match<String>("year", " 1999 ")).size() == 1);
+
+    try {
+      index.addEntry("nineteen", "f");
+      assert(false);
+    } catch (IllegalArgumentException e) {
+      //  Expected, the key isn't a number...
+    }
+  }
+
+  @Test
+  public void testAgainstBruteForce() throws Exception {
+    Random random = new Random(37);
+    int count = 20000;
+    double[] keys = new double[count];
+    NumericIndex<Integer> index = new NumericIndex<Integer>();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      keys[i] = random.nextInt(10000) / 4.0;
+      index.addEntry(keys[i], i);
+      if (i % 5000 == 0)
+        index.getNearestMatch(0);
+    }
+    index.getNearestMatch(0);
+    System.out.println("Loaded " + count + " numeric keys in " + (System.nanoTime() - start) / 1000000 + " millis");
+
+    double[] sorted = keys.clone();
+    Arrays.sort(sorted);
+
+    int probes = 1000;
+    start = System.nanoTime();
+    for (int p = 0; p < probes; p++) {
+      double value = random.nextDouble() * 2600 - 50;
+      double delta = random.nextInt(20) / 4.0;
+
+      int expected = 0;
+      for (double key : sorted)
+        if (Math.abs(key - value) <= delta)
+          expected++;
+      RankedSet<Integer> within = index.getWithin(value, delta);
+      assert(within.size() == expected);
+      for (ScoredItem<Integer> item : within)
+        assert(Math.abs(item.getScore() - Math.abs(keys[item.getItem()] - value)) < 1e-3);
+
+      int k = 1 + random.nextInt(10);
+      double[] distances = new double[count];
+      for (int i = 0; i < count; i++)
+        distances[i] = Math.abs(sorted[i] - value);
+      Arrays.sort(distances);
+      RankedSet<Integer> nearest = index.getNearest(value, k);
+      assert(nearest.size() == k);
+      assert(Math.abs(nearest.lastEntry().getElement().getScore() - distances[k - 1]) < 1e-3);
+    }
+    System.out.println(probes + " brute force checked probes in " + (System.nanoTime() - start) / 1000000 + " millis");
+
+    probes = 100000;
+    start = System.nanoTime();
+    for (int p = 0; p < probes; p++)
+      index.getNearest(random.nextDouble() * 2500, 10);
+    System.out.println(probes + " nearest-10 probes in " + (System.nanoTime() - start) / 1000000 + " millis");
+  }
+
+  @Test
+  public void testConcurrentQueries() throws Exception {
+    final Random random = new Random(41);
+    final int count = 200000;
+    final NumericIndex<Integer> index = new NumericIndex<Integer>();
+    NumericIndex<Integer> reference = new NumericIndex<Integer>();
+    for (int i = 0; i < count; i++) {
+      int key = random.nextInt(50000);
+      index.addEntry(key, i);
+      reference.addEntry(key, i);
+    }
+
+    //  The last few adds are still in the tail, which the threads have to search without changing it...
+    final int probes = 2000;
+    final double[] values = new double[probes];
+    final int[] expected = new int[2 * probes];
+    for (int p = 0; p < probes; p++) {
+      values[p] = random.nextInt(50000);
+      expected[2 * p] = reference.getExactMatches(values[p]).size();
+      expected[2 * p + 1] = reference.getWithin(values[p], 3).size();
+    }
+
+    int threads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Integer>> parts = new ArrayList<Future<Integer>>();
+      for (int t = 0; t < threads; t++) {
+        parts.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() {
+            int wrong = 0;
+            for (int p = 0; p < probes; p++) {
+              if (index.getExactMatches(values[p]).size() != expected[2 * p])
+                wrong++;
+              if (index.getWithin(values[p], 3).size() != expected[2 * p + 1])
+                wrong++;
+            }
+            return wrong;
+          }
+        }));
+      }
+      for (Future<Integer> part : parts)
+        assert(part.get() == 0);
+    } finally {
+      executor.shutdown();
+    }
+    assert(index.size() == count);
+  }
+
+  @Test
+  public void testNumericDimension() throws Exception {
+    SimpleMultidimensionalFuzzydex<String> multiIndex = new SimpleMultidimensionalFuzzydex<String>();
+    multiIndex.addIndexDimension("name");
+    NumericIndex<String> years = new NumericIndex<String>();
+    years.setDelta(2);
+    multiIndex.addIndexDimension("year", years);
+
+    multiIndex.addFact("1", new GeneralAttribute<String>("name", "smith"), new GeneralAttribute<Integer>("year", 1970));
+    multiIndex.addFact("2", new GeneralAttribute<String>("name", "smith"), new GeneralAttribute<Integer>("year", 1985));
+    multiIndex.addFact("3", new GeneralAttribute<String>("name", "smyth"), new GeneralAttribute<Double>("year", 1971.0));
+
+    RankedSet<String> results = multiIndex.getExactMatches(
+            new NAryQuery(new UnaryQuery[]{new Match<String>("name", "smith"), new NumericMatch("year", 1985)}));
+    assert(results.size() == 1);
+    assert(results.firstEntry().getElement().getItem().equals("2"));
+
+    results = multiIndex.getRankedMatches(2, new NumericMatch("year", 1971));
+    assert(results.size() == 2);
+  }
+}
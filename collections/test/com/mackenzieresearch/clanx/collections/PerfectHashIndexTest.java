@@ -0,0 +1,121 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.index.PerfectHashIndex;
+import com.mackenzieresearch.clanx.collections.index.SimpleIndex;
+import com.mackenzieresearch.clanx.collections.index.normalize.NormalizerChain;
+import com.mackenzieresearch.clanx.collections.multidex.SimpleMultidimensionalFuzzydex;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.queryable.NAryQuery;
+import com.mackenzieresearch.clanx.collections.queryable.UnaryQuery;
+import com.mackenzieresearch.clanx.entity.GeneralAttribute;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PerfectHashIndexTest {
+
+  @Test
+  public void testFromSimpleIndex() throws Exception {
+    SimpleIndex<String> source = new SimpleIndex<String>();
+    source.setNormalizer(NormalizerChain.standard());
+    source.setWeight(0.5f);
+    source.addEntry("Alpha", "alpha1");
+    source.addEntry("alpha", "alpha2");
+    source.addEntry("Baker", "baker1");
+    source.addEntry("Charlie", "charlie1");
+
+    PerfectHashIndex<String> index = new PerfectHashIndex<String>(source);
+    assert(index.keyCount() == 3);
+    assert(index.getWeight() == 0.5f);
+    assert(index.getExactMatches("ALPHA").size() == 2);
+    assert(index.getExactMatch("baker").equals("baker1"));
+    assert(index.getExactMatches(new Match<String>("name", " Charlie ")).size() == 1);
+    assert(index.getExactMatch("delta") == null);
+  }
+
+  @Test
+  public void testReadOnlyDimension() throws Exception {
+    SimpleMultidimensionalFuzzydex<String> multiIndex = new SimpleMultidimensionalFuzzydex<String>();
+    multiIndex.addIndexDimension("surname", new SimpleIndex<String>());
+    multiIndex.enableQueryPlanner();
+
+    List<KVPair<String>> postcodes = new ArrayList<KVPair<String>>();
+    for (int i = 0; i < 100; i++) {
+      multiIndex.addFact("F" + i, new GeneralAttribute<String>("surname", i % 2 == 0 ? "smith" : "jones"));
+      postcodes.add(new KVPair<String>("PC" + (i % 10), "F" + i));
+    }
+    multiIndex.addReadOnlyDimension("postcode", new PerfectHashIndex<String>(postcodes));
+
+    NAryQuery query = new NAryQuery(new UnaryQuery[]{new Match<String>("surname", "smith"),
+            new Match<String>("postcode", "PC4")});
+    assert(multiIndex.getExactMatches(query).size() == 10);
+    assert(multiIndex.getRankedMatches(Float.MAX_VALUE, query).size() == 50);
+    assert(multiIndex.getIndex("postcode").getExactMatches("PC3").size() == 10);
+
+    try {
+      multiIndex.addFact("F100", new GeneralAttribute<String>("postcode", "PC1"));
+      assert(false);
+    } catch (IllegalArgumentException e) {
+      //  Expected, the dimension is read-only...
+    }
+  }
+
+  @Test
+  public void testBulkBuild() throws Exception {
+    int keyCount = 200000;
+    List<KVPair<Integer>> entries = new ArrayList<KVPair<Integer>>();
+    for (int i = 0; i < keyCount; i++) {
+      entries.add(new KVPair<Integer>("key" + i, i));
+      if (i % 10 == 0)
+        entries.add(new KVPair<Integer>("key" + i, -i));
+    }
+
+    long start = System.nanoTime();
+    PerfectHashIndex<Integer> index = new PerfectHashIndex<Integer>(entries);
+    System.out.println("Built a " + keyCount + " key PerfectHashIndex in " + (System.nanoTime() - start) / 1000000
+            + " millis");
+
+    assert(index.keyCount() == keyCount);
+    start = System.nanoTime();
+    for (int i = 0; i < keyCount; i++)
+      assert(index.getExactMatch("key" + i) == i);
+    long elapsed = System.nanoTime() - start;
+    System.out.println("For an average lookup time of " + elapsed / keyCount + " nanos");
+
+    assert(index.getExactMatches("key10").size() == 2);
+    int falsePositives = 0;
+    for (int i = 0; i < keyCount; i++) {
+      if (index.getExactMatch("absent" + i) != null)
+        falsePositives++;
+    }
+    assert(falsePositives <= 1);
+  }
+}
@@ -0,0 +1,153 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.index.phonetic.FastCaverphone2;
+import com.mackenzieresearch.clanx.collections.index.phonetic.FastDoubleMetaphone;
+import com.mackenzieresearch.clanx.collections.index.phonetic.FastMetaphone;
+import com.mackenzieresearch.clanx.collections.index.phonetic.FastSoundex;
+import org.apache.commons.codec.StringEncoder;
+import org.apache.commons.codec.language.Caverphone2;
+import org.apache.commons.codec.language.DoubleMetaphone;
+import org.apache.commons.codec.language.Metaphone;
+import org.apache.commons.codec.language.Soundex;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class PhoneticEncoderTest {
+  private static final String[] NAMES = {
+          "cough", "rough", "tough", "enough", "trough", "gnome", "thumb", "Michael", "Schmidt", "Smith",
+          "Schneider", "Snider", "Jose", "San Jacinto", "Caesar", "chemistry", "chorus", "bacchus", "bellocchio",
+          "accident", "succeed", "McClelland", "Czerny", "focaccia", "Mac Caffrey", "Mac Gregor", "Edge", "Edgar",
+          "Hugh", "laugh", "McLaughlin", "island", "carlisle", "sugar", "Schermerhorn", "school", "Thomas",
+          "Thames", "Arnow", "filipowicz", "breaux", "Zhao", "Wasserman", "Womo", "resnais", "artois",
+          "orchestra", "danger", "biaggi", "Gallegos", "Campbell", "Knight", "Wright", "Whalen", "Xavier",
+          "Ashcraft", "Tymczak", "Pfister", "Lloyd", "Stubblefield", "Mackenzie", "Lukasiewicz", "O'Brien",
+          "St. John", "Van Gogh", "ghost", "weight", "M\u00fcller", "\u00c7elik", "Stra\u00dfe", "A", "x", "", " "};
+
+  private Random random;
+
+  @Before
+  public void setUp() throws Exception {
+    random = new Random(1024);
+  }
+
+  @Test
+  public void caverphone2MatchesCommonsCodec() throws Exception {
+    _compare(new Caverphone2(), new FastCaverphone2());
+  }
+
+  @Test
+  public void soundexMatchesCommonsCodec() throws Exception {
+    _compare(new Soundex(), new FastSoundex());
+  }
+
+  @Test
+  public void metaphoneMatchesCommonsCodec() throws Exception {
+    _compare(new Metaphone(), new FastMetaphone());
+  }
+
+  @Test
+  public void doubleMetaphoneMatchesCommonsCodec() throws Exception {
+    _compare(new DoubleMetaphone(), new FastDoubleMetaphone());
+
+    DoubleMetaphone reference = new DoubleMetaphone();
+    FastDoubleMetaphone encoder = new FastDoubleMetaphone();
+    for (String name : NAMES)
+      assert (_equal(reference.doubleMetaphone(name, true), encoder.doubleMetaphone(name, true)));
+  }
+
+  @Test
+  public void caverphone2Speedup() throws Exception {
+    String[] words = new String[10000];
+    for (int i = 0; i < words.length; i++)
+      words[i] = _makeRandomWord(3 + random.nextInt(8));
+
+    Caverphone2 reference = new Caverphone2();
+    FastCaverphone2 encoder = new FastCaverphone2();
+
+    //  A few times thru to warm up hotspot, keeping the numbers from the last one...
+    long referenceTime = 0;
+    long encoderTime = 0;
+    for (int pass = 0; pass < 5; pass++) {
+      long startTime = System.nanoTime();
+      for (String word : words)
+        reference.encode(word);
+      referenceTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (String word : words)
+        encoder.encode(word);
+      encoderTime = System.nanoTime() - startTime;
+    }
+
+    System.out.println("Caverphone2: " + referenceTime / words.length + " nanos per key, FastCaverphone2: " +
+            encoderTime / words.length + " nanos per key");
+  }
+
+  private void _compare(StringEncoder reference, StringEncoder encoder) throws Exception {
+    for (String name : NAMES)
+      assert (_equal(_encode(reference, name), _encode(encoder, name))) : name;
+
+    for (int i = 0; i < 100000; i++) {
+      String word = _makeRandomWord(random.nextInt(12));
+      assert (_equal(_encode(reference, word), _encode(encoder, word))) : word;
+    }
+  }
+
+  /**
+   * Returns the code, or the exception message for keys the encoder rejects (Soundex refuses unmapped letters).
+   */
+  private String _encode(StringEncoder encoder, String key) throws Exception {
+    try {
+      return encoder.encode(key);
+    } catch (IllegalArgumentException e) {
+      return e.getMessage();
+    }
+  }
+
+  private boolean _equal(String expected, String actual) {
+    return expected == null ? actual == null : expected.equals(actual);
+  }
+
+  private String _makeRandomWord(int length) {
+    String[] pieces = {"a", "e", "i", "o", "u", "y", "ch", "sh", "th", "gh", "ph", "wh", "tch", "dg", "tio", "cz",
+            "mb", "gn", "kn", "wr", "cc", "ck", "ci", "x", "q", "j", "z", "ll", "rr", "b", "d", "g", "h", "w", "v",
+            "l", "m", "n", "r", "s", "ss", "ough", "ier", "ey", "ai", "au", "eau", "umb", "ewski", "mac ", " "};
+    StringBuilder buf = new StringBuilder();
+
+    for (int x = 1; x <= length; x++)
+      buf.append(pieces[random.nextInt(pieces.length)]);
+
+    return random.nextBoolean() ? buf.toString() : buf.toString().toUpperCase();
+  }
+}
@@ -0,0 +1,243 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.index.BucketedFuzzyIndex;
+import com.mackenzieresearch.clanx.collections.index.SimpleIndex;
+import com.mackenzieresearch.clanx.collections.multidex.QueryContext;
+import com.mackenzieresearch.clanx.collections.multidex.SimpleMultidimensionalFuzzydex;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.queryable.NAryQuery;
+import com.mackenzieresearch.clanx.collections.queryable.Query;
+import com.mackenzieresearch.clanx.collections.queryable.ScoredSink;
+import com.mackenzieresearch.clanx.collections.queryable.UnaryQuery;
+import com.mackenzieresearch.clanx.entity.Attribute;
+import com.mackenzieresearch.clanx.entity.GeneralAttribute;
+import org.apache.commons.codec.language.Soundex;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.mackenzieresearch.clanx.collections.MultidexFixtures.makeRandomWord;
+
+public class QueryContextTest {
+  private static final int FACT_COUNT = 5000;
+  private static final String[] DIMENSIONS = {"surname", "given", "city", "postcode"};
+
+  private Random random = new Random(8192);
+  private String[][] _pools = new String[DIMENSIONS.length][];
+  private String[][] _values = new String[FACT_COUNT][];
+
+  @Test
+  public void sinkMatchesRankedSets() throws Exception {
+    SimpleMultidimensionalFuzzydex<String> multiIndex = _createMultidex(true);
+    QueryContext context = new QueryContext();
+
+    for (int q = 0; q < 300; q++) {
+      int fact = random.nextInt(FACT_COUNT);
+      List<UnaryQuery> subqueries = new ArrayList<UnaryQuery>();
+      for (int d = 0; d < DIMENSIONS.length; d++) {
+        if (random.nextInt(3) == 0)
+          continue;
+        //  Mostly the fact's own values, a letter out, but sometimes a value from elsewhere in the pool...
+        String value = random.nextInt(4) == 0 ? _pools[d][random.nextInt(_pools[d].length)] : _values[fact][d];
+        if (d < 3 && random.nextBoolean())
+          value = value.substring(0, value.length() - 1);
+        subqueries.add(new Match<String>(DIMENSIONS[d], value));
+      }
+      if (subqueries.isEmpty())
+        continue;
+
+      Query query = subqueries.size() == 1 && random.nextBoolean() ? subqueries.get(0) : new NAryQuery(subqueries);
+      assert (_collect(multiIndex, context, query, -1).equals(_describe(multiIndex.getExactMatches(query))));
+      assert (_collect(multiIndex, context, query, 1.5f).equals(_describe(multiIndex.getRankedMatches(1.5f, query))));
+      assert (_collect(multiIndex, context, query, Float.MAX_VALUE).equals(
+              _describe(multiIndex.getRankedMatches(Float.MAX_VALUE, query))));
+    }
+  }
+
+  @Test
+  public void steadyStateQueriesAllocateNothing() throws Exception {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)
+            || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+      System.out.println("Thread allocation counting isn't supported here; skipping.");
+      return;
+    }
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    long thread = Thread.currentThread().getId();
+
+    SimpleMultidimensionalFuzzydex<String> multiIndex = _createMultidex(false);
+    NAryQuery[] queries = new NAryQuery[64];
+    for (int q = 0; q < queries.length; q++) {
+      int fact = random.nextInt(FACT_COUNT);
+      queries[q] = new NAryQuery(new UnaryQuery[]{new Match<String>("surname", _values[fact][0]),
+              new Match<String>("given", _values[fact][1].substring(1)), new Match<String>("city", _values[fact][2])});
+    }
+
+    QueryContext context = new QueryContext();
+    CountingSink sink = new CountingSink();
+    for (int i = 0; i < 20000; i++)
+      _query(multiIndex, queries[i % queries.length], context, sink, i);
+
+    //  Whatever reading the counter costs, so it can be taken off...
+    long overhead = -allocations.getThreadAllocatedBytes(thread);
+    overhead += 2 * allocations.getThreadAllocatedBytes(thread);
+    overhead -= allocations.getThreadAllocatedBytes(thread);
+
+    //  A method recompiled mid-run can allocate while its frames are swapped over, so take the best of a few runs...
+    int count = 10000;
+    long allocated = Long.MAX_VALUE;
+    long sinkNanos = 0;
+    for (int run = 0; run < 3 && allocated > 0; run++) {
+      sink.count = 0;
+      long start = System.nanoTime();
+      long runAllocated = -allocations.getThreadAllocatedBytes(thread);
+      for (int i = 0; i < count; i++)
+        _query(multiIndex, queries[i % queries.length], context, sink, i);
+      runAllocated += allocations.getThreadAllocatedBytes(thread) - overhead;
+      sinkNanos = System.nanoTime() - start;
+      allocated = Math.min(allocated, runAllocated);
+    }
+
+    long start = System.nanoTime();
+    long rankedSetAllocated = -allocations.getThreadAllocatedBytes(thread);
+    int rankedSetCount = 0;
+    for (int i = 0; i < count; i++) {
+      NAryQuery query = queries[i % queries.length];
+      rankedSetCount += (i & 1) == 0 ? multiIndex.getExactMatches(query).size()
+              : multiIndex.getRankedMatches(Float.MAX_VALUE, query).size();
+    }
+    rankedSetAllocated += allocations.getThreadAllocatedBytes(thread);
+    long rankedSetNanos = System.nanoTime() - start;
+
+    System.out.println("Bytes allocated by " + count + " queries into a sink: " + allocated + " (" + sinkNanos / count
+            + " nanos each), into RankedSets: " + rankedSetAllocated + " (" + rankedSetNanos / count + " nanos each)");
+    assert (sink.count == rankedSetCount);
+    assert (sink.count > 0);
+    assert (allocated <= 0);
+  }
+
+  private void _query(SimpleMultidimensionalFuzzydex<String> multiIndex, NAryQuery query, QueryContext context,
+                      ScoredSink sink, int i) {
+    if ((i & 1) == 0)
+      multiIndex.getExactMatches(query, context, sink);
+    else
+      multiIndex.getRankedMatches(Float.MAX_VALUE, query, context, sink);
+  }
+
+  /**
+   * A multidex whose surnames, given names and cities are all BucketedFuzzyIndexes with a char encoder, or with
+   * mixed dimensions: a Soundex encoder on cities, which probes through Strings, and postcodes in a SimpleIndex, which
+   * can't probe into a sink at all.  Some facts have a second surname.
+   */
+  private SimpleMultidimensionalFuzzydex<String> _createMultidex(boolean mixed) throws Exception {
+    SimpleMultidimensionalFuzzydex<String> multiIndex = new SimpleMultidimensionalFuzzydex<String>();
+
+    BucketedFuzzyIndex<String> surnames = new BucketedFuzzyIndex<String>();
+    surnames.setTolerance(2);
+    multiIndex.addIndexDimension("surname", surnames);
+
+    BucketedFuzzyIndex<String> givenNames = new BucketedFuzzyIndex<String>();
+    givenNames.setWeight(0.7f);
+    multiIndex.addIndexDimension("given", givenNames);
+
+    BucketedFuzzyIndex<String> cities = mixed ? new BucketedFuzzyIndex<String>(new Soundex()) : new BucketedFuzzyIndex<String>();
+    cities.setWeight(1.2f);
+    multiIndex.addIndexDimension("city", cities);
+    multiIndex.addIndexDimension("postcode", new SimpleIndex<String>());
+
+    int[] poolSizes = {200, 50, 20, 5};
+    for (int d = 0; d < DIMENSIONS.length; d++) {
+      _pools[d] = new String[poolSizes[d]];
+      for (int i = 0; i < poolSizes[d]; i++)
+        _pools[d][i] = d == 3 ? "PC" + i : makeRandomWord(random, "BGC".substring(d, d + 1), 5 + d);
+    }
+
+    for (int i = 0; i < FACT_COUNT; i++) {
+      _values[i] = new String[DIMENSIONS.length];
+      Attribute<?>[] attributes = new Attribute<?>[mixed ? DIMENSIONS.length : 3];
+      for (int d = 0; d < attributes.length; d++) {
+        _values[i][d] = _pools[d][random.nextInt(_pools[d].length)];
+        attributes[d] = new GeneralAttribute<String>(DIMENSIONS[d], _values[i][d]);
+      }
+      multiIndex.addFact("F" + i, attributes);
+      if (random.nextInt(10) == 0)
+        multiIndex.addIndexMembersForExistingFact("F" + i,
+                new GeneralAttribute<String>("surname", _pools[0][random.nextInt(_pools[0].length)]));
+    }
+
+    return multiIndex;
+  }
+
+  /**
+   * The query's results through a sink, described as _describe() describes a RankedSet.  A negative threshold means an
+   * exact query.
+   */
+  private List<String> _collect(final SimpleMultidimensionalFuzzydex<String> multiIndex, QueryContext context,
+                                Query query, float scoreThreshold) {
+    final List<String> results = new ArrayList<String>();
+    ScoredSink sink = new ScoredSink() {
+      @Override
+      public void accept(float score, int factId) {
+        results.add(multiIndex.getFact(factId) + "@" + score);
+      }
+    };
+    if (scoreThreshold < 0)
+      multiIndex.getExactMatches(query, context, sink);
+    else
+      multiIndex.getRankedMatches(scoreThreshold, query, context, sink);
+
+    Collections.sort(results);
+    return results;
+  }
+
+  private List<String> _describe(RankedSet<String> resultSet) {
+    List<String> results = new ArrayList<String>();
+    for (ScoredItem<String> item : resultSet)
+      results.add(item.getItem() + "@" + item.getScore());
+
+    Collections.sort(results);
+    return results;
+  }
+
+
+  private static final class CountingSink implements ScoredSink {
+    int count = 0;
+
+    @Override
+    public void accept(float score, int factId) {
+      count++;
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.index.BucketedFuzzyIndex;
+import com.mackenzieresearch.clanx.collections.index.SimpleIndex;
+import com.mackenzieresearch.clanx.collections.multidex.SimpleMultidimensionalFuzzydex;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.queryable.NAryQuery;
+import com.mackenzieresearch.clanx.collections.queryable.UnaryQuery;
+import com.mackenzieresearch.clanx.entity.Attribute;
+import com.mackenzieresearch.clanx.entity.GeneralAttribute;
+import org.apache.commons.codec.language.DoubleMetaphone;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.mackenzieresearch.clanx.collections.MultidexFixtures.createMultidex;
+import static com.mackenzieresearch.clanx.collections.MultidexFixtures.makeRandomWord;
+
+public class QueryPlannerTest {
+  private static final int FACT_COUNT = 20000;
+
+  private Random random = new Random(2048);
+
+  @Test
+  public void testPlannedMatchesUnplanned() throws Exception {
+    SimpleMultidimensionalFuzzydex<String> unplanned = createMultidex(false);
+    SimpleMultidimensionalFuzzydex<String> planned = createMultidex(true);
+
+    String[] surnames = new String[FACT_COUNT];
+    String[] cities = new String[FACT_COUNT];
+    String[] postcodes = new String[FACT_COUNT];
+    int[] years = new int[FACT_COUNT];
+    for (int i = 0; i < FACT_COUNT; i++) {
+      surnames[i] = makeRandomWord(random, "B", 5);
+      cities[i] = makeRandomWord(random, "C", 6);
+      postcodes[i] = "PC" + random.nextInt(500);
+      years[i] = 1900 + random.nextInt(100);
+
+      Attribute<?>[] attributes = new Attribute<?>[]{new GeneralAttribute<String>("surname", surnames[i]),
+              new GeneralAttribute<String>("city", cities[i]), new GeneralAttribute<String>("postcode", postcodes[i]),
+              new GeneralAttribute<Integer>("year", years[i])};
+      unplanned.addFact(Integer.toString(i), attributes);
+      planned.addFact(Integer.toString(i), attributes);
+    }
+
+    int probes = 200;
+    NAryQuery[] rankedQueries = new NAryQuery[probes];
+    NAryQuery[] exactQueries = new NAryQuery[probes];
+    for (int p = 0; p < probes; p++) {
+      int fact = random.nextInt(FACT_COUNT);
+      rankedQueries[p] = new NAryQuery(new UnaryQuery[]{new Match<String>("surname", surnames[fact]),
+              new Match<String>("city", cities[fact].substring(1)), new Match<String>("postcode", postcodes[fact]),
+              new Match<Integer>("year", years[fact] + 1)});
+      exactQueries[p] = new NAryQuery(new UnaryQuery[]{new Match<String>("surname", surnames[fact]),
+              new Match<String>("postcode", postcodes[fact]), new Match<Integer>("year", years[fact])});
+    }
+
+    for (int p = 0; p < probes; p++) {
+      Map<String, Float> expected = _scores(unplanned.getRankedMatches(10, rankedQueries[p]));
+      assert (expected.size() > 0);
+      assert (_scores(planned.getRankedMatches(10, rankedQueries[p])).equals(expected));
+
+      expected = _scores(unplanned.getExactMatches(exactQueries[p]));
+      assert (expected.size() > 0);
+      assert (_scores(planned.getExactMatches(exactQueries[p])).equals(expected));
+    }
+
+    for (SimpleMultidimensionalFuzzydex<String> multiIndex : Arrays.asList(unplanned, planned)) {
+      long startTime = System.nanoTime();
+      for (int p = 0; p < probes; p++)
+        multiIndex.getRankedMatches(10, rankedQueries[p]);
+      long rankedTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (int p = 0; p < probes; p++)
+        multiIndex.getExactMatches(exactQueries[p]);
+      long exactTime = System.nanoTime() - startTime;
+
+      System.out.println((multiIndex == planned ? "Planned" : "Unplanned") + " average nanos per ranked probe: "
+              + rankedTime / probes + ", per exact probe: " + exactTime / probes);
+    }
+  }
+
+  @Test
+  public void testEmptyPlansFallBackToJoin() throws Exception {
+    SimpleMultidimensionalFuzzydex<String> unplanned = createMultidex(false);
+    SimpleMultidimensionalFuzzydex<String> planned = createMultidex(true);
+
+    for (int i = 0; i < 2000; i++) {
+      Attribute<?>[] attributes = new Attribute<?>[]{
+              new GeneralAttribute<String>("surname", makeRandomWord(random, "B", 5)),
+              new GeneralAttribute<String>("city", makeRandomWord(random, "C", 6)),
+              new GeneralAttribute<String>("postcode", "PC" + (i % 50)), new GeneralAttribute<Integer>("year", 1900 + i % 7)};
+      unplanned.addFact(Integer.toString(i), attributes);
+      planned.addFact(Integer.toString(i), attributes);
+    }
+
+    //  An unknown surname empties the chain of joins, which then lets the later dimensions' results through...
+    NAryQuery query = new NAryQuery(new UnaryQuery[]{new Match<String>("surname", "Zzzzz"),
+            new Match<String>("postcode", "PC7"), new Match<Integer>("year", 1900)});
+    Map<String, Float> expected = _scores(unplanned.getExactMatches(query));
+    assert (expected.size() > 0);
+    assert (_scores(planned.getExactMatches(query)).equals(expected));
+  }
+
+  @Test
+  public void testKeysWithNoCode() throws Exception {
+    BucketedFuzzyIndex<String> surnames = new BucketedFuzzyIndex<String>(new DoubleMetaphone());
+    assert (surnames.rankedScore("", "smith") == -1);
+    assert (surnames.rankedScore("smith", "") == -1);
+
+    SimpleMultidimensionalFuzzydex<String> unplanned = new SimpleMultidimensionalFuzzydex<String>();
+    SimpleMultidimensionalFuzzydex<String> planned = new SimpleMultidimensionalFuzzydex<String>();
+    planned.enableQueryPlanner();
+    for (SimpleMultidimensionalFuzzydex<String> multiIndex : Arrays.asList(unplanned, planned)) {
+      multiIndex.addIndexDimension("surname", new BucketedFuzzyIndex<String>(new DoubleMetaphone()));
+      multiIndex.addIndexDimension("postcode", new SimpleIndex<String>());
+      for (int i = 0; i < 100; i++)
+        multiIndex.addFact(Integer.toString(i), new GeneralAttribute<String>("surname", i % 2 == 0 ? "smith" : "jones"),
+                new GeneralAttribute<String>("postcode", "PC" + (i % 5)));
+    }
+
+    NAryQuery query = new NAryQuery(new UnaryQuery[]{new Match<String>("surname", ""),
+            new Match<String>("postcode", "PC3")});
+    assert (_scores(planned.getExactMatches(query)).equals(_scores(unplanned.getExactMatches(query))));
+    assert (_scores(planned.getRankedMatches(10, query)).equals(_scores(unplanned.getRankedMatches(10, query))));
+    assert (planned.getTopMatches(5, query).size() == unplanned.getTopMatches(5, query).size());
+  }
+
+  @Test
+  public void testHyperLogLog() throws Exception {
+    HyperLogLog small = new HyperLogLog();
+    HyperLogLog large = new HyperLogLog();
+    for (int i = 0; i < 200000; i++) {
+      large.offer("key" + i);
+      if (i < 100)
+        small.offer("key" + (i % 50));
+    }
+
+    assert (Math.abs(small.cardinality() - 50) <= 1);
+    assert (Math.abs(large.cardinality() - 200000) < 200000 * 0.05);
+    System.out.println("HyperLogLog estimated 200000 distinct keys as " + large.cardinality());
+  }
+
+
+  private Map<String, Float> _scores(RankedSet<String> results) {
+    Map<String, Float> scores = new HashMap<String, Float>();
+    for (ScoredItem<String> item : results) {
+      Float previous = scores.put(item.getItem(), item.getScore());
+      assert (previous == null);
+    }
+    return scores;
+  }
+}
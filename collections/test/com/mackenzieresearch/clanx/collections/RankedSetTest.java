@@ -0,0 +1,170 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections;
+
+import com.google.common.collect.Multiset;
+import com.google.common.collect.SortedMultiset;
+import com.google.common.collect.TreeMultiset;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+public class RankedSetTest {
+  private Random random = new Random(512);
+
+  @Test
+  public void columnsMatchTree() throws Exception {
+    for (int trial = 0; trial < 200; trial++) {
+      RankedSet<String> rankedSet = new RankedSet<String>();
+      SortedMultiset<ScoredItem<String>> tree = TreeMultiset.create();
+
+      //  Few distinct scores and items, so there are ties, duplicates and, now and then, scores too close to sort...
+      int size = random.nextInt(50);
+      boolean closeScores = trial % 4 == 0;
+      for (int i = 0; i < size; i++) {
+        float score = random.nextInt(8) + (closeScores ? random.nextInt(3) * 0.0001f : 0);
+        String item = "item" + random.nextInt(20);
+        rankedSet.add(score, item);
+        tree.add(new ScoredItem<String>(score, item));
+      }
+
+      assert (rankedSet.size() == tree.size());
+      assert (_scoredItems(rankedSet).equals(_scoredItems(tree)));
+      if (size > 0) {
+        assert (_sameEntry(rankedSet.firstEntry(), tree.firstEntry()));
+        assert (_sameEntry(rankedSet.lastEntry(), tree.lastEntry()));
+      }
+
+      //  Removing by iterator moves the set into its tree, and the rest of it reads the same...
+      if (size > 0 && trial % 2 == 0) {
+        Iterator<ScoredItem<String>> items = rankedSet.iterator();
+        ScoredItem<String> removed = items.next();
+        items.remove();
+        tree.remove(removed, 1);
+        rankedSet.add(3.5f, "added");
+        tree.add(new ScoredItem<String>(3.5f, "added"));
+      }
+
+      assert (rankedSet.entrySet().equals(tree.entrySet()));
+      assert (_scoredItems(rankedSet).equals(_scoredItems(tree)));
+    }
+  }
+
+  @Test
+  public void boundedKeepsBest() throws Exception {
+    for (RankedSet.Order order : RankedSet.Order.values()) {
+      for (int trial = 0; trial < 100; trial++) {
+        int capacity = 1 + random.nextInt(20);
+        RankedSet<String> bounded = new RankedSet<String>(order, capacity);
+        List<Float> scores = new ArrayList<Float>();
+
+        int size = random.nextInt(200);
+        for (int i = 0; i < size; i++) {
+          float score = random.nextInt(1000) / 10.0f;
+          float worstScore = bounded.getWorstScore();
+          boolean better = order == RankedSet.Order.ASCENDING ? score < worstScore : score > worstScore;
+          assert (bounded.add(score, "item" + i) == (i < capacity || better));
+          scores.add(score);
+
+          //  Moving the set into its tree mustn't lift the bound...
+          if (trial % 10 == 0 && i == size / 2)
+            assert (bounded.entrySet().size() <= capacity);
+        }
+
+        Collections.sort(scores);
+        if (order == RankedSet.Order.DESCENDING)
+          Collections.reverse(scores);
+        List<Float> expected = scores.subList(0, Math.min(capacity, scores.size()));
+
+        List<Float> actual = new ArrayList<Float>();
+        for (ScoredItem<String> item : bounded)
+          actual.add(item.getScore());
+        assert (actual.equals(expected));
+        assert (bounded.size() == expected.size());
+        if (size >= capacity)
+          assert (bounded.getWorstScore() == expected.get(capacity - 1));
+        else
+          assert (bounded.getWorstScore() == (order == RankedSet.Order.ASCENDING ? bounded.getMaxScore() : bounded.getMinScore()));
+        if (size > 0)
+          assert (bounded.firstEntry().getElement().getScore() == expected.get(0));
+      }
+    }
+  }
+
+  @Test
+  public void buildAndReadOnce() throws Exception {
+    int size = 100000;
+    float[] scores = new float[size];
+    String[] items = new String[size];
+    for (int i = 0; i < size; i++) {
+      scores[i] = random.nextInt(1000) / 10.0f;
+      items[i] = Integer.toString(i);
+    }
+
+    long[] elapsedTimes = new long[2];
+    for (int pass = 0; pass < 10; pass++) {
+      long startTime = System.nanoTime();
+      RankedSet<String> rankedSet = new RankedSet<String>();
+      for (int i = 0; i < size; i++)
+        rankedSet.add(scores[i], items[i]);
+      float lastScore = 0;
+      for (ScoredItem<String> item : rankedSet) {
+        assert (item.getScore() >= lastScore);
+        lastScore = item.getScore();
+      }
+      elapsedTimes[0] += System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      SortedMultiset<ScoredItem<String>> tree = TreeMultiset.create();
+      for (int i = 0; i < size; i++)
+        tree.add(new ScoredItem<String>(scores[i], items[i]));
+      for (ScoredItem<String> item : tree)
+        lastScore = item.getScore();
+      elapsedTimes[1] += System.nanoTime() - startTime;
+    }
+    System.out.println("Average nanos to build and read " + size + " results, columns: " + elapsedTimes[0] / 10
+            + ", tree: " + elapsedTimes[1] / 10);
+  }
+
+  private List<String> _scoredItems(Iterable<ScoredItem<String>> scoredItems) {
+    List<String> results = new ArrayList<String>();
+    for (ScoredItem<String> scoredItem : scoredItems)
+      results.add(scoredItem.getScore() + " " + scoredItem.getItem());
+    return results;
+  }
+
+  private boolean _sameEntry(Multiset.Entry<ScoredItem<String>> a, Multiset.Entry<ScoredItem<String>> b) {
+    return a.getCount() == b.getCount() && a.getElement().getScore() == b.getElement().getScore()
+            && a.getElement().getItem().equals(b.getElement().getItem());
+  }
+}
@@ -0,0 +1,200 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.multidex.SimpleMultidimensionalFuzzydex;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.queryable.NAryQuery;
+import com.mackenzieresearch.clanx.collections.queryable.Query;
+import com.mackenzieresearch.clanx.collections.queryable.Queryable;
+import com.mackenzieresearch.clanx.collections.queryable.ResultCursor;
+import com.mackenzieresearch.clanx.collections.queryable.ResumeToken;
+import com.mackenzieresearch.clanx.collections.queryable.UnaryQuery;
+import com.mackenzieresearch.clanx.entity.GeneralAttribute;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.mackenzieresearch.clanx.collections.MultidexFixtures.createMultidex;
+import static com.mackenzieresearch.clanx.collections.MultidexFixtures.makeRandomWord;
+
+public class ResultCursorTest {
+  private static final int FACT_COUNT = 20000;
+
+  private Random random = new Random(2048);
+  private String[] _surnames = new String[FACT_COUNT];
+  private String[] _cities = new String[FACT_COUNT];
+  private String[] _postcodes = new String[FACT_COUNT];
+  private int[] _years = new int[FACT_COUNT];
+
+  @Test
+  public void pagesMatchRankedMatches() throws Exception {
+    _checkQueries(_createMultidex(false));
+  }
+
+  @Test
+  public void pagesMatchPlannedRankedMatches() throws Exception {
+    _checkQueries(_createMultidex(true));
+  }
+
+  @Test
+  public void joinThatStartsOver() throws Exception {
+    SimpleMultidimensionalFuzzydex<String> multiIndex = _createMultidex(false);
+
+    //  A postcode match scores 1, so nothing gets through the first join within the threshold and the chain of joins
+    //  starts over at year...
+    Query query = new NAryQuery(new UnaryQuery[]{new Match<String>("surname", _surnames[0]),
+            new Match<String>("postcode", _postcodes[0]), new Match<Integer>("year", _years[0])});
+    RankedSet<String> expected = multiIndex.getIndex("year").getRankedMatches(0.1f,
+            new Match<Integer>("year", _years[0]));
+    assert (expected.size() > 0);
+    assert (multiIndex.getRankedMatches(0.1f, query).size() == expected.size());
+    _checkPages(multiIndex, 0.1f, query);
+  }
+
+  @Test
+  public void firstPageOfLooseQuery() throws Exception {
+    SimpleMultidimensionalFuzzydex<String> multiIndex = _createMultidex(false);
+    Query query = new NAryQuery(new UnaryQuery[]{new Match<String>("city", _cities[0]),
+            new Match<Integer>("year", _years[0])});
+    Query surnameQuery = new Match<String>("surname", _surnames[0]);
+
+    int probes = 20;
+    long[] elapsed = new long[4];
+    int resultCount = 0;
+    for (int p = 0; p < probes; p++) {
+      long start = System.nanoTime();
+      resultCount = multiIndex.getRankedMatches(Float.MAX_VALUE, query).size();
+      elapsed[0] += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      ResultCursor<String> cursor = multiIndex.getRankedCursor(Float.MAX_VALUE, query);
+      for (int i = 0; i < 10 && cursor.hasNext(); i++)
+        cursor.next();
+      elapsed[1] += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      multiIndex.getRankedMatches(Float.MAX_VALUE, surnameQuery).size();
+      elapsed[2] += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      cursor = multiIndex.getRankedCursor(Float.MAX_VALUE, surnameQuery);
+      for (int i = 0; i < 10 && cursor.hasNext(); i++)
+        cursor.next();
+      elapsed[3] += System.nanoTime() - start;
+    }
+
+    System.out.println("Average nanos for " + resultCount + " joined results: " + elapsed[0] / probes
+            + ", first 10 by cursor: " + elapsed[1] / probes + "; single dimension all: " + elapsed[2] / probes
+            + ", first 10 by cursor: " + elapsed[3] / probes);
+  }
+
+  private void _checkQueries(SimpleMultidimensionalFuzzydex<String> multiIndex) {
+    for (int q = 0; q < 40; q++) {
+      int fact = random.nextInt(FACT_COUNT);
+      List<UnaryQuery> subqueries = new ArrayList<UnaryQuery>();
+      subqueries.add(new Match<String>("surname", _surnames[fact].substring(1)));
+      if (q % 2 == 1)
+        subqueries.add(new Match<String>("city", _cities[fact]));
+      if (q % 4 == 3)
+        subqueries.add(new Match<Integer>("year", _years[fact] + random.nextInt(3)));
+      Query query = new NAryQuery(subqueries);
+      float scoreThreshold = q % 8 == 7 ? 2.5f : Float.MAX_VALUE;
+
+      //  Each dimension on its own, and the multidex...
+      for (UnaryQuery subquery : subqueries)
+        _checkPages(multiIndex.getIndex(((Match) subquery).name()), scoreThreshold, subquery);
+      _checkPages(multiIndex, scoreThreshold, query);
+    }
+  }
+
+  /**
+   * Reads the query's results a page at a time, each page from a new cursor resumed from the last one's token (by way of
+   * a String), and checks that together they are getRankedMatches()'s, in score order.
+   */
+  private void _checkPages(Queryable<String> queryable, float scoreThreshold, Query query) {
+    List<String> expected = new ArrayList<String>();
+    for (ScoredItem<String> item : queryable.getRankedMatches(scoreThreshold, query))
+      expected.add(item.getItem() + "@" + item.getScore());
+    Collections.sort(expected);
+
+    List<String> actual = new ArrayList<String>();
+    int pageSize = 1 + random.nextInt(50);
+    ResumeToken token = ResumeToken.START;
+    float lastScore = Float.NEGATIVE_INFINITY;
+    while (true) {
+      ResultCursor<String> cursor = queryable.getRankedCursor(scoreThreshold, query, token);
+      int page = 0;
+      for (; page < pageSize && cursor.hasNext(); page++) {
+        ScoredItem<String> item = cursor.next();
+        assert (item.getScore() >= lastScore);
+        lastScore = item.getScore();
+        actual.add(item.getItem() + "@" + item.getScore());
+      }
+      if (page == 0)
+        break;
+
+      token = ResumeToken.parse(cursor.resumeToken().toString());
+      assert (token.equals(cursor.resumeToken()));
+      assert (token.getPosition() == actual.size());
+    }
+
+    Collections.sort(actual);
+    assert (actual.equals(expected));
+  }
+
+  /**
+   * MultidexFixtures' multidex, with surnames from a pool of 300, cities from a pool of 20, 50 postcodes and 40 years.
+   */
+  private SimpleMultidimensionalFuzzydex<String> _createMultidex(boolean planned) throws Exception {
+    SimpleMultidimensionalFuzzydex<String> multiIndex = createMultidex(planned);
+
+    String[] surnamePool = new String[300];
+    for (int i = 0; i < surnamePool.length; i++)
+      surnamePool[i] = makeRandomWord(random, "B", 5);
+    String[] cityPool = new String[20];
+    for (int i = 0; i < cityPool.length; i++)
+      cityPool[i] = makeRandomWord(random, "C", 6);
+
+    for (int i = 0; i < FACT_COUNT; i++) {
+      _surnames[i] = surnamePool[random.nextInt(surnamePool.length)];
+      _cities[i] = cityPool[random.nextInt(cityPool.length)];
+      _postcodes[i] = "PC" + random.nextInt(50);
+      _years[i] = 1900 + random.nextInt(40);
+      multiIndex.addFact("F" + i, new GeneralAttribute<String>("surname", _surnames[i]),
+              new GeneralAttribute<String>("city", _cities[i]), new GeneralAttribute<String>("postcode", _postcodes[i]),
+              new GeneralAttribute<Integer>("year", _years[i]));
+    }
+
+    return multiIndex;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.index.BucketedFuzzyIndex;
+import com.mackenzieresearch.clanx.collections.index.TokenSetIndex;
+import com.mackenzieresearch.clanx.collections.index.normalize.NormalizerChain;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TokenSetIndexTest {
+  private TokenSetIndex<String> _index;
+
+  @Before
+  public void setUp() throws Exception {
+    _index = new TokenSetIndex<String>();
+    _index.setNormalizer(NormalizerChain.standard());
+    _index.addEntry("Acme Corp Ltd", "acme1");
+    _index.addEntry("Acme Corporation", "acme2");
+    _index.addEntry("Zenith Holdings Ltd", "zenith1");
+    _index.addEntry("Ltd. Acme Corp", "acme3");
+    _index.addEntry("Mackenzie Research", "mackenzie1");
+  }
+
+  @Test
+  public void testReorderedTokens() throws Exception {
+    assert(_index.getExactMatches("corp acme LTD").size() == 2);
+    assert(_index.getExactMatch("Research, Mackenzie").equals("mackenzie1"));
+    assert(_index.getExactMatch("Acme") == null);
+
+    RankedSet<String> results = _index.getRankedMatches("Ltd Acme Corp");
+    assert(results.firstEntry().getElement().getScore() == 0);
+    assert(results.count(results.firstEntry().getElement()) == 1);
+  }
+
+  @Test
+  public void testFuzzyTokens() throws Exception {
+    RankedSet<String> results = _index.getRankedMatches("Akme Corp");
+    String best = results.firstEntry().getElement().getItem();
+    assert(best.equals("acme1") || best.equals("acme3"));
+    assert(_index.getNearestMatch("Mackenzy Reserch").equals("mackenzie1"));
+
+    _index.setMaxScore(0.5f);
+    for (ScoredItem<String> result : _index.getRankedMatches("Zenith Ltd"))
+      assert(result.getItem().equals("zenith1"));
+  }
+
+  @Test
+  public void testPluggableTokenIndex() throws Exception {
+    TokenSetIndex<String> index = new TokenSetIndex<String>(new BucketedFuzzyIndex<String>());
+    index.addEntry("john smith", "smith1");
+    index.addEntry("jon smyth", "smith2");
+    index.addEntry("mary jones", "jones1");
+
+    assert(index.getRankedMatches("smith john").size() == 2);
+    assert(index.getNearestMatch("smith john").equals("smith1"));
+  }
+}
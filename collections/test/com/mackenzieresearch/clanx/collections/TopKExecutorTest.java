@@ -0,0 +1,249 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.clanx.collections;
+
+import com.mackenzieresearch.clanx.collections.index.Index;
+import com.mackenzieresearch.clanx.collections.index.MatchCursor;
+import com.mackenzieresearch.clanx.collections.index.ScoringIndex;
+import com.mackenzieresearch.clanx.collections.index.SortedAccessIndex;
+import com.mackenzieresearch.clanx.collections.multidex.SimpleMultidimensionalFuzzydex;
+import com.mackenzieresearch.clanx.collections.multidex.TopKExecutor;
+import com.mackenzieresearch.clanx.collections.queryable.Match;
+import com.mackenzieresearch.clanx.collections.queryable.NAryQuery;
+import com.mackenzieresearch.clanx.collections.queryable.UnaryQuery;
+import com.mackenzieresearch.clanx.entity.GeneralAttribute;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.mackenzieresearch.clanx.collections.MultidexFixtures.createMultidex;
+import static com.mackenzieresearch.clanx.collections.MultidexFixtures.makeRandomWord;
+
+public class TopKExecutorTest {
+  private static final int FACT_COUNT = 10000;
+  private static final String[] DIMENSIONS = {"surname", "city", "postcode", "year"};
+
+  private Random random = new Random(4096);
+
+  @Test
+  public void testTopMatchesAgainstJoin() throws Exception {
+    SimpleMultidimensionalFuzzydex<String> nra = createMultidex(false);
+    SimpleMultidimensionalFuzzydex<String> ta = createMultidex(true);
+
+    String[] surnames = new String[FACT_COUNT];
+    String[] cities = new String[FACT_COUNT];
+    String[] postcodes = new String[FACT_COUNT];
+    int[] years = new int[FACT_COUNT];
+    String[] surnamePool = new String[100];
+    for (int i = 0; i < surnamePool.length; i++)
+      surnamePool[i] = makeRandomWord(random, "B", 5);
+    String[] cityPool = new String[10];
+    for (int i = 0; i < cityPool.length; i++)
+      cityPool[i] = makeRandomWord(random, "C", 6);
+
+    for (int i = 0; i < FACT_COUNT; i++) {
+      surnames[i] = surnamePool[random.nextInt(surnamePool.length)];
+      cities[i] = cityPool[random.nextInt(cityPool.length)];
+      postcodes[i] = "PC" + random.nextInt(2);
+      years[i] = 1900 + random.nextInt(20);
+      for (SimpleMultidimensionalFuzzydex<String> multiIndex : Arrays.asList(nra, ta))
+        multiIndex.addFact(Integer.toString(i), new GeneralAttribute<String>("surname", surnames[i]),
+                new GeneralAttribute<String>("city", cities[i]), new GeneralAttribute<String>("postcode", postcodes[i]),
+                new GeneralAttribute<Integer>("year", years[i]));
+    }
+
+    int probes = 50;
+    int k = 5;
+    long[] elapsed = new long[3];
+    for (int p = 0; p < probes; p++) {
+      int fact = random.nextInt(FACT_COUNT);
+      NAryQuery query = new NAryQuery(new UnaryQuery[]{new Match<String>("surname", surnames[fact]),
+              new Match<String>("city", cities[fact].substring(1)), new Match<String>("postcode", postcodes[fact]),
+              new Match<Integer>("year", years[fact] + random.nextInt(5))});
+
+      long start = System.nanoTime();
+      List<Float> expected = _topScores(_insideJoin(nra, query), k);
+      elapsed[0] += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      RankedSet<String> nraResults = nra.getTopMatches(k, query);
+      elapsed[1] += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      RankedSet<String> taResults = ta.getTopMatches(k, query);
+      elapsed[2] += System.nanoTime() - start;
+
+      assert (_topScores(nraResults, k).equals(expected));
+      assert (_topScores(taResults, k).equals(expected));
+    }
+
+    System.out.println("Average nanos per top-" + k + " probe, full join: " + elapsed[0] / probes + ", NRA: "
+            + elapsed[1] / probes + ", TA: " + elapsed[2] / probes);
+  }
+
+  @Test
+  public void testCursorsMatchRankedMatches() throws Exception {
+    SimpleMultidimensionalFuzzydex<String> multiIndex = createMultidex(false);
+    for (int i = 0; i < 5000; i++)
+      multiIndex.addFact(Integer.toString(i), new GeneralAttribute<String>("surname", makeRandomWord(random, "B", 5)),
+              new GeneralAttribute<String>("city", makeRandomWord(random, "C", 6)),
+              new GeneralAttribute<Integer>("year", 1900 + random.nextInt(100)));
+
+    for (int p = 0; p < 50; p++) {
+      List<UnaryQuery> queries = new ArrayList<UnaryQuery>();
+      queries.add(new Match<String>("surname", makeRandomWord(random, "B", 5)));
+      queries.add(new Match<String>("city", makeRandomWord(random, "C", 6)));
+      queries.add(new Match<Integer>("year", 1900 + random.nextInt(100)));
+
+      for (UnaryQuery query : queries) {
+        Index<String> dimension = multiIndex.getIndex(((Match) query).name());
+        RankedSet<String> expected = dimension.getRankedMatches(Float.MAX_VALUE, query);
+
+        MatchCursor<String> cursor = ((SortedAccessIndex<String>) dimension).rankedCursor(query);
+        RankedSet<String> actual = new RankedSet<String>();
+        float lastScore = 0;
+        while (cursor.bound() != Float.POSITIVE_INFINITY) {
+          float bound = cursor.bound();
+          boolean advanced = cursor.next();
+          assert (advanced);
+          assert (cursor.score() >= bound && cursor.score() >= lastScore);
+          lastScore = cursor.score();
+          actual.add(cursor.score(), cursor.item());
+        }
+        assert (!cursor.next());
+        assert (actual.size() == expected.size());
+        assert (actual.entrySet().equals(expected.entrySet()));
+      }
+    }
+  }
+
+  @Test
+  public void testSelectiveDimensionStopsEarly() throws Exception {
+    SimpleMultidimensionalFuzzydex<String> multiIndex = createMultidex(false);
+    String[] cityPool = new String[10];
+    for (int i = 0; i < cityPool.length; i++)
+      cityPool[i] = makeRandomWord(random, "C", 6);
+
+    String[] postcodes = new String[FACT_COUNT];
+    String[] cities = new String[FACT_COUNT];
+    int[] years = new int[FACT_COUNT];
+    for (int i = 0; i < FACT_COUNT; i++) {
+      postcodes[i] = "PC" + random.nextInt(2000);
+      cities[i] = cityPool[random.nextInt(cityPool.length)];
+      years[i] = 1900 + random.nextInt(20);
+      multiIndex.addFact(Integer.toString(i), new GeneralAttribute<String>("city", cities[i]),
+              new GeneralAttribute<String>("postcode", postcodes[i]), new GeneralAttribute<Integer>("year", years[i]));
+    }
+
+    int probes = 50;
+    int k = 5;
+    long sortedAccesses = 0;
+    long candidateCount = 0;
+    for (int p = 0; p < probes; p++) {
+      int fact = random.nextInt(FACT_COUNT);
+      NAryQuery query = new NAryQuery(new UnaryQuery[]{new Match<String>("city", cities[fact].substring(1)),
+              new Match<String>("postcode", postcodes[fact]), new Match<Integer>("year", years[fact])});
+      List<Float> expected = _topScores(_insideJoin(multiIndex, query), k);
+
+      //  Random access by the dimensions' ranked matches, cheap only where the index ranks within a block...
+      final List<ScoringIndex<String>> dimensions = new ArrayList<ScoringIndex<String>>();
+      final List<Map<String, Float>> scores = new ArrayList<Map<String, Float>>();
+      List<MatchCursor<String>> cursors = new ArrayList<MatchCursor<String>>();
+      List<MatchCursor<String>> nraCursors = new ArrayList<MatchCursor<String>>();
+      float[] weights = new float[query.size()];
+      for (UnaryQuery subquery : query) {
+        Index<String> dimension = multiIndex.getIndex(((Match<?>) subquery).name());
+        Map<String, Float> dimensionScores = new HashMap<String, Float>();
+        for (ScoredItem<String> item : dimension.getRankedMatches(Float.MAX_VALUE, subquery))
+          if (!dimensionScores.containsKey(item.getItem()))
+            dimensionScores.put(item.getItem(), item.getScore());
+        candidateCount += dimensionScores.size();
+
+        weights[dimensions.size()] = dimension.getWeight();
+        dimensions.add((ScoringIndex<String>) dimension);
+        scores.add(dimensionScores);
+        cursors.add(((SortedAccessIndex<String>) dimension).rankedCursor(subquery));
+        nraCursors.add(((SortedAccessIndex<String>) dimension).rankedCursor(subquery));
+      }
+
+      TopKExecutor<String> executor = new TopKExecutor<String>(cursors, weights);
+      executor.setRandomAccess(new TopKExecutor.RandomAccess<String>() {
+        @Override
+        public float score(int dimension, String fact) {
+          Float score = scores.get(dimension).get(fact);
+          return score == null ? -1 : score;
+        }
+
+        @Override
+        public boolean isCheap(int dimension) {
+          return dimensions.get(dimension).ranksWithinBlock();
+        }
+      });
+      assert (_topScores(executor.execute(k), k).equals(expected));
+      sortedAccesses += executor.getSortedAccessCount();
+
+      assert (_topScores(new TopKExecutor<String>(nraCursors, weights).execute(k), k).equals(expected));
+    }
+
+    System.out.println("Average sorted accesses per top-" + k + " probe: " + sortedAccesses / probes + " of "
+            + candidateCount / probes + " candidates");
+    assert (sortedAccesses * 20 < candidateCount);
+  }
+
+
+  /**
+   * The facts found in every dimension, scored by the chain of weightedInsideJoin()s.
+   */
+  private RankedSet<String> _insideJoin(SimpleMultidimensionalFuzzydex<String> multiIndex, NAryQuery query) {
+    RankedSet<String> results = null;
+    float weightOfLastDimension = 1.0f;
+    for (UnaryQuery subquery : query) {
+      Index<String> dimension = multiIndex.getIndex(((Match) subquery).name());
+      RankedSet<String> partialResults = dimension.getRankedMatches(Float.MAX_VALUE, subquery);
+      results = results == null ? partialResults
+              : results.weightedInsideJoin(partialResults, weightOfLastDimension, dimension.getWeight());
+      weightOfLastDimension = dimension.getWeight();
+    }
+    return results;
+  }
+
+  private List<Float> _topScores(RankedSet<String> results, int k) {
+    List<Float> scores = new ArrayList<Float>();
+    for (ScoredItem<String> item : results)
+      scores.add(item.getScore());
+    Collections.sort(scores);
+    return scores.subList(0, Math.min(k, scores.size()));
+  }
+}
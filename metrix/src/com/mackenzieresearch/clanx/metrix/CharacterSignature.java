@@ -0,0 +1,103 @@
+/*
+
+   CLANX, A foundation library for java application development.
+   Version 0.2
+
+   Copyright 2011-2012 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.mackenzieresearch.clanx.metrix;
+
+/**
+ * Cheap lower bounds on Levenshtein distance, for rejecting candidates before running the DP.
+ * <p/>
+ * A string's signature is a 64 bit mask with one bit set for each class of character it contains.  Letters are
+ * classed without regard to case, digits each get a class, and everything else shares the remaining classes.  Every
+ * class present in a but absent from b costs at least one edit, and a single substitution can repair at most one
+ * such class on each side, so max(popcount(a & ~b), popcount(b & ~a)) bounds the distance from below, as does the
+ * difference in length.  Folding characters together into classes only ever weakens the bound, never breaks it.
+ */
+public class CharacterSignature {
+  private static final byte[] ASCII_CLASSES = new byte[128];
+
+  static {
+    for (int c = 0; c < 128; c++) {
+      if (c >= 'a' && c <= 'z')
+        ASCII_CLASSES[c] = (byte) (c - 'a');
+      else if (c >= 'A' && c <= 'Z')
+        ASCII_CLASSES[c] = (byte) (c - 'A');
+      else if (c >= '0' && c <= '9')
+        ASCII_CLASSES[c] = (byte) (26 + c - '0');
+      else if (c == ' ')
+        ASCII_CLASSES[c] = 36;
+      else
+        ASCII_CLASSES[c] = (byte) (37 + c % 7);
+    }
+  }
+
+
+  public static long signature(String s) {
+    long signature = 0;
+    for (int i = 0, n = s.length(); i < n; i++)
+      signature |= 1L << characterClass(s.charAt(i));
+
+    return signature;
+  }
+
+  public static long signature(char[] s, int length) {
+    long signature = 0;
+    for (int i = 0; i < length; i++)
+      signature |= 1L << characterClass(s[i]);
+
+    return signature;
+  }
+
+  public static int characterClass(char c) {
+    return c < 128 ? ASCII_CLASSES[c] : 44 + c % 20;
+  }
+
+  public static int lowerBound(long aSignature, int aLength, long bSignature, int bLength) {
+    int bound = Math.abs(aLength - bLength);
+    bound = Math.max(bound, Long.bitCount(aSignature & ~bSignature));
+    return Math.max(bound, Long.bitCount(bSignature & ~aSignature));
+  }
+
+  /**
+   * Writes into survivors the indexes in [from, to) of the signatures whose lower bound against the query is within
+   * maxDistance, and returns how many there were.  survivors must have room for to - from of them.
+   */
+  public static int filter(long querySignature, int queryLength, long[] signatures, int[] lengths, int from, int to,
+                           int maxDistance, int[] survivors) {
+    int count = 0;
+    for (int i = from; i < to; i++) {
+      long signature = signatures[i];
+      int bound = Math.max(Math.abs(queryLength - lengths[i]),
+              Math.max(Long.bitCount(querySignature & ~signature), Long.bitCount(signature & ~querySignature)));
+
+      //  Write unconditionally and advance only on a hit, so the loop has no unpredictable branch...
+      survivors[count] = i;
+      count += (bound - maxDistance - 1) >>> 31;
+    }
+
+    return count;
+  }
+}
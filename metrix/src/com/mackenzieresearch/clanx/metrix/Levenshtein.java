@@ -35,7 +35,15 @@ package com.mackenzieresearch.clanx.metrix;
  * See: http://www.wikipedia.org/wiki/Levenshtein_distance for a description of
  * how the algorithm works.
  */
-public class Levenshtein {
+public class Levenshtein implements StringMetric {
+  /**
+   * Levenshtein as a StringMetric, computed by scanLine().
+   */
+  @Override
+  public float distance(String a, String b) {
+    return scanLine(a, b);
+  }
+
   /**
    * This naive version calculates a Levenshtein metric in Order MxN time, using an MxN
    * matrix, so it will consume memory geometrically as the size of the compared strings
@@ -52,10 +60,10 @@ public class Levenshtein {
 
     int[][] lMatrix = new int[m + 1][n + 1];
 
-    for (int i = 0; i < m; i++)
+    for (int i = 0; i <= m; i++)
       lMatrix[i][0] = i;
 
-    for (int j = 0; j < n; j++)
+    for (int j = 0; j <= n; j++)
       lMatrix[0][j] = j;
 
     //  Spin thru the cartesian product of the two strings (m x n) doing essentially a floodfill,
@@ -87,43 +95,133 @@ public class Levenshtein {
    * @return levenshtein distance
    */
   public static int scanLine(String mParam, String nParam) {
-    //  Prime a two-line buffer in lieu of the matrix for us to iterate thru the
-    // (m x n) combinations, counting differences...
+    return scanLine(mParam, nParam, null, null);
+  }
+
+  /**
+   * scanLine() with its two-line buffer supplied by the caller, so that a caller comparing many keys allocates
+   * nothing.  Each line must be at least nParam.length() + 1 long, or null to have it allocated.
+   *
+   * @param mParam
+   * @param nParam
+   * @param previousLine
+   * @param workingLine
+   * @return levenshtein distance
+   */
+  public static int scanLine(String mParam, String nParam, int[] previousLine, int[] workingLine) {
     int m = mParam.length();
     int n = nParam.length();
 
-    int[][] refMatrix = new int[2][Math.max(n, m) + 1];
-    int[][] lMatrix = new int[2][];
+    //  Characters the two strings share at the start and at the end can't change the distance, so trim them off
+    //  before doing any real work.  (Names and other keys that nearly match tend to share a lot of both.)
+    int prefix = 0;
+    while (prefix < m && prefix < n && mParam.charAt(prefix) == nParam.charAt(prefix))
+      prefix++;
+    while (m > prefix && n > prefix && mParam.charAt(m - 1) == nParam.charAt(n - 1)) {
+      m--;
+      n--;
+    }
+    m -= prefix;
+    n -= prefix;
 
-    for (int j = 0; j < n; j++)
-      refMatrix[0][j] = j;
+    if (m == 0)
+      return n;
+    if (n == 0)
+      return m;
+
+    //  Prime a two-line buffer in lieu of the matrix for us to iterate thru the
+    // (m x n) combinations, counting differences...
+    if (previousLine == null)
+      previousLine = new int[n + 1];
+    if (workingLine == null)
+      workingLine = new int[n + 1];
 
-    //  Set up our two-line working buffer backwards so that the first flip our loop does below
-    //  lines things up correctly and can continue to iterate thru rotating buffers until the end...
-    lMatrix[0] = refMatrix[1];
-    lMatrix[1] = refMatrix[0];
+    for (int j = 0; j <= n; j++)
+      previousLine[j] = j;
 
     for (int i = 1; i <= m; i++) {
-      //  Rotate our twoline buffer so previous working line is now at [0] and we set [1] up as
-      // the new working line...
-      int[] tmpMatrix = lMatrix[0];
-      lMatrix[0] = lMatrix[1];
-      lMatrix[1] = tmpMatrix;
-      lMatrix[1][i - 1] = i - 1;
+      workingLine[0] = i;
+      char mChar = mParam.charAt(prefix + i - 1);
 
       //  Make the next pass...
       for (int j = 1; j <= n; j++) {
-        if (mParam.charAt(i - 1) == nParam.charAt(j - 1))
-          lMatrix[1][j] = lMatrix[0][j - 1];
-        else {
-          lMatrix[1][j] = Math.min(lMatrix[0][j] + 1,
-                  Math.min(lMatrix[1][j - 1] + 1,
-                          lMatrix[0][j - 1] + 1));
-        }
+        if (mChar == nParam.charAt(prefix + j - 1))
+          workingLine[j] = previousLine[j - 1];
+        else
+          workingLine[j] = Math.min(previousLine[j], Math.min(workingLine[j - 1], previousLine[j - 1])) + 1;
       }
+
+      //  Rotate our two-line buffer so the working line becomes the previous line for the next pass...
+      int[] tmpLine = previousLine;
+      previousLine = workingLine;
+      workingLine = tmpLine;
     }
 
     //  The corner cell of the matrix should contain the results of our hard work:
-    return lMatrix[1][n];
+    return previousLine[n];
+  }
+
+  /**
+   * scanLine() for callers that only care whether the distance is within maxDistance: it gives up and returns
+   * maxDistance + 1 as soon as every cell of a line exceeds maxDistance, since the distance can only grow from there.
+   * Each line must be at least nParam.length() + 1 long, or null to have it allocated.
+   *
+   * @param mParam
+   * @param nParam
+   * @param maxDistance
+   * @param previousLine
+   * @param workingLine
+   * @return levenshtein distance, or maxDistance + 1 if it is greater than maxDistance
+   */
+  public static int boundedScanLine(String mParam, String nParam, int maxDistance, int[] previousLine,
+                                    int[] workingLine) {
+    int m = mParam.length();
+    int n = nParam.length();
+    if (Math.abs(m - n) > maxDistance)
+      return maxDistance + 1;
+
+    int prefix = 0;
+    while (prefix < m && prefix < n && mParam.charAt(prefix) == nParam.charAt(prefix))
+      prefix++;
+    while (m > prefix && n > prefix && mParam.charAt(m - 1) == nParam.charAt(n - 1)) {
+      m--;
+      n--;
+    }
+    m -= prefix;
+    n -= prefix;
+
+    if (m == 0 || n == 0)
+      return Math.min(m + n, maxDistance + 1);
+
+    if (previousLine == null)
+      previousLine = new int[n + 1];
+    if (workingLine == null)
+      workingLine = new int[n + 1];
+
+    for (int j = 0; j <= n; j++)
+      previousLine[j] = j;
+
+    for (int i = 1; i <= m; i++) {
+      workingLine[0] = i;
+      int lineMinimum = i;
+      char mChar = mParam.charAt(prefix + i - 1);
+
+      for (int j = 1; j <= n; j++) {
+        if (mChar == nParam.charAt(prefix + j - 1))
+          workingLine[j] = previousLine[j - 1];
+        else
+          workingLine[j] = Math.min(previousLine[j], Math.min(workingLine[j - 1], previousLine[j - 1])) + 1;
+        lineMinimum = Math.min(lineMinimum, workingLine[j]);
+      }
+
+      if (lineMinimum > maxDistance)
+        return maxDistance + 1;
+
+      int[] tmpLine = previousLine;
+      previousLine = workingLine;
+      workingLine = tmpLine;
+    }
+
+    return Math.min(previousLine[n], maxDistance + 1);
   }
 }